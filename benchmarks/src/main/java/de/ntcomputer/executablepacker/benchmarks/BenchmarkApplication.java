@@ -0,0 +1,18 @@
+package de.ntcomputer.executablepacker.benchmarks;
+
+/**
+ * Main class of the generated benchmark application. It loads the classes given as arguments and exits.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class BenchmarkApplication {
+
+	public static void main(String[] args) throws ClassNotFoundException {
+		for(String className: args) {
+			Class.forName(className);
+		}
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,125 @@
+package de.ntcomputer.executablepacker.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+
+import de.ntcomputer.executablepacker.runtime.ClassPathElement;
+import de.ntcomputer.executablepacker.runtime.EntryNameFilter;
+import de.ntcomputer.executablepacker.runtime.ExecutableLauncher;
+import de.ntcomputer.executablepacker.runtime.JarFileClassPathElement;
+import de.ntcomputer.executablepacker.runtime.JarInJarClassLoader;
+import de.ntcomputer.executablepacker.runtime.JarInJarIndex;
+import de.ntcomputer.executablepacker.runtime.JarInJarURLStreamHandlerFactory;
+import de.ntcomputer.executablepacker.runtime.MappedClassPathElement;
+import de.ntcomputer.executablepacker.runtime.MappedZipFile;
+
+/**
+ * Creates the classloaders compared by the in-process benchmarks, set up the same way as the launcher sets them up.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class BenchmarkClassLoaders {
+	/** Jar-in-jar-classloader reading nested JARs through URLs, using the index */
+	public static final String LAYOUT_PACKED_URL = "packed-url";
+	/** Jar-in-jar-classloader reading nested JARs from the memory-mapped outer JAR, using the index */
+	public static final String LAYOUT_PACKED_MAPPED = "packed-mapped";
+	/** Jar-in-jar-classloader reading nested JARs through URLs, using the index and the entry name filter */
+	public static final String LAYOUT_PACKED_FILTERED = "packed-filtered";
+	/** Jar-in-jar-classloader reading nested JARs through URLs, without index */
+	public static final String LAYOUT_PACKED_UNINDEXED = "packed-unindexed";
+	/** Plain URLClassLoader over the application JAR and the dependency JARs, as baseline */
+	public static final String LAYOUT_FLAT = "flat";
+
+	private static File registeredPackedJar;
+
+	private BenchmarkClassLoaders() {
+	}
+
+	/**
+	 * Creates a classloader for the benchmark application.
+	 *
+	 * @param jars the benchmark application
+	 * @param layout one of the LAYOUT constants
+	 * @return the classloader, which must be closed after use
+	 * @throws IOException if creating the classloader fails
+	 */
+	public static URLClassLoader create(BenchmarkJars jars, String layout) throws IOException {
+		if(LAYOUT_FLAT.equals(layout)) {
+			List<File> classPath = jars.getFlatClassPath();
+			URL[] urls = new URL[classPath.size()];
+			for(int i=0; i<urls.length; i++) {
+				urls[i] = classPath.get(i).toURI().toURL();
+			}
+			return new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+		}
+
+		URL packedJarURL = jars.getPackedJar().toURI().toURL();
+		registerURLStreamHandlerFactory(jars.getPackedJar());
+		List<ClassPathElement> elements = new ArrayList<ClassPathElement>();
+		ClassPathElement rootElement = JarFileClassPathElement.createRoot(packedJarURL);
+		elements.add(rootElement);
+		MappedZipFile mappedPackedJar = LAYOUT_PACKED_MAPPED.equals(layout)? MappedZipFile.map(jars.getPackedJar()) : null;
+		for(int i=0; i<jars.getDependencyCount(); i++) {
+			String dependencyJarName = jars.getFlatClassPath().get(i + 1).getName();
+			if(mappedPackedJar!=null) {
+				elements.add(new MappedClassPathElement(mappedPackedJar, BenchmarkJars.LIB_PATH, dependencyJarName));
+			} else {
+				elements.add(JarFileClassPathElement.createNested(BenchmarkJars.LIB_PATH, dependencyJarName));
+			}
+		}
+
+		JarInJarIndex index = null;
+		if(!LAYOUT_PACKED_UNINDEXED.equals(layout)) {
+			JarEntry indexEntry = rootElement.getEntry(JarInJarIndex.INDEX_NAME);
+			InputStream indexStream = rootElement.getInputStream(indexEntry);
+			try {
+				index = JarInJarIndex.read(indexStream);
+			} finally {
+				indexStream.close();
+			}
+		}
+		EntryNameFilter filter = null;
+		if(LAYOUT_PACKED_FILTERED.equals(layout)) {
+			JarEntry filterEntry = rootElement.getEntry(EntryNameFilter.FILTER_NAME);
+			InputStream filterStream = rootElement.getInputStream(filterEntry);
+			try {
+				filter = EntryNameFilter.read(filterStream);
+			} finally {
+				filterStream.close();
+			}
+		}
+		return new JarInJarClassLoader(elements, index, filter, ClassLoader.getSystemClassLoader().getParent());
+	}
+
+	/**
+	 * The URL stream handler factory can only be set once per JVM. JMH runs each benchmark configuration in its own fork, so it always refers to the same packed JAR.
+	 */
+	private static synchronized void registerURLStreamHandlerFactory(File packedJar) throws IOException {
+		if(registeredPackedJar==null) {
+			URLClassLoader outerJarClassLoader = new URLClassLoader(new URL[] { packedJar.toURI().toURL() }, null);
+			URL.setURLStreamHandlerFactory(new JarInJarURLStreamHandlerFactory(outerJarClassLoader));
+			registeredPackedJar = packedJar;
+		} else if(!registeredPackedJar.equals(packedJar)) {
+			throw new IllegalStateException("Only one packed JAR can be used per JVM, run each configuration in its own fork");
+		}
+	}
+
+	/**
+	 * @param layout one of the LAYOUT constants, or one of the launcher's dependency access modes prefixed with "packed-"
+	 * @return the launcher's dependency access mode for a packed layout, or null for the flat layout
+	 */
+	public static String getDependencyAccess(String layout) {
+		if(LAYOUT_FLAT.equals(layout)) {
+			return null;
+		}
+		return layout.equals(LAYOUT_PACKED_UNINDEXED) || layout.equals(LAYOUT_PACKED_FILTERED)? ExecutableLauncher.DEPENDENCY_ACCESS_URL : layout.substring("packed-".length());
+	}
+
+}
@@ -0,0 +1,330 @@
+package de.ntcomputer.executablepacker.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import de.ntcomputer.executablepacker.runtime.DependencyCache;
+import de.ntcomputer.executablepacker.runtime.ExecutableLauncher;
+import de.ntcomputer.executablepacker.runtime.EntryNameFilter;
+import de.ntcomputer.executablepacker.runtime.JarInJarIndex;
+import de.ntcomputer.executablepacker.runtime.LaunchDescriptor;
+
+/**
+ * Generates a synthetic application consisting of a configurable number of dependency JARs, packed in the same layout as the pack-executable-jar goal creates it.
+ * Additionally, a flat classpath of the same application (application JAR plus dependency JARs) is provided as baseline.
+ * <p>
+ * Dependency JAR <tt>i</tt> contains the classes <tt>bench.dep(i).C(j)</tt>, the resource <tt>bench/dep(i)/resource.txt</tt> and the resource <tt>META-INF/bench.txt</tt>,
+ * which is contained in every dependency JAR. Generated files are reused by all benchmark forks with the same configuration.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class BenchmarkJars {
+	public static final String LIB_PATH = "lib/";
+	public static final String SHARED_RESOURCE_NAME = "META-INF/bench.txt";
+	/** Version of the generated files, increased whenever their layout changes, so outdated generated files are not reused */
+	private static final int LAYOUT_VERSION = 3;
+	private static final String LAUNCHER_PACKAGE_PATH = ExecutableLauncher.class.getPackage().getName().replace('.', '/') + "/";
+
+	private final File directory;
+	private final int dependencyCount;
+	private final int classesPerDependency;
+
+	private BenchmarkJars(File directory, int dependencyCount, int classesPerDependency) {
+		this.directory = directory;
+		this.dependencyCount = dependencyCount;
+		this.classesPerDependency = classesPerDependency;
+	}
+
+	/**
+	 * Returns the benchmark application of the given configuration, generating it if it does not exist yet.
+	 *
+	 * @param dependencyCount the number of dependency JARs
+	 * @param classesPerDependency the number of classes in each dependency JAR
+	 * @param classSize the approximate size of each class file in bytes
+	 * @return the generated application
+	 * @throws IOException if generating fails
+	 */
+	public static synchronized BenchmarkJars get(int dependencyCount, int classesPerDependency, int classSize) throws IOException {
+		File directory = new File(System.getProperty("java.io.tmpdir"), "executable-packer-benchmarks/v" + LAYOUT_VERSION + "-d" + dependencyCount + "-c" + classesPerDependency + "-s" + classSize);
+		BenchmarkJars result = new BenchmarkJars(directory, dependencyCount, classesPerDependency);
+		if(!result.getPackedJar().isFile()) {
+			result.generate(classSize);
+		}
+		return result;
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * @return the executable JAR, containing the launcher and all dependency JARs
+	 */
+	public File getPackedJar() {
+		return new File(this.directory, "packed.jar");
+	}
+
+	/**
+	 * @return the application JAR followed by all dependency JARs
+	 */
+	public List<File> getFlatClassPath() {
+		List<File> result = new ArrayList<File>();
+		result.add(new File(this.directory, "app.jar"));
+		for(int i=0; i<this.dependencyCount; i++) {
+			result.add(this.getDependencyJar(i));
+		}
+		return result;
+	}
+
+	private File getDependencyJar(int dependency) {
+		return new File(this.directory, LIB_PATH + getDependencyJarName(dependency));
+	}
+
+	private static String getDependencyJarName(int dependency) {
+		return "dep" + dependency + ".jar";
+	}
+
+	public int getDependencyCount() {
+		return this.dependencyCount;
+	}
+
+	/**
+	 * @return the names of all classes of all dependency JARs
+	 */
+	public List<String> getClassNames() {
+		List<String> result = new ArrayList<String>();
+		for(int i=0; i<this.dependencyCount; i++) {
+			for(int j=0; j<this.classesPerDependency; j++) {
+				result.add(getClassName(i, j));
+			}
+		}
+		return result;
+	}
+
+	public static String getClassName(int dependency, int classNumber) {
+		return "bench.dep" + dependency + ".C" + classNumber;
+	}
+
+	public static String getResourceName(int dependency) {
+		return "bench/dep" + dependency + "/resource.txt";
+	}
+
+	private void generate(int classSize) throws IOException {
+		new File(this.directory, LIB_PATH).mkdirs();
+		Map<String, List<String>> elementEntryNames = new LinkedHashMap<String, List<String>>();
+		List<String> rootEntryNames = new ArrayList<String>();
+		elementEntryNames.put(JarInJarIndex.ROOT_ELEMENT_NAME, rootEntryNames);
+
+		// dependency JARs
+		StringBuilder dependencyJarNames = new StringBuilder();
+		for(int i=0; i<this.dependencyCount; i++) {
+			List<String> entryNames = new ArrayList<String>();
+			JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(this.getDependencyJar(i)), new Manifest());
+			try {
+				for(int j=0; j<this.classesPerDependency; j++) {
+					String className = getClassName(i, j);
+					addEntry(jarOutputStream, className.replace('.', '/') + ".class", generateClass(className, classSize), entryNames);
+				}
+				addEntry(jarOutputStream, getResourceName(i), ("resource of dependency " + i).getBytes(StandardCharsets.UTF_8), entryNames);
+				addEntry(jarOutputStream, SHARED_RESOURCE_NAME, ("dependency " + i).getBytes(StandardCharsets.UTF_8), entryNames);
+			} finally {
+				jarOutputStream.close();
+			}
+			entryNames.add(JarFile.MANIFEST_NAME);
+			elementEntryNames.put(getDependencyJarName(i), entryNames);
+			dependencyJarNames.append(i==0? "" : "/").append(getDependencyJarName(i));
+		}
+
+		// flat application JAR
+		String applicationClassPath = BenchmarkApplication.class.getName().replace('.', '/') + ".class";
+		byte[] applicationClass = readResource(applicationClassPath);
+		JarOutputStream appOutputStream = new JarOutputStream(new FileOutputStream(new File(this.directory, "app.jar")), new Manifest());
+		try {
+			addEntry(appOutputStream, applicationClassPath, applicationClass, null);
+		} finally {
+			appOutputStream.close();
+		}
+
+		// packed JAR, written to a temporary file first, so an interrupted generation is repeated
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.put(Attributes.Name.MAIN_CLASS, ExecutableLauncher.class.getName());
+		attributes.putValue(ExecutableLauncher.MANIFEST_APPLICATION_MAIN_CLASS, BenchmarkApplication.class.getName());
+		attributes.putValue(ExecutableLauncher.MANIFEST_DEPENDENCY_LIBPATH, LIB_PATH);
+		attributes.putValue(ExecutableLauncher.MANIFEST_DEPENDENCY_JARS, dependencyJarNames.toString());
+		attributes.putValue(ExecutableLauncher.MANIFEST_DEPENDENCY_ACCESS, ExecutableLauncher.DEPENDENCY_ACCESS_URL);
+		File temporaryPackedJar = new File(this.directory, "packed.jar.tmp");
+		JarOutputStream packedOutputStream = new JarOutputStream(new FileOutputStream(temporaryPackedJar), manifest);
+		try {
+			rootEntryNames.add(JarFile.MANIFEST_NAME);
+			addEntry(packedOutputStream, applicationClassPath, applicationClass, rootEntryNames);
+			for(Map.Entry<String, byte[]> launcherClass: readLauncherClasses().entrySet()) {
+				addEntry(packedOutputStream, launcherClass.getKey(), launcherClass.getValue(), rootEntryNames);
+			}
+
+			List<File> dependencyJars = this.getFlatClassPath().subList(1, this.dependencyCount + 1);
+			for(File dependencyJar: dependencyJars) {
+				addEntry(packedOutputStream, LIB_PATH + dependencyJar.getName(), readFile(dependencyJar), rootEntryNames);
+			}
+
+			ByteArrayOutputStream hashesOutputStream = new ByteArrayOutputStream();
+			DependencyCache.writeHashes(hashesOutputStream, dependencyJars);
+			addEntry(packedOutputStream, DependencyCache.HASHES_NAME, hashesOutputStream.toByteArray(), rootEntryNames);
+
+			ByteArrayOutputStream descriptorOutputStream = new ByteArrayOutputStream();
+			Map<String, DependencyCache.Dependency> dependencies = DependencyCache.readHashes(new ByteArrayInputStream(hashesOutputStream.toByteArray()), LIB_PATH);
+			LaunchDescriptor.write(descriptorOutputStream, attributes, dependencies.values());
+			addEntry(packedOutputStream, LaunchDescriptor.DESCRIPTOR_NAME, descriptorOutputStream.toByteArray(), rootEntryNames);
+
+			rootEntryNames.add(JarInJarIndex.INDEX_NAME);
+			rootEntryNames.add(EntryNameFilter.FILTER_NAME);
+			ByteArrayOutputStream indexOutputStream = new ByteArrayOutputStream();
+			JarInJarIndex.write(indexOutputStream, elementEntryNames);
+			addEntry(packedOutputStream, JarInJarIndex.INDEX_NAME, indexOutputStream.toByteArray(), null);
+			ByteArrayOutputStream filterOutputStream = new ByteArrayOutputStream();
+			EntryNameFilter.write(filterOutputStream, elementEntryNames);
+			addEntry(packedOutputStream, EntryNameFilter.FILTER_NAME, filterOutputStream.toByteArray(), null);
+		} finally {
+			packedOutputStream.close();
+		}
+		if(!temporaryPackedJar.renameTo(this.getPackedJar())) {
+			throw new IOException("Failed to rename '" + temporaryPackedJar + "'");
+		}
+	}
+
+	private static void addEntry(JarOutputStream jarOutputStream, String name, byte[] content, List<String> entryNames) throws IOException {
+		jarOutputStream.putNextEntry(new JarEntry(name));
+		jarOutputStream.write(content);
+		jarOutputStream.closeEntry();
+		if(entryNames!=null) {
+			entryNames.add(name);
+		}
+	}
+
+	/**
+	 * Generates a minimal class file without any members, padded to the given size with an unused constant.
+	 *
+	 * @param className the binary class name
+	 * @param classSize the approximate size of the class file in bytes
+	 * @return the class file
+	 * @throws IOException never
+	 */
+	static byte[] generateClass(String className, int classSize) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(classSize + 128);
+		DataOutputStream classFile = new DataOutputStream(outputStream);
+		classFile.writeInt(0xCAFEBABE);
+		classFile.writeShort(0); // minor version
+		classFile.writeShort(52); // major version (Java 8)
+		classFile.writeShort(6); // constant pool count
+		classFile.writeByte(1); // #1: UTF-8 class name
+		classFile.writeUTF(className.replace('.', '/'));
+		classFile.writeByte(7); // #2: class
+		classFile.writeShort(1);
+		classFile.writeByte(1); // #3: UTF-8 super class name
+		classFile.writeUTF("java/lang/Object");
+		classFile.writeByte(7); // #4: super class
+		classFile.writeShort(3);
+		classFile.writeByte(1); // #5: padding
+		StringBuilder padding = new StringBuilder();
+		for(int i=outputStream.size() + 2 + 16; i<classSize && padding.length() < 65535; i++) {
+			padding.append((char) ('a' + (i * 7) % 26));
+		}
+		classFile.writeUTF(padding.toString());
+		classFile.writeShort(0x0021); // public, super
+		classFile.writeShort(2); // this class
+		classFile.writeShort(4); // super class
+		classFile.writeShort(0); // interfaces
+		classFile.writeShort(0); // fields
+		classFile.writeShort(0); // methods
+		classFile.writeShort(0); // attributes
+		classFile.flush();
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * Reads all launcher runtime classes from the plugin JAR (or classes directory) on the classpath.
+	 */
+	private static Map<String, byte[]> readLauncherClasses() throws IOException {
+		Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+		File location;
+		try {
+			location = new File(ExecutableLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch(URISyntaxException e) {
+			throw new IOException(e);
+		}
+		if(location.isDirectory()) {
+			File[] classFiles = new File(location, LAUNCHER_PACKAGE_PATH).listFiles();
+			if(classFiles!=null) {
+				for(File classFile: classFiles) {
+					result.put(LAUNCHER_PACKAGE_PATH + classFile.getName(), readFile(classFile));
+				}
+			}
+		} else {
+			JarFile pluginJar = new JarFile(location);
+			try {
+				Enumeration<JarEntry> entries = pluginJar.entries();
+				while(entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+					if(entry.getName().startsWith(LAUNCHER_PACKAGE_PATH) && entry.getName().endsWith(".class")) {
+						InputStream inputStream = pluginJar.getInputStream(entry);
+						try {
+							result.put(entry.getName(), readFully(inputStream));
+						} finally {
+							inputStream.close();
+						}
+					}
+				}
+			} finally {
+				pluginJar.close();
+			}
+		}
+		return result;
+	}
+
+	private static byte[] readResource(String name) throws IOException {
+		InputStream inputStream = BenchmarkJars.class.getClassLoader().getResourceAsStream(name);
+		if(inputStream==null) {
+			throw new IOException("Resource '" + name + "' not found");
+		}
+		try {
+			return readFully(inputStream);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		return Files.readAllBytes(file.toPath());
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while((count = inputStream.read(buffer))!=-1) {
+			outputStream.write(buffer, 0, count);
+		}
+		return outputStream.toByteArray();
+	}
+
+}
@@ -0,0 +1,104 @@
+package de.ntcomputer.executablepacker.benchmarks;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to load all classes of all dependency JARs with a fresh classloader, on one or multiple threads.
+ * Each invocation uses a new classloader, so it includes opening the nested JARs.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ClassLoadingBenchmark {
+
+	@Param({ BenchmarkClassLoaders.LAYOUT_FLAT, BenchmarkClassLoaders.LAYOUT_PACKED_URL, BenchmarkClassLoaders.LAYOUT_PACKED_MAPPED, BenchmarkClassLoaders.LAYOUT_PACKED_UNINDEXED, BenchmarkClassLoaders.LAYOUT_PACKED_FILTERED })
+	public String layout;
+
+	@Param({ "20" })
+	public int dependencyCount;
+
+	@Param({ "200" })
+	public int classesPerDependency;
+
+	@Param({ "2048" })
+	public int classSize;
+
+	/** Number of threads loading the classes concurrently, each taking every n-th class */
+	@Param({ "1", "8" })
+	public int threads;
+
+	private BenchmarkJars jars;
+	private List<String> classNames;
+	private ExecutorService executor;
+	private URLClassLoader classLoader;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws IOException {
+		this.jars = BenchmarkJars.get(this.dependencyCount, this.classesPerDependency, this.classSize);
+		this.classNames = this.jars.getClassNames();
+		this.executor = Executors.newFixedThreadPool(this.threads);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() throws IOException {
+		this.classLoader = BenchmarkClassLoaders.create(this.jars, this.layout);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation() throws IOException {
+		this.classLoader.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		this.executor.shutdownNow();
+	}
+
+	@Benchmark
+	public int loadAllClasses() throws Exception {
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>(this.threads);
+		for(int i=0; i<this.threads; i++) {
+			final int offset = i;
+			results.add(this.executor.submit(() -> {
+				int hashSum = 0;
+				for(int j=offset; j<this.classNames.size(); j+=this.threads) {
+					hashSum += Class.forName(this.classNames.get(j), false, this.classLoader).hashCode();
+				}
+				return hashSum;
+			}));
+		}
+		int result = 0;
+		for(Future<Integer> threadResult: results) {
+			result += threadResult.get();
+		}
+		return result;
+	}
+
+}
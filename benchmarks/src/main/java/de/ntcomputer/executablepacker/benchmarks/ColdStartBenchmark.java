@@ -0,0 +1,100 @@
+package de.ntcomputer.executablepacker.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.ntcomputer.executablepacker.runtime.ExecutableLauncher;
+
+/**
+ * Measures the cold start of the benchmark application in a new JVM, until its main method exits the JVM.
+ * The application optionally loads one class of each dependency JAR first, so all nested JARs are opened.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ColdStartBenchmark {
+
+	@Param({ BenchmarkClassLoaders.LAYOUT_FLAT, BenchmarkClassLoaders.LAYOUT_PACKED_URL, BenchmarkClassLoaders.LAYOUT_PACKED_MAPPED, "packed-" + ExecutableLauncher.DEPENDENCY_ACCESS_EXTRACT })
+	public String layout;
+
+	@Param({ "20" })
+	public int dependencyCount;
+
+	@Param({ "200" })
+	public int classesPerDependency;
+
+	@Param({ "2048" })
+	public int classSize;
+
+	/** Whether the application loads one class of each dependency JAR before exiting */
+	@Param({ "true" })
+	public boolean touchDependencies;
+
+	private List<String> command;
+	private File logFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BenchmarkJars jars = BenchmarkJars.get(this.dependencyCount, this.classesPerDependency, this.classSize);
+		this.command = new ArrayList<String>();
+		this.command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		String dependencyAccess = BenchmarkClassLoaders.getDependencyAccess(this.layout);
+		if(dependencyAccess==null) {
+			StringBuilder classPath = new StringBuilder();
+			for(File classPathEntry: jars.getFlatClassPath()) {
+				classPath.append(classPath.length()==0? "" : File.pathSeparator).append(classPathEntry.getPath());
+			}
+			this.command.add("-cp");
+			this.command.add(classPath.toString());
+			this.command.add(BenchmarkApplication.class.getName());
+		} else {
+			this.command.add("-D" + ExecutableLauncher.PROPERTY_DEPENDENCY_ACCESS + "=" + dependencyAccess);
+			this.command.add("-D" + ExecutableLauncher.PROPERTY_DEPENDENCY_CACHE_DIRECTORY + "=" + new File(jars.getDirectory(), "cache").getPath());
+			this.command.add("-jar");
+			this.command.add(jars.getPackedJar().getPath());
+		}
+		if(this.touchDependencies) {
+			for(int i=0; i<this.dependencyCount; i++) {
+				this.command.add(BenchmarkJars.getClassName(i, 0));
+			}
+		}
+		this.logFile = new File(jars.getDirectory(), "cold-start.log");
+	}
+
+	@Benchmark
+	public int coldStart() throws IOException, InterruptedException {
+		ProcessBuilder processBuilder = new ProcessBuilder(this.command);
+		processBuilder.redirectErrorStream(true);
+		processBuilder.redirectOutput(Redirect.appendTo(this.logFile));
+		Process process = processBuilder.start();
+		int exitCode = process.waitFor();
+		if(exitCode!=0) {
+			throw new IllegalStateException("Benchmark application failed with exit code " + exitCode + " (see '" + this.logFile + "')");
+		}
+		return exitCode;
+	}
+
+}
@@ -0,0 +1,97 @@
+package de.ntcomputer.executablepacker.benchmarks;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the latency of resource lookups of an already opened classloader, for hits and misses.
+ * The single resource hit is located in the last dependency JAR, which is the worst case for a sequential search.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ResourceLookupBenchmark {
+
+	@Param({ BenchmarkClassLoaders.LAYOUT_FLAT, BenchmarkClassLoaders.LAYOUT_PACKED_URL, BenchmarkClassLoaders.LAYOUT_PACKED_MAPPED, BenchmarkClassLoaders.LAYOUT_PACKED_UNINDEXED, BenchmarkClassLoaders.LAYOUT_PACKED_FILTERED })
+	public String layout;
+
+	@Param({ "20" })
+	public int dependencyCount;
+
+	@Param({ "200" })
+	public int classesPerDependency;
+
+	@Param({ "2048" })
+	public int classSize;
+
+	private URLClassLoader classLoader;
+	private String lastResourceName;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BenchmarkJars jars = BenchmarkJars.get(this.dependencyCount, this.classesPerDependency, this.classSize);
+		this.classLoader = BenchmarkClassLoaders.create(jars, this.layout);
+		this.lastResourceName = BenchmarkJars.getResourceName(this.dependencyCount - 1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		this.classLoader.close();
+	}
+
+	@Benchmark
+	public URL getResourceHit() {
+		return this.classLoader.getResource(this.lastResourceName);
+	}
+
+	@Benchmark
+	public URL getResourceMiss() {
+		return this.classLoader.getResource("bench/missing/resource.txt");
+	}
+
+	@Benchmark
+	public URL getResourceMissInExistingPackage() {
+		return this.classLoader.getResource("bench/dep0/missing.txt");
+	}
+
+	@Benchmark
+	public void getResourcesHit(Blackhole blackhole) throws IOException {
+		Enumeration<URL> resources = this.classLoader.getResources(BenchmarkJars.SHARED_RESOURCE_NAME);
+		while(resources.hasMoreElements()) {
+			blackhole.consume(resources.nextElement());
+		}
+	}
+
+	@Benchmark
+	public void getResourcesMiss(Blackhole blackhole) throws IOException {
+		Enumeration<URL> resources = this.classLoader.getResources("META-INF/missing.txt");
+		while(resources.hasMoreElements()) {
+			blackhole.consume(resources.nextElement());
+		}
+	}
+
+}
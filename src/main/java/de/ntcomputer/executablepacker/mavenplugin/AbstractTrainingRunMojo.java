@@ -0,0 +1,163 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import de.ntcomputer.executablepacker.runtime.TrainingRun;
+
+/**
+ * Base class of goals which run an executable JAR file built by the pack-executable-jar goal in order to observe the application's startup.
+ *
+ * @author Nikolaus Thuemmel
+ */
+public abstract class AbstractTrainingRunMojo extends AbstractMojo {
+
+	/**
+	 * Directory containing the executable JAR file.
+	 */
+	@Parameter(defaultValue = "${project.build.directory}", required = true)
+	protected File outputDirectory;
+
+	/**
+	 * Classifier of the executable JAR file, as configured for the pack-executable-jar goal.
+	 */
+	@Parameter(defaultValue = "pkg", required = true)
+	protected String classifier;
+
+	/**
+	 * Name of the executable JAR file (the classifier and .jar extension will be added to it, though).
+	 */
+	@Parameter(defaultValue = "${project.build.finalName}", required = true, readonly = true)
+	protected String finalName;
+
+	/**
+	 * The java executable used for the training run. It must be the same JVM that later runs the executable JAR.
+	 */
+	@Parameter(defaultValue = "${java.home}/bin/java", required = true)
+	protected File javaExecutable;
+
+	/**
+	 * Additional arguments passed to the JVM, e.g. system properties, for all runs of the application.
+	 */
+	@Parameter
+	protected List<String> jvmArguments;
+
+	/**
+	 * Arguments passed to the application's main method for all runs of the application.
+	 * They should make the application exercise its typical startup code and exit afterwards.
+	 */
+	@Parameter
+	protected List<String> trainingArguments;
+
+	/**
+	 * Number of milliseconds after which the application is terminated during the training run, for applications that do not exit on their own.
+	 * If 0, the training run ends once the application exits.
+	 */
+	@Parameter(defaultValue = "0")
+	protected long trainingDuration;
+
+	/**
+	 * Maximum number of seconds a single run of the application may take before it is aborted and the build fails.
+	 */
+	@Parameter(defaultValue = "600")
+	protected int timeout;
+
+	/**
+	 * @return the executable JAR file
+	 * @throws MojoFailureException if the executable JAR file does not exist
+	 */
+	protected File getJarFile() throws MojoFailureException {
+		File jarFile = new File(outputDirectory, finalName + "-" + classifier + ".jar");
+		if(!jarFile.isFile()) {
+			throw new MojoFailureException("Executable JAR file '" + jarFile.getAbsolutePath() + "' does not exist. Run the pack-executable-jar goal first.");
+		}
+		return jarFile;
+	}
+
+	/**
+	 * Creates an empty log file in the plugin's work directory.
+	 *
+	 * @param name the file name
+	 * @return the log file
+	 */
+	protected File createLogFile(String name) {
+		File logFile = new File(outputDirectory, "executable-packer/" + classifier + "/" + name);
+		logFile.getParentFile().mkdirs();
+		logFile.delete();
+		return logFile;
+	}
+
+	/**
+	 * Runs the application as a training run. The exit code and the log are checked.
+	 *
+	 * @param jarFile the executable JAR file
+	 * @param runJvmArguments JVM arguments specific to this run
+	 * @param logFile the file the application's output is appended to
+	 * @throws MojoExecutionException if the training run fails
+	 */
+	protected void runTraining(File jarFile, List<String> runJvmArguments, File logFile) throws MojoExecutionException {
+		List<String> trainingJvmArguments = new ArrayList<String>(runJvmArguments);
+		trainingJvmArguments.add("-D" + TrainingRun.PROPERTY_TRAINING + "=true");
+		if(trainingDuration > 0) {
+			trainingJvmArguments.add("-D" + TrainingRun.PROPERTY_TRAINING_DURATION + "=" + trainingDuration);
+		}
+		int exitCode = run(jarFile, trainingJvmArguments, logFile);
+		if(exitCode!=0) {
+			throw new MojoExecutionException("Training run of '" + jarFile.getName() + "' failed with exit code " + exitCode + " (see '" + logFile.getAbsolutePath() + "')");
+		}
+	}
+
+	/**
+	 * Runs the executable JAR file by its absolute path, because class-data sharing archives reference the JAR file by the path given on the command line.
+	 * An archive created by a run can thus be used from any working directory.
+	 *
+	 * @param jarFile the executable JAR file
+	 * @param runJvmArguments JVM arguments specific to this run
+	 * @param logFile the file the application's output is appended to
+	 * @return the exit code
+	 * @throws MojoExecutionException if the application cannot be started or does not exit in time
+	 */
+	protected int run(File jarFile, List<String> runJvmArguments, File logFile) throws MojoExecutionException {
+		List<String> command = new ArrayList<String>();
+		command.add(javaExecutable.getPath());
+		command.addAll(runJvmArguments);
+		if(jvmArguments!=null) {
+			command.addAll(jvmArguments);
+		}
+		command.add("-jar");
+		command.add(jarFile.getAbsolutePath());
+		if(trainingArguments!=null) {
+			command.addAll(trainingArguments);
+		}
+		getLog().debug("Running " + command);
+
+		ProcessBuilder processBuilder = new ProcessBuilder(command);
+		processBuilder.directory(jarFile.getParentFile());
+		processBuilder.redirectErrorStream(true);
+		processBuilder.redirectOutput(Redirect.appendTo(logFile));
+		try {
+			Process process = processBuilder.start();
+			process.getOutputStream().close(); // the application does not receive any input
+			if(!process.waitFor(timeout, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				throw new MojoExecutionException("Run of '" + jarFile.getName() + "' did not finish within " + timeout + " seconds (see '" + logFile.getAbsolutePath() + "')");
+			}
+			return process.exitValue();
+		} catch(IOException e) {
+			throw new MojoExecutionException("Failed to run '" + jarFile.getName() + "' using '" + javaExecutable + "'", e);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while running '" + jarFile.getName() + "'", e);
+		}
+	}
+
+}
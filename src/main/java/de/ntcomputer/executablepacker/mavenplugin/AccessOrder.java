@@ -0,0 +1,257 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.maven.plugin.logging.Log;
+
+import de.ntcomputer.executablepacker.runtime.AccessTrace;
+import de.ntcomputer.executablepacker.runtime.JarInJarIndex;
+
+/**
+ * Lays out the entries of the executable JAR, and optionally the entries of dependency JARs, in the order of their first access during a training run (see {@link AccessTrace}).
+ * Startup then reads the JAR files mostly sequentially from their start, instead of seeking across them, which helps on cold starts from slow or network-backed storage
+ * and lets the operating system's read-ahead prefetch the entries required next.
+ * <p>
+ * The executable JAR starts with the entries read by the launcher itself, followed by the traced entries of its root and the dependency JARs at the position of their first access.
+ * All remaining entries follow in their original order. Dependency JARs are rewritten with the manifest first, followed by their traced entries and all remaining entries in their original order.
+ * The compressed content of all entries is copied as it is. Signed dependency JARs are left intact.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class AccessOrder {
+	private static final String META_INF_DIRECTORY_NAME = "META-INF/";
+	private static final Pattern SIGNATURE_FILE_PATTERN = Pattern.compile("^META-INF/[^/]+\\.(SF|RSA|DSA|EC)$");
+
+	private final AccessTrace trace;
+	private final Log log;
+
+	/**
+	 * @param trace the access trace recorded in a training run
+	 * @param log the log
+	 */
+	public AccessOrder(AccessTrace trace, Log log) {
+		this.trace = trace;
+		this.log = log;
+	}
+
+	/**
+	 * Orders the entries of the executable JAR.
+	 *
+	 * @param entries all entries, in their original order, with each entry preceded by its parent directories
+	 * @param startupEntryNames the names of the entries read by the launcher before the application starts, in read order. Missing entries are skipped.
+	 * @param libPath the directory containing the dependency JARs, with trailing slash
+	 * @return all entries, in access order, with each entry preceded by its parent directories
+	 */
+	public Map<String, PackedJarEntry> order(Map<String, PackedJarEntry> entries, List<String> startupEntryNames, String libPath) {
+		Map<String, PackedJarEntry> result = new LinkedHashMap<String, PackedJarEntry>();
+		for(String entryName: startupEntryNames) {
+			addEntry(entries, result, entryName);
+		}
+		int tracedEntryCount = 0;
+		for(AccessTrace.Access access: this.trace.getAccesses()) {
+			String entryName = JarInJarIndex.ROOT_ELEMENT_NAME.equals(access.getElementName())? access.getEntryName() : libPath + access.getElementName();
+			if(addEntry(entries, result, entryName)) {
+				tracedEntryCount++;
+			}
+		}
+		for(String entryName: entries.keySet()) {
+			addEntry(entries, result, entryName);
+		}
+		this.log.info("Ordered " + tracedEntryCount + " of " + entries.size() + " entries by the access trace");
+		return result;
+	}
+
+	/**
+	 * Adds an entry to the ordered entries, preceded by all its parent directories which were not added yet.
+	 *
+	 * @return true if the entry has been added, false if it does not exist or has been added already
+	 */
+	private static boolean addEntry(Map<String, PackedJarEntry> entries, Map<String, PackedJarEntry> orderedEntries, String entryName) {
+		PackedJarEntry entry = entries.get(entryName);
+		if(entry==null || orderedEntries.containsKey(entryName)) {
+			return false;
+		}
+		int separatorIndex = -1;
+		while((separatorIndex = entryName.indexOf('/', separatorIndex + 1))!=-1 && separatorIndex<entryName.length() - 1) {
+			String directoryName = entryName.substring(0, separatorIndex + 1);
+			if(!orderedEntries.containsKey(directoryName)) {
+				orderedEntries.put(directoryName, entries.get(directoryName));
+			}
+		}
+		orderedEntries.put(entryName, entry);
+		return true;
+	}
+
+	/**
+	 * Rewrites all dependency JAR files containing traced entries, with their entries in access order.
+	 *
+	 * @param dependencyJarFiles the dependency JAR files, in classpath order
+	 * @param orderedDirectory the directory to write the rewritten JAR files to
+	 * @return the dependency JAR files, in classpath order, with each rewritten JAR file replacing the original one
+	 * @throws IOException if reading a dependency or writing a rewritten JAR file fails
+	 */
+	public List<File> orderDependencies(List<File> dependencyJarFiles, File orderedDirectory) throws IOException {
+		Map<String, Set<String>> elementEntryNames = new LinkedHashMap<String, Set<String>>();
+		for(AccessTrace.Access access: this.trace.getAccesses()) {
+			Set<String> entryNames = elementEntryNames.get(access.getElementName());
+			if(entryNames==null) {
+				entryNames = new LinkedHashSet<String>();
+				elementEntryNames.put(access.getElementName(), entryNames);
+			}
+			entryNames.add(access.getEntryName());
+		}
+
+		List<File> result = new ArrayList<File>();
+		for(File dependencyJarFile: dependencyJarFiles) {
+			Set<String> tracedEntryNames = elementEntryNames.get(dependencyJarFile.getName());
+			File orderedJarFile = null;
+			if(tracedEntryNames!=null) {
+				orderedJarFile = this.orderDependency(dependencyJarFile, tracedEntryNames, new File(orderedDirectory, dependencyJarFile.getName()));
+			}
+			result.add(orderedJarFile!=null? orderedJarFile : dependencyJarFile);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the rewritten JAR file, or null if the JAR file is signed
+	 */
+	private File orderDependency(File dependencyJarFile, Set<String> tracedEntryNames, File orderedJarFile) throws IOException {
+		ZipFile dependencyJar = new ZipFile(dependencyJarFile);
+		try {
+			Map<String, ZipArchiveEntry> remainingEntries = new LinkedHashMap<String, ZipArchiveEntry>();
+			Enumeration<ZipArchiveEntry> entries = dependencyJar.getEntriesInPhysicalOrder();
+			while(entries.hasMoreElements()) {
+				ZipArchiveEntry entry = entries.nextElement();
+				if(SIGNATURE_FILE_PATTERN.matcher(entry.getName()).matches()) {
+					this.log.debug("Not ordering entries of signed dependency " + dependencyJarFile.getName());
+					return null;
+				}
+				if(!remainingEntries.containsKey(entry.getName())) {
+					remainingEntries.put(entry.getName(), entry);
+				}
+			}
+
+			// java.util.jar.JarInputStream only finds the manifest at the start of the JAR
+			List<ZipArchiveEntry> orderedEntries = new ArrayList<ZipArchiveEntry>(remainingEntries.size());
+			List<String> entryNames = new ArrayList<String>(remainingEntries.size());
+			entryNames.add(META_INF_DIRECTORY_NAME);
+			entryNames.add(JarFile.MANIFEST_NAME);
+			entryNames.addAll(tracedEntryNames);
+			for(String entryName: entryNames) {
+				ZipArchiveEntry entry = remainingEntries.remove(entryName);
+				if(entry!=null) {
+					orderedEntries.add(entry);
+				}
+			}
+			orderedEntries.addAll(remainingEntries.values());
+			this.log.debug("Ordering entries of dependency " + dependencyJarFile.getName() + " by the access trace");
+			return writeJar(dependencyJar, orderedEntries, orderedJarFile);
+		} finally {
+			dependencyJar.close();
+		}
+	}
+
+	/**
+	 * Copies the given entries of a JAR file in the given order, with their compressed bytes as they are.
+	 * The target JAR file is only rewritten if its content changed, so its modification time stays the same on the next build.
+	 *
+	 * @param sourceJar the JAR file to copy from
+	 * @param entries the entries to copy, in order
+	 * @param targetJarFile the JAR file to write
+	 * @return the target JAR file
+	 * @throws IOException if reading or writing fails
+	 */
+	public static File writeJar(ZipFile sourceJar, Collection<ZipArchiveEntry> entries, File targetJarFile) throws IOException {
+		// write to a file rather than a stream, so the entries' sizes can be written before their content without data descriptors
+		targetJarFile.getParentFile().mkdirs();
+		File temporaryFile = new File(targetJarFile.getParentFile(), targetJarFile.getName() + ".tmp");
+		ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(temporaryFile);
+		try {
+			for(ZipArchiveEntry entry: entries) {
+				InputStream rawInputStream = sourceJar.getRawInputStream(entry);
+				try {
+					outputStream.addRawArchiveEntry(entry, rawInputStream);
+				} finally {
+					rawInputStream.close();
+				}
+			}
+		} finally {
+			outputStream.close();
+		}
+
+		if(targetJarFile.isFile() && contentEquals(targetJarFile, temporaryFile)) {
+			Files.delete(temporaryFile.toPath());
+		} else {
+			Files.move(temporaryFile.toPath(), targetJarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return targetJarFile;
+	}
+
+	/**
+	 * Compares the content of two files, without reading them completely into memory.
+	 *
+	 * @return true if both files have the same content
+	 */
+	private static boolean contentEquals(File file, File otherFile) throws IOException {
+		if(file.length()!=otherFile.length()) {
+			return false;
+		}
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			InputStream otherInputStream = new FileInputStream(otherFile);
+			try {
+				byte[] buffer = new byte[65536];
+				byte[] otherBuffer = new byte[buffer.length];
+				int length;
+				while((length = readFully(inputStream, buffer)) > 0) {
+					if(readFully(otherInputStream, otherBuffer)!=length) {
+						return false;
+					}
+					for(int i = 0; i<length; i++) {
+						if(buffer[i]!=otherBuffer[i]) {
+							return false;
+						}
+					}
+				}
+				return readFully(otherInputStream, otherBuffer)==0;
+			} finally {
+				otherInputStream.close();
+			}
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * @return the number of bytes read into the buffer, which is less than its length only at the end of the stream
+	 */
+	private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+		int result = 0;
+		int read;
+		while(result < buffer.length && (read = inputStream.read(buffer, result, buffer.length - result)) >= 0) {
+			result += read;
+		}
+		return result;
+	}
+
+}
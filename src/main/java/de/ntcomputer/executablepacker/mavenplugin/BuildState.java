@@ -0,0 +1,210 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The state of the last successful build of an executable JAR file: the content hash, compression method and level and time of every entry,
+ * and the size and modification time of the written JAR file itself.
+ * It is stored as a text file next to the other generated files, one line per entry, in the order of the JAR file's entries.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class BuildState {
+	private static final String OUTPUT_PREFIX = "output ";
+	private static final String DIRECTORY_HASH = "-";
+	private static final String METHOD_DEFLATED = "D";
+	private static final String METHOD_STORED = "S";
+
+	private final Map<String, Entry> entries;
+	private long outputSize;
+	private long outputLastModified;
+
+	private BuildState(Map<String, Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * Creates the state of the given entries. The hashes of all file entries must be computed already.
+	 *
+	 * @param packedEntries the entries, in JAR file order
+	 * @param compressionLevel the deflate level of compressed entries
+	 * @return the build state
+	 */
+	public static BuildState create(Collection<PackedJarEntry> packedEntries, int compressionLevel) {
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		for(PackedJarEntry packedEntry: packedEntries) {
+			String hash = packedEntry.isDirectory()? DIRECTORY_HASH : packedEntry.getHash();
+			entries.put(packedEntry.getName(), new Entry(hash, getMethod(packedEntry.isCompressed(), compressionLevel), packedEntry.getTime(), packedEntry.getSourceSize(), packedEntry.getSourceLastModified()));
+		}
+		return new BuildState(entries);
+	}
+
+	/**
+	 * @param file the state file
+	 * @return the state read from the file, or null if it does not exist or cannot be parsed
+	 */
+	public static BuildState read(File file) {
+		if(!file.isFile()) {
+			return null;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+			try {
+				String outputLine = reader.readLine();
+				if(outputLine==null || !outputLine.startsWith(OUTPUT_PREFIX)) {
+					return null;
+				}
+				String[] outputFields = outputLine.substring(OUTPUT_PREFIX.length()).split(" ");
+				BuildState state = new BuildState(new LinkedHashMap<String, Entry>());
+				state.outputSize = Long.parseLong(outputFields[0]);
+				state.outputLastModified = Long.parseLong(outputFields[1]);
+
+				String line;
+				while((line = reader.readLine())!=null) {
+					String[] fields = line.split(" ", 6);
+					if(fields.length!=6) {
+						return null;
+					}
+					state.entries.put(fields[5], new Entry(fields[0], fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+				}
+				return state;
+			} finally {
+				reader.close();
+			}
+		} catch(IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param file the state file to write to
+	 * @throws IOException if writing fails
+	 */
+	public void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			writer.write(OUTPUT_PREFIX + outputSize + " " + outputLastModified + "\n");
+			for(Map.Entry<String, Entry> entry: entries.entrySet()) {
+				Entry state = entry.getValue();
+				writer.write(state.hash + " " + state.method + " " + state.time + " " + state.sourceSize + " " + state.sourceLastModified + " " + entry.getKey() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Reuses the hash of an unchanged source from this state, so the source does not have to be read again.
+	 * A source is considered unchanged if its size and modification time are the same.
+	 *
+	 * @param packedEntry the entry to set the hash of
+	 * @return true if the hash was reused
+	 */
+	public boolean reuseHash(PackedJarEntry packedEntry) {
+		Entry entry = entries.get(packedEntry.getName());
+		if(entry!=null && !DIRECTORY_HASH.equals(entry.hash) && entry.sourceSize==packedEntry.getSourceSize() && entry.sourceLastModified==packedEntry.getSourceLastModified()) {
+			packedEntry.setHash(entry.hash);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param name the entry name
+	 * @param hash the content hash
+	 * @param compressed whether the entry is deflated
+	 * @param compressionLevel the deflate level of compressed entries
+	 * @return true if the entry was written with the same content and compression before, so its compressed bytes can be copied as they are
+	 */
+	public boolean isUnchanged(String name, String hash, boolean compressed, int compressionLevel) {
+		Entry entry = entries.get(name);
+		return entry!=null && entry.hash.equals(hash) && entry.method.equals(getMethod(compressed, compressionLevel));
+	}
+	
+	private static String getMethod(boolean compressed, int compressionLevel) {
+		return compressed? METHOD_DEFLATED + compressionLevel : METHOD_STORED;
+	}
+
+	/**
+	 * @param file the JAR file written by the last build
+	 * @return true if the JAR file still exists as written by the last build
+	 */
+	public boolean isOutputUnchanged(File file) {
+		return file.isFile() && file.length()==outputSize && file.lastModified()==outputLastModified;
+	}
+
+	/**
+	 * @param file the JAR file written with this state
+	 */
+	public void setOutput(File file) {
+		this.outputSize = file.length();
+		this.outputLastModified = file.lastModified();
+	}
+
+	/**
+	 * @param other another state
+	 * @return true if both states describe the same entries with the same content and compression in the same order
+	 */
+	public boolean hasSameEntries(BuildState other) {
+		if(entries.size()!=other.entries.size()) {
+			return false;
+		}
+		Iterator<Map.Entry<String, Entry>> otherEntries = other.entries.entrySet().iterator();
+		for(Map.Entry<String, Entry> entry: entries.entrySet()) {
+			Map.Entry<String, Entry> otherEntry = otherEntries.next();
+			if(!entry.getKey().equals(otherEntry.getKey()) || !entry.getValue().equals(otherEntry.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class Entry {
+		private final String hash;
+		private final String method;
+		private final long time;
+		private final long sourceSize;
+		private final long sourceLastModified;
+
+		private Entry(String hash, String method, long time, long sourceSize, long sourceLastModified) {
+			this.hash = hash;
+			this.method = method;
+			this.time = time;
+			this.sourceSize = sourceSize;
+			this.sourceLastModified = sourceLastModified;
+		}
+
+		/**
+		 * Only the content and its compression are compared. A source which has merely been touched by a rebuild keeps the JAR file up to date,
+		 * with the entry's time of the build which wrote it.
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Entry)) {
+				return false;
+			}
+			Entry other = (Entry) obj;
+			return hash.equals(other.hash) && method.equals(other.method);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash.hashCode();
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the names of all classes a class file refers to from its constant pool.
+ * Every class used by the bytecode, in field and method descriptors, in generic signatures or in annotations appears in the constant pool,
+ * either as class constant or within a descriptor. String constants which look like class names are included too,
+ * since they are usually passed to <tt>Class.forName</tt>.
+ * The result is conservative: it may contain names which are no classes at all.
+ * Names may contain any Java identifier characters, not only ASCII ones.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class ClassFileReferences {
+	private static final int MAGIC = 0xCAFEBABE;
+	private static final Pattern DESCRIPTOR_CLASS_PATTERN = Pattern.compile("L([\\p{javaJavaIdentifierPart}/]+)[;<]");
+	private static final Pattern CLASS_NAME_PATTERN = Pattern.compile("\\p{javaJavaIdentifierPart}+([./]\\p{javaJavaIdentifierPart}+)+");
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_FLOAT = 4;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELD_REF = 9;
+	private static final int CONSTANT_METHOD_REF = 10;
+	private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	private static final int CONSTANT_METHOD_HANDLE = 15;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+
+	private ClassFileReferences() {
+	}
+
+	/**
+	 * Adds the internal names (e.g. <tt>java/lang/String</tt>) of all classes referenced by a class file to a set.
+	 *
+	 * @param inputStream the class file. It is not closed by this method.
+	 * @param references the set to add the referenced class names to
+	 * @throws IOException if reading fails or the class file is invalid
+	 */
+	public static void read(InputStream inputStream, Set<String> references) throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(inputStream);
+		if(dataInputStream.readInt()!=MAGIC) {
+			throw new IOException("Not a class file");
+		}
+		dataInputStream.readUnsignedShort(); // minor version
+		dataInputStream.readUnsignedShort(); // major version
+
+		int constantPoolCount = dataInputStream.readUnsignedShort();
+		String[] utf8Constants = new String[constantPoolCount];
+		int[] classNameIndexes = new int[constantPoolCount];
+		int[] stringIndexes = new int[constantPoolCount];
+		int classCount = 0;
+		int stringCount = 0;
+		for(int i=1; i<constantPoolCount; i++) {
+			int tag = dataInputStream.readUnsignedByte();
+			switch(tag) {
+			case CONSTANT_UTF8:
+				utf8Constants[i] = dataInputStream.readUTF();
+				break;
+			case CONSTANT_CLASS:
+				classNameIndexes[classCount++] = dataInputStream.readUnsignedShort();
+				break;
+			case CONSTANT_STRING:
+				stringIndexes[stringCount++] = dataInputStream.readUnsignedShort();
+				break;
+			case CONSTANT_METHOD_TYPE:
+			case CONSTANT_MODULE:
+			case CONSTANT_PACKAGE:
+				dataInputStream.skipBytes(2);
+				break;
+			case CONSTANT_METHOD_HANDLE:
+				dataInputStream.skipBytes(3);
+				break;
+			case CONSTANT_INTEGER:
+			case CONSTANT_FLOAT:
+			case CONSTANT_FIELD_REF:
+			case CONSTANT_METHOD_REF:
+			case CONSTANT_INTERFACE_METHOD_REF:
+			case CONSTANT_NAME_AND_TYPE:
+			case CONSTANT_DYNAMIC:
+			case CONSTANT_INVOKE_DYNAMIC:
+				dataInputStream.skipBytes(4);
+				break;
+			case CONSTANT_LONG:
+			case CONSTANT_DOUBLE:
+				dataInputStream.skipBytes(8);
+				// 8-byte constants take up two entries
+				i++;
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+			}
+		}
+
+		// class constants contain either an internal name or an array descriptor
+		for(int i=0; i<classCount; i++) {
+			String className = utf8Constants[classNameIndexes[i]];
+			if(className!=null) {
+				if(className.startsWith("[")) {
+					addDescriptorClasses(className, references);
+				} else {
+					references.add(className);
+				}
+			}
+		}
+
+		// descriptors and signatures are not referenced by class constants, but they are all UTF-8 constants
+		for(String utf8Constant: utf8Constants) {
+			if(utf8Constant!=null && utf8Constant.indexOf('L')!=-1 && utf8Constant.indexOf(';')!=-1) {
+				addDescriptorClasses(utf8Constant, references);
+			}
+		}
+
+		for(int i=0; i<stringCount; i++) {
+			String string = utf8Constants[stringIndexes[i]];
+			if(string!=null && CLASS_NAME_PATTERN.matcher(string).matches()) {
+				references.add(string.replace('.', '/'));
+			}
+		}
+	}
+
+	private static void addDescriptorClasses(String descriptor, Set<String> references) {
+		Matcher matcher = DESCRIPTOR_CLASS_PATTERN.matcher(descriptor);
+		while(matcher.find()) {
+			references.add(matcher.group(1));
+		}
+	}
+
+}
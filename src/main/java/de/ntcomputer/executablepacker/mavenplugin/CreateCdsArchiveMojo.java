@@ -0,0 +1,139 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+/**
+ * Creates a dynamic AppCDS (application class-data sharing) archive for an executable JAR file built by the pack-executable-jar goal.
+ * The executable JAR is run once as a training run, and the JVM dumps all classes loaded during that run into the archive when it exits.
+ * Starting the JAR with <tt>java -XX:SharedArchiveFile=(archive) -jar (JAR)</tt> then maps these classes instead of loading, parsing and verifying them again.
+ * Requires a Java 13 or later runtime.
+ * <p>
+ * The JVM only accepts the archive if it is used with the same JVM and the same, unmodified JAR file. The training run references the JAR file by its absolute path,
+ * so the JAR file must be started from the same path, but from any working directory. Next to the archive, an argument file containing the JVM arguments
+ * which start the JAR with the archive is written, so the application can be started using <tt>java @(argument file) (arguments)</tt>.
+ *
+ * @author Nikolaus Thuemmel
+ */
+@Mojo(name = "create-cds-archive", defaultPhase = LifecyclePhase.PACKAGE, requiresProject = true)
+public class CreateCdsArchiveMojo extends AbstractTrainingRunMojo {
+	private static final String ARCHIVE_EXTENSION = "jsa";
+	private static final String ARGUMENT_FILE_EXTENSION = "args";
+
+	/**
+	 * The {@link MavenProject}.
+	 */
+	@Parameter(defaultValue = "${project}", readonly = true, required = true)
+	private MavenProject project;
+
+	@Component
+	private MavenProjectHelper projectHelper;
+
+	/**
+	 * Number of runs with and without the archive each which are used to measure the startup time gained by the archive. If 0, startup time is not measured.
+	 */
+	@Parameter(property = "executablepacker.cds.measurementRuns", defaultValue = "0")
+	private int measurementRuns;
+
+	/**
+	 * Whether to skip creating the archive.
+	 */
+	@Parameter(property = "executablepacker.cds.skip", defaultValue = "false")
+	private boolean skip;
+
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		if(skip) {
+			getLog().info("Skipping creation of the CDS archive");
+			return;
+		}
+
+		File jarFile = getJarFile();
+		File archiveFile = new File(outputDirectory, finalName + "-" + classifier + "." + ARCHIVE_EXTENSION).getAbsoluteFile();
+		File argumentFile = new File(outputDirectory, finalName + "-" + classifier + "." + ARGUMENT_FILE_EXTENSION);
+		File logFile = createLogFile("cds.log");
+
+		// training run
+		getLog().info("Creating CDS archive '" + archiveFile.getAbsolutePath() + "' in a training run of '" + jarFile.getName() + "'");
+		archiveFile.delete(); // the JVM does not overwrite read-only archives
+		runTraining(jarFile, Collections.singletonList("-XX:ArchiveClassesAtExit=" + archiveFile.getPath()), logFile);
+		if(!archiveFile.isFile()) {
+			throw new MojoExecutionException("Training run of '" + jarFile.getName() + "' did not create a CDS archive (see '" + logFile.getAbsolutePath() + "')");
+		}
+
+		writeArgumentFile(argumentFile, jarFile, archiveFile);
+
+		// startup measurement
+		if(measurementRuns > 0) {
+			List<String> archiveJvmArguments = new ArrayList<String>();
+			archiveJvmArguments.add("-XX:SharedArchiveFile=" + archiveFile.getPath());
+			List<String> noArchiveJvmArguments = new ArrayList<String>();
+
+			// warm up the file system cache
+			run(jarFile, noArchiveJvmArguments, logFile);
+			run(jarFile, archiveJvmArguments, logFile);
+
+			long noArchiveNanos = 0;
+			long archiveNanos = 0;
+			for(int i=0; i<measurementRuns; i++) {
+				noArchiveNanos += measure(jarFile, noArchiveJvmArguments, logFile);
+				archiveNanos += measure(jarFile, archiveJvmArguments, logFile);
+			}
+			long noArchiveMillis = TimeUnit.NANOSECONDS.toMillis(noArchiveNanos / measurementRuns);
+			long archiveMillis = TimeUnit.NANOSECONDS.toMillis(archiveNanos / measurementRuns);
+			getLog().info("Average run time without CDS archive: " + noArchiveMillis + " ms, with CDS archive: " + archiveMillis + " ms (" + measurementRuns + " runs each)");
+		}
+
+		// attach archive to the project
+		projectHelper.attachArtifact(project, ARCHIVE_EXTENSION, classifier, archiveFile);
+	}
+
+	/**
+	 * Writes a JVM argument file which starts the executable JAR with the archive, e.g. <tt>java @app-pkg.args</tt> (requires Java 9 or later, as does the archive).
+	 * Paths are quoted, since they may contain spaces.
+	 */
+	private void writeArgumentFile(File argumentFile, File jarFile, File archiveFile) throws MojoExecutionException {
+		StringBuilder arguments = new StringBuilder();
+		arguments.append(quoteArgument("-XX:SharedArchiveFile=" + archiveFile.getPath())).append(System.lineSeparator());
+		arguments.append("-jar").append(System.lineSeparator());
+		arguments.append(quoteArgument(jarFile.getAbsolutePath())).append(System.lineSeparator());
+		try {
+			Files.write(argumentFile.toPath(), arguments.toString().getBytes(StandardCharsets.UTF_8));
+		} catch(IOException e) {
+			throw new MojoExecutionException("Failed to write argument file '" + argumentFile.getAbsolutePath() + "'", e);
+		}
+		getLog().info("Start the application with the CDS archive using: java @" + argumentFile.getAbsolutePath());
+	}
+
+	/**
+	 * @return the argument quoted for a JVM argument file, in which backslashes within quotes escape the next character
+	 */
+	private static String quoteArgument(String argument) {
+		return "\"" + argument.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private long measure(File jarFile, List<String> runJvmArguments, File logFile) throws MojoExecutionException {
+		long start = System.nanoTime();
+		int exitCode = run(jarFile, runJvmArguments, logFile);
+		long result = System.nanoTime() - start;
+		if(exitCode!=0) {
+			throw new MojoExecutionException("Startup measurement run of '" + jarFile.getName() + "' failed with exit code " + exitCode + " (see '" + logFile.getAbsolutePath() + "')");
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,393 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Removes dependency JAR files, and optionally classes within them, which cannot be reached from the application's main class.
+ * Starting from a set of root classes, all classes referenced by the bytecode of reachable classes are reachable too (see {@link ClassFileReferences}).
+ * Services registered in <tt>META-INF/services</tt> are reachable if their service interface is reachable, or if the service interface is not part of the application at all.
+ * Classes loaded through reflection by name which does not appear as string constant have to be kept using keep rules.
+ * <p>
+ * Dependency JAR files which contain no classes at all are always kept, since their resources may be accessed by name.
+ * Classes are not removed from signed dependency JAR files, since that would break their signature.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class DependencyPruner {
+	private static final String SERVICES_PREFIX = "META-INF/services/";
+	private static final Pattern VERSIONED_PREFIX_PATTERN = Pattern.compile("^META-INF/versions/\\d+/");
+	private static final Pattern SIGNATURE_FILE_PATTERN = Pattern.compile("^META-INF/[^/]+\\.(SF|RSA|DSA|EC)$");
+
+	private final File classesDirectory;
+	private final List<File> dependencyJarFiles;
+	private final Log log;
+	private final List<Pattern> keepClassPatterns = new ArrayList<Pattern>();
+	private final Set<File> keptJarFiles = new HashSet<File>();
+	private boolean pruneClasses;
+	private final List<String> report = new ArrayList<String>();
+
+	/** Class files of all classes, by internal class name, in classpath order. The first element defining a class wins, like the classloader does it. */
+	private final Map<String, ClassSource> classes = new HashMap<String, ClassSource>();
+	/** Implementation class names of all services, by internal service interface name */
+	private final Map<String, List<String>> services = new LinkedHashMap<String, List<String>>();
+
+	/**
+	 * @param classesDirectory the application's classes directory, which may not exist
+	 * @param dependencyJarFiles the dependency JAR files, in classpath order
+	 * @param log the log to report to
+	 */
+	public DependencyPruner(File classesDirectory, List<File> dependencyJarFiles, Log log) {
+		this.classesDirectory = classesDirectory;
+		this.dependencyJarFiles = dependencyJarFiles;
+		this.log = log;
+	}
+
+	/**
+	 * Keeps all classes matching one of the given patterns, along with all classes reachable from them.
+	 * Patterns are binary class names, where <tt>*</tt> matches any part of a package or class name and <tt>**</tt> matches any number of packages,
+	 * for example <tt>com.example.plugins.**</tt> or <tt>org.slf4j.impl.*Binder</tt>.
+	 *
+	 * @param patterns the class name patterns
+	 */
+	public void addKeepClasses(Collection<String> patterns) {
+		for(String pattern: patterns) {
+			this.keepClassPatterns.add(toClassNamePattern(pattern.trim()));
+		}
+	}
+
+	/**
+	 * Keeps a dependency JAR file and all its classes, along with all classes reachable from them.
+	 *
+	 * @param jarFile the dependency JAR file to keep
+	 */
+	public void addKeepDependency(File jarFile) {
+		this.keptJarFiles.add(jarFile);
+	}
+
+	/**
+	 * @param pruneClasses whether to remove unreachable classes from the dependency JAR files which are kept
+	 */
+	public void setPruneClasses(boolean pruneClasses) {
+		this.pruneClasses = pruneClasses;
+	}
+
+	/**
+	 * Determines all reachable classes and removes the dependencies which are not needed.
+	 *
+	 * @param rootClassNames binary names of the classes to start from, usually the main class
+	 * @param prunedDirectory the directory to write dependency JAR files with removed classes to
+	 * @return the dependency JAR files to pack, in classpath order. Dependency JAR files with removed classes are replaced by their pruned copy.
+	 * @throws IOException if reading a class or writing a pruned dependency JAR file fails
+	 */
+	public List<File> prune(Collection<String> rootClassNames, File prunedDirectory) throws IOException {
+		List<ZipFile> dependencyJars = new ArrayList<ZipFile>();
+		try {
+			for(File dependencyJarFile: dependencyJarFiles) {
+				dependencyJars.add(new ZipFile(dependencyJarFile));
+			}
+			this.readClasses(dependencyJars);
+			Set<String> reachableClassNames = this.findReachableClasses(rootClassNames, dependencyJars);
+			return this.removeUnreachable(reachableClassNames, dependencyJars, prunedDirectory);
+		} finally {
+			for(ZipFile dependencyJar: dependencyJars) {
+				dependencyJar.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the report of removed dependency JAR files and classes, after pruning
+	 */
+	public String getReport() {
+		StringBuilder result = new StringBuilder();
+		for(String line: report) {
+			result.append(line).append('\n');
+		}
+		return result.toString();
+	}
+
+	private void readClasses(List<ZipFile> dependencyJars) throws IOException {
+		// element 0 is the classes directory, followed by the dependency JAR files
+		if(classesDirectory.isDirectory()) {
+			DirectoryScanner scanner = new DirectoryScanner();
+			scanner.setBasedir(classesDirectory);
+			scanner.scan();
+			for(String includedPath: scanner.getIncludedFiles()) {
+				String entryName = includedPath.replace(File.separatorChar, '/');
+				this.addEntry(0, entryName);
+				if(entryName.startsWith(SERVICES_PREFIX)) {
+					InputStream inputStream = new FileInputStream(new File(classesDirectory, includedPath));
+					try {
+						this.addServices(entryName, inputStream);
+					} finally {
+						inputStream.close();
+					}
+				}
+			}
+		}
+
+		for(int i=0; i<dependencyJars.size(); i++) {
+			ZipFile dependencyJar = dependencyJars.get(i);
+			Enumeration<ZipArchiveEntry> entries = dependencyJar.getEntries();
+			while(entries.hasMoreElements()) {
+				ZipArchiveEntry entry = entries.nextElement();
+				this.addEntry(i + 1, entry.getName());
+				if(entry.getName().startsWith(SERVICES_PREFIX) && !entry.isDirectory()) {
+					InputStream inputStream = dependencyJar.getInputStream(entry);
+					try {
+						this.addServices(entry.getName(), inputStream);
+					} finally {
+						inputStream.close();
+					}
+				}
+			}
+		}
+	}
+
+	private void addEntry(int elementIndex, String entryName) {
+		String className = getClassName(entryName);
+		if(className==null) {
+			return;
+		}
+		ClassSource source = classes.get(className);
+		if(source==null) {
+			source = new ClassSource(elementIndex);
+			classes.put(className, source);
+		}
+		if(source.elementIndex==elementIndex) {
+			source.entryNames.add(entryName);
+		}
+	}
+
+	private void addServices(String entryName, InputStream inputStream) throws IOException {
+		String serviceName = entryName.substring(SERVICES_PREFIX.length()).replace('.', '/');
+		List<String> implementationNames = services.get(serviceName);
+		if(implementationNames==null) {
+			implementationNames = new ArrayList<String>();
+			services.put(serviceName, implementationNames);
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine())!=null) {
+			int commentIndex = line.indexOf('#');
+			if(commentIndex!=-1) {
+				line = line.substring(0, commentIndex);
+			}
+			line = line.trim();
+			if(!line.isEmpty()) {
+				implementationNames.add(line.replace('.', '/'));
+			}
+		}
+	}
+
+	private Set<String> findReachableClasses(Collection<String> rootClassNames, List<ZipFile> dependencyJars) throws IOException {
+		Set<String> reachableClassNames = new HashSet<String>();
+		Deque<String> pendingClassNames = new ArrayDeque<String>();
+		for(String rootClassName: rootClassNames) {
+			pendingClassNames.add(rootClassName.replace('.', '/'));
+		}
+		for(Map.Entry<String, ClassSource> classEntry: classes.entrySet()) {
+			ClassSource source = classEntry.getValue();
+			if((source.elementIndex>0 && keptJarFiles.contains(dependencyJarFiles.get(source.elementIndex - 1))) || matchesKeepClass(classEntry.getKey())) {
+				pendingClassNames.add(classEntry.getKey());
+			}
+		}
+		// services of the JDK and other libraries outside the application may be loaded at any time
+		for(Map.Entry<String, List<String>> service: services.entrySet()) {
+			if(!classes.containsKey(service.getKey())) {
+				pendingClassNames.addAll(service.getValue());
+			}
+		}
+
+		Set<String> references = new HashSet<String>();
+		while(!pendingClassNames.isEmpty()) {
+			String className = pendingClassNames.removeFirst();
+			ClassSource source = classes.get(className);
+			if(source==null || !reachableClassNames.add(className)) {
+				continue;
+			}
+
+			references.clear();
+			for(String entryName: source.entryNames) {
+				InputStream inputStream;
+				if(source.elementIndex==0) {
+					inputStream = new FileInputStream(new File(classesDirectory, entryName));
+				} else {
+					ZipFile dependencyJar = dependencyJars.get(source.elementIndex - 1);
+					inputStream = dependencyJar.getInputStream(dependencyJar.getEntry(entryName));
+				}
+				try {
+					ClassFileReferences.read(inputStream, references);
+				} catch(IOException e) {
+					throw new IOException("Failed to read class file '" + entryName + "'", e);
+				} finally {
+					inputStream.close();
+				}
+			}
+			for(String reference: references) {
+				if(!reachableClassNames.contains(reference)) {
+					pendingClassNames.add(reference);
+				}
+			}
+			List<String> implementationNames = services.get(className);
+			if(implementationNames!=null) {
+				pendingClassNames.addAll(implementationNames);
+			}
+		}
+		return reachableClassNames;
+	}
+
+	private List<File> removeUnreachable(Set<String> reachableClassNames, List<ZipFile> dependencyJars, File prunedDirectory) throws IOException {
+		report.add("Reachable classes: " + reachableClassNames.size() + " of " + classes.size());
+		List<String> removedJarLines = new ArrayList<String>();
+		List<String> prunedJarLines = new ArrayList<String>();
+		long savedBytes = 0;
+
+		List<File> result = new ArrayList<File>();
+		for(int i=0; i<dependencyJars.size(); i++) {
+			File dependencyJarFile = dependencyJarFiles.get(i);
+			ZipFile dependencyJar = dependencyJars.get(i);
+			if(keptJarFiles.contains(dependencyJarFile)) {
+				result.add(dependencyJarFile);
+				continue;
+			}
+
+			Set<String> unreachableEntryNames = new HashSet<String>();
+			int classCount = 0;
+			boolean signed = false;
+			Enumeration<ZipArchiveEntry> entries = dependencyJar.getEntries();
+			while(entries.hasMoreElements()) {
+				ZipArchiveEntry entry = entries.nextElement();
+				String className = getClassName(entry.getName());
+				if(className!=null) {
+					classCount++;
+					if(!reachableClassNames.contains(className)) {
+						unreachableEntryNames.add(entry.getName());
+					}
+				}
+				signed |= SIGNATURE_FILE_PATTERN.matcher(entry.getName()).matches();
+			}
+
+			if(classCount>0 && unreachableEntryNames.size()==classCount) {
+				log.info("Removing unreachable dependency " + dependencyJarFile.getName());
+				removedJarLines.add("  " + dependencyJarFile.getName() + " (" + dependencyJarFile.length() + " bytes)");
+				savedBytes += dependencyJarFile.length();
+			} else if(pruneClasses && !signed && !unreachableEntryNames.isEmpty()) {
+				File prunedJarFile = this.writePrunedJar(dependencyJar, unreachableEntryNames, new File(prunedDirectory, dependencyJarFile.getName()));
+				long prunedBytes = dependencyJarFile.length() - prunedJarFile.length();
+				log.info("Removing " + unreachableEntryNames.size() + " of " + classCount + " classes from dependency " + dependencyJarFile.getName());
+				prunedJarLines.add("  " + dependencyJarFile.getName() + ": " + unreachableEntryNames.size() + " of " + classCount + " classes removed (" + prunedBytes + " of " + dependencyJarFile.length() + " bytes)");
+				savedBytes += prunedBytes;
+				result.add(prunedJarFile);
+			} else {
+				result.add(dependencyJarFile);
+			}
+		}
+
+		report.add("Removed dependencies: " + removedJarLines.size());
+		report.addAll(removedJarLines);
+		if(pruneClasses) {
+			report.add("Dependencies with removed classes: " + prunedJarLines.size());
+			report.addAll(prunedJarLines);
+		}
+		report.add("Bytes saved: " + savedBytes);
+		log.info("Dependency pruning saved " + savedBytes + " bytes, " + reachableClassNames.size() + " of " + classes.size() + " classes are reachable");
+		return result;
+	}
+
+	/**
+	 * Copies a JAR file without the given entries. The remaining entries are copied with their compressed bytes as they are.
+	 * The pruned JAR file is only rewritten if its content changed, so its modification time stays the same on the next build.
+	 */
+	private File writePrunedJar(ZipFile dependencyJar, Set<String> removedEntryNames, File prunedJarFile) throws IOException {
+		List<ZipArchiveEntry> remainingEntries = new ArrayList<ZipArchiveEntry>();
+		Enumeration<ZipArchiveEntry> entries = dependencyJar.getEntriesInPhysicalOrder();
+		while(entries.hasMoreElements()) {
+			ZipArchiveEntry entry = entries.nextElement();
+			if(!removedEntryNames.contains(entry.getName())) {
+				remainingEntries.add(entry);
+			}
+		}
+		return AccessOrder.writeJar(dependencyJar, remainingEntries, prunedJarFile);
+	}
+
+	private boolean matchesKeepClass(String className) {
+		String binaryName = className.replace('/', '.');
+		for(Pattern keepClassPattern: keepClassPatterns) {
+			if(keepClassPattern.matcher(binaryName).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param entryName the name of an entry in the classpath
+	 * @return the internal name of the class defined by the entry, or null if the entry is not a class file.
+	 * Versioned class files of multi-release JAR files define the same class as their unversioned counterpart.
+	 */
+	private static String getClassName(String entryName) {
+		if(!entryName.endsWith(".class")) {
+			return null;
+		}
+		String className = VERSIONED_PREFIX_PATTERN.matcher(entryName).replaceFirst("");
+		className = className.substring(0, className.length() - ".class".length());
+		if(className.startsWith("META-INF/") || className.endsWith("module-info") || className.endsWith("package-info")) {
+			return null;
+		}
+		return className;
+	}
+
+	private static Pattern toClassNamePattern(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		for(int i=0; i<pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if(c=='*' && i + 1<pattern.length() && pattern.charAt(i + 1)=='*') {
+				regex.append(".*");
+				i++;
+			} else if(c=='*') {
+				regex.append("[^.]*");
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * The class files defining a class in one classpath element: the class file itself, and its versioned variants in multi-release JAR files.
+	 */
+	private static class ClassSource {
+		private final int elementIndex;
+		private final List<String> entryNames = new ArrayList<String>(1);
+
+		private ClassSource(int elementIndex) {
+			this.elementIndex = elementIndex;
+		}
+	}
+
+}
@@ -0,0 +1,310 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import de.ntcomputer.executablepacker.runtime.ModuleGraph;
+
+/**
+ * Resolves the module graph of the dependency JARs at build time, for the module launch mode (see {@link ModuleGraph}).
+ * Dependency JARs with a module descriptor become explicit modules, all others become automatic modules named by their <code>Automatic-Module-Name</code> or file name.
+ * Dependency JARs which cannot be modules (e.g. because no valid module name can be derived from their file name),
+ * or which contain a module or package already contained in a module earlier in classpath order, stay on the classpath of the jar-in-jar-classloader, just as their content would be shadowed on the classpath.
+ * Modules cannot see the classpath of the jar-in-jar-classloader, so modules requiring a module which stays on the classpath, or referring to a package only contained in dependency JARs
+ * on the classpath (according to the constant pools of their classes, see {@link ClassFileReferences}), stay on the classpath too.
+ * <p>
+ * The modules are resolved and defined as a module layer of the Maven JVM, so a graph which cannot be launched (e.g. because of a missing required module) fails the build.
+ * The Java 9 module API is called using reflection, so the plugin still runs on Java 8 if the module launch mode is not used.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class ModuleResolver {
+	private static final String VERSIONED_DIRECTORY_PREFIX = "META-INF/versions/";
+	private final Log log;
+
+	/**
+	 * @param log the log
+	 */
+	public ModuleResolver(Log log) {
+		this.log = log;
+	}
+
+	/**
+	 * @param dependencyJarFiles the dependency JAR files, in classpath order
+	 * @return the module graph of all dependency JARs which are launched as modules
+	 * @throws MojoExecutionException if the Maven JVM does not support modules
+	 * @throws MojoFailureException if the modules cannot be resolved
+	 */
+	public ModuleGraph resolve(List<File> dependencyJarFiles) throws MojoExecutionException, MojoFailureException {
+		if(!ModuleGraph.isSupported()) {
+			throw new MojoExecutionException("The module launch mode requires running Maven on Java 9 or later");
+		}
+
+		List<ModuleInfo> moduleInfos = new ArrayList<ModuleInfo>();
+		Map<String, String> packageModuleNames = new HashMap<String, String>();
+		Map<String, String> moduleElementNames = new HashMap<String, String>();
+		Set<String> classPathPackageNames = new HashSet<String>();
+		Set<String> classPathModuleNames = new HashSet<String>();
+		for(File dependencyJarFile: dependencyJarFiles) {
+			ModuleInfo moduleInfo;
+			try {
+				moduleInfo = findModule(dependencyJarFile);
+			} catch(IOException e) {
+				this.log.warn("Dependency " + dependencyJarFile.getName() + " is not a valid module and is loaded from the classpath: " + e.getMessage());
+				classPathPackageNames.addAll(getPackageNames(dependencyJarFile));
+				continue;
+			}
+			if(moduleElementNames.containsKey(moduleInfo.name)) {
+				this.log.warn("Dependency " + dependencyJarFile.getName() + " contains module " + moduleInfo.name + " which is already contained in " + moduleElementNames.get(moduleInfo.name) + ", it is loaded from the classpath");
+				classPathPackageNames.addAll(moduleInfo.packageNames);
+				continue;
+			}
+			String splitPackageName = null;
+			for(String packageName: moduleInfo.packageNames) {
+				if(packageModuleNames.containsKey(packageName)) {
+					splitPackageName = packageName;
+					break;
+				}
+			}
+			if(splitPackageName!=null) {
+				this.log.warn("Dependency " + dependencyJarFile.getName() + " contains package " + splitPackageName + " which is already contained in module " + packageModuleNames.get(splitPackageName) + ", it is loaded from the classpath");
+				classPathPackageNames.addAll(moduleInfo.packageNames);
+				classPathModuleNames.add(moduleInfo.name);
+				continue;
+			}
+
+			for(String packageName: moduleInfo.packageNames) {
+				packageModuleNames.put(packageName, moduleInfo.name);
+			}
+			moduleElementNames.put(moduleInfo.name, dependencyJarFile.getName());
+			moduleInfos.add(moduleInfo);
+		}
+
+		// modules cannot see the classpath of the jar-in-jar-classloader, so modules depending on it are loaded from the classpath as well (which may affect further modules)
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			Iterator<ModuleInfo> iterator = moduleInfos.iterator();
+			while(iterator.hasNext()) {
+				ModuleInfo moduleInfo = iterator.next();
+				String dependency = this.getClassPathDependency(moduleInfo, packageModuleNames, classPathPackageNames, classPathModuleNames);
+				if(dependency!=null) {
+					this.log.warn("Dependency " + moduleInfo.file.getName() + " " + dependency + " which is loaded from the classpath, so it is loaded from the classpath too");
+					iterator.remove();
+					for(String packageName: moduleInfo.packageNames) {
+						packageModuleNames.remove(packageName);
+					}
+					classPathPackageNames.addAll(moduleInfo.packageNames);
+					classPathModuleNames.add(moduleInfo.name);
+					changed = true;
+				}
+			}
+		}
+
+		List<ModuleGraph.Module> modules = new ArrayList<ModuleGraph.Module>();
+		List<File> moduleFiles = new ArrayList<File>();
+		for(ModuleInfo moduleInfo: moduleInfos) {
+			modules.add(new ModuleGraph.Module(moduleInfo.name, moduleInfo.automatic, moduleInfo.file.getName()));
+			moduleFiles.add(moduleInfo.file);
+			this.log.debug("Dependency " + moduleInfo.file.getName() + " is launched as " + (moduleInfo.automatic? "automatic" : "explicit") + " module " + moduleInfo.name);
+		}
+
+		ModuleGraph result = new ModuleGraph(modules);
+		if(!modules.isEmpty()) {
+			try {
+				// a layer of the Maven JVM only defines the modules, without loading any of their classes
+				result.defineLayer(moduleFiles, ClassLoader.getSystemClassLoader().getParent());
+			} catch(IOException e) {
+				throw new MojoFailureException("Failed to resolve the module graph of the dependencies (" + e.getMessage() + ")", e);
+			}
+		}
+		this.log.info("Launching " + modules.size() + " of " + dependencyJarFiles.size() + " dependencies as modules");
+		return result;
+	}
+
+	/**
+	 * Determines whether a module depends on a dependency JAR loaded from the classpath, either by requiring its module or by referring to one of its packages.
+	 *
+	 * @param moduleInfo the module
+	 * @param packageModuleNames the names of the modules containing each package, for all modules of the graph
+	 * @param classPathPackageNames the packages of all dependency JARs loaded from the classpath
+	 * @param classPathModuleNames the names of the modules loaded from the classpath
+	 * @return a description of the dependency, or null if the module does not depend on the classpath
+	 * @throws MojoExecutionException if reading the module's class files fails
+	 */
+	private String getClassPathDependency(ModuleInfo moduleInfo, Map<String, String> packageModuleNames, Set<String> classPathPackageNames, Set<String> classPathModuleNames) throws MojoExecutionException {
+		for(String requiredModuleName: moduleInfo.requiredModuleNames) {
+			if(classPathModuleNames.contains(requiredModuleName)) {
+				return "requires module " + requiredModuleName;
+			}
+		}
+		if(moduleInfo.referencedPackageNames==null) {
+			try {
+				moduleInfo.referencedPackageNames = getReferencedPackageNames(moduleInfo.file);
+			} catch(IOException e) {
+				throw new MojoExecutionException("Failed to read the classes of dependency " + moduleInfo.file.getName(), e);
+			}
+		}
+		for(String packageName: moduleInfo.referencedPackageNames) {
+			if(classPathPackageNames.contains(packageName) && !packageModuleNames.containsKey(packageName)) {
+				return "refers to package " + packageName;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the packages containing classes of the JAR file, including versioned classes of multi-release JARs
+	 */
+	private static Set<String> getPackageNames(File jarFile) throws MojoExecutionException {
+		Set<String> result = new HashSet<String>();
+		try {
+			ZipFile zipFile = new ZipFile(jarFile);
+			try {
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				while(entries.hasMoreElements()) {
+					String className = getClassName(entries.nextElement());
+					if(className!=null) {
+						addPackageName(className, result);
+					}
+				}
+			} finally {
+				zipFile.close();
+			}
+		} catch(IOException e) {
+			throw new MojoExecutionException("Failed to read dependency " + jarFile.getName(), e);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the packages of all classes referenced by the classes of the JAR file
+	 */
+	private static Set<String> getReferencedPackageNames(File jarFile) throws IOException {
+		Set<String> references = new HashSet<String>();
+		ZipFile zipFile = new ZipFile(jarFile);
+		try {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				String className = getClassName(entry);
+				if(className!=null && !className.equals("module-info")) {
+					InputStream inputStream = zipFile.getInputStream(entry);
+					try {
+						ClassFileReferences.read(inputStream, references);
+					} catch(IOException e) {
+						throw new IOException("Failed to read class file '" + entry.getName() + "'", e);
+					} finally {
+						inputStream.close();
+					}
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+		Set<String> result = new HashSet<String>();
+		for(String reference: references) {
+			addPackageName(reference, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the internal name of the class stored in the entry (without the version prefix of multi-release JARs), or null if the entry is no class file
+	 */
+	private static String getClassName(ZipEntry entry) {
+		String name = entry.getName();
+		if(entry.isDirectory() || !name.endsWith(".class")) {
+			return null;
+		}
+		if(name.startsWith(VERSIONED_DIRECTORY_PREFIX)) {
+			int versionEndIndex = name.indexOf('/', VERSIONED_DIRECTORY_PREFIX.length());
+			if(versionEndIndex==-1) {
+				return null;
+			}
+			name = name.substring(versionEndIndex + 1);
+		} else if(name.startsWith("META-INF/")) {
+			return null;
+		}
+		return name.substring(0, name.length() - ".class".length());
+	}
+
+	private static void addPackageName(String internalClassName, Set<String> packageNames) {
+		int separatorIndex = internalClassName.lastIndexOf('/');
+		if(separatorIndex > 0) {
+			packageNames.add(internalClassName.substring(0, separatorIndex).replace('/', '.'));
+		}
+	}
+
+	/**
+	 * @return the module contained in the JAR file
+	 * @throws IOException if the JAR file is not a valid module
+	 */
+	@SuppressWarnings("unchecked")
+	private static ModuleInfo findModule(File jarFile) throws IOException {
+		try {
+			Class<?> moduleFinderClass = Class.forName("java.lang.module.ModuleFinder");
+			Object finder = moduleFinderClass.getMethod("of", Path[].class).invoke(null, (Object) new Path[] { jarFile.toPath() });
+			Set<?> moduleReferences = (Set<?>) moduleFinderClass.getMethod("findAll").invoke(finder);
+			Object moduleReference = moduleReferences.iterator().next();
+			Object descriptor = Class.forName("java.lang.module.ModuleReference").getMethod("descriptor").invoke(moduleReference);
+			Class<?> descriptorClass = Class.forName("java.lang.module.ModuleDescriptor");
+			Method nameMethod = descriptorClass.getMethod("name");
+			Method isAutomaticMethod = descriptorClass.getMethod("isAutomatic");
+			Method packagesMethod = descriptorClass.getMethod("packages");
+			ModuleInfo result = new ModuleInfo();
+			result.file = jarFile;
+			result.name = (String) nameMethod.invoke(descriptor);
+			result.automatic = (Boolean) isAutomaticMethod.invoke(descriptor);
+			result.packageNames = (Collection<String>) packagesMethod.invoke(descriptor);
+			result.requiredModuleNames = new ArrayList<String>();
+			Class<?> requiresClass = Class.forName("java.lang.module.ModuleDescriptor$Requires");
+			for(Object requires: (Set<?>) descriptorClass.getMethod("requires").invoke(descriptor)) {
+				// optional (static) dependencies do not need to be resolved
+				boolean optional = false;
+				for(Object modifier: (Set<?>) requiresClass.getMethod("modifiers").invoke(requires)) {
+					optional |= "STATIC".equals(modifier.toString());
+				}
+				if(!optional) {
+					result.requiredModuleNames.add((String) requiresClass.getMethod("name").invoke(requires));
+				}
+			}
+			return result;
+		} catch(InvocationTargetException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		} catch(ReflectiveOperationException e) {
+			throw new IOException("Module API not available", e);
+		}
+	}
+
+	private static class ModuleInfo {
+		private File file;
+		private String name;
+		private boolean automatic;
+		private Collection<String> packageNames;
+		private List<String> requiredModuleNames;
+		/** The packages referenced by the module's classes, determined on demand */
+		private Set<String> referencedPackageNames;
+	}
+
+}
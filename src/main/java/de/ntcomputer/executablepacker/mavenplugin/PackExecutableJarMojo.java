@@ -1,10 +1,30 @@
 package de.ntcomputer.executablepacker.mavenplugin;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
@@ -20,11 +40,19 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
-import org.codehaus.plexus.archiver.Archiver;
 import org.codehaus.plexus.archiver.ArchiverException;
-import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.SelectorUtils;
 
+import de.ntcomputer.executablepacker.runtime.AccessTrace;
+import de.ntcomputer.executablepacker.runtime.ClassPreloader;
+import de.ntcomputer.executablepacker.runtime.DependencyCache;
+import de.ntcomputer.executablepacker.runtime.EntryNameFilter;
 import de.ntcomputer.executablepacker.runtime.ExecutableLauncher;
+import de.ntcomputer.executablepacker.runtime.JarInJarIndex;
+import de.ntcomputer.executablepacker.runtime.LaunchDescriptor;
+import de.ntcomputer.executablepacker.runtime.ModuleGraph;
+import de.ntcomputer.executablepacker.runtime.NativeLibraryCache;
 import net.sf.corn.cps.CPScanner;
 import net.sf.corn.cps.ClassFilter;
 
@@ -34,10 +62,14 @@ import net.sf.corn.cps.ClassFilter;
  *
  * @author Nikolaus Thuemmel
  */
-@Mojo(name = "pack-executable-jar", requiresDependencyResolution = ResolutionScope.RUNTIME, defaultPhase = LifecyclePhase.PACKAGE, requiresProject = true)
+@Mojo(name = "pack-executable-jar", requiresDependencyResolution = ResolutionScope.RUNTIME, defaultPhase = LifecyclePhase.PACKAGE, requiresProject = true, threadSafe = true)
 public class PackExecutableJarMojo extends AbstractMojo {
 	private static final String[] DEFAULT_EXCLUDES = new String[] { "**/package.html" };
 	private static final String[] DEFAULT_INCLUDES = new String[] { "**/**" };
+	/** Stored entries in the "mapped" dependency access mode if none are configured, so nested JARs are read in place */
+	private static final String[] DEFAULT_MAPPED_STORED_ENTRIES = new String[] { "**/*.jar" };
+	/** The launcher class files never change within a build, so they are scanned only once for all modules */
+	private static List<String> launcherClassFilePaths;
 
 	/**
 	 * List of files to include from the classesDirectory. Specified as fileset patterns which are relative to the input directory whose contents
@@ -73,12 +105,6 @@ public class PackExecutableJarMojo extends AbstractMojo {
 	@Parameter(defaultValue = "${project.build.finalName}", required = true, readonly = true)
 	private String finalName;
 
-	/**
-	 * The Jar archiver.
-	 */
-	@Component(role = Archiver.class, hint = "jar")
-	private JarArchiver jarArchiver;
-
 	/**
 	 * The {@link {MavenProject}.
 	 */
@@ -102,13 +128,9 @@ public class PackExecutableJarMojo extends AbstractMojo {
 	private MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
 
 	/**
-	 * Require the jar plugin to build a new JAR even if none of the contents appear to have changed. By default, this
-	 * plugin looks to see if the output jar exists and inputs have not changed. If these conditions are true, the
-	 * plugin skips creation of the jar. This does not work when other plugins, like the maven-shade-plugin, are
-	 * configured to post-process the jar. This plugin can not detect the post-processing, and so leaves the
-	 * post-processed jar in place. This can lead to failures when those plugins do not expect to find their own output
-	 * as an input. Set this parameter to <tt>true</tt> to avoid these problems by forcing this plugin to recreate the
-	 * jar every time.<br/>
+	 * Require the plugin to write a new JAR even if none of the contents have changed. By default, this plugin compares the content hashes of all entries
+	 * with those of the previous build, and skips writing the JAR if they are the same and the previously written JAR is still in place.
+	 * If the JAR was modified after it was written, for example by the maven-shade-plugin, it is recreated from scratch.
 	 */
 	@Parameter(property = "maven.jar.forceCreation", defaultValue = "false")
 	private boolean forceCreation;
@@ -133,6 +155,186 @@ public class PackExecutableJarMojo extends AbstractMojo {
 	@Parameter(required = true)
 	private String mainClass;
 
+	/**
+	 * Whether to embed an index of all packages and resource directories contained in the JAR and its dependency JARs.
+	 * The index allows the launcher to search only those dependency JARs which may contain a requested class or resource.
+	 */
+	@Parameter(defaultValue = "true")
+	private boolean createIndex;
+
+	/**
+	 * Whether to embed a Bloom filter of the names of all entries contained in the JAR and its dependency JARs, if createIndex is enabled.
+	 * The filter allows the launcher to answer most lookups of missing classes and resources without opening any dependency JAR, even if the index refers to them.
+	 */
+	@Parameter(defaultValue = "true")
+	private boolean createEntryFilter;
+
+	/**
+	 * Whether to embed a binary launch descriptor containing the launcher's configuration and the list of dependency JARs with their sizes and hashes.
+	 * The launcher reads it directly, instead of searching all manifests on the classpath for its configuration.
+	 */
+	@Parameter(defaultValue = "true")
+	private boolean createLaunchDescriptor;
+
+	/**
+	 * Whether to embed a list of all native libraries (<tt>.so</tt>, <tt>.dll</tt>, <tt>.dylib</tt> and <tt>.jnilib</tt> files) contained in the JAR and its dependency JARs,
+	 * along with the operating system and architecture they were built for, which are derived from their path. When the application loads one of them using <tt>System.loadLibrary</tt>,
+	 * the launcher extracts the best match for the current platform once into the <tt>native</tt> directory of the dependency cache (see dependencyCacheDirectory), and loads it from there on all subsequent launches.
+	 */
+	@Parameter(defaultValue = "true")
+	private boolean createNativeLibraryList;
+
+	/**
+	 * How the launcher reads the nested dependency JARs at runtime.
+	 * "url" opens them through the JDK's jar URL handler, which copies each nested JAR to a temporary file first.
+	 * "mapped" memory-maps the executable JAR once and reads nested JARs in place, without temporary files. Signatures of signed dependency JARs are not verified in this mode.
+	 * "extract" extracts each nested JAR once into a persistent cache directory shared by all launches, and loads it from there on subsequent launches.
+	 * The mode can be overridden at runtime using the system property <tt>executablepacker.dependencyAccess</tt>.
+	 */
+	@Parameter(defaultValue = ExecutableLauncher.DEPENDENCY_ACCESS_URL)
+	private String dependencyAccess;
+
+	/**
+	 * The directory of the dependency cache used by the "extract" dependency access mode and by native libraries. A leading <tt>~/</tt> is resolved against the user's home directory.
+	 * Defaults to <tt>~/.cache/executable-packer</tt> and can be overridden at runtime using the system property <tt>executablepacker.cache.directory</tt>.
+	 */
+	@Parameter
+	private String dependencyCacheDirectory;
+
+	/**
+	 * The maximum size of the dependency cache in megabytes. Least recently used dependency JARs are evicted once it is exceeded.
+	 * Can be overridden at runtime using the system property <tt>executablepacker.cache.maxSize</tt>.
+	 */
+	@Parameter(defaultValue = "" + ExecutableLauncher.DEFAULT_DEPENDENCY_CACHE_MAX_SIZE)
+	private long dependencyCacheMaxSize;
+
+	/**
+	 * The maximum number of nested dependency JARs the launcher keeps open at the same time. Least recently used JARs are closed once it is exceeded,
+	 * releasing their file handles and central directories, and are reopened when a lookup targets them again. 0 keeps all opened JARs open.
+	 * Only effective if createIndex is enabled, since nested JARs are opened on demand only then.
+	 * Can be overridden at runtime using the system property <tt>executablepacker.maxOpenJars</tt>.
+	 */
+	@Parameter(defaultValue = "0")
+	private int maxOpenJars;
+
+	/**
+	 * The number of seconds after which the launcher closes nested dependency JARs which have not been used. 0 keeps them open.
+	 * Only effective if createIndex is enabled. Can be overridden at runtime using the system property <tt>executablepacker.openJarIdleTimeout</tt>.
+	 */
+	@Parameter(defaultValue = "0")
+	private int openJarIdleTimeout;
+
+	/**
+	 * How the launcher loads the dependency JARs. <tt>classpath</tt> loads all of them using the jar-in-jar-classloader, as part of the unnamed module.
+	 * <tt>modules</tt> resolves the module graph of the dependency JARs at build time, and the launcher defines a module layer over them on Java 9 and later,
+	 * so they run as named (explicit or automatic) modules and their classes are found by the JVM's package-to-module lookup.
+	 * Dependency JARs which cannot be modules, and the application's own classes, are still loaded by the jar-in-jar-classloader.
+	 * Can be overridden at runtime using the system property <tt>executablepacker.launchMode</tt>.
+	 */
+	@Parameter(property = "executablepacker.launchMode", defaultValue = ExecutableLauncher.LAUNCH_MODE_CLASSPATH)
+	private String launchMode;
+
+	/**
+	 * Whether the launcher runs the application in a resident launcher daemon, which keeps a warm JVM with the classloader already set up and serves repeated invocations
+	 * from the same working directory over a Unix domain socket, with their own arguments, stdin, stdout, stderr and exit code. The first invocation starts the daemon in the background
+	 * and runs the application itself. The daemon is replaced once the JAR changes. Requires Java 16 or later, and a JVM still allowing a security manager (so <tt>System.exit</tt> only ends an invocation);
+	 * otherwise the application runs in the launcher's JVM. Can be overridden at runtime using the system property <tt>executablepacker.daemon</tt>.
+	 */
+	@Parameter(property = "executablepacker.daemonMode", defaultValue = "false")
+	private boolean daemonMode;
+
+	/**
+	 * The number of seconds without invocations after which the launcher daemon exits.
+	 * Can be overridden at runtime using the system property <tt>executablepacker.daemon.idleTimeout</tt>.
+	 */
+	@Parameter(defaultValue = "" + ExecutableLauncher.DEFAULT_DAEMON_IDLE_TIMEOUT)
+	private long daemonIdleTimeout;
+
+	/**
+	 * A list of classes which the launcher preloads on background threads while the application's main method runs, one class name per line.
+	 * It is included only if the file exists, and is usually recorded in a training run using the record-class-list goal.
+	 */
+	@Parameter(defaultValue = "${project.basedir}/src/main/executable-packer/preload.list")
+	private File preloadClassList;
+
+	/**
+	 * An access trace recorded in a training run using the record-access-trace goal. If the file exists, the entries of the JAR are laid out in the order of their first access,
+	 * so the launcher and the application read the JAR mostly sequentially during startup: first the launcher, then the application's classes, resources and dependency JARs in the order they are used.
+	 */
+	@Parameter(defaultValue = "${project.basedir}/src/main/executable-packer/access.trace")
+	private File accessTrace;
+
+	/**
+	 * Whether to also rewrite the dependency JARs with their entries in the order of the accessTrace, if it exists.
+	 * Entries are copied with their compressed content as it is, and signed dependency JARs are left intact.
+	 */
+	@Parameter(property = "executablepacker.orderDependencyEntries", defaultValue = "false")
+	private boolean orderDependencyEntries;
+
+	/**
+	 * Whether to write a packing report to the work directory (<tt>target/executable-packer/&lt;classifier&gt;/</tt>), as JSON (<tt>PACKING-REPORT.json</tt>) and as readable summary (<tt>PACKING-REPORT.txt</tt>).
+	 * It contains the time spent in each packing phase, the raw, JAR and packed sizes and entry counts of each dependency, and the classes and resources contained in more than one dependency.
+	 */
+	@Parameter(property = "executablepacker.packingReport", defaultValue = "true")
+	private boolean createPackingReport;
+
+	/**
+	 * The number of threads compressing the entries of the JAR. The entries are written in the same order regardless of the number of threads.
+	 * Defaults to the number of available processors.
+	 */
+	@Parameter(property = "executablepacker.compressionThreads", defaultValue = "0")
+	private int compressionThreads;
+
+	/**
+	 * The deflate level of compressed entries, from 0 (fastest) to 9 (smallest), or -1 for the default level.
+	 */
+	@Parameter(property = "executablepacker.compressionLevel", defaultValue = "-1")
+	private int compressionLevel;
+
+	/**
+	 * The maximum size in megabytes of the compressed dependency JARs kept in memory for the whole build, so other modules packing the same dependency JARs
+	 * do not compress them again. Content hashes of dependency JARs are always kept. 0 disables caching compressed content.
+	 * If modules configure different sizes, the largest one applies to the whole build.
+	 */
+	@Parameter(property = "executablepacker.packingCacheSize", defaultValue = "128")
+	private long packingCacheSize;
+
+	/**
+	 * Entries to store without compression, specified as patterns matched against the entry names in the JAR, for example "**&#47;*.jar".
+	 * Storing the already compressed dependency JARs avoids compressing them twice, and lets the "mapped" dependency access mode read them in place instead of inflating them into memory.
+	 * Defaults to "**&#47;*.jar" in the "mapped" dependency access mode, and to no entries otherwise.
+	 */
+	@Parameter
+	private String[] storedEntries;
+
+	/**
+	 * Whether to remove dependency JARs which contain no class reachable from the main class.
+	 * Reachable classes are found by following all class references in the bytecode, starting from the main class, the classes matching keepClasses,
+	 * the dependencies matching keepDependencies, and the classes of the preloadClassList. Services are followed if their service interface is reachable.
+	 * A report of the removed dependencies is written to <tt>target/executable-packer/(classifier)/PRUNING-REPORT.txt</tt>.
+	 */
+	@Parameter(property = "executablepacker.prune", defaultValue = "false")
+	private boolean pruneDependencies;
+
+	/**
+	 * Whether to also remove unreachable classes from the remaining dependency JARs, if pruneDependencies is enabled. Signed dependency JARs are left intact.
+	 */
+	@Parameter(defaultValue = "false")
+	private boolean pruneClasses;
+
+	/**
+	 * Classes to keep when pruning dependencies, along with all classes reachable from them. Required for classes which are only loaded through reflection.
+	 * Specified as binary class names, where "*" matches any part of a package or class name and "**" matches any number of packages, for example "com.example.plugins.**".
+	 */
+	@Parameter
+	private String[] keepClasses;
+
+	/**
+	 * Dependencies to keep entirely when pruning dependencies, specified as "groupId:artifactId" patterns which may contain "*", for example "org.slf4j:*".
+	 */
+	@Parameter
+	private String[] keepDependencies;
+
 	private String[] getIncludes() {
 		if (includes != null && includes.length > 0) {
 			return includes;
@@ -156,10 +358,20 @@ public class PackExecutableJarMojo extends AbstractMojo {
 		String realLibPath = Paths.get(libPath).normalize().toString() + "/";
 		getLog().info("Dependency JAR files will be placed in '" + realLibPath + "'");
 		
+		// validate dependency access mode
+		if(!ExecutableLauncher.DEPENDENCY_ACCESS_URL.equals(dependencyAccess) && !ExecutableLauncher.DEPENDENCY_ACCESS_MAPPED.equals(dependencyAccess) && !ExecutableLauncher.DEPENDENCY_ACCESS_EXTRACT.equals(dependencyAccess)) {
+			throw new MojoFailureException("Unsupported dependency access mode '" + dependencyAccess + "'");
+		}
+		if(!ExecutableLauncher.LAUNCH_MODE_CLASSPATH.equals(launchMode) && !ExecutableLauncher.LAUNCH_MODE_MODULES.equals(launchMode)) {
+			throw new MojoFailureException("Unsupported launch mode '" + launchMode + "'");
+		}
+		
+		PackingReport report = new PackingReport();
+		long phaseStartNanos = System.nanoTime();
+		
 		// build a list of all relevant dependency JAR files
 		List<File> dependencyJarFiles = new ArrayList<File>();
-		StringBuilder dependencyJarFileMetaStringBuilder = new StringBuilder();
-		boolean dependencyJarFileFirst = true;
+		List<File> keptDependencyJarFiles = new ArrayList<File>();
 		for (Artifact dependencyArtifact: project.getArtifacts()) {
 			// include only compile-time and run-time dependencies
 			if (Artifact.SCOPE_COMPILE.equals(dependencyArtifact.getScope()) || Artifact.SCOPE_RUNTIME.equals(dependencyArtifact.getScope())) {
@@ -168,61 +380,246 @@ public class PackExecutableJarMojo extends AbstractMojo {
 					File dependencyFile = dependencyArtifact.getFile();
 					getLog().info("Including dependency " + dependencyFile.getName());
 					dependencyJarFiles.add(dependencyFile);
-					if(dependencyJarFileFirst) {
-						dependencyJarFileFirst = false;
-					} else {
-						dependencyJarFileMetaStringBuilder.append("/");
+					if(this.isKeptDependency(dependencyArtifact)) {
+						keptDependencyJarFiles.add(dependencyFile);
 					}
-					dependencyJarFileMetaStringBuilder.append(dependencyFile.getName());
 				}
 			}
 		}
 		
-		// create the archiver, set configuration (including dependencies and both launcher and application main class)
-		MavenArchiver archiver = new MavenArchiver();
-		archiver.setArchiver(jarArchiver);
-		archiver.setOutputFile(outputJarFile);
-		archive.setForced(forceCreation);
+		// remove dependencies which cannot be reached from the main class
+		if(pruneDependencies) {
+			try {
+				dependencyJarFiles = this.pruneDependencies(dependencyJarFiles, keptDependencyJarFiles);
+			} catch(IOException e) {
+				throw new MojoExecutionException("Error pruning dependencies", e);
+			}
+		}
+		
+		// lay out the entries of dependency JARs in the order they are used
+		AccessOrder accessOrder = null;
+		if(accessTrace!=null && accessTrace.isFile()) {
+			try {
+				accessOrder = new AccessOrder(this.readAccessTrace(), getLog());
+				if(orderDependencyEntries) {
+					dependencyJarFiles = accessOrder.orderDependencies(dependencyJarFiles, new File(getWorkDirectory(), "ordered"));
+				}
+			} catch(IOException e) {
+				throw new MojoExecutionException("Error ordering entries by access trace '" + accessTrace.getAbsolutePath() + "'", e);
+			}
+		}
+		
+		StringBuilder dependencyJarFileMetaStringBuilder = new StringBuilder();
+		for(File dependencyJarFile: dependencyJarFiles) {
+			if(dependencyJarFileMetaStringBuilder.length()>0) {
+				dependencyJarFileMetaStringBuilder.append("/");
+			}
+			dependencyJarFileMetaStringBuilder.append(dependencyJarFile.getName());
+		}
+		
+		// build the manifest, containing the launcher and application main class
 		archive.addManifestEntry("Main-Class", ExecutableLauncher.class.getName());
 		archive.addManifestEntry(ExecutableLauncher.MANIFEST_APPLICATION_MAIN_CLASS, mainClass);
 		archive.addManifestEntry(ExecutableLauncher.MANIFEST_DEPENDENCY_LIBPATH, realLibPath);
 		archive.addManifestEntry(ExecutableLauncher.MANIFEST_DEPENDENCY_JARS, dependencyJarFileMetaStringBuilder.toString());
+		archive.addManifestEntry(ExecutableLauncher.MANIFEST_DEPENDENCY_ACCESS, dependencyAccess);
+		if(ExecutableLauncher.LAUNCH_MODE_MODULES.equals(launchMode)) {
+			archive.addManifestEntry(ExecutableLauncher.MANIFEST_LAUNCH_MODE, launchMode);
+		}
+		if(dependencyCacheDirectory!=null && !dependencyCacheDirectory.trim().isEmpty()) {
+			archive.addManifestEntry(ExecutableLauncher.MANIFEST_DEPENDENCY_CACHE_DIRECTORY, dependencyCacheDirectory.trim());
+		}
+		archive.addManifestEntry(ExecutableLauncher.MANIFEST_DEPENDENCY_CACHE_MAX_SIZE, Long.toString(dependencyCacheMaxSize));
+		if(maxOpenJars<0 || openJarIdleTimeout<0) {
+			throw new MojoFailureException("The maximum number of open JARs and their idle timeout must not be negative");
+		}
+		if(maxOpenJars>0) {
+			archive.addManifestEntry(ExecutableLauncher.MANIFEST_MAX_OPEN_JARS, Integer.toString(maxOpenJars));
+		}
+		if(openJarIdleTimeout>0) {
+			archive.addManifestEntry(ExecutableLauncher.MANIFEST_OPEN_JAR_IDLE_TIMEOUT, Integer.toString(openJarIdleTimeout));
+		}
+		if(daemonMode) {
+			if(daemonIdleTimeout<=0) {
+				throw new MojoFailureException("The idle timeout of the launcher daemon must be positive");
+			}
+			archive.addManifestEntry(ExecutableLauncher.MANIFEST_DAEMON_MODE, "true");
+			archive.addManifestEntry(ExecutableLauncher.MANIFEST_DAEMON_IDLE_TIMEOUT, Long.toString(daemonIdleTimeout));
+		}
+		if(compressionThreads<0) {
+			throw new MojoFailureException("Invalid number of compression threads " + compressionThreads);
+		}
+		if(compressionLevel<Deflater.DEFAULT_COMPRESSION || compressionLevel>Deflater.BEST_COMPRESSION) {
+			throw new MojoFailureException("Invalid compression level " + compressionLevel);
+		}
+		if(packingCacheSize<0) {
+			throw new MojoFailureException("Invalid packing cache size " + packingCacheSize);
+		}
+		PackingCache.get().beginExecution(session, packingCacheSize * 1024 * 1024);
+		if(archive.isIndex()) {
+			getLog().warn("The archive's index option is not supported and ignored, the launcher uses its own index instead (see createIndex)");
+		}
+
+		// resolve the module graph of the dependencies launched as modules, which are not part of the jar-in-jar-classloader's index
+		ModuleGraph moduleGraph = null;
+		if(ExecutableLauncher.LAUNCH_MODE_MODULES.equals(launchMode)) {
+			moduleGraph = new ModuleResolver(getLog()).resolve(dependencyJarFiles);
+		}
+		phaseStartNanos = report.recordPhase(PackingReport.PHASE_DEPENDENCY_SELECTION, phaseStartNanos);
 
 		try {
+			// the manifest comes first, so it can be read from the start of the JAR file
+			Map<String, PackedJarEntry> entries = new LinkedHashMap<String, PackedJarEntry>();
+			Manifest manifest = this.createManifest();
+			ByteArrayOutputStream manifestOutputStream = new ByteArrayOutputStream();
+			manifest.write(manifestOutputStream);
+			// only rewritten if its content changed, so it does not defeat the up-to-date check
+			File manifestFile = writeIfChanged(new File(getWorkDirectory(), "MANIFEST.MF"), manifestOutputStream.toByteArray());
+			getLog().debug("Including manifest file '" + manifestFile.getAbsolutePath() + "' as '" + JarFile.MANIFEST_NAME + "'");
+			addEntry(entries, PackedJarEntry.file(JarFile.MANIFEST_NAME, manifestFile, archive.isCompress()));
+			
+			// the launch descriptor comes right after the manifest, so it can be read from the start of the JAR file too
+			File hashesFile = this.createDependencyHashes(dependencyJarFiles);
+			if(createLaunchDescriptor) {
+				File descriptorFile = this.createLaunchDescriptor(manifest, realLibPath, hashesFile);
+				getLog().debug("Including launch descriptor file '" + descriptorFile.getAbsolutePath() + "' as '" + LaunchDescriptor.DESCRIPTOR_NAME + "'");
+				addEntry(entries, PackedJarEntry.file(LaunchDescriptor.DESCRIPTOR_NAME, descriptorFile, archive.isCompress()));
+			}
+			
+			phaseStartNanos = report.recordPhase(PackingReport.PHASE_MANIFEST, phaseStartNanos);
+			
 			// include all built classes
 			if(classesDirectory.exists()) {
 				getLog().debug("Including classes directory '" + classesDirectory.getAbsolutePath() + "'");
-				archiver.getArchiver().addDirectory(classesDirectory, getIncludes(), getExcludes());
+				DirectoryScanner scanner = this.scanClassesDirectory();
+				String[] includedDirectoryPaths = scanner.getIncludedDirectories();
+				Arrays.sort(includedDirectoryPaths);
+				for(String includedPath: includedDirectoryPaths) {
+					if(!includedPath.isEmpty()) {
+						addEntry(entries, PackedJarEntry.directory(includedPath.replace(File.separatorChar, '/') + "/"));
+					}
+				}
+				String[] includedPaths = scanner.getIncludedFiles();
+				Arrays.sort(includedPaths);
+				for(String includedPath: includedPaths) {
+					addEntry(entries, PackedJarEntry.file(includedPath.replace(File.separatorChar, '/'), new File(classesDirectory, includedPath), archive.isCompress()));
+				}
 			} else {
 				getLog().debug("Classes directory '" + classesDirectory.getAbsolutePath() + "' does not exist, not including in output JAR file");
 			}
 			
+			phaseStartNanos = report.recordPhase(PackingReport.PHASE_CLASSES_DIRECTORY, phaseStartNanos);
+			
 			// include all dependency JAR files
 			for(File dependencyJarFile: dependencyJarFiles) {
 				String destinationFilePath = realLibPath + dependencyJarFile.getName();
 				getLog().debug("Including dependency JAR file '" + dependencyJarFile.getAbsolutePath() + "' as '" + destinationFilePath + "'");
-				archiver.getArchiver().addFile(dependencyJarFile, destinationFilePath);
+				PackedJarEntry dependencyEntry = PackedJarEntry.file(destinationFilePath, dependencyJarFile, archive.isCompress() && archive.isRecompressAddedZips());
+				dependencyEntry.setShared(true);
+				addEntry(entries, dependencyEntry);
 			}
 			
+			phaseStartNanos = report.recordPhase(PackingReport.PHASE_DEPENDENCY_ENTRIES, phaseStartNanos);
+			
 			// include the executable launcher classes containing the classloader code
-			List<Class<?>> launcherRuntimeClasses = CPScanner.scanClasses(new ClassFilter().packageName(ExecutableLauncher.class.getPackage().getName()));
-			for(Class<?> runtimeClass: launcherRuntimeClasses) {
+			List<String> launcherClassFilePaths = getLauncherClassFilePaths();
+			for(String classFilePath: launcherClassFilePaths) {
 				try {
-					String classFilePath = runtimeClass.getName().replace(".", "/") + ".class";
 					URL classUrl = ExecutableLauncher.class.getClassLoader().getResource(classFilePath);
 					if(classUrl==null) {
 						throw new ArchiverException("Failed to resolve class file path '" + classFilePath + "' to a URL");
 					}
 					getLog().debug("Including launcher runtime class '" + classUrl + "' as '" + classFilePath + "'");
-					URLResource resource = URLResource.create(classUrl);
-					archiver.getArchiver().addResource(resource, classFilePath, archiver.getArchiver().getDefaultFileMode());
+					PackedJarEntry launcherClassEntry = PackedJarEntry.url(classFilePath, classUrl, archive.isCompress());
+					launcherClassEntry.setShared(true);
+					addEntry(entries, launcherClassEntry);
 				} catch(Exception e) {
-					throw new ArchiverException("Failed to include launcher class '" + runtimeClass.getName() + "' to the executable JAR file", e);
+					throw new ArchiverException("Failed to include launcher class file '" + classFilePath + "' to the executable JAR file", e);
+				}
+			}
+
+			phaseStartNanos = report.recordPhase(PackingReport.PHASE_LAUNCHER_SCANNING, phaseStartNanos);
+
+			// include the hashes of all dependency JAR files, identifying them in the dependency cache
+			getLog().debug("Including dependency hashes file '" + hashesFile.getAbsolutePath() + "' as '" + DependencyCache.HASHES_NAME + "'");
+			addEntry(entries, PackedJarEntry.file(DependencyCache.HASHES_NAME, hashesFile, archive.isCompress()));
+
+			// include the list of classes to preload, as recorded by the record-class-list goal
+			if(preloadClassList!=null && preloadClassList.isFile()) {
+				getLog().debug("Including preload class list '" + preloadClassList.getAbsolutePath() + "' as '" + ClassPreloader.CLASS_LIST_NAME + "'");
+				addEntry(entries, PackedJarEntry.file(ClassPreloader.CLASS_LIST_NAME, preloadClassList, archive.isCompress()));
+			}
+
+			// include the list of native libraries, which the launcher extracts into its cache on demand
+			if(createNativeLibraryList) {
+				File librariesFile = this.createNativeLibraryList(dependencyJarFiles);
+				if(librariesFile!=null) {
+					getLog().debug("Including native library list '" + librariesFile.getAbsolutePath() + "' as '" + NativeLibraryCache.LIBRARIES_NAME + "'");
+					addEntry(entries, PackedJarEntry.file(NativeLibraryCache.LIBRARIES_NAME, librariesFile, archive.isCompress()));
+				}
+			}
+
+			// include the module graph of the dependencies launched as modules
+			if(moduleGraph!=null) {
+				ByteArrayOutputStream moduleGraphOutputStream = new ByteArrayOutputStream();
+				moduleGraph.write(moduleGraphOutputStream);
+				File moduleGraphFile = writeIfChanged(new File(getWorkDirectory(), "MODULE-GRAPH.LIST"), moduleGraphOutputStream.toByteArray());
+				getLog().debug("Including module graph '" + moduleGraphFile.getAbsolutePath() + "' as '" + ModuleGraph.MODULES_NAME + "'");
+				addEntry(entries, PackedJarEntry.file(ModuleGraph.MODULES_NAME, moduleGraphFile, archive.isCompress()));
+			}
+
+			// include the index of all classpath elements, and the filter of all their entries
+			if(createIndex) {
+				Map<String, List<String>> elementEntryNames = this.getElementEntryNames(realLibPath, dependencyJarFiles, launcherClassFilePaths);
+				File indexFile = this.createIndex(elementEntryNames);
+				getLog().debug("Including index file '" + indexFile.getAbsolutePath() + "' as '" + JarInJarIndex.INDEX_NAME + "'");
+				addEntry(entries, PackedJarEntry.file(JarInJarIndex.INDEX_NAME, indexFile, archive.isCompress()));
+				if(createEntryFilter) {
+					File filterFile = this.createEntryFilter(elementEntryNames);
+					getLog().debug("Including entry name filter file '" + filterFile.getAbsolutePath() + "' as '" + EntryNameFilter.FILTER_NAME + "'");
+					addEntry(entries, PackedJarEntry.file(EntryNameFilter.FILTER_NAME, filterFile, archive.isCompress()));
 				}
 			}
+			
+			// include the maven descriptor
+			if(archive.isAddMavenDescriptor()) {
+				String mavenDescriptorPath = getMavenDescriptorPath();
+				getLog().debug("Including maven descriptor as '" + mavenDescriptorPath + "'");
+				addEntry(entries, PackedJarEntry.file(mavenDescriptorPath + "pom.xml", project.getFile(), archive.isCompress()));
+				addEntry(entries, PackedJarEntry.file(mavenDescriptorPath + "pom.properties", this.createPomProperties(), archive.isCompress()));
+			}
+			
+			// lay out the entries in the order they are read during startup
+			if(accessOrder!=null) {
+				List<String> startupEntryNames = new ArrayList<String>();
+				startupEntryNames.add(JarFile.MANIFEST_NAME);
+				startupEntryNames.add(LaunchDescriptor.DESCRIPTOR_NAME);
+				startupEntryNames.addAll(launcherClassFilePaths);
+				startupEntryNames.add(DependencyCache.HASHES_NAME);
+				startupEntryNames.add(JarInJarIndex.INDEX_NAME);
+				startupEntryNames.add(EntryNameFilter.FILTER_NAME);
+				startupEntryNames.add(ClassPreloader.CLASS_LIST_NAME);
+				startupEntryNames.add(NativeLibraryCache.LIBRARIES_NAME);
+				startupEntryNames.add(ModuleGraph.MODULES_NAME);
+				entries = accessOrder.order(entries, startupEntryNames, realLibPath);
+			}
+			
+			setDirectoryTimes(entries);
+			this.applyStoredEntries(entries, realLibPath, dependencyJarFiles);
 
-			// create JAR
-			archiver.createArchive(session, project, archive);
+			phaseStartNanos = report.recordPhase(PackingReport.PHASE_METADATA, phaseStartNanos);
+
+			// create JAR, copying unchanged entries from the previous build
+			PackedJarWriter writer = new PackedJarWriter(outputJarFile, new File(getWorkDirectory(), "BUILD-STATE.LIST"), getLog());
+			writer.setThreads(compressionThreads>0? compressionThreads : Runtime.getRuntime().availableProcessors());
+			writer.setCompressionLevel(compressionLevel);
+			writer.setCache(PackingCache.get());
+			writer.write(entries.values(), forceCreation);
+			report.recordPhase(PackingReport.PHASE_ARCHIVE_CREATION, phaseStartNanos);
+
+			if(createPackingReport) {
+				this.writePackingReport(report, outputJarFile, realLibPath, dependencyJarFiles);
+			}
 
 		} catch (Exception e) {
 			throw new MojoExecutionException("Error packing executable JAR file '" + outputJarFile.getAbsolutePath() + "'", e);
@@ -232,4 +629,515 @@ public class PackExecutableJarMojo extends AbstractMojo {
 		projectHelper.attachArtifact(project, "jar", classifier, outputJarFile);
 	}
 
+	/**
+	 * Adds an entry, preceded by entries for all its parent directories which were not added yet.
+	 * 
+	 * @param entries the entries added so far
+	 * @param entry the entry to add
+	 */
+	private static void addEntry(Map<String, PackedJarEntry> entries, PackedJarEntry entry) {
+		int separatorIndex = -1;
+		while((separatorIndex = entry.getName().indexOf('/', separatorIndex + 1))!=-1 && separatorIndex<entry.getName().length() - 1) {
+			String directoryName = entry.getName().substring(0, separatorIndex + 1);
+			if(!entries.containsKey(directoryName)) {
+				entries.put(directoryName, PackedJarEntry.directory(directoryName));
+			}
+		}
+		entries.put(entry.getName(), entry);
+	}
+	
+	/**
+	 * Sets the time of each directory entry to the latest time of all entries it contains, so it only changes if its content changes.
+	 * 
+	 * @param entries all entries
+	 */
+	private static void setDirectoryTimes(Map<String, PackedJarEntry> entries) {
+		for(PackedJarEntry entry: entries.values()) {
+			if(!entry.isDirectory()) {
+				int separatorIndex = -1;
+				while((separatorIndex = entry.getName().indexOf('/', separatorIndex + 1))!=-1) {
+					PackedJarEntry directoryEntry = entries.get(entry.getName().substring(0, separatorIndex + 1));
+					directoryEntry.setTime(Math.max(directoryEntry.getTime(), entry.getTime()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param artifact a dependency artifact
+	 * @return true if the artifact matches one of the keepDependencies patterns
+	 */
+	private boolean isKeptDependency(Artifact artifact) {
+		if(keepDependencies==null) {
+			return false;
+		}
+		for(String keepDependency: keepDependencies) {
+			String[] keepDependencyParts = keepDependency.trim().split(":");
+			if(SelectorUtils.match(keepDependencyParts[0], artifact.getGroupId()) && (keepDependencyParts.length<2 || SelectorUtils.match(keepDependencyParts[1], artifact.getArtifactId()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes all dependency JAR files which cannot be reached from the main class, the keep rules or the classes to preload.
+	 * A report of the removed dependencies is written to the work directory.
+	 * 
+	 * @param dependencyJarFiles the dependency JAR files, in classpath order
+	 * @param keptDependencyJarFiles the dependency JAR files to keep
+	 * @return the remaining dependency JAR files, in classpath order
+	 * @throws IOException if reading a dependency or writing the report fails
+	 */
+	private List<File> pruneDependencies(List<File> dependencyJarFiles, List<File> keptDependencyJarFiles) throws IOException {
+		DependencyPruner pruner = new DependencyPruner(classesDirectory, dependencyJarFiles, getLog());
+		pruner.setPruneClasses(pruneClasses);
+		if(keepClasses!=null) {
+			pruner.addKeepClasses(Arrays.asList(keepClasses));
+		}
+		for(File keptDependencyJarFile: keptDependencyJarFiles) {
+			pruner.addKeepDependency(keptDependencyJarFile);
+		}
+		
+		// classes loaded in the training run are reachable as well, even if they are only loaded through reflection
+		List<String> rootClassNames = new ArrayList<String>();
+		rootClassNames.add(mainClass);
+		if(preloadClassList!=null && preloadClassList.isFile()) {
+			InputStream preloadClassListInputStream = new FileInputStream(preloadClassList);
+			try {
+				rootClassNames.addAll(ClassPreloader.readClassList(preloadClassListInputStream));
+			} finally {
+				preloadClassListInputStream.close();
+			}
+		}
+		
+		List<File> result = pruner.prune(rootClassNames, new File(getWorkDirectory(), "pruned"));
+		File reportFile = writeIfChanged(new File(getWorkDirectory(), "PRUNING-REPORT.txt"), pruner.getReport().getBytes(StandardCharsets.UTF_8));
+		getLog().info("Dependency pruning report written to '" + reportFile.getAbsolutePath() + "'");
+		return result;
+	}
+	
+	/**
+	 * Writes the packing report to the work directory, and warns about classes which are shadowed by classes with different content.
+	 * 
+	 * @param report the report, containing the time spent in each phase
+	 * @param outputJarFile the executable JAR file
+	 * @param realLibPath the directory containing the dependency JARs within the executable JAR, with trailing slash
+	 * @param dependencyJarFiles the packed dependency JAR files, in classpath order
+	 * @throws IOException if reading a JAR file or writing the report fails
+	 */
+	private void writePackingReport(PackingReport report, File outputJarFile, String realLibPath, List<File> dependencyJarFiles) throws IOException {
+		report.analyze(outputJarFile, realLibPath, dependencyJarFiles);
+		writeIfChanged(new File(getWorkDirectory(), "PACKING-REPORT.json"), report.toJson().getBytes(StandardCharsets.UTF_8));
+		File summaryFile = writeIfChanged(new File(getWorkDirectory(), "PACKING-REPORT.txt"), report.toSummary().getBytes(StandardCharsets.UTF_8));
+		int conflictingClassCount = report.getConflictingClassCount();
+		if(conflictingClassCount>0) {
+			getLog().warn(conflictingClassCount + " classes are contained in more than one classpath element with different content, only the first one in classpath order is used (see '" + summaryFile.getAbsolutePath() + "')");
+		}
+		getLog().info("Packing report with " + report.getDuplicateCount() + " duplicate classes and resources written to '" + summaryFile.getAbsolutePath() + "'");
+	}
+	
+	/**
+	 * @return the access trace
+	 * @throws IOException if reading the access trace fails
+	 */
+	private AccessTrace readAccessTrace() throws IOException {
+		InputStream accessTraceInputStream = new FileInputStream(accessTrace);
+		try {
+			return AccessTrace.read(accessTraceInputStream);
+		} finally {
+			accessTraceInputStream.close();
+		}
+	}
+	
+	/**
+	 * Stores all entries matching one of the stored entry patterns without compression.
+	 * In the "mapped" dependency access mode, all nested JARs are stored unless other patterns are configured, and compressed nested JARs cause a warning.
+	 * 
+	 * @param entries all entries
+	 * @param realLibPath the directory containing the dependency JARs within the executable JAR, with trailing slash
+	 * @param dependencyJarFiles the packed dependency JAR files
+	 */
+	private void applyStoredEntries(Map<String, PackedJarEntry> entries, String realLibPath, List<File> dependencyJarFiles) {
+		boolean mapped = ExecutableLauncher.DEPENDENCY_ACCESS_MAPPED.equals(dependencyAccess);
+		String[] patterns = storedEntries==null && mapped? DEFAULT_MAPPED_STORED_ENTRIES : storedEntries;
+		if(patterns!=null) {
+			for(PackedJarEntry entry: entries.values()) {
+				for(String storedEntry: patterns) {
+					if(SelectorUtils.matchPath(storedEntry.trim().replace('/', File.separatorChar), entry.getName().replace('/', File.separatorChar))) {
+						getLog().debug("Storing entry '" + entry.getName() + "' without compression");
+						entry.setCompressed(false);
+						break;
+					}
+				}
+			}
+		}
+		if(mapped) {
+			int compressedCount = 0;
+			for(File dependencyJarFile: dependencyJarFiles) {
+				PackedJarEntry entry = entries.get(realLibPath + dependencyJarFile.getName());
+				if(entry!=null && entry.isCompressed()) {
+					compressedCount++;
+				}
+			}
+			if(compressedCount>0) {
+				getLog().warn(compressedCount + " dependency JARs are compressed, so the \"mapped\" dependency access mode inflates them into memory instead of reading them in place (see storedEntries)");
+			}
+		}
+	}
+
+	/**
+	 * Determines the class files of all launcher runtime classes.
+	 * The class path scanner only finds top-level classes, so nested and anonymous classes are added as well.
+	 * The paths are sorted.
+	 * 
+	 * @return the paths of all launcher class files
+	 */
+	private static synchronized List<String> getLauncherClassFilePaths() {
+		if(launcherClassFilePaths==null) {
+			launcherClassFilePaths = Collections.unmodifiableList(scanLauncherClassFilePaths());
+		}
+		return launcherClassFilePaths;
+	}
+	
+	private static List<String> scanLauncherClassFilePaths() {
+		List<Class<?>> launcherRuntimeClasses = new ArrayList<Class<?>>(CPScanner.scanClasses(new ClassFilter().packageName(ExecutableLauncher.class.getPackage().getName())));
+		for(int i=0; i<launcherRuntimeClasses.size(); i++) {
+			for(Class<?> nestedClass: launcherRuntimeClasses.get(i).getDeclaredClasses()) {
+				if(!launcherRuntimeClasses.contains(nestedClass)) {
+					launcherRuntimeClasses.add(nestedClass);
+				}
+			}
+		}
+		
+		List<String> result = new ArrayList<String>();
+		ClassLoader classLoader = ExecutableLauncher.class.getClassLoader();
+		for(Class<?> runtimeClass: launcherRuntimeClasses) {
+			String classFilePathPrefix = runtimeClass.getName().replace(".", "/");
+			result.add(classFilePathPrefix + ".class");
+			// anonymous classes are numbered consecutively
+			for(int anonymousClassNumber = 1; classLoader.getResource(classFilePathPrefix + "$" + anonymousClassNumber + ".class")!=null; anonymousClassNumber++) {
+				result.add(classFilePathPrefix + "$" + anonymousClassNumber + ".class");
+			}
+		}
+		// the scanner's order is arbitrary, but the JAR file's entries must be in the same order on every build
+		Collections.sort(result);
+		return result;
+	}
+	
+	/**
+	 * Determines the names of all entries of the executable JAR's root and of all dependency JARs.
+	 * Dependency JARs loaded by a module layer are included as well, so the index and the filter still match if the launcher falls back to loading them using the jar-in-jar-classloader.
+	 * 
+	 * @param realLibPath the normalized library path
+	 * @param dependencyJarFiles the dependency JAR files, in classpath order
+	 * @param launcherClassFilePaths the paths of all included launcher classes
+	 * @return the entry names of each classpath element, keyed by element name and in classpath order
+	 * @throws IOException if reading a dependency fails
+	 */
+	private Map<String, List<String>> getElementEntryNames(String realLibPath, List<File> dependencyJarFiles, List<String> launcherClassFilePaths) throws IOException {
+		Map<String, List<String>> elementEntryNames = new LinkedHashMap<String, List<String>>();
+		
+		// the root contains the classes directory, the launcher, the dependency JARs themselves and the generated metadata
+		List<String> rootEntryNames = new ArrayList<String>();
+		if(classesDirectory.exists()) {
+			DirectoryScanner scanner = this.scanClassesDirectory();
+			for(String includedPath: scanner.getIncludedFiles()) {
+				rootEntryNames.add(includedPath.replace(File.separatorChar, '/'));
+			}
+			for(String includedPath: scanner.getIncludedDirectories()) {
+				if(!includedPath.isEmpty()) {
+					rootEntryNames.add(includedPath.replace(File.separatorChar, '/') + "/");
+				}
+			}
+		}
+		rootEntryNames.addAll(launcherClassFilePaths);
+		for(File dependencyJarFile: dependencyJarFiles) {
+			rootEntryNames.add(realLibPath + dependencyJarFile.getName());
+		}
+		rootEntryNames.add(JarFile.MANIFEST_NAME);
+		rootEntryNames.add(JarInJarIndex.INDEX_NAME);
+		rootEntryNames.add(EntryNameFilter.FILTER_NAME);
+		rootEntryNames.add(DependencyCache.HASHES_NAME);
+		rootEntryNames.add(LaunchDescriptor.DESCRIPTOR_NAME);
+		rootEntryNames.add(ClassPreloader.CLASS_LIST_NAME);
+		rootEntryNames.add(NativeLibraryCache.LIBRARIES_NAME);
+		rootEntryNames.add(ModuleGraph.MODULES_NAME);
+		if(archive.isAddMavenDescriptor()) {
+			String mavenDescriptorPath = getMavenDescriptorPath();
+			rootEntryNames.add(mavenDescriptorPath + "pom.xml");
+			rootEntryNames.add(mavenDescriptorPath + "pom.properties");
+		}
+		// the executable JAR contains entries for all parent directories, see addEntry
+		Set<String> rootDirectoryNames = new TreeSet<String>();
+		for(String rootEntryName: rootEntryNames) {
+			for(int separatorIndex = rootEntryName.indexOf('/'); separatorIndex!=-1 && separatorIndex<rootEntryName.length() - 1; separatorIndex = rootEntryName.indexOf('/', separatorIndex + 1)) {
+				rootDirectoryNames.add(rootEntryName.substring(0, separatorIndex + 1));
+			}
+		}
+		rootDirectoryNames.removeAll(rootEntryNames);
+		rootEntryNames.addAll(rootDirectoryNames);
+		elementEntryNames.put(JarInJarIndex.ROOT_ELEMENT_NAME, rootEntryNames);
+		
+		for(File dependencyJarFile: dependencyJarFiles) {
+			List<String> dependencyEntryNames = new ArrayList<String>();
+			JarFile dependencyJar = new JarFile(dependencyJarFile);
+			try {
+				Enumeration<JarEntry> dependencyEntries = dependencyJar.entries();
+				while(dependencyEntries.hasMoreElements()) {
+					dependencyEntryNames.add(dependencyEntries.nextElement().getName());
+				}
+			} finally {
+				dependencyJar.close();
+			}
+			elementEntryNames.put(dependencyJarFile.getName(), dependencyEntryNames);
+		}
+		
+		return elementEntryNames;
+	}
+	
+	/**
+	 * Writes the index of all entries of the executable JAR's root and of all dependency JARs.
+	 * The index file is only rewritten if its content changed, in order not to defeat the up-to-date check.
+	 * 
+	 * @param elementEntryNames the entry names of each classpath element
+	 * @return the index file
+	 * @throws IOException if writing the index fails
+	 */
+	private File createIndex(Map<String, List<String>> elementEntryNames) throws IOException {
+		ByteArrayOutputStream indexOutputStream = new ByteArrayOutputStream();
+		JarInJarIndex.write(indexOutputStream, elementEntryNames);
+		return writeIfChanged(new File(getWorkDirectory(), "INDEX.LIST"), indexOutputStream.toByteArray());
+	}
+	
+	/**
+	 * Writes the Bloom filter of all entries of the executable JAR's root and of all dependency JARs.
+	 * 
+	 * @param elementEntryNames the entry names of each classpath element
+	 * @return the filter file
+	 * @throws IOException if writing the filter fails
+	 */
+	private File createEntryFilter(Map<String, List<String>> elementEntryNames) throws IOException {
+		ByteArrayOutputStream filterOutputStream = new ByteArrayOutputStream();
+		EntryNameFilter.write(filterOutputStream, elementEntryNames);
+		return writeIfChanged(new File(getWorkDirectory(), "ENTRIES.BLOOM"), filterOutputStream.toByteArray());
+	}
+	
+	/**
+	 * @return a scanner which found all included files and directories of the classes directory
+	 */
+	private DirectoryScanner scanClassesDirectory() {
+		DirectoryScanner scanner = new DirectoryScanner();
+		scanner.setBasedir(classesDirectory);
+		scanner.setIncludes(getIncludes());
+		scanner.setExcludes(getExcludes());
+		scanner.scan();
+		return scanner;
+	}
+	
+	/**
+	 * Creates the manifest as configured by the archive configuration, merged over the configured manifest file if there is one.
+	 * 
+	 * @return the manifest
+	 * @throws Exception if creating the manifest fails
+	 */
+	private Manifest createManifest() throws Exception {
+		Manifest configuredManifest = new MavenArchiver().getManifest(session, project, archive);
+		Manifest manifest = new Manifest();
+		if(archive.getManifestFile()!=null) {
+			InputStream manifestInputStream = new FileInputStream(archive.getManifestFile());
+			try {
+				manifest.read(manifestInputStream);
+			} finally {
+				manifestInputStream.close();
+			}
+		}
+		manifest.getMainAttributes().putAll(configuredManifest.getMainAttributes());
+		for(Map.Entry<String, Attributes> section: configuredManifest.getEntries().entrySet()) {
+			Attributes attributes = manifest.getEntries().get(section.getKey());
+			if(attributes==null) {
+				attributes = new Attributes();
+				manifest.getEntries().put(section.getKey(), attributes);
+			}
+			attributes.putAll(section.getValue());
+		}
+		if(!manifest.getMainAttributes().containsKey(Attributes.Name.MANIFEST_VERSION)) {
+			manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		}
+		return manifest;
+	}
+	
+	/**
+	 * Writes the launch descriptor, containing the manifest's main attributes and the dependency JARs listed in the dependency hashes file.
+	 * The hashes are read from that file, so the dependency JARs are not hashed twice.
+	 * 
+	 * @param manifest the manifest
+	 * @param realLibPath the path of the directory containing the dependency JARs
+	 * @param hashesFile the dependency hashes file
+	 * @return the launch descriptor file
+	 * @throws IOException if reading or writing fails
+	 */
+	private File createLaunchDescriptor(Manifest manifest, String realLibPath, File hashesFile) throws IOException {
+		Map<String, DependencyCache.Dependency> dependencies;
+		InputStream hashesInputStream = new FileInputStream(hashesFile);
+		try {
+			dependencies = DependencyCache.readHashes(hashesInputStream, realLibPath);
+		} finally {
+			hashesInputStream.close();
+		}
+		ByteArrayOutputStream descriptorOutputStream = new ByteArrayOutputStream();
+		LaunchDescriptor.write(descriptorOutputStream, manifest.getMainAttributes(), dependencies.values());
+		return writeIfChanged(new File(getWorkDirectory(), "LAUNCH.DESCRIPTOR"), descriptorOutputStream.toByteArray());
+	}
+	
+	/**
+	 * @return the directory of the maven descriptor within the JAR file
+	 */
+	private String getMavenDescriptorPath() {
+		return "META-INF/maven/" + project.getGroupId() + "/" + project.getArtifactId() + "/";
+	}
+	
+	/**
+	 * Writes the pom.properties file of the maven descriptor, based on the configured pom properties file if there is one.
+	 * Unlike the maven archiver, no timestamp is written, so the file only changes if the project's coordinates change.
+	 * 
+	 * @return the pom.properties file
+	 * @throws IOException if reading or writing fails
+	 */
+	private File createPomProperties() throws IOException {
+		Properties properties = new Properties();
+		if(archive.getPomPropertiesFile()!=null) {
+			InputStream propertiesInputStream = new FileInputStream(archive.getPomPropertiesFile());
+			try {
+				properties.load(propertiesInputStream);
+			} finally {
+				propertiesInputStream.close();
+			}
+		}
+		properties.setProperty("groupId", project.getGroupId());
+		properties.setProperty("artifactId", project.getArtifactId());
+		properties.setProperty("version", project.getVersion());
+		
+		List<String> lines = new ArrayList<String>();
+		for(String name: properties.stringPropertyNames()) {
+			Properties property = new Properties();
+			property.setProperty(name, properties.getProperty(name));
+			StringWriter propertyWriter = new StringWriter();
+			property.store(propertyWriter, null);
+			// skip the date comment written by Properties.store
+			String propertyLine = propertyWriter.toString();
+			lines.add(propertyLine.substring(propertyLine.indexOf('\n') + 1));
+		}
+		Collections.sort(lines);
+		StringBuilder content = new StringBuilder();
+		for(String line: lines) {
+			content.append(line);
+		}
+		return writeIfChanged(new File(getWorkDirectory(), "pom.properties"), content.toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+	
+	/**
+	 * The hashes are taken from the packing cache if other modules hashed the same dependency JAR files before.
+	 * 
+	 * @param dependencyJarFiles the dependency JAR files
+	 * @return the file listing the hashes of all dependency JAR files
+	 * @throws IOException if reading a dependency JAR file or writing fails
+	 */
+	private File createDependencyHashes(List<File> dependencyJarFiles) throws IOException {
+		Map<File, String> dependencyJarHashes = new LinkedHashMap<File, String>();
+		for(File dependencyJarFile: dependencyJarFiles) {
+			String hash = PackingCache.get().getHash(dependencyJarFile);
+			if(hash==null) {
+				InputStream inputStream = new FileInputStream(dependencyJarFile);
+				try {
+					hash = DependencyCache.hash(inputStream, null);
+				} finally {
+					inputStream.close();
+				}
+				PackingCache.get().putHash(dependencyJarFile, hash);
+			}
+			dependencyJarHashes.put(dependencyJarFile, hash);
+		}
+		ByteArrayOutputStream hashesOutputStream = new ByteArrayOutputStream();
+		DependencyCache.writeHashes(hashesOutputStream, dependencyJarHashes);
+		return writeIfChanged(new File(getWorkDirectory(), "DEPENDENCY-HASHES.LIST"), hashesOutputStream.toByteArray());
+	}
+
+	/**
+	 * Writes the list of all native libraries contained in the classes directory and in all dependency JARs, with the platform they were built for and their hashes.
+	 * The list file is only rewritten if its content changed, in order not to defeat the up-to-date check.
+	 * 
+	 * @param dependencyJarFiles the dependency JAR files, in classpath order
+	 * @return the list file, or null if there are no native libraries
+	 * @throws IOException if reading a native library or writing the list fails
+	 */
+	private File createNativeLibraryList(List<File> dependencyJarFiles) throws IOException {
+		List<NativeLibraryCache.NativeLibrary> libraries = new ArrayList<NativeLibraryCache.NativeLibrary>();
+		if(classesDirectory.exists()) {
+			String[] includedPaths = this.scanClassesDirectory().getIncludedFiles();
+			Arrays.sort(includedPaths);
+			for(String includedPath: includedPaths) {
+				String entryName = includedPath.replace(File.separatorChar, '/');
+				if(NativeLibraryCache.isNativeLibrary(entryName)) {
+					File libraryFile = new File(classesDirectory, includedPath);
+					InputStream inputStream = new FileInputStream(libraryFile);
+					try {
+						libraries.add(createNativeLibrary(JarInJarIndex.ROOT_ELEMENT_NAME, entryName, inputStream, libraryFile.length()));
+					} finally {
+						inputStream.close();
+					}
+				}
+			}
+		}
+		for(File dependencyJarFile: dependencyJarFiles) {
+			JarFile dependencyJar = new JarFile(dependencyJarFile);
+			try {
+				Enumeration<JarEntry> dependencyEntries = dependencyJar.entries();
+				while(dependencyEntries.hasMoreElements()) {
+					JarEntry dependencyEntry = dependencyEntries.nextElement();
+					if(!dependencyEntry.isDirectory() && NativeLibraryCache.isNativeLibrary(dependencyEntry.getName())) {
+						InputStream inputStream = dependencyJar.getInputStream(dependencyEntry);
+						try {
+							libraries.add(createNativeLibrary(dependencyJarFile.getName(), dependencyEntry.getName(), inputStream, dependencyEntry.getSize()));
+						} finally {
+							inputStream.close();
+						}
+					}
+				}
+			} finally {
+				dependencyJar.close();
+			}
+		}
+		if(libraries.isEmpty()) {
+			return null;
+		}
+		
+		getLog().info("Found " + libraries.size() + " native libraries");
+		ByteArrayOutputStream librariesOutputStream = new ByteArrayOutputStream();
+		NativeLibraryCache.write(librariesOutputStream, libraries);
+		return writeIfChanged(new File(getWorkDirectory(), "NATIVE-LIBRARIES.LIST"), librariesOutputStream.toByteArray());
+	}
+	
+	private NativeLibraryCache.NativeLibrary createNativeLibrary(String elementName, String entryName, InputStream inputStream, long size) throws IOException {
+		NativeLibraryCache.NativeLibrary library = new NativeLibraryCache.NativeLibrary(elementName, entryName,
+				NativeLibraryCache.getOperatingSystem(entryName), NativeLibraryCache.getArchitecture(entryName), DependencyCache.hash(inputStream, null), size);
+		getLog().debug("Including native library " + library);
+		return library;
+	}
+
+	/**
+	 * @return the directory to store generated files in before they are packed
+	 */
+	private File getWorkDirectory() {
+		return new File(outputDirectory, "executable-packer/" + classifier);
+	}
+	
+	private static File writeIfChanged(File file, byte[] content) throws IOException {
+		if(!file.isFile() || !Arrays.equals(Files.readAllBytes(file.toPath()), content)) {
+			file.getParentFile().mkdirs();
+			Files.write(file.toPath(), content);
+		}
+		return file;
+	}
+
 }
@@ -0,0 +1,178 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * An entry of the executable JAR file, read either from a file, from a URL or, for directories, from nowhere.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class PackedJarEntry {
+	private final String name;
+	private final File file;
+	private final URL url;
+	private final long sourceSize;
+	private final long sourceLastModified;
+	private long time;
+	private boolean compressed;
+	private boolean shared;
+	private String hash;
+
+	private PackedJarEntry(String name, File file, URL url, long sourceSize, long sourceLastModified, boolean compressed) {
+		this.name = name;
+		this.file = file;
+		this.url = url;
+		this.sourceSize = sourceSize;
+		this.sourceLastModified = sourceLastModified;
+		this.time = sourceLastModified;
+		this.compressed = compressed;
+	}
+
+	/**
+	 * @param name the entry name, ending with a slash
+	 * @return a directory entry
+	 */
+	public static PackedJarEntry directory(String name) {
+		return new PackedJarEntry(name, null, null, 0, 0, false);
+	}
+
+	/**
+	 * @param name the entry name
+	 * @param file the file to read the content from
+	 * @param compressed whether the entry is deflated or stored
+	 * @return a file entry
+	 */
+	public static PackedJarEntry file(String name, File file, boolean compressed) {
+		return new PackedJarEntry(name, file, null, file.length(), file.lastModified(), compressed);
+	}
+
+	/**
+	 * Creates an entry for a URL, which must point to an existing local resource like a class file.
+	 * A connection will be opened to that URL to query lastModified and content size metadata.
+	 *
+	 * @param name the entry name
+	 * @param url the URL to read the content from
+	 * @param compressed whether the entry is deflated or stored
+	 * @return a URL entry
+	 * @throws IOException if querying metadata fails
+	 */
+	public static PackedJarEntry url(String name, URL url, boolean compressed) throws IOException {
+		try {
+			URLConnection connection = url.openConnection();
+
+			long lastModified = connection.getLastModified();
+			if(lastModified==0) {
+				throw new IOException("lastModified is unknown");
+			}
+
+			long size = connection.getContentLengthLong();
+			if(size<0) {
+				throw new IOException("content size is unknown");
+			}
+
+			// do not leak the file handle opened by the connection
+			connection.getInputStream().close();
+
+			return new PackedJarEntry(name, null, url, size, lastModified, compressed);
+
+		} catch(Exception e) {
+			throw new IOException("Failed to query metadata for URL '" + url + "'", e);
+		}
+	}
+
+	/**
+	 * @return a new stream of the entry's content
+	 * @throws IOException if opening the source fails
+	 */
+	public InputStream openStream() throws IOException {
+		if(file!=null) {
+			return new FileInputStream(file);
+		} else if(url!=null) {
+			return url.openStream();
+		} else {
+			throw new IOException("Directory entry '" + name + "' has no content");
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isDirectory() {
+		return file==null && url==null;
+	}
+
+	/**
+	 * @return the source's absolute path or URL, or null for directories
+	 */
+	public String getSourceLocation() {
+		return file!=null? file.getAbsolutePath() : url!=null? url.toString() : null;
+	}
+
+	/**
+	 * @return the source's size, used to detect changes of the source without reading it
+	 */
+	public long getSourceSize() {
+		return sourceSize;
+	}
+
+	/**
+	 * @return the source's last modification time, used to detect changes of the source without reading it
+	 */
+	public long getSourceLastModified() {
+		return sourceLastModified;
+	}
+
+	/**
+	 * @return the modification time stored in the JAR file
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * @return whether the entry is likely contained in the JAR files of other modules too, e.g. a dependency JAR, so its compressed content is worth caching
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * @return the hash of the content, or null if it was not computed yet
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + (isDirectory()? "directory" : getSourceLocation()) + ")";
+	}
+
+}
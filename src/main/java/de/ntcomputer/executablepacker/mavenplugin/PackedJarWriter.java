@@ -0,0 +1,369 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.JarMarker;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.maven.plugin.logging.Log;
+
+import de.ntcomputer.executablepacker.runtime.DependencyCache;
+
+/**
+ * Writes the executable JAR file incrementally.
+ * The content hash of every entry is recorded in a build state file. On the next build, entries whose content and compression did not change
+ * are copied from the previous JAR file as they are, including their compressed bytes, so only changed entries are compressed again.
+ * If no entry changed at all and the previous JAR file is still in place, nothing is written.
+ * <p>
+ * Changed entries are hashed and compressed on multiple threads. The compressed entries are written to the JAR file in the given order,
+ * so the JAR file's content does not depend on the number of threads.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class PackedJarWriter {
+	private final File outputFile;
+	private final File stateFile;
+	private final Log log;
+	private int threads = 1;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private PackingCache cache;
+
+	/**
+	 * @param outputFile the JAR file to write
+	 * @param stateFile the file to store the build state in
+	 * @param log the log to report to
+	 */
+	public PackedJarWriter(File outputFile, File stateFile, Log log) {
+		this.outputFile = outputFile;
+		this.stateFile = stateFile;
+		this.log = log;
+	}
+
+	/**
+	 * @param threads the number of threads hashing and compressing entries
+	 */
+	public void setThreads(int threads) {
+		if(threads<1) {
+			throw new IllegalArgumentException("At least one thread is required");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * @param compressionLevel the deflate level of compressed entries, from 0 to 9, or -1 for the default level
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if(compressionLevel<Deflater.DEFAULT_COMPRESSION || compressionLevel>Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * @param cache the cache to take hashes and the compressed content of shared entries from, or null to process all entries
+	 */
+	public void setCache(PackingCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Writes the JAR file, unless it is up to date.
+	 *
+	 * @param entries all entries, in the order to write them in. The manifest must be among the first entries.
+	 * @param forced whether to write the JAR file even if it is up to date. Unchanged entries are still copied from the previous JAR file.
+	 * @return true if the JAR file was written, false if it was up to date
+	 * @throws IOException if reading an entry or writing the JAR file fails
+	 */
+	public boolean write(Collection<PackedJarEntry> entries, boolean forced) throws IOException {
+		BuildState previousState = BuildState.read(stateFile);
+		if(previousState!=null && !previousState.isOutputUnchanged(outputFile)) {
+			log.debug("JAR file '" + outputFile.getAbsolutePath() + "' was modified since the last build, recreating it from scratch");
+			previousState = null;
+		}
+
+		ExecutorService executor = threads>1? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "executable-packer-compression");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}) : null;
+		try {
+			// hash all entries, reading only those sources which changed since the last build
+			List<Future<Void>> hashResults = new ArrayList<Future<Void>>();
+			for(final PackedJarEntry entry: entries) {
+				if(!entry.isDirectory() && (previousState==null || !previousState.reuseHash(entry))) {
+					hashResults.add(submit(executor, new Callable<Void>() {
+						@Override
+						public Void call() throws IOException {
+							String hash = cache!=null? cache.getHash(entry) : null;
+							if(hash!=null) {
+								entry.setHash(hash);
+								return null;
+							}
+							InputStream inputStream = entry.openStream();
+							try {
+								entry.setHash(DependencyCache.hash(inputStream, null));
+							} finally {
+								inputStream.close();
+							}
+							if(cache!=null) {
+								cache.putHash(entry);
+							}
+							return null;
+						}
+					}));
+				}
+			}
+			for(Future<Void> hashResult: hashResults) {
+				getResult(hashResult);
+			}
+			log.debug("Hashed " + hashResults.size() + " changed sources");
+
+			BuildState state = BuildState.create(entries, compressionLevel);
+			if(!forced && previousState!=null && state.hasSameEntries(previousState)) {
+				log.info("JAR file '" + outputFile.getAbsolutePath() + "' is up to date");
+				// the sources may have been touched, so their new modification times are recorded to reuse their hashes next time
+				state.setOutput(outputFile);
+				state.write(stateFile);
+				return false;
+			}
+
+			this.writeEntries(entries, previousState, executor);
+			state.setOutput(outputFile);
+			state.write(stateFile);
+			return true;
+
+		} finally {
+			if(executor!=null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	private void writeEntries(Collection<PackedJarEntry> entries, BuildState previousState, ExecutorService executor) throws IOException {
+		File temporaryFile = new File(outputFile.getParentFile(), outputFile.getName() + ".tmp");
+		int copiedCount = 0;
+		int compressedCount = 0;
+		int cachedCount = 0;
+		// entries are compressed ahead of writing, but only a few at a time, so the compressed content of at most that many entries is kept in memory
+		int maxPendingCount = threads * 4;
+		Deque<Future<CompressedEntry>> pendingEntries = new ArrayDeque<Future<CompressedEntry>>();
+		ZipFile previousJar = previousState!=null? new ZipFile(outputFile) : null;
+		try {
+			ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(temporaryFile);
+			try {
+				boolean first = true;
+				for(final PackedJarEntry entry: entries) {
+					ZipArchiveEntry previousEntry = null;
+					if(previousJar!=null && !entry.isDirectory() && previousState.isUnchanged(entry.getName(), entry.getHash(), entry.isCompressed(), compressionLevel)) {
+						previousEntry = previousJar.getEntry(entry.getName());
+					}
+
+					if(previousEntry!=null) {
+						// copy the compressed bytes as they are
+						ZipArchiveEntry copiedEntry = new ZipArchiveEntry(previousEntry);
+						copiedEntry.setTime(entry.getTime());
+						pendingEntries.add(new CompressedEntry(copiedEntry, previousJar.getRawInputStream(previousEntry), false).toFuture());
+						copiedCount++;
+					} else if(entry.isDirectory()) {
+						ZipArchiveEntry archiveEntry = new ZipArchiveEntry(entry.getName());
+						archiveEntry.setTime(entry.getTime());
+						archiveEntry.setMethod(ZipEntry.STORED);
+						archiveEntry.setSize(0);
+						archiveEntry.setCompressedSize(0);
+						archiveEntry.setCrc(0);
+						pendingEntries.add(new CompressedEntry(archiveEntry, new ByteArrayInputStream(new byte[0]), false).toFuture());
+					} else {
+						pendingEntries.add(submit(executor, new Callable<CompressedEntry>() {
+							@Override
+							public CompressedEntry call() throws IOException {
+								return compress(entry);
+							}
+						}));
+						compressedCount++;
+					}
+
+					if(first) {
+						// mark the file as JAR file like the JDK's JarOutputStream does
+						getResult(pendingEntries.getFirst()).entry.addAsFirstExtraField(JarMarker.getInstance());
+						first = false;
+					}
+					while(pendingEntries.size()>maxPendingCount) {
+						cachedCount += getResult(pendingEntries.removeFirst()).write(outputStream);
+					}
+				}
+				while(!pendingEntries.isEmpty()) {
+					cachedCount += getResult(pendingEntries.removeFirst()).write(outputStream);
+				}
+			} finally {
+				outputStream.close();
+			}
+		} finally {
+			for(Future<CompressedEntry> pendingEntry: pendingEntries) {
+				pendingEntry.cancel(true);
+			}
+			if(previousJar!=null) {
+				previousJar.close();
+			}
+		}
+
+		Files.move(temporaryFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		log.info("Wrote JAR file '" + outputFile.getAbsolutePath() + "': " + (compressedCount - cachedCount) + " entries packed, " + cachedCount + " entries taken from the packing cache, " + copiedCount + " unchanged entries copied from the previous build");
+	}
+
+	/**
+	 * Compresses an entry into memory, independent of the JAR file.
+	 * The compressed content of shared entries is taken from the cache, or added to it.
+	 *
+	 * @param entry the entry to compress
+	 * @return the compressed entry
+	 * @throws IOException if reading the entry fails
+	 */
+	private CompressedEntry compress(PackedJarEntry entry) throws IOException {
+		ZipArchiveEntry archiveEntry = new ZipArchiveEntry(entry.getName());
+		archiveEntry.setTime(entry.getTime());
+		boolean cached = cache!=null && entry.isShared() && entry.isCompressed();
+		if(cached) {
+			PackingCache.CompressedContent cachedContent = cache.getCompressedContent(entry.getHash(), compressionLevel);
+			if(cachedContent!=null) {
+				archiveEntry.setMethod(ZipEntry.DEFLATED);
+				archiveEntry.setSize(cachedContent.getSize());
+				archiveEntry.setCompressedSize(cachedContent.getCompressedContent().length);
+				archiveEntry.setCrc(cachedContent.getCrc());
+				return new CompressedEntry(archiveEntry, new ByteArrayInputStream(cachedContent.getCompressedContent()), true);
+			}
+		}
+
+		ByteArrayOutputStream compressedContent = new ByteArrayOutputStream((int) Math.min(entry.getSourceSize() + 64, Integer.MAX_VALUE - 8));
+		CRC32 crc = new CRC32();
+		long size;
+		InputStream inputStream = new CheckedInputStream(entry.openStream(), crc);
+		try {
+			if(entry.isCompressed()) {
+				Deflater deflater = new Deflater(compressionLevel, true);
+				try {
+					OutputStream deflaterOutputStream = new DeflaterOutputStream(compressedContent, deflater, 65536);
+					size = copy(inputStream, deflaterOutputStream);
+					deflaterOutputStream.close();
+				} finally {
+					deflater.end();
+				}
+				archiveEntry.setMethod(ZipEntry.DEFLATED);
+			} else {
+				size = copy(inputStream, compressedContent);
+				archiveEntry.setMethod(ZipEntry.STORED);
+			}
+		} finally {
+			inputStream.close();
+		}
+		byte[] compressedBytes = compressedContent.toByteArray();
+		archiveEntry.setSize(size);
+		archiveEntry.setCompressedSize(compressedBytes.length);
+		archiveEntry.setCrc(crc.getValue());
+		if(cached) {
+			cache.putCompressedContent(entry.getHash(), compressionLevel, new PackingCache.CompressedContent(compressedBytes, size, crc.getValue()));
+		}
+		return new CompressedEntry(archiveEntry, new ByteArrayInputStream(compressedBytes), false);
+	}
+
+	private static long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+		byte[] buffer = new byte[65536];
+		long size = 0;
+		int count;
+		while((count = inputStream.read(buffer))!=-1) {
+			outputStream.write(buffer, 0, count);
+			size += count;
+		}
+		return size;
+	}
+
+	private static <T> Future<T> submit(ExecutorService executor, Callable<T> task) {
+		if(executor!=null) {
+			return executor.submit(task);
+		}
+		FutureTask<T> future = new FutureTask<T>(task);
+		future.run();
+		return future;
+	}
+
+	private static <T> T getResult(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing entries", e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * An entry whose compressed content is known, so it can be written to the JAR file without compressing it.
+	 */
+	private static class CompressedEntry {
+		private final ZipArchiveEntry entry;
+		private final InputStream rawContent;
+		private final boolean fromCache;
+
+		private CompressedEntry(ZipArchiveEntry entry, InputStream rawContent, boolean fromCache) {
+			this.entry = entry;
+			this.rawContent = rawContent;
+			this.fromCache = fromCache;
+		}
+
+		/**
+		 * @return 1 if the compressed content was taken from the packing cache, otherwise 0
+		 */
+		private int write(ZipArchiveOutputStream outputStream) throws IOException {
+			try {
+				outputStream.addRawArchiveEntry(entry, rawContent);
+			} finally {
+				rawContent.close();
+			}
+			return fromCache? 1 : 0;
+		}
+
+		private Future<CompressedEntry> toFuture() {
+			FutureTask<CompressedEntry> future = new FutureTask<CompressedEntry>(new Callable<CompressedEntry>() {
+				@Override
+				public CompressedEntry call() {
+					return CompressedEntry.this;
+				}
+			});
+			future.run();
+			return future;
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache shared by all executions of the plugin within a build, so modules of a multi-module build do not process the same dependency JARs again.
+ * Maven loads the plugin's classes once per build and reuses them for all modules, so a static instance is shared by all of them, including modules built in parallel.
+ * <p>
+ * The cache holds the content hashes of sources, keyed by their location, size and modification time, and the compressed content of shared entries
+ * (like dependency JARs), keyed by their content hash and compression level. The compressed content is bounded by size, evicting least recently used content first.
+ * <p>
+ * A resident Maven JVM (like the Maven daemon) keeps the plugin's classes loaded across builds. The cache is therefore bound to the build session:
+ * the first execution of a new session clears everything cached by previous builds.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class PackingCache {
+	private static final PackingCache INSTANCE = new PackingCache();
+
+	private final Map<String, String> hashes = new ConcurrentHashMap<String, String>();
+	private final LinkedHashMap<String, CompressedContent> compressedContents = new LinkedHashMap<String, CompressedContent>(16, 0.75f, true);
+	private long compressedSize = 0;
+	private long maxCompressedSize = 0;
+	/** The build session the cache is used by, not preventing it from being garbage collected after the build */
+	private WeakReference<Object> session = new WeakReference<Object>(null);
+
+	PackingCache() {
+	}
+
+	/**
+	 * @return the cache shared by all executions of the plugin
+	 */
+	public static PackingCache get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Binds the cache to the build session of an execution, clearing it if it was used by a different session before,
+	 * and raises the maximum total size of cached compressed content to the size configured by the execution.
+	 * Executions of the same session configuring different sizes, possibly running in parallel, thus share the largest size.
+	 *
+	 * @param session the build session of the execution
+	 * @param maxCompressedSize the maximum size in bytes, or 0 to cache no compressed content
+	 */
+	public synchronized void beginExecution(Object session, long maxCompressedSize) {
+		if(this.session.get()!=session) {
+			this.session = new WeakReference<Object>(session);
+			this.hashes.clear();
+			this.compressedContents.clear();
+			this.compressedSize = 0;
+			this.maxCompressedSize = 0;
+		}
+		this.maxCompressedSize = Math.max(this.maxCompressedSize, maxCompressedSize);
+	}
+
+	/**
+	 * @param entry a file or URL entry
+	 * @return the hash of the entry's source, or null if it is not cached
+	 */
+	public String getHash(PackedJarEntry entry) {
+		return this.hashes.get(getSourceKey(entry.getSourceLocation(), entry.getSourceSize(), entry.getSourceLastModified()));
+	}
+
+	/**
+	 * @param entry a file or URL entry, whose hash has been computed
+	 */
+	public void putHash(PackedJarEntry entry) {
+		this.hashes.put(getSourceKey(entry.getSourceLocation(), entry.getSourceSize(), entry.getSourceLastModified()), entry.getHash());
+	}
+
+	/**
+	 * @param file a file
+	 * @return the hash of the file's content, or null if it is not cached
+	 */
+	public String getHash(File file) {
+		return this.hashes.get(getSourceKey(file.getAbsolutePath(), file.length(), file.lastModified()));
+	}
+
+	/**
+	 * @param file a file
+	 * @param hash the hash of the file's content
+	 */
+	public void putHash(File file, String hash) {
+		this.hashes.put(getSourceKey(file.getAbsolutePath(), file.length(), file.lastModified()), hash);
+	}
+
+	private static String getSourceKey(String location, long size, long lastModified) {
+		return location + " " + size + " " + lastModified;
+	}
+
+	/**
+	 * @param hash the content hash
+	 * @param compressionLevel the deflate level
+	 * @return the content deflated at the given level, or null if it is not cached
+	 */
+	public synchronized CompressedContent getCompressedContent(String hash, int compressionLevel) {
+		return this.compressedContents.get(hash + " " + compressionLevel);
+	}
+
+	/**
+	 * Caches compressed content, unless it is larger than the cache.
+	 *
+	 * @param hash the content hash
+	 * @param compressionLevel the deflate level
+	 * @param content the content deflated at the given level
+	 */
+	public synchronized void putCompressedContent(String hash, int compressionLevel, CompressedContent content) {
+		if(content.getCompressedContent().length > this.maxCompressedSize) {
+			return;
+		}
+		CompressedContent previousContent = this.compressedContents.put(hash + " " + compressionLevel, content);
+		if(previousContent!=null) {
+			this.compressedSize -= previousContent.getCompressedContent().length;
+		}
+		this.compressedSize += content.getCompressedContent().length;
+		this.evict();
+	}
+
+	private void evict() {
+		Iterator<CompressedContent> iterator = this.compressedContents.values().iterator();
+		while(this.compressedSize > this.maxCompressedSize && iterator.hasNext()) {
+			this.compressedSize -= iterator.next().getCompressedContent().length;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Deflated content of an entry, along with the metadata required to write it to a JAR file.
+	 */
+	public static class CompressedContent {
+		private final byte[] compressedContent;
+		private final long size;
+		private final long crc;
+
+		public CompressedContent(byte[] compressedContent, long size, long crc) {
+			this.compressedContent = compressedContent;
+			this.size = size;
+			this.crc = crc;
+		}
+
+		public byte[] getCompressedContent() {
+			return compressedContent;
+		}
+
+		/**
+		 * @return the uncompressed size
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		public long getCrc() {
+			return crc;
+		}
+	}
+
+}
@@ -0,0 +1,329 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import de.ntcomputer.executablepacker.runtime.JarInJarIndex;
+
+/**
+ * Report of a single execution of the pack-executable-jar goal, for tracking packing time and the composition of the executable JAR across builds.
+ * It contains the time spent in each packing phase, the sizes and entry counts of the executable JAR and each dependency JAR,
+ * and all classes and resources contained in more than one classpath element. Such duplicates cost lookup time, and all but the first occurrence in classpath order are shadowed.
+ * <p>
+ * The report is available as JSON and as a readable summary. The sizes of each dependency are its raw size (the total uncompressed size of its entries),
+ * the size of the JAR file, and its packed size (the compressed size of the nested JAR within the executable JAR). The JAR size and packed size of the root of the executable JAR
+ * are the total compressed size of its entries.
+ * The ratio is the packed size relative to the raw size. It is undefined for elements without content, and reported as <code>null</code> in JSON and as <code>-</code> in the summary.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class PackingReport {
+	public static final String PHASE_DEPENDENCY_SELECTION = "dependencySelection";
+	public static final String PHASE_MANIFEST = "manifest";
+	public static final String PHASE_CLASSES_DIRECTORY = "classesDirectory";
+	public static final String PHASE_DEPENDENCY_ENTRIES = "dependencyEntries";
+	public static final String PHASE_LAUNCHER_SCANNING = "launcherScanning";
+	public static final String PHASE_METADATA = "metadata";
+	public static final String PHASE_ARCHIVE_CREATION = "archiveCreation";
+	/** Entries expected to exist in most classpath elements, which are never reported as duplicates */
+	private static final Pattern IGNORED_DUPLICATE_PATTERN = Pattern.compile("^(META-INF/MANIFEST\\.MF|META-INF/INDEX\\.LIST|META-INF/[^/]+\\.(SF|RSA|DSA|EC)|(META-INF/versions/[0-9]+/)?module-info\\.class)$");
+
+	private final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+	private final List<Element> elements = new ArrayList<Element>();
+	private final Map<String, List<Occurrence>> occurrences = new LinkedHashMap<String, List<Occurrence>>();
+	private String jarName;
+	private long jarSize;
+	private int jarEntryCount;
+
+	/**
+	 * Adds the time spent since the given start time to a phase.
+	 *
+	 * @param phase the name of the phase
+	 * @param startNanos the start of the phase, as returned by {@link System#nanoTime()}
+	 * @return the current time, as start of the next phase
+	 */
+	public long recordPhase(String phase, long startNanos) {
+		long nanos = System.nanoTime();
+		Long previousNanos = this.phaseNanos.get(phase);
+		this.phaseNanos.put(phase, (previousNanos==null? 0 : previousNanos) + nanos - startNanos);
+		return nanos;
+	}
+
+	/**
+	 * Reads the composition of the executable JAR and its dependency JARs from their central directories.
+	 *
+	 * @param jarFile the executable JAR file
+	 * @param libPath the directory containing the dependency JARs within the executable JAR, with trailing slash
+	 * @param dependencyJarFiles the packed dependency JAR files, in classpath order
+	 * @throws IOException if reading a JAR file fails
+	 */
+	public void analyze(File jarFile, String libPath, List<File> dependencyJarFiles) throws IOException {
+		Map<String, Element> dependencyElements = new LinkedHashMap<String, Element>();
+		for(File dependencyJarFile: dependencyJarFiles) {
+			dependencyElements.put(libPath + dependencyJarFile.getName(), new Element(dependencyJarFile.getName(), dependencyJarFile.length()));
+		}
+
+		// the root of the executable JAR comes first in classpath order
+		Element rootElement = new Element(JarInJarIndex.ROOT_ELEMENT_NAME, 0);
+		this.elements.add(rootElement);
+		this.jarName = jarFile.getName();
+		this.jarSize = jarFile.length();
+		this.jarEntryCount = 0;
+		ZipFile jar = new ZipFile(jarFile);
+		try {
+			Enumeration<ZipArchiveEntry> entries = jar.getEntries();
+			while(entries.hasMoreElements()) {
+				ZipArchiveEntry entry = entries.nextElement();
+				this.jarEntryCount++;
+				Element dependencyElement = dependencyElements.get(entry.getName());
+				if(dependencyElement!=null) {
+					dependencyElement.packedSize = entry.getCompressedSize();
+				} else {
+					this.addEntry(rootElement, entry);
+					rootElement.packedSize += entry.getCompressedSize();
+				}
+			}
+		} finally {
+			jar.close();
+		}
+		// the root has no JAR file of its own
+		rootElement.jarSize = rootElement.packedSize;
+
+		int dependencyIndex = 0;
+		for(Element dependencyElement: dependencyElements.values()) {
+			this.elements.add(dependencyElement);
+			ZipFile dependencyJar = new ZipFile(dependencyJarFiles.get(dependencyIndex++));
+			try {
+				Enumeration<ZipArchiveEntry> entries = dependencyJar.getEntries();
+				while(entries.hasMoreElements()) {
+					this.addEntry(dependencyElement, entries.nextElement());
+				}
+			} finally {
+				dependencyJar.close();
+			}
+		}
+	}
+
+	private void addEntry(Element element, ZipArchiveEntry entry) {
+		if(entry.isDirectory()) {
+			return;
+		}
+		element.entryCount++;
+		if(entry.getName().endsWith(".class")) {
+			element.classCount++;
+		}
+		element.rawSize += Math.max(entry.getSize(), 0);
+		if(IGNORED_DUPLICATE_PATTERN.matcher(entry.getName()).matches()) {
+			return;
+		}
+		List<Occurrence> entryOccurrences = this.occurrences.get(entry.getName());
+		if(entryOccurrences==null) {
+			entryOccurrences = new ArrayList<Occurrence>(1);
+			this.occurrences.put(entry.getName(), entryOccurrences);
+		} else if(entryOccurrences.get(entryOccurrences.size() - 1).element==element) {
+			return; // the JAR contains the entry twice, which only the first one is used of
+		}
+		entryOccurrences.add(new Occurrence(element, entry.getCrc()));
+	}
+
+	/**
+	 * @return all entries contained in more than one classpath element, with the elements containing them in classpath order
+	 */
+	private Map<String, List<Occurrence>> getDuplicates() {
+		Map<String, List<Occurrence>> result = new LinkedHashMap<String, List<Occurrence>>();
+		for(Map.Entry<String, List<Occurrence>> entry: this.occurrences.entrySet()) {
+			if(entry.getValue().size() > 1) {
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of classes contained in more than one classpath element, with different content
+	 */
+	public int getConflictingClassCount() {
+		int result = 0;
+		for(Map.Entry<String, List<Occurrence>> duplicate: this.getDuplicates().entrySet()) {
+			if(duplicate.getKey().endsWith(".class") && !isIdentical(duplicate.getValue())) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of classes and resources contained in more than one classpath element
+	 */
+	public int getDuplicateCount() {
+		return this.getDuplicates().size();
+	}
+
+	private static boolean isIdentical(List<Occurrence> occurrences) {
+		for(Occurrence occurrence: occurrences) {
+			if(occurrence.crc!=occurrences.get(0).crc) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the report as JSON
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"jar\": ");
+		appendString(json, this.jarName);
+		json.append(",\n  \"jarSize\": ").append(this.jarSize);
+		json.append(",\n  \"jarEntries\": ").append(this.jarEntryCount);
+		json.append(",\n  \"phases\": {");
+		boolean first = true;
+		for(Map.Entry<String, Long> phase: this.phaseNanos.entrySet()) {
+			json.append(first? "\n    " : ",\n    ");
+			first = false;
+			appendString(json, phase.getKey());
+			json.append(": ").append(formatMillis(phase.getValue()));
+		}
+		json.append(first? "" : "\n  ");
+		json.append("},\n  \"elements\": [");
+		for(int i=0; i<this.elements.size(); i++) {
+			Element element = this.elements.get(i);
+			json.append(i==0? "\n    {" : ",\n    {");
+			json.append("\"name\": ");
+			appendString(json, element.name);
+			json.append(", \"rawSize\": ").append(element.rawSize);
+			json.append(", \"jarSize\": ").append(element.jarSize);
+			json.append(", \"packedSize\": ").append(element.packedSize);
+			json.append(", \"ratio\": ").append(formatRatio(element, "null"));
+			json.append(", \"entries\": ").append(element.entryCount);
+			json.append(", \"classes\": ").append(element.classCount);
+			json.append('}');
+		}
+		json.append(this.elements.isEmpty()? "" : "\n  ");
+		json.append("],\n  \"duplicates\": [");
+		first = true;
+		for(Map.Entry<String, List<Occurrence>> duplicate: this.getDuplicates().entrySet()) {
+			json.append(first? "\n    {" : ",\n    {");
+			first = false;
+			json.append("\"name\": ");
+			appendString(json, duplicate.getKey());
+			json.append(", \"type\": ").append(duplicate.getKey().endsWith(".class")? "\"class\"" : "\"resource\"");
+			json.append(", \"identical\": ").append(isIdentical(duplicate.getValue()));
+			json.append(", \"elements\": [");
+			for(int i=0; i<duplicate.getValue().size(); i++) {
+				json.append(i==0? "" : ", ");
+				appendString(json, duplicate.getValue().get(i).element.name);
+			}
+			json.append("]}");
+		}
+		json.append(first? "" : "\n  ");
+		json.append("]\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * @return the report as readable summary
+	 */
+	public String toSummary() {
+		StringBuilder summary = new StringBuilder();
+		summary.append("Executable JAR ").append(this.jarName).append(": ").append(this.jarSize).append(" bytes, ").append(this.jarEntryCount).append(" entries\n");
+		summary.append("\nPhases:\n");
+		long totalNanos = 0;
+		for(Map.Entry<String, Long> phase: this.phaseNanos.entrySet()) {
+			summary.append(String.format(Locale.ROOT, "  %-22s %10s ms%n", phase.getKey(), formatMillis(phase.getValue())));
+			totalNanos += phase.getValue();
+		}
+		summary.append(String.format(Locale.ROOT, "  %-22s %10s ms%n", "total", formatMillis(totalNanos)));
+
+		summary.append("\nClasspath elements:\n");
+		summary.append(String.format(Locale.ROOT, "  %-48s %12s %12s %12s %6s %8s %8s%n", "name", "raw size", "JAR size", "packed size", "ratio", "entries", "classes"));
+		for(Element element: this.elements) {
+			summary.append(String.format(Locale.ROOT, "  %-48s %12d %12d %12d %6s %8d %8d%n", element.name, element.rawSize, element.jarSize, element.packedSize, formatRatio(element, "-"), element.entryCount, element.classCount));
+		}
+
+		Map<String, List<Occurrence>> duplicates = this.getDuplicates();
+		for(boolean classes: new boolean[] { true, false }) {
+			List<String> lines = new ArrayList<String>();
+			for(Map.Entry<String, List<Occurrence>> duplicate: duplicates.entrySet()) {
+				if(duplicate.getKey().endsWith(".class")==classes) {
+					StringBuilder line = new StringBuilder("  ").append(duplicate.getKey()).append(isIdentical(duplicate.getValue())? " (identical): " : " (different content): ");
+					for(int i=0; i<duplicate.getValue().size(); i++) {
+						line.append(i==0? "" : i==1? " shadows " : ", ").append(duplicate.getValue().get(i).element.name);
+					}
+					lines.add(line.toString());
+				}
+			}
+			summary.append(classes? "\nDuplicate classes: " : "\nDuplicate resources: ").append(lines.size()).append('\n');
+			for(String line: lines) {
+				summary.append(line).append('\n');
+			}
+		}
+		return summary.toString();
+	}
+
+	private static void appendString(StringBuilder json, String value) {
+		json.append('"');
+		for(int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if(c=='"' || c=='\\') {
+				json.append('\\').append(c);
+			} else if(c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	private static String formatMillis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+	}
+
+	private static String formatRatio(Element element, String undefinedRatio) {
+		return element.rawSize==0? undefinedRatio : String.format(Locale.ROOT, "%.3f", (double) element.packedSize / element.rawSize);
+	}
+
+	/**
+	 * A classpath element: the root of the executable JAR, or a dependency JAR.
+	 */
+	private static class Element {
+		private final String name;
+		private long jarSize;
+		private long packedSize = 0;
+		private long rawSize = 0;
+		private int entryCount = 0;
+		private int classCount = 0;
+
+		Element(String name, long jarSize) {
+			this.name = name;
+			this.jarSize = jarSize;
+		}
+	}
+
+	/**
+	 * An entry contained in a classpath element.
+	 */
+	private static class Occurrence {
+		private final Element element;
+		private final long crc;
+
+		Occurrence(Element element, long crc) {
+			this.element = element;
+			this.crc = crc;
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import de.ntcomputer.executablepacker.runtime.TrainingRun;
+
+/**
+ * Records the entries read during startup of an executable JAR file built by the pack-executable-jar goal, in a training run.
+ * The recorded access trace is used by the pack-executable-jar goal when the JAR is packed the next time, to lay out entries in first-access order,
+ * so startup reads the JAR mostly sequentially instead of seeking across it.
+ * The access trace is meant to be kept under version control, e.g. by running <tt>mvn package executable-packer:record-access-trace</tt> whenever the startup code changed significantly.
+ *
+ * @author Nikolaus Thuemmel
+ */
+@Mojo(name = "record-access-trace", requiresProject = true)
+public class RecordAccessTraceMojo extends AbstractTrainingRunMojo {
+
+	/**
+	 * The file the access trace is written to. Must match the <tt>accessTrace</tt> parameter of the pack-executable-jar goal.
+	 */
+	@Parameter(defaultValue = "${project.basedir}/src/main/executable-packer/access.trace", required = true)
+	private File accessTrace;
+
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		File jarFile = getJarFile();
+		File logFile = createLogFile("record-access-trace.log");
+
+		getLog().info("Recording access trace '" + accessTrace.getAbsolutePath() + "' in a training run of '" + jarFile.getName() + "'");
+		accessTrace.getAbsoluteFile().getParentFile().mkdirs();
+		accessTrace.delete();
+		runTraining(jarFile, Collections.singletonList("-D" + TrainingRun.PROPERTY_TRAINING_ACCESS_TRACE + "=" + accessTrace.getAbsolutePath()), logFile);
+		if(!accessTrace.isFile()) {
+			throw new MojoExecutionException("Training run of '" + jarFile.getName() + "' did not record an access trace (see '" + logFile.getAbsolutePath() + "')");
+		}
+		getLog().info("Repack the executable JAR file to lay out its entries in the recorded order");
+	}
+
+}
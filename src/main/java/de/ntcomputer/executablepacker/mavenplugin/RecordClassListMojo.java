@@ -0,0 +1,44 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import de.ntcomputer.executablepacker.runtime.TrainingRun;
+
+/**
+ * Records the classes loaded during startup of an executable JAR file built by the pack-executable-jar goal, in a training run.
+ * The recorded class list is included by the pack-executable-jar goal when the JAR is packed the next time,
+ * and the launcher then preloads these classes on background threads while the application's main method runs.
+ * The class list is meant to be kept under version control, e.g. by running <tt>mvn package executable-packer:record-class-list</tt> whenever the startup code changed significantly.
+ *
+ * @author Nikolaus Thuemmel
+ */
+@Mojo(name = "record-class-list", requiresProject = true)
+public class RecordClassListMojo extends AbstractTrainingRunMojo {
+
+	/**
+	 * The file the class list is written to. Must match the <tt>preloadClassList</tt> parameter of the pack-executable-jar goal.
+	 */
+	@Parameter(defaultValue = "${project.basedir}/src/main/executable-packer/preload.list", required = true)
+	private File preloadClassList;
+
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		File jarFile = getJarFile();
+		File logFile = createLogFile("record-class-list.log");
+
+		getLog().info("Recording class list '" + preloadClassList.getAbsolutePath() + "' in a training run of '" + jarFile.getName() + "'");
+		preloadClassList.getAbsoluteFile().getParentFile().mkdirs();
+		preloadClassList.delete();
+		runTraining(jarFile, Collections.singletonList("-D" + TrainingRun.PROPERTY_TRAINING_CLASS_LIST + "=" + preloadClassList.getAbsolutePath()), logFile);
+		if(!preloadClassList.isFile()) {
+			throw new MojoExecutionException("Training run of '" + jarFile.getName() + "' did not record a class list (see '" + logFile.getAbsolutePath() + "')");
+		}
+		getLog().info("Repack the executable JAR file to include the recorded class list");
+	}
+
+}
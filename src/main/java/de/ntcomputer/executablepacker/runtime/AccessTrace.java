@@ -0,0 +1,115 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Trace of the entries read by the jar-in-jar-classloader during a training run, in order of their first access.
+ * Each access names the classpath element (the name of a dependency JAR, or {@value JarInJarIndex#ROOT_ELEMENT_NAME} for the executable JAR itself) and the entry within it.
+ * The pack-executable-jar goal uses the trace to lay out entries in first-access order, so startup reads the JAR files mostly sequentially.
+ * <p>
+ * The file format is text: one access per line, the element name and the entry name separated by a tab.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class AccessTrace {
+	private final Map<String, Boolean> recordedAccesses = new ConcurrentHashMap<String, Boolean>();
+	private final Queue<Access> accesses = new ConcurrentLinkedQueue<Access>();
+
+	/**
+	 * Records an access, unless the entry has been accessed before.
+	 *
+	 * @param elementName the name of the classpath element
+	 * @param entryName the name of the entry within the element
+	 */
+	public void record(String elementName, String entryName) {
+		if(this.recordedAccesses.putIfAbsent(elementName + '\t' + entryName, Boolean.TRUE)==null) {
+			this.accesses.add(new Access(elementName, entryName));
+		}
+	}
+
+	/**
+	 * @return all accesses, in order of their first access
+	 */
+	public List<Access> getAccesses() {
+		return Collections.unmodifiableList(new ArrayList<Access>(this.accesses));
+	}
+
+	/**
+	 * Reads a trace.
+	 *
+	 * @param inputStream the stream to read from. It is not closed by this method.
+	 * @return the trace
+	 * @throws IOException if reading fails or the stream does not contain a valid trace
+	 */
+	public static AccessTrace read(InputStream inputStream) throws IOException {
+		AccessTrace result = new AccessTrace();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine())!=null) {
+			if(line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int separatorIndex = line.indexOf('\t');
+			if(separatorIndex <= 0 || separatorIndex==line.length() - 1) {
+				throw new IOException("Invalid access trace line '" + line + "'");
+			}
+			result.record(line.substring(0, separatorIndex), line.substring(separatorIndex + 1));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the trace.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @throws IOException if writing fails
+	 */
+	public void write(OutputStream outputStream) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		for(Access access: this.accesses) {
+			writer.write(access.getElementName());
+			writer.write('\t');
+			writer.write(access.getEntryName());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * The first access to an entry of a classpath element.
+	 */
+	public static class Access {
+		private final String elementName;
+		private final String entryName;
+
+		public Access(String elementName, String entryName) {
+			this.elementName = elementName;
+			this.entryName = entryName;
+		}
+
+		public String getElementName() {
+			return elementName;
+		}
+
+		public String getEntryName() {
+			return entryName;
+		}
+	}
+
+}
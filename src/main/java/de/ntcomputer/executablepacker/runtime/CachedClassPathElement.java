@@ -0,0 +1,57 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.jar.JarFile;
+
+/**
+ * Classpath element of a dependency JAR which has been extracted to the {@link DependencyCache}.
+ * Classes and resources are loaded from the plain cached file. If the file has been evicted by another process before it is first opened,
+ * it is extracted again.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class CachedClassPathElement extends JarFileClassPathElement {
+	private final DependencyCache cache;
+	private final DependencyCache.Dependency dependency;
+	private final DependencyCache.OuterJar outerJar;
+
+	private CachedClassPathElement(String dependencyJarFilename, URL fileURL, DependencyCache cache, DependencyCache.Dependency dependency, DependencyCache.OuterJar outerJar) throws MalformedURLException {
+		super(dependencyJarFilename, new URL("jar:" + fileURL + "!/"), fileURL, new URL("jar:" + fileURL + "!/"));
+		this.cache = cache;
+		this.dependency = dependency;
+		this.outerJar = outerJar;
+	}
+
+	/**
+	 * Creates a classpath element for a cached dependency JAR, extracting the dependency first if it is not cached yet.
+	 *
+	 * @param dependencyJarFilename the file name of the dependency JAR
+	 * @param cache the cache
+	 * @param dependency the dependency
+	 * @param outerJar the outer JAR to extract the dependency from if necessary
+	 * @return the created element
+	 * @throws IOException if extracting the dependency fails
+	 */
+	public static CachedClassPathElement create(String dependencyJarFilename, DependencyCache cache, DependencyCache.Dependency dependency, DependencyCache.OuterJar outerJar) throws IOException {
+		File file = cache.get(dependency, outerJar);
+		return new CachedClassPathElement(dependencyJarFilename, file.toURI().toURL(), cache, dependency, outerJar);
+	}
+
+	/**
+	 * @return the cached file
+	 */
+	public File getFile() {
+		return this.cache.getFile(this.dependency);
+	}
+
+	@Override
+	protected JarFile openJarFile() throws IOException {
+		this.cache.get(this.dependency, this.outerJar);
+		return super.openJarFile();
+	}
+
+}
@@ -0,0 +1,165 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.JarEntry;
+import java.util.jar.Manifest;
+
+/**
+ * A single element of the jar-in-jar classpath, i.e. the root of the outer JAR or one nested dependency JAR.
+ * Implementations open their underlying JAR on first access. If the element belongs to an {@link OpenJarPool}, the JAR may be closed again when it is not used, and is reopened on the next access.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public abstract class ClassPathElement {
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	private final String name;
+	private final URL baseURL;
+	private final URL codeSourceURL;
+	private volatile Manifest manifest;
+	private volatile boolean manifestRead;
+	private volatile OpenJarPool pool;
+
+	/**
+	 * Creates a new classpath element.
+	 *
+	 * @param name the element's name as used by the {@link JarInJarIndex}
+	 * @param baseURL the URL resource URLs are resolved against, e.g. <code>jar:jij:lib/dependency.jar!/</code>
+	 * @param codeSourceURL the URL of the code source of classes defined from this element
+	 */
+	protected ClassPathElement(String name, URL baseURL, URL codeSourceURL) {
+		this.name = name;
+		this.baseURL = baseURL;
+		this.codeSourceURL = codeSourceURL;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public URL getBaseURL() {
+		return this.baseURL;
+	}
+
+	public URL getCodeSourceURL() {
+		return this.codeSourceURL;
+	}
+
+	/**
+	 * Adds this element to a pool of open JARs, which closes its JAR when it is not used. Must be called before the element is accessed.
+	 *
+	 * @param pool the pool
+	 */
+	public void setPool(OpenJarPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return true if this element belongs to an {@link OpenJarPool}
+	 */
+	protected boolean isPooled() {
+		return this.pool!=null;
+	}
+
+	/**
+	 * Registers an access to this element's open JAR with its pool, if there is one. Must not be called while holding this element's lock.
+	 */
+	protected void recordAccess() {
+		OpenJarPool pool = this.pool;
+		if(pool!=null) {
+			pool.access(this);
+		}
+	}
+
+	/**
+	 * @return true if the JAR backing this element is currently open
+	 */
+	public boolean isJarOpen() {
+		return false;
+	}
+
+	/**
+	 * Closes the JAR backing this element, unless it is in use. It is reopened on the next access.
+	 *
+	 * @return true if the JAR has been closed, false if it is not open or still in use
+	 */
+	public boolean closeJar() {
+		return false;
+	}
+
+	/**
+	 * @return true if the entries of this element can be read using {@link #getEntry(String)}. Otherwise, the element can only be searched through its base URL.
+	 */
+	public boolean canReadEntries() {
+		return true;
+	}
+
+	/**
+	 * @param name the resource name
+	 * @return the entry, or null if this element does not contain the resource
+	 * @throws IOException if opening the JAR fails
+	 */
+	public abstract JarEntry getEntry(String name) throws IOException;
+
+	/**
+	 * @param entry an entry returned by {@link #getEntry(String)}
+	 * @return a stream to the entry's content
+	 * @throws IOException if opening the stream fails
+	 */
+	public abstract InputStream getInputStream(JarEntry entry) throws IOException;
+
+	/**
+	 * @return the manifest of the JAR, or null if it has none
+	 * @throws IOException if reading the manifest fails
+	 */
+	protected abstract Manifest readManifest() throws IOException;
+
+	/**
+	 * @param name the resource name
+	 * @return a URL to the resource within this element. The resource's existence is not checked.
+	 * @throws MalformedURLException if the URL cannot be created
+	 */
+	public URL getResourceURL(String name) throws MalformedURLException {
+		return new URL(this.baseURL, encodePath(name));
+	}
+
+	/**
+	 * @return the manifest of the JAR, or null if it has none
+	 * @throws IOException if reading the manifest fails
+	 */
+	public Manifest getManifest() throws IOException {
+		if(!this.manifestRead) {
+			synchronized(this) {
+				if(!this.manifestRead) {
+					this.manifest = this.readManifest();
+					this.manifestRead = true;
+				}
+			}
+		}
+		return this.manifest;
+	}
+
+	/**
+	 * Percent-encodes all characters of a resource name which are not allowed in the path of a URL.
+	 *
+	 * @param name the resource name
+	 * @return the encoded name
+	 */
+	protected static String encodePath(String name) {
+		StringBuilder result = new StringBuilder(name.length());
+		for(byte b: name.getBytes(StandardCharsets.UTF_8)) {
+			int c = b & 0xFF;
+			if((c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || "/-_.~!$&'()*,;=:@".indexOf(c) >= 0) {
+				result.append((char) c);
+			} else {
+				result.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+			}
+		}
+		return result.toString();
+	}
+
+}
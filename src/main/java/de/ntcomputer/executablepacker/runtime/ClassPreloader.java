@@ -0,0 +1,141 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preloads the classes recorded during a training run on background threads, while the application's main method runs.
+ * Each class is loaded and linked (i.e. verified), but not initialized, so the application's behavior does not change.
+ * The threads take classes from the list in recorded order, so they usually load a class shortly before the main thread requests it.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class ClassPreloader {
+	public static final String CLASS_LIST_NAME = "META-INF/executable-packer/PRELOAD.LIST";
+	/** System property disabling preloading if set to false */
+	public static final String PROPERTY_PRELOAD = "executablepacker.preload";
+	/** System property specifying the number of preloading threads */
+	public static final String PROPERTY_PRELOAD_THREADS = "executablepacker.preload.threads";
+	/** Default maximum number of preloading threads */
+	private static final int DEFAULT_MAX_THREADS = 8;
+
+	private final ClassLoader classLoader;
+	private final List<String> classNames;
+	private final AtomicInteger nextIndex = new AtomicInteger();
+
+	/**
+	 * @param classLoader the classloader to load the classes with
+	 * @param classNames the binary names of the classes to preload, in recorded order
+	 */
+	public ClassPreloader(ClassLoader classLoader, List<String> classNames) {
+		this.classLoader = classLoader;
+		this.classNames = classNames;
+	}
+
+	/**
+	 * @return true if preloading has not been disabled using the system property {@value #PROPERTY_PRELOAD}
+	 */
+	public static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty(PROPERTY_PRELOAD));
+	}
+
+	/**
+	 * @return the number of preloading threads configured by the system property {@value #PROPERTY_PRELOAD_THREADS},
+	 * or by default one less than the number of available processors, at most {@value #DEFAULT_MAX_THREADS}
+	 */
+	public static int getThreadCount() {
+		int defaultThreadCount = Math.min(Runtime.getRuntime().availableProcessors() - 1, DEFAULT_MAX_THREADS);
+		return Integer.getInteger(PROPERTY_PRELOAD_THREADS, defaultThreadCount);
+	}
+
+	/**
+	 * Starts the preloading daemon threads. They terminate once all classes have been preloaded.
+	 *
+	 * @param threadCount the number of threads. If less than 1, nothing is preloaded.
+	 */
+	public void start(int threadCount) {
+		for(int i=0; i<threadCount; i++) {
+			Thread thread = new Thread("executable-packer-preload-" + i) {
+				@Override
+				public void run() {
+					ClassPreloader.this.preload();
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void preload() {
+		int index;
+		while((index = this.nextIndex.getAndIncrement()) < this.classNames.size()) {
+			try {
+				link(Class.forName(this.classNames.get(index), false, this.classLoader));
+			} catch(Throwable e) {
+				// classes failing to load are loaded (and fail) again on demand by the application
+			}
+		}
+	}
+
+	/**
+	 * Links a class without initializing it. Reflecting on the declared fields makes the JVM link the class.
+	 *
+	 * @param loadedClass the class to link
+	 */
+	static void link(Class<?> loadedClass) {
+		try {
+			loadedClass.getDeclaredFields();
+		} catch(Throwable e) {
+			// classes failing to link (e.g. due to missing optional dependencies) fail again once the application uses them
+		}
+	}
+
+	/**
+	 * Reads a class list written by {@link #writeClassList(OutputStream, Collection)}.
+	 *
+	 * @param inputStream the stream to read from. It is not closed by this method.
+	 * @return the binary class names, in recorded order
+	 * @throws IOException if reading fails
+	 */
+	public static List<String> readClassList(InputStream inputStream) throws IOException {
+		List<String> result = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine())!=null) {
+			line = line.trim();
+			if(!line.isEmpty() && !line.startsWith("#")) {
+				result.add(line);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a class list, one binary class name per line.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @param classes the classes, in load order
+	 * @throws IOException if writing fails
+	 */
+	public static void writeClassList(OutputStream outputStream, Collection<Class<?>> classes) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		for(Class<?> loadedClass: classes) {
+			writer.write(loadedClass.getName());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+}
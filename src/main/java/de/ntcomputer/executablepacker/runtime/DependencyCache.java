@@ -0,0 +1,517 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Persistent, content-addressed cache of extracted dependency JARs, shared by all launches of all executable JARs using the same cache directory.
+ * Each dependency JAR is stored as <code>&lt;SHA-256 hash&gt;.jar</code>, so identical dependencies of different applications share a single file.
+ * <p>
+ * Entries are populated atomically (extracted to a temporary file, verified and then renamed), so concurrently starting processes never see partial files.
+ * The hash of a cached file is verified when it is extracted, and again whenever its size or modification time differs from the ones recorded in
+ * <code>&lt;SHA-256 hash&gt;.verified</code> after the last verification, so files modified after their verification are detected without hashing unchanged files on every launch.
+ * If the system property {@value #PROPERTY_VERIFY} is set to true, the hash is verified on every launch.
+ * When new entries have been extracted, the least recently used entries are evicted until the cache fits its size limit. The size of an entry includes its copies with their original file name,
+ * unless they are hard links to the entry.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class DependencyCache {
+	public static final String HASHES_NAME = "META-INF/executable-packer/DEPENDENCY-HASHES.LIST";
+	public static final String PROPERTY_VERIFY = "executablepacker.cache.verify";
+	public static final String HASH_ALGORITHM = "SHA-256";
+	private static final String ENTRY_SUFFIX = ".jar";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final String VERIFIED_SUFFIX = ".verified";
+	/** Minimum time since the last use before an entry may be evicted, so entries just populated or used by a starting process are kept */
+	private static final long EVICTION_GRACE_PERIOD_MILLIS = 10 * 60 * 1000L;
+	/** Interval in which the last-used time of an entry is updated */
+	private static final long TOUCH_INTERVAL_MILLIS = 60 * 60 * 1000L;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final File directory;
+	private final long maxSize;
+	private final boolean verify;
+	private boolean populated = false;
+
+	/**
+	 * @param directory the cache directory. It is created if it does not exist.
+	 * @param maxSize the maximum total size of all cached files in bytes
+	 */
+	public DependencyCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.verify = Boolean.getBoolean(PROPERTY_VERIFY);
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * @param dependency the dependency
+	 * @return the location of the dependency's cached copy, which may not exist
+	 */
+	public File getFile(Dependency dependency) {
+		return new File(this.directory, dependency.getHash() + ENTRY_SUFFIX);
+	}
+
+	/**
+	 * Returns the cached copy of a dependency JAR, extracting it from the outer JAR first if it is missing or invalid.
+	 *
+	 * @param dependency the dependency
+	 * @param outerJar the outer JAR to extract the dependency from if necessary
+	 * @return the cached file
+	 * @throws IOException if extraction fails or the extracted content does not match the expected hash
+	 */
+	public File get(Dependency dependency, OuterJar outerJar) throws IOException {
+		File file = this.getFile(dependency);
+		if(this.isValid(file, dependency)) {
+			long now = System.currentTimeMillis();
+			if(file.lastModified() < now - TOUCH_INTERVAL_MILLIS && file.setLastModified(now)) {
+				// the modification time tracks the last use for eviction
+				this.recordVerified(dependency, file);
+			}
+			return file;
+		}
+		this.extract(dependency, outerJar.getZipFile(), file);
+		return file;
+	}
+
+	/**
+	 * Returns a copy of a cached dependency JAR with its original file name, stored as <code>&lt;SHA-256 hash&gt;/&lt;file name&gt;</code>.
+	 * It is required by automatic modules, whose names are derived from their file names. The copy is a hard link to the cached file if the file system supports hard links.
+	 * It is evicted along with the cached file.
+	 *
+	 * @param dependency the dependency
+	 * @param outerJar the outer JAR to extract the dependency from if necessary
+	 * @param fileName the original file name of the dependency JAR
+	 * @return the copy of the cached file
+	 * @throws IOException if extraction or copying fails
+	 */
+	public File getNamed(Dependency dependency, OuterJar outerJar, String fileName) throws IOException {
+		File file = this.get(dependency, outerJar);
+		File namedDirectory = new File(this.directory, dependency.getHash());
+		File namedFile = new File(namedDirectory, fileName);
+		if(namedFile.isFile() && namedFile.length()==dependency.getSize()) {
+			return namedFile;
+		}
+
+		if(!namedDirectory.isDirectory() && !namedDirectory.mkdirs() && !namedDirectory.isDirectory()) {
+			throw new IOException("Failed to create dependency cache directory '" + namedDirectory + "'");
+		}
+		File temporaryFile = File.createTempFile(dependency.getHash() + "-", TEMPORARY_SUFFIX, namedDirectory);
+		try {
+			try {
+				Files.delete(temporaryFile.toPath());
+				Files.createLink(temporaryFile.toPath(), file.toPath());
+			} catch(IOException e) {
+				Files.copy(file.toPath(), temporaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch(UnsupportedOperationException e) {
+				Files.copy(file.toPath(), temporaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			try {
+				Files.move(temporaryFile.toPath(), namedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile.toPath(), namedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+		return namedFile;
+	}
+
+	private boolean isValid(File file, Dependency dependency) throws IOException {
+		if(!file.isFile() || file.length()!=dependency.getSize()) {
+			return false;
+		}
+		if(!this.verify && this.isVerified(dependency, file)) {
+			return true;
+		}
+		String actualHash;
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			actualHash = hash(inputStream, null);
+		} finally {
+			inputStream.close();
+		}
+		if(!dependency.getHash().equals(actualHash)) {
+			return false;
+		}
+		this.recordVerified(dependency, file);
+		return true;
+	}
+
+	/**
+	 * @return whether the size and modification time of a cached file match the ones recorded after its last verification
+	 */
+	private boolean isVerified(Dependency dependency, File file) {
+		File verifiedFile = new File(this.directory, dependency.getHash() + VERIFIED_SUFFIX);
+		try {
+			String record = new String(Files.readAllBytes(verifiedFile.toPath()), StandardCharsets.UTF_8);
+			return record.equals(createVerifiedRecord(file));
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records the size and modification time of a cached file whose hash has just been verified.
+	 * Failing to record them only causes the file to be verified again.
+	 */
+	private void recordVerified(Dependency dependency, File file) {
+		File verifiedFile = new File(this.directory, dependency.getHash() + VERIFIED_SUFFIX);
+		File temporaryFile = null;
+		try {
+			temporaryFile = File.createTempFile(dependency.getHash() + "-", TEMPORARY_SUFFIX, this.directory);
+			Files.write(temporaryFile.toPath(), createVerifiedRecord(file).getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(temporaryFile.toPath(), verifiedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile.toPath(), verifiedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(IOException e) {
+			verifiedFile.delete();
+		} finally {
+			if(temporaryFile!=null) {
+				temporaryFile.delete();
+			}
+		}
+	}
+
+	private static String createVerifiedRecord(File file) {
+		return file.length() + " " + file.lastModified() + "\n";
+	}
+
+	private void extract(Dependency dependency, ZipFile outerJar, File file) throws IOException {
+		ZipEntry entry = outerJar.getEntry(dependency.getEntryName());
+		if(entry==null) {
+			throw new FileNotFoundException("Dependency JAR '" + dependency.getEntryName() + "' not found in '" + outerJar.getName() + "'");
+		}
+
+		if(!this.directory.isDirectory() && !this.directory.mkdirs() && !this.directory.isDirectory()) {
+			throw new IOException("Failed to create dependency cache directory '" + this.directory + "'");
+		}
+		File temporaryFile = File.createTempFile(dependency.getHash() + "-", TEMPORARY_SUFFIX, this.directory);
+		try {
+			String actualHash;
+			InputStream inputStream = outerJar.getInputStream(entry);
+			try {
+				OutputStream outputStream = Files.newOutputStream(temporaryFile.toPath());
+				try {
+					actualHash = hash(inputStream, outputStream);
+				} finally {
+					outputStream.close();
+				}
+			} finally {
+				inputStream.close();
+			}
+			if(!dependency.getHash().equals(actualHash)) {
+				throw new IOException("Dependency JAR '" + dependency.getEntryName() + "' does not match its expected hash");
+			}
+
+			try {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			this.recordVerified(dependency, file);
+			this.populated = true;
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache fits its size limit, if any entries were extracted by this instance.
+	 * Entries used within the last minutes are never evicted. Copies of entries with their original file name are evicted along with their entry,
+	 * and are evicted on their own if their entry does not exist anymore.
+	 *
+	 * @param usedFiles the cached files used by the current launch, which are never evicted
+	 */
+	public void evict(Collection<File> usedFiles) {
+		if(!this.populated) {
+			return;
+		}
+		File[] files = this.directory.listFiles();
+		if(files==null) {
+			return;
+		}
+
+		long totalSize = 0;
+		final Map<File, Long> lastModifiedTimes = new LinkedHashMap<File, Long>();
+		Map<File, Long> sizes = new LinkedHashMap<File, Long>();
+		for(File file: files) {
+			if(file.getName().endsWith(ENTRY_SUFFIX) || file.getName().endsWith(TEMPORARY_SUFFIX)) {
+				long size = file.length() + getNamedCopiesSize(file);
+				totalSize += size;
+				sizes.put(file, size);
+				lastModifiedTimes.put(file, file.lastModified());
+			} else if(file.isDirectory() && !new File(this.directory, file.getName() + ENTRY_SUFFIX).exists()) {
+				// copies left behind by an entry which has been evicted or deleted
+				long size = getNamedCopiesSize(new File(this.directory, file.getName() + ENTRY_SUFFIX));
+				totalSize += size;
+				sizes.put(file, size);
+				lastModifiedTimes.put(file, file.lastModified());
+			}
+		}
+
+		List<File> candidates = new ArrayList<File>(lastModifiedTimes.keySet());
+		candidates.sort(new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(lastModifiedTimes.get(a), lastModifiedTimes.get(b));
+			}
+		});
+		Set<File> protectedFiles = new HashSet<File>(usedFiles);
+		long minimumAge = System.currentTimeMillis() - EVICTION_GRACE_PERIOD_MILLIS;
+		for(File candidate: candidates) {
+			if(totalSize <= this.maxSize) {
+				break;
+			}
+			if(!protectedFiles.contains(candidate) && lastModifiedTimes.get(candidate) < minimumAge) {
+				if(candidate.isDirectory()) {
+					deleteNamedCopies(new File(this.directory, candidate.getName() + ENTRY_SUFFIX));
+					totalSize -= sizes.get(candidate);
+				} else if(candidate.delete()) {
+					deleteNamedCopies(candidate);
+					totalSize -= sizes.get(candidate);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the total size of the copies of a cached file with its original file name which are not hard links to the cached file, see {@link #getNamed(Dependency, OuterJar, String)}
+	 */
+	private static long getNamedCopiesSize(File file) {
+		File[] namedFiles = getNamedDirectory(file).listFiles();
+		if(namedFiles==null) {
+			return 0;
+		}
+		long result = 0;
+		for(File namedFile: namedFiles) {
+			try {
+				if(file.exists() && Files.isSameFile(namedFile.toPath(), file.toPath())) {
+					continue;
+				}
+			} catch(IOException e) {
+				// counted as separate copy
+			}
+			result += namedFile.length();
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes the copies of an evicted file with its original file name, see {@link #getNamed(Dependency, OuterJar, String)}, and the record of its last verification.
+	 */
+	private static void deleteNamedCopies(File file) {
+		File namedDirectory = getNamedDirectory(file);
+		new File(file.getParentFile(), namedDirectory.getName() + VERIFIED_SUFFIX).delete();
+		File[] namedFiles = namedDirectory.listFiles();
+		if(namedFiles!=null) {
+			for(File namedFile: namedFiles) {
+				namedFile.delete();
+			}
+			namedDirectory.delete();
+		}
+	}
+
+	private static File getNamedDirectory(File file) {
+		String name = file.getName();
+		int suffixIndex = name.lastIndexOf('.');
+		return new File(file.getParentFile(), suffixIndex < 0? name : name.substring(0, suffixIndex));
+	}
+
+	/**
+	 * Reads the list of dependency hashes written by {@link #writeHashes(OutputStream, Collection)}.
+	 *
+	 * @param inputStream the stream to read from. It is not closed by this method.
+	 * @param dependencyLibPath the path of the directory containing the dependency JARs inside the outer JAR
+	 * @return the dependencies, keyed by file name
+	 * @throws IOException if reading fails or the list is invalid
+	 */
+	public static Map<String, Dependency> readHashes(InputStream inputStream, String dependencyLibPath) throws IOException {
+		Map<String, Dependency> result = new LinkedHashMap<String, Dependency>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine())!=null) {
+			if(line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split(" ", 3);
+			if(fields.length!=3) {
+				throw new IOException("Invalid dependency hash list");
+			}
+			try {
+				result.put(fields[2], new Dependency(dependencyLibPath + fields[2], fields[0], Long.parseLong(fields[1])));
+			} catch(NumberFormatException e) {
+				throw new IOException("Invalid dependency hash list", e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a list of dependency hashes, one line per dependency, formatted as <code>&lt;hash&gt; &lt;size&gt; &lt;file name&gt;</code>.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @param dependencyJarFiles the dependency JAR files
+	 * @throws IOException if reading a dependency JAR file or writing fails
+	 */
+	public static void writeHashes(OutputStream outputStream, Collection<File> dependencyJarFiles) throws IOException {
+		Map<File, String> dependencyJarHashes = new LinkedHashMap<File, String>();
+		for(File dependencyJarFile: dependencyJarFiles) {
+			InputStream inputStream = new FileInputStream(dependencyJarFile);
+			try {
+				dependencyJarHashes.put(dependencyJarFile, hash(inputStream, null));
+			} finally {
+				inputStream.close();
+			}
+		}
+		writeHashes(outputStream, dependencyJarHashes);
+	}
+
+	/**
+	 * Writes a list of dependency hashes which have been computed already, formatted like {@link #writeHashes(OutputStream, Collection)}.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @param dependencyJarHashes the dependency JAR files and the hashes of their content, in classpath order
+	 * @throws IOException if writing fails
+	 */
+	public static void writeHashes(OutputStream outputStream, Map<File, String> dependencyJarHashes) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		for(Map.Entry<File, String> dependencyJarHash: dependencyJarHashes.entrySet()) {
+			File dependencyJarFile = dependencyJarHash.getKey();
+			writer.write(dependencyJarHash.getValue());
+			writer.write(' ');
+			writer.write(Long.toString(dependencyJarFile.length()));
+			writer.write(' ');
+			writer.write(dependencyJarFile.getName());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Computes the hash of a stream's content.
+	 *
+	 * @param inputStream the stream to hash. It is not closed by this method.
+	 * @param copyOutputStream a stream to copy the content to, or null
+	 * @return the hash, as lower-case hex string
+	 * @throws IOException if reading or writing fails
+	 */
+	public static String hash(InputStream inputStream, OutputStream copyOutputStream) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		byte[] buffer = new byte[65536];
+		int count;
+		while((count = inputStream.read(buffer))!=-1) {
+			digest.update(buffer, 0, count);
+			if(copyOutputStream!=null) {
+				copyOutputStream.write(buffer, 0, count);
+			}
+		}
+		byte[] hash = digest.digest();
+		char[] result = new char[hash.length * 2];
+		for(int i=0; i<hash.length; i++) {
+			result[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+			result[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+		}
+		return new String(result);
+	}
+
+	/**
+	 * A dependency JAR nested in the outer JAR, identified by the hash of its content.
+	 */
+	public static class Dependency {
+		private final String entryName;
+		private final String hash;
+		private final long size;
+
+		public Dependency(String entryName, String hash, long size) {
+			this.entryName = entryName;
+			this.hash = hash;
+			this.size = size;
+		}
+
+		public String getEntryName() {
+			return this.entryName;
+		}
+
+		public String getHash() {
+			return this.hash;
+		}
+
+		public long getSize() {
+			return this.size;
+		}
+
+		@Override
+		public String toString() {
+			return this.entryName + " (" + this.hash + ")";
+		}
+	}
+
+	/**
+	 * The outer JAR, which is opened only once a dependency actually needs to be extracted.
+	 */
+	public static class OuterJar {
+		private final File file;
+		private ZipFile zipFile;
+
+		public OuterJar(File file) {
+			this.file = file;
+		}
+
+		synchronized ZipFile getZipFile() throws IOException {
+			if(this.zipFile==null) {
+				this.zipFile = new ZipFile(this.file);
+			}
+			return this.zipFile;
+		}
+
+		/**
+		 * Closes the outer JAR if it has been opened. It is reopened when required again.
+		 *
+		 * @throws IOException if closing fails
+		 */
+		public synchronized void close() throws IOException {
+			if(this.zipFile!=null) {
+				this.zipFile.close();
+				this.zipFile = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bloom filter over the names of all entries of each classpath element, created at build time and embedded into the executable JAR next to the {@link JarInJarIndex}.
+ * The index only knows the directories of each element, so lookups of missing resources in existing directories would still open and search every element containing that directory.
+ * The filter answers most of these lookups without opening any nested JAR: if it reports that an element does not contain an entry, the element definitely does not contain it.
+ * It reports false positives for about one percent of the missing entries.
+ * <p>
+ * The file format is binary: a header string, the number of elements, and for each element its name, the number of hash functions, the number of 64-bit words and the words of its bit set.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class EntryNameFilter {
+	public static final String FILTER_NAME = "META-INF/executable-packer/ENTRIES.BLOOM";
+	private static final String FILTER_HEADER = "EntryNameFilter-Version: 1.0";
+	private static final String VERSIONED_DIRECTORY_PREFIX = "META-INF/versions/";
+	/** About one percent false positives, using the optimal number of hash functions */
+	private static final int BITS_PER_ENTRY = 10;
+	private static final int HASH_COUNT = 7;
+
+	private final List<String> elementNames;
+	private final int[] hashCounts;
+	private final long[][] elementBits;
+
+	private EntryNameFilter(List<String> elementNames, int[] hashCounts, long[][] elementBits) {
+		this.elementNames = elementNames;
+		this.hashCounts = hashCounts;
+		this.elementBits = elementBits;
+	}
+
+	/**
+	 * @return the names of all classpath elements, in classpath order
+	 */
+	public List<String> getElementNames() {
+		return this.elementNames;
+	}
+
+	/**
+	 * @param elementIndex the position of the element, in classpath order
+	 * @param entryName the entry name, e.g. <code>com/example/MyClass.class</code>
+	 * @return false if the element definitely does not contain the entry, true if it may contain it
+	 */
+	public boolean mightContain(int elementIndex, String entryName) {
+		long[] bits = this.elementBits[elementIndex];
+		long bitCount = (long) bits.length * 64;
+		long hash = hash(entryName);
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32);
+		for(int i=0; i<this.hashCounts[elementIndex]; i++) {
+			long bitIndex = ((hash1 + i * hash2) & 0xFFFFFFFFL) % bitCount;
+			if((bits[(int) (bitIndex >>> 6)] & (1L << bitIndex))==0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the name's characters, followed by the finalizer of SplitMix64 to spread the bits.
+	 * Unlike {@link String#hashCode()}, it provides enough bits for two independent hash values.
+	 */
+	private static long hash(String name) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i=0; i<name.length(); i++) {
+			hash ^= name.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+		return hash ^ (hash >>> 31);
+	}
+
+	private static void add(long[] bits, String entryName) {
+		long bitCount = (long) bits.length * 64;
+		long hash = hash(entryName);
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32);
+		for(int i=0; i<HASH_COUNT; i++) {
+			long bitIndex = ((hash1 + i * hash2) & 0xFFFFFFFFL) % bitCount;
+			bits[(int) (bitIndex >>> 6)] |= 1L << bitIndex;
+		}
+	}
+
+	/**
+	 * Reads a filter.
+	 *
+	 * @param inputStream the stream to read from. It is not closed by this method.
+	 * @return the filter
+	 * @throws IOException if reading fails or the stream does not contain a valid filter
+	 */
+	public static EntryNameFilter read(InputStream inputStream) throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(inputStream);
+		if(!FILTER_HEADER.equals(dataInputStream.readUTF())) {
+			throw new IOException("Unsupported entry name filter version");
+		}
+		int elementCount = dataInputStream.readInt();
+		List<String> elementNames = new ArrayList<String>(elementCount);
+		int[] hashCounts = new int[elementCount];
+		long[][] elementBits = new long[elementCount][];
+		for(int i=0; i<elementCount; i++) {
+			elementNames.add(dataInputStream.readUTF());
+			hashCounts[i] = dataInputStream.readInt();
+			long[] bits = new long[dataInputStream.readInt()];
+			if(bits.length==0) {
+				throw new IOException("Entry name filter of element '" + elementNames.get(i) + "' is empty");
+			}
+			for(int j=0; j<bits.length; j++) {
+				bits[j] = dataInputStream.readLong();
+			}
+			elementBits[i] = bits;
+		}
+		return new EntryNameFilter(Collections.unmodifiableList(elementNames), hashCounts, elementBits);
+	}
+
+	/**
+	 * Writes a filter.
+	 * Directory entries are also added without trailing slash, and entries of multi-release JARs (below <code>META-INF/versions/</code>) are also added by their unversioned name,
+	 * since the JDK finds them by these names too.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @param elementEntryNames the names of all entries contained in each classpath element, keyed by element name and in classpath order
+	 * @throws IOException if writing fails
+	 */
+	public static void write(OutputStream outputStream, Map<String, ? extends Collection<String>> elementEntryNames) throws IOException {
+		DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+		dataOutputStream.writeUTF(FILTER_HEADER);
+		dataOutputStream.writeInt(elementEntryNames.size());
+		for(Map.Entry<String, ? extends Collection<String>> element: elementEntryNames.entrySet()) {
+			List<String> names = new ArrayList<String>(element.getValue().size());
+			for(String entryName: element.getValue()) {
+				names.add(entryName);
+				if(entryName.endsWith("/")) {
+					names.add(entryName.substring(0, entryName.length() - 1));
+				}
+				if(entryName.startsWith(VERSIONED_DIRECTORY_PREFIX)) {
+					int versionEnd = entryName.indexOf('/', VERSIONED_DIRECTORY_PREFIX.length());
+					if(versionEnd > 0 && versionEnd < entryName.length() - 1) {
+						names.add(entryName.substring(versionEnd + 1));
+					}
+				}
+			}
+
+			long[] bits = new long[Math.max(1, (names.size() * BITS_PER_ENTRY + 63) / 64)];
+			for(String name: names) {
+				add(bits, name);
+			}
+			dataOutputStream.writeUTF(element.getKey());
+			dataOutputStream.writeInt(HASH_COUNT);
+			dataOutputStream.writeInt(bits.length);
+			for(long word: bits) {
+				dataOutputStream.writeLong(word);
+			}
+		}
+		dataOutputStream.flush();
+	}
+
+}
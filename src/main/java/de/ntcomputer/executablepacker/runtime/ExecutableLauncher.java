@@ -1,22 +1,30 @@
 package de.ntcomputer.executablepacker.runtime;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 /**
  * Launcher that provides a custom jar-in-jar-classloader in order to load nested dependency JARs at runtime.
  * It uses information embedded in the main JAR's manifest regarding the dependency path, the list of dependencies, and the application's actual main class.
+ * If the main JAR contains a {@link LaunchDescriptor}, this information is read from the descriptor instead.
  * Once the classloader is set up, the application's static main method is invoked.
  * 
  * @author Nikolaus Thuemmel
@@ -26,8 +34,47 @@ public class ExecutableLauncher {
 	public static final String MANIFEST_APPLICATION_MAIN_CLASS = "Application-Main-Class";
 	public static final String MANIFEST_DEPENDENCY_LIBPATH = "Dependency-Libpath";
 	public static final String MANIFEST_DEPENDENCY_JARS = "Dependency-Jars";
+	public static final String MANIFEST_DEPENDENCY_ACCESS = "Dependency-Access";
+	public static final String PROPERTY_DEPENDENCY_ACCESS = "executablepacker.dependencyAccess";
+	/** Dependency access mode reading nested JARs through the JDK's <code>jar:</code> URL handler (which copies each nested JAR to a temporary file) */
+	public static final String DEPENDENCY_ACCESS_URL = "url";
+	/** Dependency access mode reading nested JARs in place from the memory-mapped outer JAR */
+	public static final String DEPENDENCY_ACCESS_MAPPED = "mapped";
+	/** Dependency access mode extracting nested JARs once into a persistent cache directory and loading them from there */
+	public static final String DEPENDENCY_ACCESS_EXTRACT = "extract";
+	public static final String MANIFEST_LAUNCH_MODE = "Launch-Mode";
+	public static final String PROPERTY_LAUNCH_MODE = "executablepacker.launchMode";
+	/** Launch mode loading all dependency JARs using the jar-in-jar-classloader */
+	public static final String LAUNCH_MODE_CLASSPATH = "classpath";
+	/** Launch mode defining a module layer over the dependency JARs of the build-time {@link ModuleGraph}, on Java 9 and later */
+	public static final String LAUNCH_MODE_MODULES = "modules";
+	public static final String MANIFEST_DEPENDENCY_CACHE_DIRECTORY = "Dependency-Cache-Directory";
+	public static final String MANIFEST_DEPENDENCY_CACHE_MAX_SIZE = "Dependency-Cache-Max-Size";
+	public static final String PROPERTY_DEPENDENCY_CACHE_DIRECTORY = "executablepacker.cache.directory";
+	public static final String PROPERTY_DEPENDENCY_CACHE_MAX_SIZE = "executablepacker.cache.maxSize";
+	/** Set to false to disable the entry name filter, e.g. to compare lookup performance */
+	public static final String PROPERTY_ENTRY_FILTER = "executablepacker.entryFilter";
+	public static final String MANIFEST_MAX_OPEN_JARS = "Max-Open-Jars";
+	public static final String MANIFEST_OPEN_JAR_IDLE_TIMEOUT = "Open-Jar-Idle-Timeout";
+	/** Maximum number of nested JARs kept open at the same time, 0 for no limit */
+	public static final String PROPERTY_MAX_OPEN_JARS = "executablepacker.maxOpenJars";
+	/** Number of seconds after which unused nested JARs are closed, 0 to keep them open */
+	public static final String PROPERTY_OPEN_JAR_IDLE_TIMEOUT = "executablepacker.openJarIdleTimeout";
+	public static final String MANIFEST_DAEMON_MODE = "Daemon-Mode";
+	public static final String MANIFEST_DAEMON_IDLE_TIMEOUT = "Daemon-Idle-Timeout";
+	/** Set to true to run the application in a resident launcher daemon, or to false to run it in this JVM */
+	public static final String PROPERTY_DAEMON_MODE = "executablepacker.daemon";
+	/** Number of seconds without invocations after which the launcher daemon exits */
+	public static final String PROPERTY_DAEMON_IDLE_TIMEOUT = "executablepacker.daemon.idleTimeout";
+	/** Default number of seconds without invocations after which the launcher daemon exits */
+	public static final long DEFAULT_DAEMON_IDLE_TIMEOUT = 600;
+	/** Default maximum size of the dependency cache in megabytes */
+	public static final long DEFAULT_DEPENDENCY_CACHE_MAX_SIZE = 1024;
 
 	public static void main(String[] args) throws IOException, ClassNotFoundException, NoSuchMethodException, SecurityException, IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+		LauncherMetrics metrics = LauncherMetrics.get();
+		metrics.install();
+		
 		// get original classloader
 		ClassLoader outerJarClassLoader = Thread.currentThread().getContextClassLoader();
 		ClassLoader usedClassLoader = outerJarClassLoader;
@@ -36,14 +83,30 @@ public class ExecutableLauncher {
 		String applicationMainClassName = null;
 		String dependencyLibPath = null;
 		String dependencyJarFilenames = null;
+		String dependencyAccess = null;
+		Attributes launcherAttributes = null;
+		
+		// read the launch descriptor directly from the outer JAR, if there is one
+		long phaseStartNanos = System.nanoTime();
+		URL outerJarURL = getOuterJarURL();
+		LaunchDescriptor launchDescriptor = outerJarURL==null? null : readLaunchDescriptor(outerJarURL);
+		if(launchDescriptor!=null) {
+			launcherAttributes = launchDescriptor.getAttributes();
+			applicationMainClassName = launcherAttributes.getValue(MANIFEST_APPLICATION_MAIN_CLASS).trim();
+			dependencyLibPath = launcherAttributes.getValue(MANIFEST_DEPENDENCY_LIBPATH);
+			dependencyAccess = launcherAttributes.getValue(MANIFEST_DEPENDENCY_ACCESS);
+		}
 		
 		// Multiple Manifest files may be on the classpath. Parse all of them to find the correct one containing the required metadata
-		Enumeration<URL> manifestURLs = outerJarClassLoader.getResources(JarFile.MANIFEST_NAME);
-		if(manifestURLs==null || !manifestURLs.hasMoreElements()) {
-			throw new MissingResourceException("Manifest file (" + JarFile.MANIFEST_NAME + ") is missing", ExecutableLauncher.class.getName(), JarFile.MANIFEST_NAME);
+		Enumeration<URL> manifestURLs = null;
+		if(launchDescriptor==null) {
+			manifestURLs = outerJarClassLoader.getResources(JarFile.MANIFEST_NAME);
+			if(manifestURLs==null || !manifestURLs.hasMoreElements()) {
+				throw new MissingResourceException("Manifest file (" + JarFile.MANIFEST_NAME + ") is missing", ExecutableLauncher.class.getName(), JarFile.MANIFEST_NAME);
+			}
 		}
 		
-		while(manifestURLs.hasMoreElements()) {
+		while(manifestURLs!=null && manifestURLs.hasMoreElements()) {
 			URL manifestURL = manifestURLs.nextElement();
 			try {
 				InputStream manifestStream = manifestURL.openStream();
@@ -53,12 +116,15 @@ public class ExecutableLauncher {
 					String manifestApplicationMainClassName = manifestAttributes.getValue(MANIFEST_APPLICATION_MAIN_CLASS);
 					String manifestDependencyLibPath = manifestAttributes.getValue(MANIFEST_DEPENDENCY_LIBPATH);
 					String manifestDependencyJarFilenames = manifestAttributes.getValue(MANIFEST_DEPENDENCY_JARS);
+					String manifestDependencyAccess = manifestAttributes.getValue(MANIFEST_DEPENDENCY_ACCESS);
 					if(manifestApplicationMainClassName!=null) {
 						manifestApplicationMainClassName = manifestApplicationMainClassName.trim();
 						if(!manifestApplicationMainClassName.trim().isEmpty()) {
 							applicationMainClassName = manifestApplicationMainClassName;
 							dependencyLibPath = manifestDependencyLibPath;
 							dependencyJarFilenames = manifestDependencyJarFilenames;
+							dependencyAccess = manifestDependencyAccess;
+							launcherAttributes = manifestAttributes;
 							break; // This is the correct manifest
 						}
 					}
@@ -66,9 +132,11 @@ public class ExecutableLauncher {
 					manifestStream.close();
 				}
 			} catch(Exception e) {
-				// Ignore exceptions while parsing a single manifest file
+				// Ignore exceptions while parsing a single manifest file, but report them in the metrics
+				metrics.recordManifestError(manifestURL, e);
 			}
 		}
+		metrics.recordPhase(LauncherMetrics.PHASE_MANIFEST_SCAN, phaseStartNanos);
 		
 		if(applicationMainClassName==null) {
 			throw new IOException("Manifest is missing entry " + MANIFEST_APPLICATION_MAIN_CLASS); // No manifest contained the required metadata
@@ -80,46 +148,474 @@ public class ExecutableLauncher {
 			dependencyLibPath = dependencyLibPath.trim();
 		}
 		
+		// the dependency access mode may be overridden at runtime
+		dependencyAccess = System.getProperty(PROPERTY_DEPENDENCY_ACCESS, dependencyAccess);
+		dependencyAccess = dependencyAccess==null? DEPENDENCY_ACCESS_URL : dependencyAccess.trim();
+		
+		// in daemon mode, let a warm launcher daemon run the application, if there is one (otherwise, one is started in the background)
+		if(outerJarURL!=null && !LauncherDaemon.isDaemon() && isDaemonModeEnabled(launcherAttributes)) {
+			Integer exitCode = LauncherDaemon.run(toFile(outerJarURL), new File(getCacheDirectory(launcherAttributes), "daemon"), args);
+			if(exitCode!=null) {
+				System.exit(exitCode);
+			}
+		}
+		
+		// split list of dependency JARs, unless the launch descriptor lists them already
+		Collection<String> dependencyJarFilenameList;
+		if(launchDescriptor!=null) {
+			dependencyJarFilenameList = launchDescriptor.getDependencies().keySet();
+		} else if(dependencyJarFilenames!=null && !dependencyJarFilenames.isEmpty()) {
+			dependencyJarFilenameList = Arrays.asList(dependencyJarFilenames.split("/"));
+		} else {
+			dependencyJarFilenameList = Collections.emptyList();
+		}
+		
 		// parse and apply dependency JAR paths
-		if(dependencyJarFilenames!=null && !dependencyJarFilenames.isEmpty()) {
-			URL.setURLStreamHandlerFactory(new JarInJarURLStreamHandlerFactory(outerJarClassLoader)); // necessary to handle the custom jar-in-jar URL protocol
+		if(!dependencyJarFilenameList.isEmpty()) {
+			phaseStartNanos = System.nanoTime();
+			URL.setURLStreamHandlerFactory(new JarInJarURLStreamHandlerFactory(outerJarClassLoader, outerJarURL)); // necessary to handle the custom jar-in-jar URL protocol
 			
-			// split list of dependency JARs
-			String[] dependencyJarFilenameArray = dependencyJarFilenames.split("/");
-			List<URL> dependencyJarURLs = new ArrayList<URL>(dependencyJarFilenameArray.length);
+			List<ClassPathElement> classPathElements = new ArrayList<ClassPathElement>(dependencyJarFilenameList.size() + 1);
 			
 			// add the root of the outer JAR as well (so classes included in the JAR directly, not jar-in-jar, can be found as well without having to use a parent classloader - see reasons below)
 			// add this first in order to take precedence over dependencies
-			dependencyJarURLs.add(new URL(JarInJarURLStreamHandler.PROTOCOL + ":./"));
+			ClassPathElement rootElement = JarFileClassPathElement.createRoot(outerJarURL);
+			classPathElements.add(rootElement);
+			
+			// in mapped mode, nested JARs are read in place from the memory-mapped outer JAR
+			MappedZipFile mappedOuterJar = null;
+			if(DEPENDENCY_ACCESS_MAPPED.equals(dependencyAccess) && outerJarURL!=null) {
+				mappedOuterJar = mapOuterJar(outerJarURL);
+			}
+			
+			// in the module launch mode, the dependency JARs of the module graph are loaded by a module layer
+			String launchMode = System.getProperty(PROPERTY_LAUNCH_MODE, launcherAttributes.getValue(MANIFEST_LAUNCH_MODE));
+			ModuleGraph moduleGraph = null;
+			if(outerJarURL!=null && launchMode!=null && LAUNCH_MODE_MODULES.equals(launchMode.trim()) && ModuleGraph.isSupported()) {
+				moduleGraph = readModuleGraph(rootElement);
+			}
+			
+			// in extract mode, nested JARs are extracted once into a persistent cache and loaded from plain files (the module layer can only load plain files as well)
+			boolean extractDependencies = DEPENDENCY_ACCESS_EXTRACT.equals(dependencyAccess);
+			DependencyCache dependencyCache = null;
+			Map<String, DependencyCache.Dependency> cachedDependencies = null;
+			DependencyCache.OuterJar cacheOuterJar = null;
+			List<File> cachedFiles = new ArrayList<File>();
+			if((extractDependencies || moduleGraph!=null) && outerJarURL!=null) {
+				cachedDependencies = launchDescriptor!=null? launchDescriptor.getDependencies() : readDependencyHashes(rootElement, dependencyLibPath);
+				if(cachedDependencies!=null) {
+					dependencyCache = createDependencyCache(launcherAttributes);
+					cacheOuterJar = new DependencyCache.OuterJar(toFile(outerJarURL));
+				}
+			}
+			
+			ClassLoader moduleLayerClassLoader = null;
+			if(moduleGraph!=null && dependencyCache!=null) {
+				moduleLayerClassLoader = defineModuleLayer(moduleGraph, dependencyCache, cachedDependencies, cacheOuterJar, cachedFiles, getParentClassLoader(outerJarClassLoader));
+			}
 			
 			// build URL with custom jar-in-jar protocol for each dependency
-			for(String dependencyJarFilename: dependencyJarFilenameArray) {
+			for(String dependencyJarFilename: dependencyJarFilenameList) {
 				dependencyJarFilename = dependencyJarFilename.trim();
 				if(!dependencyJarFilename.isEmpty()) {
-					URL dependencyJarUrl = new URL("jar:" + JarInJarURLStreamHandler.PROTOCOL + ":" + dependencyLibPath + dependencyJarFilename + "!/");
-					dependencyJarURLs.add(dependencyJarUrl);
+					if(moduleLayerClassLoader!=null && moduleGraph.getModule(dependencyJarFilename)!=null) {
+						continue; // loaded by the module layer
+					}
+					ClassPathElement dependencyElement = null;
+					if(extractDependencies && dependencyCache!=null && cachedDependencies.containsKey(dependencyJarFilename)) {
+						try {
+							CachedClassPathElement cachedElement = CachedClassPathElement.create(dependencyJarFilename, dependencyCache, cachedDependencies.get(dependencyJarFilename), cacheOuterJar);
+							cachedFiles.add(cachedElement.getFile());
+							dependencyElement = cachedElement;
+						} catch(IOException e) {
+							// fall back to reading the nested JAR through a URL (e.g. if the cache directory is not writable)
+						}
+					}
+					if(dependencyElement==null) {
+						if(mappedOuterJar!=null) {
+							dependencyElement = new MappedClassPathElement(mappedOuterJar, dependencyLibPath, dependencyJarFilename);
+						} else {
+							dependencyElement = JarFileClassPathElement.createNested(dependencyLibPath, dependencyJarFilename);
+						}
+					}
+					classPathElements.add(dependencyElement);
 				}
 			}
 			
+			if(dependencyCache!=null) {
+				dependencyCache.evict(cachedFiles);
+				cacheOuterJar.close();
+			}
+			
+			metrics.recordPhase(LauncherMetrics.PHASE_URL_SETUP, phaseStartNanos);
+			
 			// apply dependencies
-			if(dependencyJarURLs.size() > 1) { // > 1 to account for the always-added root URL
+			if(classPathElements.size() > 1 || moduleLayerClassLoader!=null) { // > 1 to account for the always-added root element
 				// replace the main thread's classloader if at least one dependency was found
-				URL[] dependencyJarURLArray = dependencyJarURLs.toArray(new URL[dependencyJarURLs.size()]);
+				phaseStartNanos = System.nanoTime();
+				JarInJarIndex index = outerJarURL==null? null : readIndex(rootElement);
+				EntryNameFilter filter = index==null || "false".equalsIgnoreCase(System.getProperty(PROPERTY_ENTRY_FILTER))? null : readEntryFilter(rootElement);
+				
+				// nested JARs are only opened on demand if lookups are served using the index, so only then can they be closed again
+				OpenJarPool openJarPool = index==null? null : createOpenJarPool(launcherAttributes);
+				if(openJarPool!=null) {
+					for(ClassPathElement dependencyElement: classPathElements.subList(1, classPathElements.size())) {
+						dependencyElement.setPool(openJarPool);
+					}
+				}
 				
-				URLClassLoader jarInJarClassLoader = new URLClassLoader(dependencyJarURLArray, null);
+				JarInJarClassLoader jarInJarClassLoader = new JarInJarClassLoader(classPathElements, index, filter, moduleLayerClassLoader!=null? moduleLayerClassLoader : getParentClassLoader(outerJarClassLoader));
 				// do NOT use outerJarClassLoader as parent!
 				// If it is used, the main class (see below) would be found by the parent class loader,
 				// and the defined main class would only be able to use the parent class loader (which found the class), not the dependency loader.
+				// Its parent is used instead, so platform modules such as java.sql remain visible (see getParentClassLoader).
+				// In the module launch mode, the module layer's classloader (whose parent is the platform classloader) is used, so the application's classes can use the modules' exported packages.
+				
+				// native libraries contained in the JAR are extracted once into the cache directory, and loaded from there
+				if(outerJarURL!=null && NativeLibraryCache.isEnabled()) {
+					List<NativeLibraryCache.NativeLibrary> nativeLibraries = readNativeLibraries(rootElement);
+					if(nativeLibraries!=null && !nativeLibraries.isEmpty()) {
+						jarInJarClassLoader.setNativeLibraryCache(new NativeLibraryCache(new File(getCacheDirectory(launcherAttributes), "native"), nativeLibraries));
+					}
+				}
 				
 				usedClassLoader = jarInJarClassLoader;
 				Thread.currentThread().setContextClassLoader(jarInJarClassLoader);
+				metrics.recordPhase(LauncherMetrics.PHASE_CLASSLOADER_CREATION, phaseStartNanos);
+				
+				// preload the classes recorded during a training run in the background, while the main method runs
+				// (not during training runs, which record the classes actually used by the application)
+				if(outerJarURL!=null && !TrainingRun.isEnabled() && ClassPreloader.isEnabled()) {
+					List<String> preloadClassNames = readPreloadClassList(rootElement);
+					if(preloadClassNames!=null && !preloadClassNames.isEmpty()) {
+						new ClassPreloader(jarInJarClassLoader, preloadClassNames).start(ClassPreloader.getThreadCount());
+					}
+				}
 			}
 		}
 		
+		// prepare a class-data sharing training run, if requested
+		TrainingRun.install(usedClassLoader);
+		
 		// launch the actual application
+		phaseStartNanos = System.nanoTime();
 		Class<?> applicationMainClass = Class.forName(applicationMainClassName, true, usedClassLoader);
 		Method applicationMainMethod = applicationMainClass.getMethod("main", String[].class);
+		metrics.recordPhase(LauncherMetrics.PHASE_MAIN_CLASS_LOAD, phaseStartNanos);
+		metrics.recordLaunched();
+		if(outerJarURL!=null && LauncherDaemon.isDaemon()) {
+			// serve invocations received from clients, rather than running the application once
+			LauncherDaemon.serve(toFile(outerJarURL), usedClassLoader, applicationMainClassName, getDaemonIdleTimeout(launcherAttributes) * 1000);
+			System.exit(0);
+		}
 		applicationMainMethod.invoke(null, (Object) args);
 	}
+	
+	/**
+	 * Determines the parent of the jar-in-jar-classloader.
+	 * The parent of the outer JAR's classloader is the extension classloader on Java 8 and the platform classloader on Java 9+.
+	 * Unlike the bootstrap classloader, it can load classes of platform modules such as java.sql, but none of the application's classes.
+	 * 
+	 * @param outerJarClassLoader the classloader which loaded the outer JAR
+	 * @return the parent classloader for the jar-in-jar-classloader
+	 */
+	static ClassLoader getParentClassLoader(ClassLoader outerJarClassLoader) {
+		return outerJarClassLoader.getParent();
+	}
+	
+	/**
+	 * @return the URL of the outer JAR file containing the launcher, or null if the launcher was not loaded from a JAR file
+	 */
+	private static URL getOuterJarURL() {
+		try {
+			URL location = ExecutableLauncher.class.getProtectionDomain().getCodeSource().getLocation();
+			if(location!=null && "file".equals(location.getProtocol()) && !location.getPath().endsWith("/")) {
+				return location;
+			}
+		} catch(SecurityException e) {
+			// the location is not accessible
+		}
+		return null;
+	}
+	
+	/**
+	 * @param outerJarURL the URL of the outer JAR file
+	 * @return the launch descriptor of the outer JAR, or null if it does not contain a valid descriptor
+	 */
+	private static LaunchDescriptor readLaunchDescriptor(URL outerJarURL) {
+		try {
+			InputStream descriptorStream = new BufferedInputStream(new URL("jar:" + outerJarURL + "!/" + LaunchDescriptor.DESCRIPTOR_NAME).openStream());
+			try {
+				return LaunchDescriptor.read(descriptorStream);
+			} finally {
+				descriptorStream.close();
+			}
+		} catch(IOException e) {
+			// fall back to searching the manifest
+			return null;
+		}
+	}
+	
+	/**
+	 * Extracts the dependency JARs of the module graph to the dependency cache, and defines a module layer over them.
+	 * 
+	 * @param moduleGraph the module graph
+	 * @param dependencyCache the dependency cache
+	 * @param cachedDependencies the hashes of all dependencies, keyed by file name
+	 * @param cacheOuterJar the outer JAR to extract the dependencies from
+	 * @param cachedFiles the cached files in use, to which the files of the modules are added
+	 * @param parent the parent classloader of the layer's classloader
+	 * @return the classloader of the module layer, or null if the layer cannot be defined, so all dependency JARs are loaded by the jar-in-jar-classloader
+	 */
+	private static ClassLoader defineModuleLayer(ModuleGraph moduleGraph, DependencyCache dependencyCache, Map<String, DependencyCache.Dependency> cachedDependencies, DependencyCache.OuterJar cacheOuterJar, List<File> cachedFiles, ClassLoader parent) {
+		if(moduleGraph.getModules().isEmpty()) {
+			return null;
+		}
+		long phaseStartNanos = System.nanoTime();
+		try {
+			List<File> moduleFiles = new ArrayList<File>();
+			for(ModuleGraph.Module module: moduleGraph.getModules()) {
+				DependencyCache.Dependency dependency = cachedDependencies.get(module.getElementName());
+				if(dependency==null) {
+					return null;
+				}
+				// automatic modules are named by their file name, so the original file name is kept
+				moduleFiles.add(dependencyCache.getNamed(dependency, cacheOuterJar, module.getElementName()));
+				cachedFiles.add(dependencyCache.getFile(dependency));
+			}
+			ClassLoader result = moduleGraph.defineLayer(moduleFiles, parent);
+			LauncherMetrics.get().recordPhase(LauncherMetrics.PHASE_MODULE_LAYER, phaseStartNanos);
+			return result;
+		} catch(IOException e) {
+			// fall back to loading all dependency JARs using the jar-in-jar-classloader (e.g. if the cache directory is not writable)
+			return null;
+		}
+	}
+	
+	/**
+	 * @param outerJarURL the URL of the outer JAR file
+	 * @return the memory-mapped outer JAR, or null if it cannot be mapped (e.g. because it is larger than 2 GB)
+	 */
+	private static MappedZipFile mapOuterJar(URL outerJarURL) {
+		try {
+			return MappedZipFile.map(toFile(outerJarURL));
+		} catch(Exception e) {
+			// fall back to reading nested JARs through URLs
+			return null;
+		}
+	}
+	
+	private static File toFile(URL fileURL) {
+		try {
+			return new File(fileURL.toURI());
+		} catch(URISyntaxException e) {
+			return new File(fileURL.getPath());
+		}
+	}
+	
+	/**
+	 * @param launcherAttributes the main attributes of the launcher's manifest
+	 * @return the dependency cache configured by the manifest or the corresponding system properties
+	 */
+	private static DependencyCache createDependencyCache(Attributes launcherAttributes) {
+		long maxSize = DEFAULT_DEPENDENCY_CACHE_MAX_SIZE;
+		String maxSizeValue = System.getProperty(PROPERTY_DEPENDENCY_CACHE_MAX_SIZE, launcherAttributes.getValue(MANIFEST_DEPENDENCY_CACHE_MAX_SIZE));
+		if(maxSizeValue!=null) {
+			try {
+				maxSize = Long.parseLong(maxSizeValue.trim());
+			} catch(NumberFormatException e) {
+				// keep the default size
+			}
+		}
+		return new DependencyCache(getCacheDirectory(launcherAttributes), maxSize * 1024 * 1024);
+	}
+	
+	/**
+	 * @param launcherAttributes the main attributes of the launcher's manifest
+	 * @return the cache directory configured by the manifest or the corresponding system property
+	 */
+	private static File getCacheDirectory(Attributes launcherAttributes) {
+		String directoryName = System.getProperty(PROPERTY_DEPENDENCY_CACHE_DIRECTORY, launcherAttributes.getValue(MANIFEST_DEPENDENCY_CACHE_DIRECTORY));
+		if(directoryName==null || directoryName.trim().isEmpty()) {
+			return new File(System.getProperty("user.home"), ".cache/executable-packer");
+		} else if(directoryName.trim().startsWith("~/")) {
+			return new File(System.getProperty("user.home"), directoryName.trim().substring(2));
+		} else {
+			return new File(directoryName.trim());
+		}
+	}
+	
+	/**
+	 * @param launcherAttributes the main attributes of the launcher's manifest
+	 * @return true if daemon mode is enabled by the manifest or the corresponding system property
+	 */
+	private static boolean isDaemonModeEnabled(Attributes launcherAttributes) {
+		String daemonMode = System.getProperty(PROPERTY_DAEMON_MODE, launcherAttributes.getValue(MANIFEST_DAEMON_MODE));
+		return daemonMode!=null && "true".equalsIgnoreCase(daemonMode.trim());
+	}
+	
+	/**
+	 * @param launcherAttributes the main attributes of the launcher's manifest
+	 * @return the number of seconds without invocations after which the launcher daemon exits, as configured by the manifest or the corresponding system property
+	 */
+	private static long getDaemonIdleTimeout(Attributes launcherAttributes) {
+		long idleTimeoutSeconds = parseLimit(System.getProperty(PROPERTY_DAEMON_IDLE_TIMEOUT, launcherAttributes.getValue(MANIFEST_DAEMON_IDLE_TIMEOUT)));
+		return idleTimeoutSeconds==0? DEFAULT_DAEMON_IDLE_TIMEOUT : idleTimeoutSeconds;
+	}
+	
+	/**
+	 * @param launcherAttributes the main attributes of the launcher's manifest
+	 * @return the pool of open nested JARs configured by the manifest or the corresponding system properties, or null if nested JARs are kept open
+	 */
+	private static OpenJarPool createOpenJarPool(Attributes launcherAttributes) {
+		long maxOpenJars = parseLimit(System.getProperty(PROPERTY_MAX_OPEN_JARS, launcherAttributes.getValue(MANIFEST_MAX_OPEN_JARS)));
+		long idleTimeoutSeconds = parseLimit(System.getProperty(PROPERTY_OPEN_JAR_IDLE_TIMEOUT, launcherAttributes.getValue(MANIFEST_OPEN_JAR_IDLE_TIMEOUT)));
+		if(maxOpenJars==0 && idleTimeoutSeconds==0) {
+			return null;
+		}
+		return new OpenJarPool((int) Math.min(maxOpenJars, Integer.MAX_VALUE), idleTimeoutSeconds * 1000);
+	}
+	
+	/**
+	 * @param value a configured limit
+	 * @return the limit, or 0 (for no limit) if it is missing or invalid
+	 */
+	private static long parseLimit(String value) {
+		if(value!=null) {
+			try {
+				return Math.max(Long.parseLong(value.trim()), 0);
+			} catch(NumberFormatException e) {
+				// use no limit
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * @param rootElement the classpath element of the outer JAR's root
+	 * @param dependencyLibPath the path of the directory containing the dependency JARs inside the outer JAR
+	 * @return the hashes of all dependencies, keyed by file name, or null if the outer JAR does not contain a valid hash list
+	 */
+	private static Map<String, DependencyCache.Dependency> readDependencyHashes(ClassPathElement rootElement, String dependencyLibPath) {
+		try {
+			JarEntry hashesEntry = rootElement.getEntry(DependencyCache.HASHES_NAME);
+			if(hashesEntry!=null) {
+				InputStream hashesStream = rootElement.getInputStream(hashesEntry);
+				try {
+					return DependencyCache.readHashes(hashesStream, dependencyLibPath);
+				} finally {
+					hashesStream.close();
+				}
+			}
+		} catch(IOException e) {
+			// fall back to reading nested JARs through URLs
+		}
+		return null;
+	}
+	
+	/**
+	 * @param rootElement the classpath element of the outer JAR's root
+	 * @return the names of the classes to preload, or null if the outer JAR does not contain a class list
+	 */
+	private static List<String> readPreloadClassList(ClassPathElement rootElement) {
+		try {
+			JarEntry classListEntry = rootElement.getEntry(ClassPreloader.CLASS_LIST_NAME);
+			if(classListEntry!=null) {
+				InputStream classListStream = rootElement.getInputStream(classListEntry);
+				try {
+					return ClassPreloader.readClassList(classListStream);
+				} finally {
+					classListStream.close();
+				}
+			}
+		} catch(IOException e) {
+			// preloading is only an optimization
+		}
+		return null;
+	}
+	
+	/**
+	 * @param rootElement the classpath element of the outer JAR's root
+	 * @return the native libraries contained in all classpath elements, or null if the outer JAR does not contain a valid list
+	 */
+	private static List<NativeLibraryCache.NativeLibrary> readNativeLibraries(ClassPathElement rootElement) {
+		try {
+			JarEntry librariesEntry = rootElement.getEntry(NativeLibraryCache.LIBRARIES_NAME);
+			if(librariesEntry!=null) {
+				InputStream librariesStream = rootElement.getInputStream(librariesEntry);
+				try {
+					return NativeLibraryCache.read(librariesStream);
+				} finally {
+					librariesStream.close();
+				}
+			}
+		} catch(IOException e) {
+			// let the JVM search the library path only
+		}
+		return null;
+	}
+	
+	/**
+	 * @param rootElement the classpath element of the outer JAR's root
+	 * @return the module graph of the dependency JARs, or null if the outer JAR does not contain a valid module graph
+	 */
+	private static ModuleGraph readModuleGraph(ClassPathElement rootElement) {
+		try {
+			JarEntry moduleGraphEntry = rootElement.getEntry(ModuleGraph.MODULES_NAME);
+			if(moduleGraphEntry!=null) {
+				InputStream moduleGraphStream = rootElement.getInputStream(moduleGraphEntry);
+				try {
+					return ModuleGraph.read(moduleGraphStream);
+				} finally {
+					moduleGraphStream.close();
+				}
+			}
+		} catch(IOException e) {
+			// load all dependency JARs using the jar-in-jar-classloader
+		}
+		return null;
+	}
+	
+	/**
+	 * @param rootElement the classpath element of the outer JAR's root
+	 * @return the build-time index of all classpath elements, or null if the outer JAR does not contain a valid index
+	 */
+	private static JarInJarIndex readIndex(ClassPathElement rootElement) {
+		try {
+			JarEntry indexEntry = rootElement.getEntry(JarInJarIndex.INDEX_NAME);
+			if(indexEntry!=null) {
+				InputStream indexStream = rootElement.getInputStream(indexEntry);
+				try {
+					return JarInJarIndex.read(indexStream);
+				} finally {
+					indexStream.close();
+				}
+			}
+		} catch(IOException e) {
+			// fall back to searching all elements
+		}
+		return null;
+	}
+	
+	/**
+	 * @param rootElement the classpath element of the outer JAR's root
+	 * @return the build-time entry name filter of all classpath elements, or null if the outer JAR does not contain a valid filter
+	 */
+	private static EntryNameFilter readEntryFilter(ClassPathElement rootElement) {
+		try {
+			JarEntry filterEntry = rootElement.getEntry(EntryNameFilter.FILTER_NAME);
+			if(filterEntry!=null) {
+				InputStream filterStream = new BufferedInputStream(rootElement.getInputStream(filterEntry));
+				try {
+					return EntryNameFilter.read(filterStream);
+				} finally {
+					filterStream.close();
+				}
+			}
+		} catch(IOException e) {
+			// fall back to searching all elements referred to by the index
+		}
+		return null;
+	}
 
 }
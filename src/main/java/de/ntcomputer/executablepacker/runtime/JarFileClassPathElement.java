@@ -0,0 +1,210 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Classpath element backed by a {@link JarFile} which is opened through a <code>jar:</code> URL.
+ * For nested dependency JARs, the JDK's <code>jar:</code> URL handler copies the nested JAR to a temporary file before opening it.
+ * <p>
+ * If the element belongs to an {@link OpenJarPool}, the JAR file is opened without the JDK's <code>jar:</code> URL cache, so it can be closed again.
+ * It is only closed while no lookup is running and no stream read from it is open.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class JarFileClassPathElement extends ClassPathElement {
+	private final URL jarFileURL;
+	private volatile JarFile jarFile;
+	/** The number of running lookups and open streams using the JAR file, only counted for pooled elements */
+	private int activeUses;
+
+	/**
+	 * Creates a new classpath element.
+	 *
+	 * @param name the element's name as used by the {@link JarInJarIndex}
+	 * @param baseURL the URL resource URLs are resolved against, e.g. <code>jar:jij:lib/dependency.jar!/</code>
+	 * @param codeSourceURL the URL of the code source of classes defined from this element
+	 * @param jarFileURL a <code>jar:</code> URL referencing the root of the JAR file backing this element, or null if there is none
+	 */
+	public JarFileClassPathElement(String name, URL baseURL, URL codeSourceURL, URL jarFileURL) {
+		super(name, baseURL, codeSourceURL);
+		this.jarFileURL = jarFileURL;
+	}
+
+	/**
+	 * Creates the classpath element of a nested dependency JAR.
+	 *
+	 * @param dependencyLibPath the path of the directory containing the dependency JAR inside the outer JAR
+	 * @param dependencyJarFilename the file name of the dependency JAR
+	 * @return the created element
+	 * @throws MalformedURLException if the jar-in-jar URL protocol is not registered
+	 */
+	public static JarFileClassPathElement createNested(String dependencyLibPath, String dependencyJarFilename) throws MalformedURLException {
+		URL codeSourceURL = new URL(JarInJarURLStreamHandler.PROTOCOL + ":" + dependencyLibPath + dependencyJarFilename);
+		URL baseURL = new URL("jar:" + codeSourceURL + "!/");
+		return new JarFileClassPathElement(dependencyJarFilename, baseURL, codeSourceURL, baseURL);
+	}
+
+	/**
+	 * Creates the classpath element of the root of the outer JAR.
+	 *
+	 * @param outerJarURL the URL of the outer JAR file, or null if it is unknown. In that case, the element can only be searched through its base URL.
+	 * @return the created element
+	 * @throws MalformedURLException if the jar-in-jar URL protocol is not registered
+	 */
+	public static JarFileClassPathElement createRoot(URL outerJarURL) throws MalformedURLException {
+		URL baseURL = new URL(JarInJarURLStreamHandler.PROTOCOL + ":./");
+		return new JarFileClassPathElement(JarInJarIndex.ROOT_ELEMENT_NAME, baseURL, baseURL, outerJarURL==null? null : new URL("jar:" + outerJarURL + "!/"));
+	}
+
+	private JarFile getJarFile() throws IOException {
+		JarFile result = this.jarFile;
+		if(result==null) {
+			synchronized(this) {
+				result = this.jarFile;
+				if(result==null) {
+					long openStartNanos = System.nanoTime();
+					result = this.openJarFile();
+					LauncherMetrics.get().recordJarOpen(this.getName(), openStartNanos);
+					this.jarFile = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Opens the JAR file backing this element. Called once, on first access.
+	 *
+	 * @return the opened JAR file
+	 * @throws IOException if opening fails
+	 */
+	protected JarFile openJarFile() throws IOException {
+		if(this.jarFileURL==null) {
+			throw new IOException("No JAR file available for classpath element '" + this.getName() + "'");
+		}
+		// the "runtime" reference makes the JDK open multi-release JARs for the runtime version (ignored on Java 8)
+		URLConnection connection = new URL(this.jarFileURL, "#runtime").openConnection();
+		// cached JAR files are shared with all other jar: URLs of the JAR file, so they must not be closed
+		connection.setUseCaches(!this.isPooled());
+		return ((JarURLConnection) connection).getJarFile();
+	}
+
+	/**
+	 * Opens the JAR file if necessary, and marks it as used until {@link #releaseJarFile()} is called.
+	 */
+	private JarFile acquireJarFile() throws IOException {
+		if(!this.isPooled()) {
+			return this.getJarFile();
+		}
+		JarFile result;
+		synchronized(this) {
+			result = this.getJarFile();
+			this.activeUses++;
+		}
+		this.recordAccess();
+		return result;
+	}
+
+	private void releaseJarFile() {
+		if(this.isPooled()) {
+			synchronized(this) {
+				this.activeUses--;
+			}
+		}
+	}
+
+	@Override
+	public boolean canReadEntries() {
+		return this.jarFileURL!=null;
+	}
+
+	@Override
+	public boolean isJarOpen() {
+		return this.jarFile!=null;
+	}
+
+	@Override
+	public boolean closeJar() {
+		JarFile closedJarFile;
+		synchronized(this) {
+			closedJarFile = this.jarFile;
+			if(closedJarFile==null || this.activeUses > 0) {
+				return false;
+			}
+			this.jarFile = null;
+		}
+		try {
+			closedJarFile.close();
+		} catch(IOException e) {
+			// the JAR file is not used anymore either way
+		}
+		return true;
+	}
+
+	@Override
+	public JarEntry getEntry(String name) throws IOException {
+		JarFile jarFile = this.acquireJarFile();
+		try {
+			return jarFile.getJarEntry(name);
+		} finally {
+			this.releaseJarFile();
+		}
+	}
+
+	/**
+	 * The entry may have been returned by an earlier instance of the JAR file, if the JAR file has been closed and reopened in between.
+	 * It is looked up by name in that case.
+	 */
+	@Override
+	public InputStream getInputStream(JarEntry entry) throws IOException {
+		JarFile jarFile = this.acquireJarFile();
+		if(!this.isPooled()) {
+			return jarFile.getInputStream(entry);
+		}
+		boolean opened = false;
+		try {
+			InputStream result = new FilterInputStream(jarFile.getInputStream(entry)) {
+				private boolean closed = false;
+
+				@Override
+				public void close() throws IOException {
+					if(!this.closed) {
+						this.closed = true;
+						try {
+							super.close();
+						} finally {
+							JarFileClassPathElement.this.releaseJarFile();
+						}
+					}
+				}
+			};
+			opened = true;
+			return result;
+		} finally {
+			if(!opened) {
+				this.releaseJarFile();
+			}
+		}
+	}
+
+	@Override
+	protected Manifest readManifest() throws IOException {
+		JarFile jarFile = this.acquireJarFile();
+		try {
+			return jarFile.getManifest();
+		} finally {
+			this.releaseJarFile();
+		}
+	}
+
+}
@@ -0,0 +1,409 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Jar-in-jar-classloader that uses a build-time {@link JarInJarIndex} to search only those classpath elements which may contain a requested class or resource.
+ * Lookups for directories not contained in any element are answered immediately, without opening any nested JAR.
+ * Since nested JARs are only opened once a lookup targets them, they can be closed again by an {@link OpenJarPool} when they are not used.
+ * If an {@link EntryNameFilter} is available too, elements which definitely do not contain a requested entry are skipped as well.
+ * If no index is available, the classloader searches all elements in classpath order, reading their entries directly just like indexed lookups do
+ * (so memory-mapped and cached elements are still read in place rather than through the JDK's <code>jar:</code> URL handler).
+ * Only if an element cannot read its entries directly, i.e. the root of an outer JAR whose file is unknown, the classloader behaves exactly like a {@link URLClassLoader} over the elements' base URLs.
+ * Native libraries contained in the elements are loaded from a {@link NativeLibraryCache}, if one is set.
+ * The classloader is parallel capable, so classes can be loaded by multiple threads (e.g. the {@link ClassPreloader}) concurrently.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class JarInJarClassLoader extends URLClassLoader {
+	private final ClassPathElement[] elements;
+	private final JarInJarIndex index;
+	private final EntryNameFilter filter;
+	/** The elements at the positions used by the index and the filter, or at their own positions if there is no index. Null at the positions of indexed elements not loaded by this classloader. */
+	private final ClassPathElement[] searchedElements;
+	/** The positions of all elements, searched by lookups without index, or null if lookups without index are delegated to {@link URLClassLoader} */
+	private final int[] allElementIndices;
+	private volatile Queue<Class<?>> loadedClasses;
+	private volatile AccessTrace accessTrace;
+	private volatile NativeLibraryCache nativeLibraryCache;
+
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	/**
+	 * Creates a new jar-in-jar-classloader.
+	 *
+	 * @param elements the classpath elements, in search order
+	 * @param index the index of the elements, or null if no index is available. Ignored if it does not index all given elements in the same order.
+	 * @param parent the parent classloader. Must not be able to load the application's classes.
+	 */
+	public JarInJarClassLoader(List<ClassPathElement> elements, JarInJarIndex index, ClassLoader parent) {
+		this(elements, index, null, parent);
+	}
+
+	/**
+	 * Creates a new jar-in-jar-classloader.
+	 *
+	 * @param elements the classpath elements, in search order
+	 * @param index the index of the elements, or null if no index is available. Ignored if it does not index all given elements in the same order.
+	 *        The index may contain additional elements which are loaded elsewhere (e.g. by a module layer), and are skipped.
+	 * @param filter the entry name filter of the elements, or null if no filter is available. Only used together with the index, and ignored if it does not cover the same elements as the index.
+	 * @param parent the parent classloader. Must not be able to load the application's classes.
+	 */
+	public JarInJarClassLoader(List<ClassPathElement> elements, JarInJarIndex index, EntryNameFilter filter, ClassLoader parent) {
+		super(getBaseURLs(elements), parent);
+		this.elements = elements.toArray(new ClassPathElement[elements.size()]);
+		ClassPathElement[] indexedElements = index==null? null : getIndexedElements(elements, index.getElementNames());
+		this.index = indexedElements!=null? index : null;
+		this.filter = this.index!=null && filter!=null && filter.getElementNames().equals(index.getElementNames())? filter : null;
+		this.allElementIndices = this.index==null && canReadEntries(elements)? getAllElementIndices(elements) : null;
+		this.searchedElements = indexedElements!=null? indexedElements : this.elements;
+	}
+
+	/**
+	 * Maps the elements to their positions in the index.
+	 *
+	 * @param elements the elements, in search order
+	 * @param elementNames the names of the indexed elements, in classpath order
+	 * @return the elements at their positions in the index, or null if not all elements are indexed in the same order
+	 */
+	private static ClassPathElement[] getIndexedElements(List<ClassPathElement> elements, List<String> elementNames) {
+		ClassPathElement[] result = new ClassPathElement[elementNames.size()];
+		int position = 0;
+		for(ClassPathElement element: elements) {
+			while(position < elementNames.size() && !elementNames.get(position).equals(element.getName())) {
+				position++;
+			}
+			if(position==elementNames.size()) {
+				return null;
+			}
+			result[position++] = element;
+		}
+		return result;
+	}
+
+	private static boolean canReadEntries(List<ClassPathElement> elements) {
+		for(ClassPathElement element: elements) {
+			if(!element.canReadEntries()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int[] getAllElementIndices(List<ClassPathElement> elements) {
+		int[] result = new int[elements.size()];
+		for(int i=0; i<result.length; i++) {
+			result[i] = i;
+		}
+		return result;
+	}
+
+	private static URL[] getBaseURLs(List<ClassPathElement> elements) {
+		URL[] result = new URL[elements.size()];
+		for(int i=0; i<result.length; i++) {
+			result[i] = elements.get(i).getBaseURL();
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if lookups are served using the build-time index
+	 */
+	public boolean isIndexed() {
+		return this.index!=null;
+	}
+
+	/**
+	 * @return true if lookups are also served using the build-time entry name filter
+	 */
+	public boolean isFiltered() {
+		return this.filter!=null;
+	}
+
+	/**
+	 * Starts recording all classes defined by this classloader, e.g. in order to link them before a class-data sharing archive is dumped.
+	 */
+	public void recordLoadedClasses() {
+		if(this.loadedClasses==null) {
+			this.loadedClasses = new ConcurrentLinkedQueue<Class<?>>();
+		}
+	}
+
+	/**
+	 * @return all classes defined by this classloader since {@link #recordLoadedClasses()} has been called, in load order
+	 */
+	public List<Class<?>> getLoadedClasses() {
+		Queue<Class<?>> loadedClasses = this.loadedClasses;
+		return loadedClasses==null? Collections.<Class<?>>emptyList() : new ArrayList<Class<?>>(loadedClasses);
+	}
+
+	/**
+	 * Starts recording the entries read by this classloader, in order to lay them out in first-access order when the JAR is packed the next time.
+	 * Lookups delegated to {@link URLClassLoader} (see above) are not recorded.
+	 */
+	public void recordAccessTrace() {
+		if(this.accessTrace==null) {
+			this.accessTrace = new AccessTrace();
+		}
+	}
+
+	/**
+	 * @return the entries read by this classloader since {@link #recordAccessTrace()} has been called, or null if it has not been called
+	 */
+	public AccessTrace getAccessTrace() {
+		return this.accessTrace;
+	}
+
+	private void recordAccess(ClassPathElement element, String entryName) {
+		AccessTrace accessTrace = this.accessTrace;
+		if(accessTrace!=null) {
+			accessTrace.record(element.getName(), entryName);
+		}
+	}
+
+	/**
+	 * Sets the cache native libraries contained in the classpath elements are loaded from.
+	 *
+	 * @param nativeLibraryCache the cache, or null to let the JVM search the library path only
+	 */
+	public void setNativeLibraryCache(NativeLibraryCache nativeLibraryCache) {
+		this.nativeLibraryCache = nativeLibraryCache;
+	}
+
+	@Override
+	protected String findLibrary(String libname) {
+		NativeLibraryCache nativeLibraryCache = this.nativeLibraryCache;
+		if(nativeLibraryCache!=null) {
+			NativeLibraryCache.NativeLibrary library = nativeLibraryCache.find(libname);
+			if(library!=null) {
+				for(ClassPathElement element: this.elements) {
+					if(element.getName().equals(library.getElementName())) {
+						try {
+							String result = nativeLibraryCache.get(library, element).getAbsolutePath();
+							LauncherMetrics.get().recordNativeLibraryLoad();
+							return result;
+						} catch(IOException e) {
+							// let the JVM search the library path instead, e.g. if the cache directory is not writable
+						}
+						break;
+					}
+				}
+			}
+		}
+		return super.findLibrary(libname);
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		Class<?> result;
+		if(this.index==null && this.allElementIndices==null) {
+			try {
+				result = super.findClass(name);
+			} catch(ClassNotFoundException e) {
+				LauncherMetrics.get().recordClassLookup(-1);
+				throw e;
+			}
+			LauncherMetrics.get().recordClassLookup(0);
+		} else {
+			result = this.findIndexedClass(name);
+		}
+		Queue<Class<?>> loadedClasses = this.loadedClasses;
+		if(loadedClasses!=null) {
+			loadedClasses.add(result);
+		}
+		return result;
+	}
+
+	private Class<?> findIndexedClass(String name) throws ClassNotFoundException {
+		String path = name.replace('.', '/').concat(".class");
+		int[] elementIndices = this.getElementIndices(path);
+		boolean searched = false;
+		for(int elementIndex: elementIndices) {
+			if(!this.mightContain(elementIndex, path)) {
+				continue;
+			}
+			searched = true;
+			ClassPathElement element = this.searchedElements[elementIndex];
+			try {
+				JarEntry entry = element.getEntry(path);
+				if(entry!=null) {
+					this.recordAccess(element, path);
+					return this.defineClass(name, element, entry);
+				}
+				this.recordFalsePositive();
+			} catch(IOException e) {
+				LauncherMetrics.get().recordClassLookup(-1);
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+		this.recordMiss(elementIndices, searched);
+		LauncherMetrics.get().recordClassLookup(-1);
+		throw new ClassNotFoundException(name);
+	}
+
+	private Class<?> defineClass(String name, ClassPathElement element, JarEntry entry) throws IOException {
+		byte[] classBytes;
+		CodeSigner[] codeSigners;
+		InputStream inputStream = element.getInputStream(entry);
+		try {
+			classBytes = readFully(inputStream, entry.getSize());
+			// code signers are only available once the entry has been read completely, and while the JAR is still open
+			codeSigners = entry.getCodeSigners();
+		} finally {
+			inputStream.close();
+		}
+
+		int packageSeparatorIndex = name.lastIndexOf('.');
+		if(packageSeparatorIndex > 0) {
+			this.definePackageIfAbsent(name.substring(0, packageSeparatorIndex), element);
+		}
+
+		LauncherMetrics.get().recordClassLookup(classBytes.length);
+		CodeSource codeSource = new CodeSource(element.getCodeSourceURL(), codeSigners);
+		return this.defineClass(name, classBytes, 0, classBytes.length, codeSource);
+	}
+
+	@SuppressWarnings("deprecation")
+	private void definePackageIfAbsent(String packageName, ClassPathElement element) throws IOException {
+		if(this.getPackage(packageName)==null) {
+			this.recordAccess(element, JarFile.MANIFEST_NAME);
+			Manifest manifest = element.getManifest();
+			try {
+				if(manifest!=null) {
+					this.definePackage(packageName, manifest, element.getCodeSourceURL());
+				} else {
+					this.definePackage(packageName, null, null, null, null, null, null, null);
+				}
+			} catch(IllegalArgumentException e) {
+				// the package has been defined concurrently
+			}
+		}
+	}
+
+	private static byte[] readFully(InputStream inputStream, long size) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE? (int) size : 8192);
+		byte[] buffer = new byte[8192];
+		int count;
+		while((count = inputStream.read(buffer))!=-1) {
+			outputStream.write(buffer, 0, count);
+		}
+		return outputStream.toByteArray();
+	}
+
+	@Override
+	public URL findResource(String name) {
+		URL result = this.index==null && this.allElementIndices==null? super.findResource(name) : this.findIndexedResource(name);
+		LauncherMetrics.get().recordResourceLookup(result!=null);
+		return result;
+	}
+
+	private URL findIndexedResource(String name) {
+		int[] elementIndices = this.getElementIndices(name);
+		boolean searched = false;
+		for(int elementIndex: elementIndices) {
+			if(this.mightContain(elementIndex, name)) {
+				searched = true;
+				URL result = this.findResource(this.searchedElements[elementIndex], name);
+				if(result!=null) {
+					return result;
+				}
+				this.recordFalsePositive();
+			}
+		}
+		this.recordMiss(elementIndices, searched);
+		return null;
+	}
+
+	@Override
+	public Enumeration<URL> findResources(String name) throws IOException {
+		if(this.index==null && this.allElementIndices==null) {
+			Enumeration<URL> result = super.findResources(name);
+			LauncherMetrics.get().recordResourceLookup(result.hasMoreElements());
+			return result;
+		}
+
+		List<URL> result = new ArrayList<URL>();
+		int[] elementIndices = this.getElementIndices(name);
+		boolean searched = false;
+		for(int elementIndex: elementIndices) {
+			if(this.mightContain(elementIndex, name)) {
+				searched = true;
+				URL resourceURL = this.findResource(this.searchedElements[elementIndex], name);
+				if(resourceURL!=null) {
+					result.add(resourceURL);
+				} else {
+					this.recordFalsePositive();
+				}
+			}
+		}
+		if(result.isEmpty()) {
+			this.recordMiss(elementIndices, searched);
+		}
+		LauncherMetrics.get().recordResourceLookup(!result.isEmpty());
+		return Collections.enumeration(result);
+	}
+
+	/**
+	 * @return the positions of the elements which may contain the resource according to the index, or of all elements if there is no index
+	 */
+	private int[] getElementIndices(String name) {
+		return this.index!=null? this.index.getElementIndices(name) : this.allElementIndices;
+	}
+
+	private boolean mightContain(int elementIndex, String name) {
+		if(this.searchedElements[elementIndex]==null) {
+			return false; // loaded elsewhere
+		}
+		if(this.filter==null || this.filter.mightContain(elementIndex, name)) {
+			return true;
+		}
+		LauncherMetrics.get().recordFilteredElement();
+		return false;
+	}
+
+	private void recordFalsePositive() {
+		if(this.filter!=null) {
+			LauncherMetrics.get().recordFilterFalsePositive();
+		}
+	}
+
+	/**
+	 * Records a missed lookup which was answered by the filter alone, without searching any element the index referred to.
+	 */
+	private void recordMiss(int[] elementIndices, boolean searched) {
+		if(!searched && elementIndices.length > 0 && this.filter!=null) {
+			LauncherMetrics.get().recordFilteredLookup();
+		}
+	}
+
+	private URL findResource(ClassPathElement element, String name) {
+		try {
+			if(element.getEntry(name)!=null) {
+				this.recordAccess(element, name);
+				return element.getResourceURL(name);
+			}
+		} catch(IOException e) {
+			// treat unreadable elements like URLClassLoader does: as not containing the resource
+		}
+		return null;
+	}
+
+}
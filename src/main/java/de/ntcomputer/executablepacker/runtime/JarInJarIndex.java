@@ -0,0 +1,166 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Index mapping each directory (i.e. package or resource folder) to the classpath elements containing entries in that directory.
+ * The index is created at build time and embedded into the executable JAR, so the jar-in-jar-classloader can search only the elements that may contain a requested class or resource,
+ * and can answer lookups for unknown directories without opening any nested JAR.
+ * <p>
+ * The file format is similar to the JDK's <code>META-INF/INDEX.LIST</code>: a header line, followed by one section per classpath element.
+ * Each section starts with the element name, followed by one directory per line, and is terminated by an empty line.
+ * The root directory is written as <code>/</code>.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class JarInJarIndex {
+	public static final String INDEX_NAME = "META-INF/executable-packer/INDEX.LIST";
+	public static final String ROOT_ELEMENT_NAME = "./";
+	private static final String INDEX_HEADER = "JarInJarIndex-Version: 1.0";
+	private static final String ROOT_DIRECTORY_NAME = "/";
+	private static final String VERSIONED_DIRECTORY_PREFIX = "META-INF/versions/";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final int[] NO_ELEMENTS = new int[0];
+
+	private final List<String> elementNames;
+	private final Map<String, int[]> directoryElements;
+
+	private JarInJarIndex(List<String> elementNames, Map<String, int[]> directoryElements) {
+		this.elementNames = elementNames;
+		this.directoryElements = directoryElements;
+	}
+
+	/**
+	 * @return the names of all indexed classpath elements, in classpath order
+	 */
+	public List<String> getElementNames() {
+		return this.elementNames;
+	}
+
+	/**
+	 * Determines which classpath elements may contain the given resource.
+	 *
+	 * @param resourceName the resource name, e.g. <code>com/example/MyClass.class</code>
+	 * @return the positions of all elements (in classpath order) containing the resource's directory. Empty if no element contains it.
+	 */
+	public int[] getElementIndices(String resourceName) {
+		int[] result = this.directoryElements.get(getDirectoryName(resourceName));
+		return result==null? NO_ELEMENTS : result;
+	}
+
+	/**
+	 * Returns the directory a resource is located in, which is the key used by the index.
+	 * Trailing slashes (of directory entries) are ignored, and resources in the root directory result in an empty string.
+	 *
+	 * @param resourceName the resource name
+	 * @return the directory name, without trailing slash
+	 */
+	public static String getDirectoryName(String resourceName) {
+		int end = resourceName.length();
+		while(end > 0 && resourceName.charAt(end - 1)=='/') {
+			end--;
+		}
+		int separatorIndex = resourceName.lastIndexOf('/', end - 1);
+		return separatorIndex < 0? "" : resourceName.substring(0, separatorIndex);
+	}
+
+	/**
+	 * Reads an index.
+	 *
+	 * @param inputStream the stream to read from. It is not closed by this method.
+	 * @return the index
+	 * @throws IOException if reading fails or the stream does not contain a valid index
+	 */
+	public static JarInJarIndex read(InputStream inputStream) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, CHARSET));
+		if(!INDEX_HEADER.equals(reader.readLine())) {
+			throw new IOException("Unsupported jar-in-jar index version");
+		}
+		if(reader.readLine()==null) {
+			throw new IOException("Jar-in-jar index is truncated");
+		}
+
+		List<String> elementNames = new ArrayList<String>();
+		Map<String, List<Integer>> directoryElementLists = new HashMap<String, List<Integer>>();
+		String line;
+		String currentElementName = null;
+		while((line = reader.readLine())!=null) {
+			if(line.isEmpty()) {
+				currentElementName = null;
+			} else if(currentElementName==null) {
+				currentElementName = line;
+				elementNames.add(currentElementName);
+			} else {
+				String directoryName = ROOT_DIRECTORY_NAME.equals(line)? "" : line;
+				List<Integer> directoryElementList = directoryElementLists.get(directoryName);
+				if(directoryElementList==null) {
+					directoryElementList = new ArrayList<Integer>(1);
+					directoryElementLists.put(directoryName, directoryElementList);
+				}
+				directoryElementList.add(elementNames.size() - 1);
+			}
+		}
+
+		Map<String, int[]> directoryElements = new HashMap<String, int[]>(directoryElementLists.size() * 2);
+		for(Map.Entry<String, List<Integer>> directoryElementList: directoryElementLists.entrySet()) {
+			List<Integer> elementList = directoryElementList.getValue();
+			int[] elementIndices = new int[elementList.size()];
+			for(int i=0; i<elementIndices.length; i++) {
+				elementIndices[i] = elementList.get(i);
+			}
+			directoryElements.put(directoryElementList.getKey(), elementIndices);
+		}
+		return new JarInJarIndex(Collections.unmodifiableList(elementNames), directoryElements);
+	}
+
+	/**
+	 * Writes an index.
+	 * Entries of multi-release JARs (below <code>META-INF/versions/</code>) are indexed by their versioned and their unversioned directory.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @param elementEntryNames the names of all entries contained in each classpath element, keyed by element name and in classpath order
+	 * @throws IOException if writing fails
+	 */
+	public static void write(OutputStream outputStream, Map<String, ? extends Collection<String>> elementEntryNames) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, CHARSET));
+		writer.write(INDEX_HEADER);
+		writer.write("\n\n");
+		for(Map.Entry<String, ? extends Collection<String>> element: elementEntryNames.entrySet()) {
+			Set<String> directoryNames = new TreeSet<String>();
+			for(String entryName: element.getValue()) {
+				String directoryName = getDirectoryName(entryName);
+				directoryNames.add(directoryName);
+				if(directoryName.startsWith(VERSIONED_DIRECTORY_PREFIX)) {
+					int versionEnd = directoryName.indexOf('/', VERSIONED_DIRECTORY_PREFIX.length());
+					directoryNames.add(versionEnd < 0? "" : directoryName.substring(versionEnd + 1));
+				}
+			}
+			writer.write(element.getKey());
+			writer.write('\n');
+			for(String directoryName: directoryNames) {
+				writer.write(directoryName.isEmpty()? ROOT_DIRECTORY_NAME : directoryName);
+				writer.write('\n');
+			}
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+}
@@ -1,38 +1,190 @@
 package de.ntcomputer.executablepacker.runtime;
 
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
-import java.net.URLDecoder;
+import java.util.jar.JarEntry;
 
 /**
  * Helper class that provides a URL connection to a classpath resource.
- * 
+ * <p>
+ * The resource is resolved once per connection, using the location cache of its {@link JarInJarURLStreamHandler}.
+ * Entries of the outer JAR file report their content length and modification time from the JAR's central directory, without reading any content.
+ * Ranges of the content can be read using {@link #getInputStream(long, long)}. Skipping to the start of a range does not read the skipped bytes of entries stored without compression, such as nested JARs matched by <code>storedEntries</code> (by default only with the <code>mapped</code> dependency access mode).
+ *
  * @author Nikolaus Thuemmel
  *
  */
 public class JarInJarURLConnection extends URLConnection {
-	private final ClassLoader outerJarClassLoader;
+	private final JarInJarURLStreamHandler handler;
+	private JarInJarURLStreamHandler.Location location;
+	private URLConnection resourceConnection;
 
-	public JarInJarURLConnection(URL url, ClassLoader outerJarClassLoader) {
+	public JarInJarURLConnection(URL url, JarInJarURLStreamHandler handler) {
 		super(url);
-		this.outerJarClassLoader = outerJarClassLoader;
+		this.handler = handler;
 	}
 
 	@Override
 	public void connect() throws IOException {
-		// nothing to do
+		if(!this.connected) {
+			this.location = this.handler.resolve(this.url);
+			if(this.location==null) {
+				throw new FileNotFoundException("Failed to open stream to URL '" + this.url + "' in JAR file context");
+			}
+			if(this.location.getResourceURL()!=null) {
+				this.resourceConnection = this.location.getResourceURL().openConnection();
+				this.resourceConnection.setUseCaches(this.getUseCaches());
+			}
+			this.connected = true;
+		}
 	}
-	
+
 	@Override
 	public InputStream getInputStream() throws IOException {
-		String filePath = URLDecoder.decode(this.url.getFile(), "UTF-8");
-		InputStream result = this.outerJarClassLoader.getResourceAsStream(filePath);
-		if(result==null) {
-			throw new IOException("Failed to open stream to URL '" + this.url + "' in JAR file context");
+		this.connect();
+		if(this.resourceConnection!=null) {
+			return this.resourceConnection.getInputStream();
+		}
+		return this.location.getJarFile().getInputStream(this.location.getEntry());
+	}
+
+	/**
+	 * Opens a stream to a range of the resource's content.
+	 *
+	 * @param offset the number of bytes to skip
+	 * @param length the maximum number of bytes to read, or -1 to read up to the end of the content
+	 * @return a stream to the range
+	 * @throws IOException if opening the stream fails, or the content is shorter than the offset
+	 */
+	public InputStream getInputStream(long offset, long length) throws IOException {
+		if(offset<0 || length<-1) {
+			throw new IllegalArgumentException("Invalid range (offset " + offset + ", length " + length + ")");
+		}
+		InputStream result = this.getInputStream();
+		try {
+			long remaining = offset;
+			while(remaining > 0) {
+				long skipped = result.skip(remaining);
+				if(skipped<=0) {
+					// skip() may return 0 before the end of the stream, so check whether there is any more content
+					if(result.read()<0) {
+						throw new EOFException("Content of URL '" + this.url + "' is shorter than " + offset + " bytes");
+					}
+					skipped = 1;
+				}
+				remaining -= skipped;
+			}
+		} catch(IOException e) {
+			result.close();
+			throw e;
+		}
+		return length<0? result : new RangeInputStream(result, length);
+	}
+
+	/**
+	 * @return the entry of the outer JAR file containing the resource, or null if the resource is no entry of the outer JAR file
+	 * @throws IOException if the resource does not exist
+	 */
+	public JarEntry getJarEntry() throws IOException {
+		this.connect();
+		return this.location.getEntry();
+	}
+
+	@Override
+	public long getContentLengthLong() {
+		try {
+			this.connect();
+			if(this.resourceConnection!=null) {
+				return this.resourceConnection.getContentLengthLong();
+			}
+			return this.location.getEntry().getSize();
+		} catch(IOException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public int getContentLength() {
+		long result = this.getContentLengthLong();
+		return result > Integer.MAX_VALUE? -1 : (int) result;
+	}
+
+	@Override
+	public long getLastModified() {
+		try {
+			this.connect();
+			if(this.resourceConnection!=null) {
+				return this.resourceConnection.getLastModified();
+			}
+			long result = this.location.getEntry().getTime();
+			return result<0? 0 : result;
+		} catch(IOException e) {
+			return 0;
+		}
+	}
+
+	@Override
+	public String getContentType() {
+		String result = guessContentTypeFromName(this.url.getFile());
+		return result==null? "content/unknown" : result;
+	}
+
+	/**
+	 * Stream reading at most a given number of bytes from another stream.
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+		private long remaining;
+
+		private RangeInputStream(InputStream in, long length) {
+			super(in);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(this.remaining<=0) {
+				return -1;
+			}
+			int result = super.read();
+			if(result>=0) {
+				this.remaining--;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(this.remaining<=0) {
+				return -1;
+			}
+			int result = super.read(b, off, (int) Math.min(len, this.remaining));
+			if(result>0) {
+				this.remaining -= result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long result = super.skip(Math.min(n, this.remaining));
+			this.remaining -= result;
+			return result;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), this.remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
 		}
-		return result;
 	}
 
-}
\ No newline at end of file
+}
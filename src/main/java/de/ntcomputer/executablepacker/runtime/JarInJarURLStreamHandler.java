@@ -1,34 +1,181 @@
 package de.ntcomputer.executablepacker.runtime;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.JarURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.net.URLDecoder;
 import java.net.URLStreamHandler;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
  * Helper class that opens appropriate URL connections for the custom jar-in-jar URL protocol.
- * 
+ * <p>
+ * The locations of resolved resources are kept in a bounded cache shared by all connections, so repeatedly opened URLs are neither decoded nor searched again.
+ * If the outer JAR file is known, resources are resolved to its entries directly, which provide the content length and modification time.
+ * All other resources are searched using the outer JAR's classloader.
+ *
  * @author Nikolaus Thuemmel
  *
  */
 public class JarInJarURLStreamHandler extends URLStreamHandler {
 	public static final String PROTOCOL = "jij";
+	/** Maximum number of resolved resource locations kept in the cache */
+	public static final int MAX_CACHED_LOCATIONS = 1024;
 	private final ClassLoader outerJarClassLoader;
+	private final URL outerJarURL;
+	private volatile JarFile outerJarFile;
+	private volatile boolean outerJarFileUnavailable;
+	/** The resolved locations keyed by the raw (encoded) path of their URL, in access order */
+	private final LinkedHashMap<String, Location> locations = new LinkedHashMap<String, Location>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+			return this.size() > MAX_CACHED_LOCATIONS;
+		}
+	};
 
 	public JarInJarURLStreamHandler(ClassLoader outerJarClassLoader) {
+		this(outerJarClassLoader, null);
+	}
+
+	/**
+	 * @param outerJarClassLoader the classloader of the outer JAR, used to search resources which are not entries of the outer JAR file
+	 * @param outerJarURL the URL of the outer JAR file, or null if it is unknown
+	 */
+	public JarInJarURLStreamHandler(ClassLoader outerJarClassLoader, URL outerJarURL) {
 		this.outerJarClassLoader = outerJarClassLoader;
+		this.outerJarURL = outerJarURL;
 	}
 
 	@Override
 	protected URLConnection openConnection(URL u) throws IOException {
-		return new JarInJarURLConnection(u, this.outerJarClassLoader);
+		return new JarInJarURLConnection(u, this);
 	}
-	
+
 	@Override
 	protected void parseURL(URL u, String spec, int start, int limit) {
 		// disable the default http-like URL parsing of the base class (the jij-protocol does not provide hostnames, ports, query strings, etc.)
 		String filePath = spec.substring(start, limit);
-		this.setURL(u, PROTOCOL, null, -1, null, null, filePath, null, null);
+		if(filePath.isEmpty() && u.getFile()!=null) {
+			filePath = u.getFile(); // reference-only specs (e.g. "#runtime", used by the JDK when opening nested JARs) keep the context's path
+		}
+		this.setURL(u, PROTOCOL, null, -1, null, null, filePath, null, u.getRef());
+	}
+
+	/**
+	 * Resolves the resource referenced by a jar-in-jar URL, using the cache if possible.
+	 *
+	 * @param url the URL
+	 * @return the location of the resource, or null if it does not exist
+	 * @throws IOException if the URL's path is invalid, or the outer JAR file cannot be read
+	 */
+	Location resolve(URL url) throws IOException {
+		String rawPath = url.getFile();
+		Location result;
+		synchronized(this.locations) {
+			result = this.locations.get(rawPath);
+		}
+		if(result==null) {
+			result = this.search(decodePath(rawPath));
+			if(result!=null) {
+				synchronized(this.locations) {
+					this.locations.put(rawPath, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	private Location search(String path) throws IOException {
+		JarFile jarFile = this.getOuterJarFile();
+		if(jarFile!=null) {
+			JarEntry entry = jarFile.getJarEntry(path);
+			if(entry!=null && !entry.isDirectory()) {
+				return new Location(jarFile, entry, null);
+			}
+		}
+		URL resourceURL = this.outerJarClassLoader.getResource(path);
+		return resourceURL==null? null : new Location(null, null, resourceURL);
+	}
+
+	/**
+	 * @return the outer JAR file, opened on first access, or null if it is unknown or cannot be opened
+	 */
+	private JarFile getOuterJarFile() {
+		JarFile result = this.outerJarFile;
+		if(result==null && this.outerJarURL!=null && !this.outerJarFileUnavailable) {
+			synchronized(this) {
+				result = this.outerJarFile;
+				if(result==null && !this.outerJarFileUnavailable) {
+					try {
+						// the "runtime" reference makes the JDK open multi-release JARs for the runtime version (ignored on Java 8)
+						URLConnection connection = new URL("jar:" + this.outerJarURL + "!/#runtime").openConnection();
+						// the cached JAR file is shared with the outer JAR's root classpath element, and is never closed
+						connection.setUseCaches(true);
+						result = ((JarURLConnection) connection).getJarFile();
+						this.outerJarFile = result;
+					} catch(IOException e) {
+						// fall back to searching all resources using the outer JAR's classloader
+						this.outerJarFileUnavailable = true;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the percent-encoded path of a jar-in-jar URL (see {@link ClassPathElement#encodePath(String)}).
+	 * Paths without escapes, which are the common case, are returned as they are.
+	 */
+	private static String decodePath(String rawPath) throws UnsupportedEncodingException {
+		if(rawPath.indexOf('%') < 0) {
+			return rawPath;
+		}
+		// encoded paths contain no literal '+', but URLDecoder would turn one into a space
+		return URLDecoder.decode(rawPath.replace("+", "%2B"), "UTF-8");
+	}
+
+	/**
+	 * The resolved location of a resource: either an entry of the outer JAR file, or a URL found by the outer JAR's classloader.
+	 */
+	static class Location {
+		private final JarFile jarFile;
+		private final JarEntry entry;
+		private final URL resourceURL;
+
+		private Location(JarFile jarFile, JarEntry entry, URL resourceURL) {
+			this.jarFile = jarFile;
+			this.entry = entry;
+			this.resourceURL = resourceURL;
+		}
+
+		/**
+		 * @return the JAR file containing the entry, or null if the resource is not an entry of the outer JAR file
+		 */
+		JarFile getJarFile() {
+			return jarFile;
+		}
+
+		/**
+		 * @return the entry of the outer JAR file, or null if the resource is not an entry of the outer JAR file
+		 */
+		JarEntry getEntry() {
+			return entry;
+		}
+
+		/**
+		 * @return the URL of the resource found by the outer JAR's classloader, or null if the resource is an entry of the outer JAR file
+		 */
+		URL getResourceURL() {
+			return resourceURL;
+		}
 	}
 
 }
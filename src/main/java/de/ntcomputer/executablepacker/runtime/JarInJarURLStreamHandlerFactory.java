@@ -1,5 +1,6 @@
 package de.ntcomputer.executablepacker.runtime;
 
+import java.net.URL;
 import java.net.URLStreamHandler;
 import java.net.URLStreamHandlerFactory;
 
@@ -11,14 +12,29 @@ import java.net.URLStreamHandlerFactory;
  */
 public class JarInJarURLStreamHandlerFactory implements URLStreamHandlerFactory {
 	private final ClassLoader outerJarClassLoader;
+	private final URL outerJarURL;
+	private JarInJarURLStreamHandler handler;
 
 	public JarInJarURLStreamHandlerFactory(ClassLoader outerJarClassLoader) {
+		this(outerJarClassLoader, null);
+	}
+
+	/**
+	 * @param outerJarClassLoader the classloader of the outer JAR
+	 * @param outerJarURL the URL of the outer JAR file, or null if it is unknown
+	 */
+	public JarInJarURLStreamHandlerFactory(ClassLoader outerJarClassLoader, URL outerJarURL) {
 		this.outerJarClassLoader = outerJarClassLoader;
+		this.outerJarURL = outerJarURL;
 	}
 
-	public URLStreamHandler createURLStreamHandler(String protocol) {
+	public synchronized URLStreamHandler createURLStreamHandler(String protocol) {
 		if(JarInJarURLStreamHandler.PROTOCOL.equals(protocol)) {
-			return new JarInJarURLStreamHandler(this.outerJarClassLoader);
+			// a single handler, so all connections share its cache of resolved resources
+			if(this.handler==null) {
+				this.handler = new JarInJarURLStreamHandler(this.outerJarClassLoader, this.outerJarURL);
+			}
+			return this.handler;
 		} else {
 			return null;
 		}
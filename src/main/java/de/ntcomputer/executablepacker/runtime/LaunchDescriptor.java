@@ -0,0 +1,154 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+
+/**
+ * Everything the launcher needs to know about the executable JAR, created at build time and embedded at a fixed path:
+ * the launcher's manifest attributes (e.g. the application's main class and the dependency path) and the ordered list of dependency JARs with their sizes and hashes.
+ * The launcher reads it directly from the outer JAR, instead of searching all manifests on the classpath, splitting the list of dependency JARs
+ * and reading their hashes from a separate file. If it is missing or invalid, the launcher falls back to the manifest.
+ * <p>
+ * The file format is binary: a header string, the number of attributes followed by their names and values,
+ * and the number of dependency JARs followed by the file name, size and SHA-256 hash of each dependency JAR, in classpath order.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class LaunchDescriptor {
+	public static final String DESCRIPTOR_NAME = "META-INF/executable-packer/LAUNCH.DESCRIPTOR";
+	private static final String DESCRIPTOR_HEADER = "LaunchDescriptor-Version: 1.0";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final Attributes attributes;
+	private final Map<String, DependencyCache.Dependency> dependencies;
+
+	private LaunchDescriptor(Attributes attributes, Map<String, DependencyCache.Dependency> dependencies) {
+		this.attributes = attributes;
+		this.dependencies = dependencies;
+	}
+
+	/**
+	 * @return the launcher's manifest attributes, except for the list of dependency JARs. The application's main class is always present.
+	 */
+	public Attributes getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * @return all dependency JARs, keyed by file name, in classpath order
+	 */
+	public Map<String, DependencyCache.Dependency> getDependencies() {
+		return this.dependencies;
+	}
+
+	/**
+	 * Reads a descriptor.
+	 *
+	 * @param inputStream the stream to read from. It is not closed by this method.
+	 * @return the descriptor
+	 * @throws IOException if reading fails or the stream does not contain a valid descriptor
+	 */
+	public static LaunchDescriptor read(InputStream inputStream) throws IOException {
+		DataInputStream dataInputStream = new DataInputStream(inputStream);
+		if(!DESCRIPTOR_HEADER.equals(dataInputStream.readUTF())) {
+			throw new IOException("Unsupported launch descriptor version");
+		}
+		Attributes attributes = new Attributes();
+		int attributeCount = dataInputStream.readInt();
+		for(int i=0; i<attributeCount; i++) {
+			try {
+				attributes.putValue(dataInputStream.readUTF(), dataInputStream.readUTF());
+			} catch(IllegalArgumentException e) {
+				throw new IOException("Invalid attribute name in launch descriptor", e);
+			}
+		}
+
+		String applicationMainClassName = attributes.getValue(ExecutableLauncher.MANIFEST_APPLICATION_MAIN_CLASS);
+		if(applicationMainClassName==null || applicationMainClassName.trim().isEmpty()) {
+			throw new IOException("Launch descriptor is missing attribute " + ExecutableLauncher.MANIFEST_APPLICATION_MAIN_CLASS);
+		}
+
+		String dependencyLibPath = attributes.getValue(ExecutableLauncher.MANIFEST_DEPENDENCY_LIBPATH);
+		dependencyLibPath = dependencyLibPath==null? "" : dependencyLibPath.trim();
+		int dependencyCount = dataInputStream.readInt();
+		Map<String, DependencyCache.Dependency> dependencies = new LinkedHashMap<String, DependencyCache.Dependency>();
+		for(int i=0; i<dependencyCount; i++) {
+			String fileName = dataInputStream.readUTF();
+			long size = dataInputStream.readLong();
+			byte[] hash = new byte[dataInputStream.readUnsignedByte()];
+			dataInputStream.readFully(hash);
+			dependencies.put(fileName, new DependencyCache.Dependency(dependencyLibPath + fileName, toHex(hash), size));
+		}
+		return new LaunchDescriptor(attributes, Collections.unmodifiableMap(dependencies));
+	}
+
+	/**
+	 * Writes a descriptor.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @param attributes the launcher's manifest attributes. The list of dependency JARs is omitted, since it is written along with the dependencies.
+	 * @param dependencies all dependency JARs, in classpath order, as read by {@link DependencyCache#readHashes(InputStream, String)}
+	 * @throws IOException if writing fails
+	 */
+	public static void write(OutputStream outputStream, Attributes attributes, Collection<DependencyCache.Dependency> dependencies) throws IOException {
+		DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+		dataOutputStream.writeUTF(DESCRIPTOR_HEADER);
+		Map<String, String> writtenAttributes = new LinkedHashMap<String, String>();
+		for(Map.Entry<Object, Object> attribute: attributes.entrySet()) {
+			if(!ExecutableLauncher.MANIFEST_DEPENDENCY_JARS.equalsIgnoreCase(attribute.getKey().toString())) {
+				writtenAttributes.put(attribute.getKey().toString(), attribute.getValue().toString());
+			}
+		}
+		dataOutputStream.writeInt(writtenAttributes.size());
+		for(Map.Entry<String, String> attribute: writtenAttributes.entrySet()) {
+			dataOutputStream.writeUTF(attribute.getKey());
+			dataOutputStream.writeUTF(attribute.getValue());
+		}
+
+		dataOutputStream.writeInt(dependencies.size());
+		for(DependencyCache.Dependency dependency: dependencies) {
+			String entryName = dependency.getEntryName();
+			dataOutputStream.writeUTF(entryName.substring(entryName.lastIndexOf('/') + 1));
+			dataOutputStream.writeLong(dependency.getSize());
+			byte[] hash = fromHex(dependency.getHash());
+			dataOutputStream.writeByte(hash.length);
+			dataOutputStream.write(hash);
+		}
+		dataOutputStream.flush();
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] result = new char[bytes.length * 2];
+		for(int i=0; i<bytes.length; i++) {
+			result[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+			result[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+		}
+		return new String(result);
+	}
+
+	private static byte[] fromHex(String hex) throws IOException {
+		if(hex.length() % 2!=0 || hex.length() > 510) {
+			throw new IOException("Invalid dependency hash '" + hex + "'");
+		}
+		byte[] result = new byte[hex.length() / 2];
+		for(int i=0; i<result.length; i++) {
+			int high = Character.digit(hex.charAt(i * 2), 16);
+			int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+			if(high<0 || low<0) {
+				throw new IOException("Invalid dependency hash '" + hex + "'");
+			}
+			result[i] = (byte) ((high << 4) | low);
+		}
+		return result;
+	}
+
+}
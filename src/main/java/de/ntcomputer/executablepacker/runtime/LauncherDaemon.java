@@ -0,0 +1,1057 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Resident launcher daemon, which keeps a warm JVM with the jar-in-jar-classloader already set up and runs invocations of the application's main method received over a Unix domain socket.
+ * Repeated invocations (e.g. of command line tools run from scripts) thereby skip setting up the classloader, loading the application's classes and warming up the JIT compiler.
+ * <p>
+ * When daemon mode is enabled, the launcher first acts as a client: it connects to the daemon for its JAR file and working directory, sends the arguments and forwards its stdin,
+ * writes the stdout and stderr output of the invocation and exits with the invocation's exit code. If no daemon is running, the launcher starts one in the background
+ * and runs the application itself. A daemon only runs invocations from its own working directory, so relative paths resolve like in a separate JVM,
+ * and only if the client's JAR has the same fingerprint (the SHA-256 hash of the names, sizes and CRCs of all entries), so it is replaced once the JAR changes.
+ * It exits after an idle timeout without invocations.
+ * <p>
+ * Each invocation runs in its own thread group, whose threads have their own stdin, stdout and stderr. Output is routed by thread group only: threads created outside the invocation's group
+ * (e.g. the workers of <code>ForkJoinPool.commonPool()</code> while the security manager is installed) write to the daemon's log, and threads created by an invocation
+ * (e.g. of static executors or logging frameworks) stay in its group when they are reused by later invocations. The daemon therefore refuses invocations
+ * while any thread of an ended invocation is still alive, including threads which merely have been interrupted when their invocation called <code>System.exit</code>;
+ * the refused client runs the application itself. Since invocations share static state, system properties and the standard streams, the daemon also runs only one invocation at a time,
+ * and refuses invocations while another one is running. <code>System.exit</code> only ends the invocation calling it,
+ * which requires a security manager. Daemon mode therefore requires a JVM supporting Unix domain sockets (Java 16 and later) which still allows installing a security manager
+ * (up to Java 23, and not disabled using <code>-Djava.security.manager=disallow</code>); on other JVMs the launcher runs the application itself without starting a daemon.
+ * If a daemon nevertheless fails to install its security manager, it leaves a marker next to its socket, so clients on the same JVM stop starting daemons.
+ * Environment variables and system properties are those of the client which started the daemon.
+ * <p>
+ * Sockets are created in a directory only accessible by the current user, since anyone able to connect to a socket could run the application as the current user.
+ * Clients and daemons check the directory's owner and permissions on every start, and neither connect to nor create sockets in a directory failing the check. Invocations are framed on the socket: the client sends a header, the fingerprint and the arguments, followed by
+ * length-prefixed chunks of stdin (a negative length marking its end). The daemon answers whether it accepts the invocation, followed by chunks of stdout and stderr and the exit code.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class LauncherDaemon {
+	/** System property specifying the socket of the launcher daemon, set for the daemon process only */
+	public static final String PROPERTY_DAEMON_SOCKET = "executablepacker.daemon.socket";
+	private static final String PROTOCOL_HEADER = "LauncherDaemon-Version: 1.1";
+	static final int FRAME_ACCEPTED = 0;
+	static final int FRAME_STDOUT = 1;
+	static final int FRAME_STDERR = 2;
+	static final int FRAME_EXIT = 3;
+	static final int FRAME_REJECTED = 4;
+	static final int FRAME_BUSY = 5;
+	/** Maximum time a starting daemon waits for a previous daemon of the same JAR and working directory to exit */
+	private static final long LOCK_TIMEOUT_MILLIS = 30 * 1000L;
+	/** First Java version which no longer allows installing a security manager (JEP 486) */
+	private static final int SECURITY_MANAGER_REMOVAL_VERSION = 24;
+	/** Maximum time a new invocation waits for the threads of ended invocations to end (e.g. after being interrupted by <code>System.exit</code>) before it is refused */
+	private static final long REMAINING_THREAD_TIMEOUT_MILLIS = 100L;
+
+	private final File socketFile;
+	private final String fingerprint;
+	private final long idleTimeoutMillis;
+	private final ClassLoader classLoader;
+	private final String mainClassName;
+	private final AtomicInteger activeInvocations = new AtomicInteger();
+	/** Running invocations, and ended invocations which may still have threads alive */
+	private final List<Invocation> invocations = new ArrayList<Invocation>();
+	/** Whether an invocation has been accepted but not added to {@link #invocations} yet, guarded by {@link #invocations} */
+	private boolean invocationReserved = false;
+	private volatile long lastActivityMillis = System.currentTimeMillis();
+	private volatile ServerSocketChannel serverChannel;
+
+	LauncherDaemon(File socketFile, String fingerprint, long idleTimeoutMillis, ClassLoader classLoader, String mainClassName) {
+		this.socketFile = socketFile;
+		this.fingerprint = fingerprint;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.classLoader = classLoader;
+		this.mainClassName = mainClassName;
+	}
+
+	/**
+	 * @return true if this JVM is a launcher daemon
+	 */
+	public static boolean isDaemon() {
+		return System.getProperty(PROPERTY_DAEMON_SOCKET)!=null;
+	}
+
+	/**
+	 * @return true if this JVM supports Unix domain sockets and allows installing a security manager
+	 */
+	public static boolean isSupported() {
+		if(getJavaVersion() >= SECURITY_MANAGER_REMOVAL_VERSION || "disallow".equals(System.getProperty("java.security.manager"))) {
+			return false;
+		}
+		return supportsUnixDomainSockets();
+	}
+
+	static boolean supportsUnixDomainSockets() {
+		try {
+			getUnixProtocolFamily();
+			Class.forName("java.net.UnixDomainSocketAddress");
+			return true;
+		} catch(Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the application in the launcher daemon for the given JAR file and the current working directory.
+	 * If no daemon is running, or the running daemon belongs to a different version of the JAR file, a new daemon is started in the background.
+	 * If the running daemon refuses the invocation because threads of an ended invocation are still alive, it is kept running.
+	 *
+	 * @param jarFile the executable JAR file
+	 * @param daemonDirectory the directory containing the daemons' sockets
+	 * @param args the application's arguments
+	 * @return the exit code of the invocation, or null if the application has not been run by a daemon and has to be run by the caller
+	 */
+	public static Integer run(File jarFile, File daemonDirectory, String[] args) {
+		if(!isSupported()) {
+			return null;
+		}
+		File socketFile;
+		String fingerprint;
+		SocketChannel channel;
+		try {
+			socketFile = getSocketFile(jarFile, daemonDirectory);
+			if(isMarkedUnsupported(socketFile)) {
+				return null;
+			}
+			fingerprint = getFingerprint(jarFile);
+			channel = connect(socketFile);
+		} catch(Exception e) {
+			return null;
+		}
+
+		if(channel!=null) {
+			try {
+				DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new ChannelOutputStream(channel)));
+				DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel)));
+				int answer = requestInvocation(outputStream, inputStream, fingerprint, args);
+				if(answer==FRAME_ACCEPTED) {
+					return forwardInvocation(outputStream, inputStream, System.in, new FileOutputStream(FileDescriptor.out), new FileOutputStream(FileDescriptor.err));
+				}
+				if(answer==FRAME_BUSY) {
+					// the daemon is still running threads of an ended invocation, and serves again once they have ended
+					return null;
+				}
+			} finally {
+				try {
+					channel.close();
+				} catch(IOException e) {
+					// the invocation is complete
+				}
+			}
+			// the running daemon belongs to a different version of the JAR file, and is exiting
+			startDaemon(jarFile, socketFile, true);
+		} else {
+			startDaemon(jarFile, socketFile, false);
+		}
+		return null;
+	}
+
+	/**
+	 * Sends an invocation to the daemon.
+	 *
+	 * @return the daemon's answer ({@link #FRAME_ACCEPTED}, {@link #FRAME_REJECTED} or {@link #FRAME_BUSY}), or -1 if the daemon could not be reached
+	 */
+	static int requestInvocation(DataOutputStream outputStream, DataInputStream inputStream, String fingerprint, String[] args) {
+		try {
+			outputStream.writeUTF(PROTOCOL_HEADER);
+			outputStream.writeUTF(fingerprint);
+			outputStream.writeInt(args.length);
+			for(String arg: args) {
+				writeString(outputStream, arg);
+			}
+			outputStream.flush();
+			return inputStream.readUnsignedByte();
+		} catch(IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Forwards stdin to an accepted invocation and its output to stdout and stderr, until it has ended.
+	 *
+	 * @return the exit code of the invocation
+	 */
+	static int forwardInvocation(final DataOutputStream outputStream, DataInputStream inputStream, final InputStream stdin, OutputStream stdout, OutputStream stderr) {
+		// once the invocation has been accepted, it must not run again, so errors end it
+		Thread stdinThread = new Thread("executable-packer-daemon-stdin") {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[8192];
+				try {
+					int count;
+					while((count = stdin.read(buffer))!=-1) {
+						synchronized(outputStream) {
+							outputStream.writeInt(count);
+							outputStream.write(buffer, 0, count);
+							outputStream.flush();
+						}
+					}
+					synchronized(outputStream) {
+						outputStream.writeInt(-1);
+						outputStream.flush();
+					}
+				} catch(IOException e) {
+					// the invocation has ended
+				}
+			}
+		};
+		stdinThread.setDaemon(true);
+		stdinThread.start();
+
+		try {
+			while(true) {
+				int frameType = inputStream.readUnsignedByte();
+				if(frameType==FRAME_EXIT) {
+					return inputStream.readInt();
+				}
+				byte[] content = new byte[inputStream.readInt()];
+				inputStream.readFully(content);
+				OutputStream frameOutputStream = frameType==FRAME_STDERR? stderr : stdout;
+				frameOutputStream.write(content);
+				frameOutputStream.flush();
+			}
+		} catch(IOException e) {
+			System.err.println("Lost connection to the launcher daemon: " + e);
+			return 1;
+		}
+	}
+
+	/**
+	 * Starts a daemon in the background, unless one is running or starting already.
+	 *
+	 * @param replace true to start a daemon replacing a daemon which is exiting, once it has exited
+	 */
+	private static void startDaemon(File jarFile, File socketFile, boolean replace) {
+		try {
+			// the daemon holds the lock while it is running
+			if(!replace) {
+				FileChannel lockChannel = FileChannel.open(getLockFile(socketFile).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				try {
+					FileLock lock = lockChannel.tryLock();
+					if(lock==null) {
+						return;
+					}
+					lock.release();
+				} finally {
+					lockChannel.close();
+				}
+			}
+
+			List<String> command = new ArrayList<String>();
+			command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+			for(String argument: ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+				// debugger agents would conflict with the client's
+				if(!argument.startsWith("-agentlib:jdwp") && !argument.startsWith("-Xrunjdwp") && !argument.startsWith("-D" + PROPERTY_DAEMON_SOCKET + "=")) {
+					command.add(argument);
+				}
+			}
+			command.add("-D" + PROPERTY_DAEMON_SOCKET + "=" + socketFile.getAbsolutePath());
+			// Java 12 and later only allow installing a security manager if permitted on the command line
+			if(System.getProperty("java.security.manager")==null && getJavaVersion() >= 12) {
+				command.add("-Djava.security.manager=allow");
+			}
+			command.add("-jar");
+			command.add(jarFile.getAbsolutePath());
+
+			ProcessBuilder processBuilder = new ProcessBuilder(command);
+			processBuilder.redirectErrorStream(true);
+			processBuilder.redirectOutput(Redirect.appendTo(new File(socketFile.getParentFile(), socketFile.getName() + ".log")));
+			Process process = processBuilder.start();
+			process.getOutputStream().close(); // the daemon does not receive any input
+		} catch(Exception e) {
+			// the application is run by the client anyway
+		}
+	}
+
+	/**
+	 * Serves invocations until the daemon has been idle for the idle timeout, or a client with a different version of the JAR file connected.
+	 * Returns immediately if another daemon for the same JAR file and working directory is running, or if <code>System.exit</code> cannot be intercepted;
+	 * in the latter case, a marker keeps clients on this JVM from starting further daemons.
+	 *
+	 * @param jarFile the executable JAR file
+	 * @param classLoader the classloader used to load the application
+	 * @param mainClassName the name of the application's main class
+	 * @param idleTimeoutMillis the number of milliseconds without invocations after which the daemon exits
+	 * @throws IOException if the socket cannot be created
+	 */
+	public static void serve(File jarFile, ClassLoader classLoader, String mainClassName, long idleTimeoutMillis) throws IOException {
+		File socketFile = new File(System.getProperty(PROPERTY_DAEMON_SOCKET));
+		FileChannel lockChannel = FileChannel.open(getLockFile(socketFile).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			FileLock lock = acquireLock(lockChannel);
+			if(lock==null) {
+				System.err.println("Another launcher daemon is running for '" + socketFile + "'");
+				return;
+			}
+			try {
+				checkDirectory(socketFile.getParentFile());
+			} catch(IOException e) {
+				System.err.println("The launcher daemon refuses to create its socket: " + e.getMessage());
+				return;
+			}
+			File unsupportedFile = getUnsupportedFile(socketFile);
+			try {
+				InvocationSecurityManager.install();
+			} catch(Exception e) {
+				System.err.println("The launcher daemon cannot intercept System.exit on this JVM: " + e);
+				Files.write(unsupportedFile.toPath(), getJvmKey().getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			Files.deleteIfExists(unsupportedFile.toPath());
+			new LauncherDaemon(socketFile, getFingerprint(jarFile), idleTimeoutMillis, classLoader, mainClassName).serve();
+		} finally {
+			lockChannel.close(); // releases the lock
+		}
+	}
+
+	private static FileLock acquireLock(FileChannel lockChannel) throws IOException {
+		long deadline = System.currentTimeMillis() + LOCK_TIMEOUT_MILLIS;
+		while(true) {
+			FileLock lock = lockChannel.tryLock();
+			if(lock!=null || System.currentTimeMillis() > deadline) {
+				return lock;
+			}
+			try {
+				Thread.sleep(100);
+			} catch(InterruptedException e) {
+				return null;
+			}
+		}
+	}
+
+	void serve() throws IOException {
+		Files.deleteIfExists(this.socketFile.toPath());
+		this.serverChannel = openChannel(ServerSocketChannel.class);
+		this.serverChannel.bind(createAddress(this.socketFile));
+		System.setOut(new PrintStream(new InvocationOutputStream(System.out, FRAME_STDOUT), true));
+		System.setErr(new PrintStream(new InvocationOutputStream(System.err, FRAME_STDERR), true));
+		System.setIn(new InvocationInputStream(System.in));
+		this.startIdleThread();
+
+		try {
+			while(true) {
+				final SocketChannel channel = this.serverChannel.accept();
+				this.activeInvocations.incrementAndGet();
+				new Thread("executable-packer-daemon-invocation") {
+					@Override
+					public void run() {
+						boolean accepted = false;
+						try {
+							accepted = LauncherDaemon.this.handle(channel);
+						} finally {
+							// refused invocations do not keep the daemon alive
+							if(accepted) {
+								LauncherDaemon.this.lastActivityMillis = System.currentTimeMillis();
+							}
+							LauncherDaemon.this.activeInvocations.decrementAndGet();
+						}
+					}
+				}.start();
+			}
+		} catch(AsynchronousCloseException e) {
+			// the daemon has been shut down
+		} catch(ClosedChannelException e) {
+			// the daemon has been shut down
+		}
+
+		// let running invocations finish
+		while(this.activeInvocations.get() > 0) {
+			try {
+				Thread.sleep(100);
+			} catch(InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting invocations and removes the socket, so clients start a new daemon.
+	 */
+	private synchronized void shutdown() {
+		try {
+			if(this.serverChannel.isOpen()) {
+				this.serverChannel.close();
+				Files.deleteIfExists(this.socketFile.toPath());
+			}
+		} catch(IOException e) {
+			// clients start a new daemon when they cannot connect
+		}
+	}
+
+	private void startIdleThread() {
+		Thread idleThread = new Thread("executable-packer-daemon-idle") {
+			@Override
+			public void run() {
+				while(LauncherDaemon.this.serverChannel.isOpen()) {
+					long idleMillis = System.currentTimeMillis() - LauncherDaemon.this.lastActivityMillis;
+					if(LauncherDaemon.this.activeInvocations.get()==0 && idleMillis >= LauncherDaemon.this.idleTimeoutMillis) {
+						LauncherDaemon.this.shutdown();
+						return;
+					}
+					try {
+						Thread.sleep(Math.max(Math.min(LauncherDaemon.this.idleTimeoutMillis - idleMillis, 1000), 10));
+					} catch(InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		idleThread.setDaemon(true);
+		idleThread.start();
+	}
+
+	/**
+	 * @return true if the invocation has been accepted
+	 */
+	private boolean handle(SocketChannel channel) {
+		try {
+			DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel)));
+			DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new ChannelOutputStream(channel)));
+			if(!PROTOCOL_HEADER.equals(inputStream.readUTF())) {
+				return false;
+			}
+			String clientFingerprint = inputStream.readUTF();
+			String[] args = new String[inputStream.readInt()];
+			for(int i=0; i<args.length; i++) {
+				args[i] = readString(inputStream);
+			}
+			if(!this.fingerprint.equals(clientFingerprint)) {
+				// the JAR file has changed, so the client starts a new daemon
+				outputStream.writeByte(FRAME_REJECTED);
+				outputStream.flush();
+				this.shutdown();
+				return false;
+			}
+			String refusalReason = this.beginInvocation();
+			if(refusalReason!=null) {
+				System.err.println("Refusing invocation while " + refusalReason);
+				outputStream.writeByte(FRAME_BUSY);
+				outputStream.flush();
+				return false;
+			}
+			Invocation invocation;
+			try {
+				outputStream.writeByte(FRAME_ACCEPTED);
+				outputStream.flush();
+				invocation = new Invocation(outputStream);
+				// from now on, the invocation counts as running until it has exited, which happens before its client receives the exit code
+				synchronized(this.invocations) {
+					this.invocations.add(invocation);
+				}
+			} finally {
+				synchronized(this.invocations) {
+					this.invocationReserved = false;
+				}
+			}
+			invocation.startStdinThread(inputStream);
+			invocation.run(this.classLoader, this.mainClassName, args);
+			return true;
+		} catch(IOException e) {
+			// the client has disconnected
+			return false;
+		} finally {
+			try {
+				channel.close();
+			} catch(IOException e) {
+				// the invocation is complete
+			}
+		}
+	}
+
+	/**
+	 * Reserves the daemon for a new invocation, unless another invocation is running or any thread of an ended invocation is alive.
+	 * Such a thread would share the new invocation's static state, and might write its output to the new invocation's client.
+	 * The reservation ends once the invocation has been added to the running invocations.
+	 *
+	 * @return null if the daemon has been reserved, or the reason for refusing the invocation
+	 */
+	private String beginInvocation() {
+		this.awaitRemainingThreads();
+		synchronized(this.invocations) {
+			if(this.invocationReserved) {
+				return "another invocation is running";
+			}
+			for(Invocation invocation: this.invocations) {
+				if(!invocation.isExited()) {
+					return "another invocation is running";
+				}
+			}
+			Thread remainingThread = this.getRemainingThread();
+			if(remainingThread!=null) {
+				return "thread '" + remainingThread.getName() + "' of an ended invocation is alive";
+			}
+			this.invocationReserved = true;
+			return null;
+		}
+	}
+
+	/**
+	 * Waits a short time for the threads of ended invocations to end.
+	 *
+	 * @return a thread of an ended invocation which is still alive, or null if all threads of ended invocations have ended
+	 */
+	private Thread awaitRemainingThreads() {
+		long deadline = System.currentTimeMillis() + REMAINING_THREAD_TIMEOUT_MILLIS;
+		while(true) {
+			Thread remainingThread = this.getRemainingThread();
+			if(remainingThread==null || System.currentTimeMillis() >= deadline) {
+				return remainingThread;
+			}
+			try {
+				remainingThread.join(Math.max(deadline - System.currentTimeMillis(), 1));
+			} catch(InterruptedException e) {
+				return remainingThread;
+			}
+		}
+	}
+
+	private Thread getRemainingThread() {
+		synchronized(this.invocations) {
+			for(Iterator<Invocation> iterator = this.invocations.iterator(); iterator.hasNext(); ) {
+				Invocation invocation = iterator.next();
+				if(invocation.isExited()) {
+					Thread remainingThread = invocation.getRemainingThread(false);
+					if(remainingThread!=null) {
+						return remainingThread;
+					}
+					iterator.remove();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the fingerprint of the JAR file: the SHA-256 hash of the names, sizes and CRCs of all its entries, as recorded in its central directory
+	 */
+	private static String getFingerprint(File jarFile) throws IOException {
+		ByteArrayOutputStream entriesOutputStream = new ByteArrayOutputStream();
+		DataOutputStream dataOutputStream = new DataOutputStream(entriesOutputStream);
+		ZipFile zipFile = new ZipFile(jarFile);
+		try {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while(entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				writeString(dataOutputStream, entry.getName());
+				dataOutputStream.writeLong(entry.getSize());
+				dataOutputStream.writeLong(entry.getCrc());
+			}
+		} finally {
+			zipFile.close();
+		}
+		return DependencyCache.hash(new ByteArrayInputStream(entriesOutputStream.toByteArray()), null);
+	}
+
+	/**
+	 * @return the socket of the daemon for the JAR file and the current working directory, in a directory only accessible by the current user
+	 * @throws IOException if the directory cannot be created, or is accessible by other users
+	 */
+	private static File getSocketFile(File jarFile, File daemonDirectory) throws IOException {
+		if(!daemonDirectory.isDirectory()) {
+			Files.createDirectories(daemonDirectory.toPath());
+			try {
+				Files.setPosixFilePermissions(daemonDirectory.toPath(), PosixFilePermissions.fromString("rwx------"));
+			} catch(UnsupportedOperationException e) {
+				// the file system does not support POSIX permissions
+			}
+		}
+		checkDirectory(daemonDirectory);
+		String key = jarFile.getAbsolutePath() + '\0' + new File("").getAbsolutePath();
+		String name = DependencyCache.hash(new ByteArrayInputStream(key.getBytes(StandardCharsets.UTF_8)), null).substring(0, 16);
+		// the path of a Unix domain socket is limited to about 100 bytes, so the name is short
+		return new File(daemonDirectory, name + ".sock");
+	}
+
+	/**
+	 * Checks that the daemon directory is owned by the current user and not accessible by any other user.
+	 * The check is skipped on file systems without POSIX permissions (e.g. on Windows), where the directory inherits the access control of the user's cache directory.
+	 *
+	 * @param daemonDirectory the directory containing the daemons' sockets
+	 * @throws IOException if the directory is a symbolic link, is owned by a different user, or grants permissions to its group or other users
+	 */
+	static void checkDirectory(File daemonDirectory) throws IOException {
+		Path path = daemonDirectory.toPath();
+		PosixFileAttributeView attributeView = Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+		if(attributeView==null) {
+			return;
+		}
+		PosixFileAttributes attributes = attributeView.readAttributes();
+		if(!attributes.isDirectory()) {
+			throw new IOException("Daemon directory '" + daemonDirectory + "' is a symbolic link or no directory");
+		}
+		UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+		if(!attributes.owner().equals(user)) {
+			throw new IOException("Daemon directory '" + daemonDirectory + "' is owned by " + attributes.owner().getName() + " instead of " + user.getName());
+		}
+		for(PosixFilePermission permission: attributes.permissions()) {
+			if(permission!=PosixFilePermission.OWNER_READ && permission!=PosixFilePermission.OWNER_WRITE && permission!=PosixFilePermission.OWNER_EXECUTE) {
+				throw new IOException("Daemon directory '" + daemonDirectory + "' is accessible by other users (permissions " + PosixFilePermissions.toString(attributes.permissions()) + ")");
+			}
+		}
+	}
+
+	private static File getLockFile(File socketFile) {
+		return new File(socketFile.getParentFile(), socketFile.getName() + ".lock");
+	}
+
+	/**
+	 * @return the marker written by a daemon which failed to install its security manager, containing the key of its JVM (see {@link #getJvmKey()})
+	 */
+	private static File getUnsupportedFile(File socketFile) {
+		return new File(socketFile.getParentFile(), socketFile.getName() + ".unsupported");
+	}
+
+	/**
+	 * @return true if a daemon started on this JVM has failed to install its security manager, so starting another daemon would fail again
+	 */
+	private static boolean isMarkedUnsupported(File socketFile) {
+		File unsupportedFile = getUnsupportedFile(socketFile);
+		if(!unsupportedFile.isFile()) {
+			return false;
+		}
+		try {
+			// the marker is ignored once the JVM has changed, e.g. after an update
+			return getJvmKey().equals(new String(Files.readAllBytes(unsupportedFile.toPath()), StandardCharsets.UTF_8));
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the installation and version of this JVM, which is also the JVM of the daemons started by it
+	 */
+	private static String getJvmKey() {
+		return System.getProperty("java.home") + '\n' + System.getProperty("java.version");
+	}
+
+	/**
+	 * @return a channel connected to the daemon, or null if no daemon is listening on the socket
+	 */
+	static SocketChannel connect(File socketFile) throws Exception {
+		if(!socketFile.exists()) {
+			return null;
+		}
+		SocketChannel channel = openChannel(SocketChannel.class);
+		try {
+			channel.connect(createAddress(socketFile));
+			return channel;
+		} catch(IOException e) {
+			channel.close();
+			return null;
+		}
+	}
+
+	/**
+	 * Opens a Unix domain socket channel. Called using reflection, since the method only exists on Java 16 and later.
+	 */
+	private static <T> T openChannel(Class<T> channelClass) throws IOException {
+		try {
+			Method openMethod = channelClass.getMethod("open", ProtocolFamily.class);
+			return channelClass.cast(openMethod.invoke(null, getUnixProtocolFamily()));
+		} catch(InvocationTargetException e) {
+			throw e.getCause() instanceof IOException? (IOException) e.getCause() : new IOException(e.getCause());
+		} catch(ReflectiveOperationException e) {
+			throw new IOException("Unix domain sockets are not supported", e);
+		}
+	}
+
+	private static SocketAddress createAddress(File socketFile) throws IOException {
+		try {
+			Method ofMethod = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+			return (SocketAddress) ofMethod.invoke(null, socketFile.toPath());
+		} catch(ReflectiveOperationException e) {
+			throw new IOException("Unix domain sockets are not supported", e);
+		}
+	}
+
+	private static ProtocolFamily getUnixProtocolFamily() {
+		return StandardProtocolFamily.valueOf("UNIX");
+	}
+
+	private static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version", "1.8");
+		try {
+			return Integer.parseInt(version.startsWith("1.")? version.substring(2) : version);
+		} catch(NumberFormatException e) {
+			return 8;
+		}
+	}
+
+	private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		outputStream.writeInt(bytes.length);
+		outputStream.write(bytes);
+	}
+
+	private static String readString(DataInputStream inputStream) throws IOException {
+		byte[] bytes = new byte[inputStream.readInt()];
+		inputStream.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A single invocation of the application's main method. All threads started by the invocation belong to its thread group,
+	 * so their stdin, stdout and stderr are routed to the invocation's client, even when they are reused by later invocations.
+	 */
+	private static class Invocation extends ThreadGroup {
+		private final DataOutputStream outputStream;
+		private final PipedInputStream stdin = new PipedInputStream(65536);
+		private final PipedOutputStream stdinOutputStream;
+		private boolean exited = false;
+
+		Invocation(DataOutputStream outputStream) throws IOException {
+			super("executable-packer-invocation");
+			this.outputStream = outputStream;
+			this.stdinOutputStream = new PipedOutputStream(this.stdin);
+		}
+
+		/**
+		 * @return the invocation the current thread belongs to, or null if it does not belong to any invocation
+		 */
+		static Invocation current() {
+			for(ThreadGroup group = Thread.currentThread().getThreadGroup(); group!=null; group = group.getParent()) {
+				if(group instanceof Invocation) {
+					return (Invocation) group;
+				}
+			}
+			return null;
+		}
+
+		void startStdinThread(final DataInputStream inputStream) {
+			Thread stdinThread = new Thread("executable-packer-daemon-stdin") {
+				@Override
+				public void run() {
+					try {
+						int length;
+						while((length = inputStream.readInt()) >= 0) {
+							byte[] content = new byte[length];
+							inputStream.readFully(content);
+							Invocation.this.stdinOutputStream.write(content);
+							Invocation.this.stdinOutputStream.flush();
+						}
+					} catch(IOException e) {
+						// the client has disconnected or the invocation has ended
+					} finally {
+						try {
+							Invocation.this.stdinOutputStream.close();
+						} catch(IOException e) {
+							// the invocation has ended
+						}
+					}
+				}
+			};
+			stdinThread.setDaemon(true);
+			stdinThread.start();
+		}
+
+		/**
+		 * Runs the main method on a thread of the invocation, waits for all non-daemon threads of the invocation and sends the exit code,
+		 * unless the invocation has called <code>System.exit</code> before.
+		 */
+		void run(final ClassLoader classLoader, final String mainClassName, final String[] args) {
+			final int[] exitCode = new int[1];
+			Thread mainThread = new Thread(this, "main") {
+				@Override
+				public void run() {
+					try {
+						Class<?> mainClass = Class.forName(mainClassName, true, classLoader);
+						mainClass.getMethod("main", String[].class).invoke(null, (Object) args);
+					} catch(Throwable e) {
+						Throwable cause = e instanceof InvocationTargetException? e.getCause() : e;
+						if(!Invocation.this.isExited()) {
+							System.err.print("Exception in thread \"main\" ");
+							cause.printStackTrace();
+							exitCode[0] = 1;
+						}
+					}
+				}
+			};
+			mainThread.setContextClassLoader(classLoader);
+			mainThread.start();
+			try {
+				mainThread.join();
+				// like the JVM, the invocation ends once all its non-daemon threads have ended
+				while(!this.isExited()) {
+					Thread remainingThread = this.getRemainingThread(true);
+					if(remainingThread==null) {
+						break;
+					}
+					remainingThread.join(100);
+				}
+			} catch(InterruptedException e) {
+				exitCode[0] = 1;
+			}
+			this.exit(exitCode[0]);
+		}
+
+		/**
+		 * @param nonDaemon true to only consider non-daemon threads
+		 * @return a thread of the invocation which is still alive, or null if all have ended
+		 */
+		Thread getRemainingThread(boolean nonDaemon) {
+			Thread[] threads = new Thread[this.activeCount() + 1];
+			for(int i=this.enumerate(threads) - 1; i >= 0; i--) {
+				if(threads[i].isAlive() && (!nonDaemon || !threads[i].isDaemon())) {
+					return threads[i];
+				}
+			}
+			return null;
+		}
+
+		synchronized boolean isExited() {
+			return this.exited;
+		}
+
+		/**
+		 * Ends the invocation with the given exit code. Threads of the invocation still running are interrupted; the daemon refuses invocations until they have ended.
+		 */
+		void exit(int exitCode) {
+			synchronized(this) {
+				if(this.exited) {
+					return;
+				}
+				this.exited = true;
+			}
+			try {
+				synchronized(this.outputStream) {
+					this.outputStream.writeByte(FRAME_EXIT);
+					this.outputStream.writeInt(exitCode);
+					this.outputStream.flush();
+				}
+			} catch(IOException e) {
+				// the client has disconnected
+			}
+			try {
+				this.stdin.close();
+			} catch(IOException e) {
+				// the invocation has ended
+			}
+			this.interrupt();
+		}
+
+		/**
+		 * @return false if the invocation has ended, so the output should go to the daemon's own stream
+		 */
+		boolean write(int frameType, byte[] buffer, int offset, int length) {
+			if(this.isExited()) {
+				return false;
+			}
+			try {
+				synchronized(this.outputStream) {
+					this.outputStream.writeByte(frameType);
+					this.outputStream.writeInt(length);
+					this.outputStream.write(buffer, offset, length);
+					this.outputStream.flush();
+				}
+			} catch(IOException e) {
+				// the client has disconnected, so its output is discarded
+			}
+			return true;
+		}
+
+		@Override
+		public void uncaughtException(Thread thread, Throwable e) {
+			if(!(e instanceof ThreadDeath) && !this.isExited()) {
+				System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Ends the calling invocation instead of the JVM when it calls <code>System.exit</code>. All other operations are permitted.
+	 * The security manager is deprecated for removal, so its uses are confined to this class.
+	 */
+	@SuppressWarnings("removal")
+	private static class InvocationSecurityManager extends SecurityManager {
+		/**
+		 * Installs the security manager for the whole JVM.
+		 *
+		 * @throws UnsupportedOperationException if the JVM does not allow installing a security manager
+		 * @throws SecurityException if the current security manager does not allow replacing it
+		 */
+		static void install() {
+			System.setSecurityManager(new InvocationSecurityManager());
+		}
+
+		@Override
+		public void checkPermission(Permission permission) {
+		}
+
+		@Override
+		public void checkPermission(Permission permission, Object context) {
+		}
+
+		@Override
+		public void checkExit(int status) {
+			Invocation invocation = Invocation.current();
+			if(invocation!=null) {
+				invocation.exit(status);
+				throw new SecurityException("System.exit(" + status + ") ends the invocation, not the launcher daemon");
+			}
+		}
+	}
+
+	/**
+	 * Routes output to the invocation of the current thread, or to the daemon's own stream for threads not belonging to an invocation.
+	 */
+	private static class InvocationOutputStream extends OutputStream {
+		private final OutputStream daemonOutputStream;
+		private final int frameType;
+
+		InvocationOutputStream(OutputStream daemonOutputStream, int frameType) {
+			this.daemonOutputStream = daemonOutputStream;
+			this.frameType = frameType;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			Invocation invocation = Invocation.current();
+			if(invocation==null || !invocation.write(this.frameType, buffer, offset, length)) {
+				this.daemonOutputStream.write(buffer, offset, length);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.daemonOutputStream.flush();
+		}
+	}
+
+	/**
+	 * Reads input from the invocation of the current thread, or from the daemon's own stream for threads not belonging to an invocation.
+	 */
+	private static class InvocationInputStream extends InputStream {
+		private final InputStream daemonInputStream;
+
+		InvocationInputStream(InputStream daemonInputStream) {
+			this.daemonInputStream = daemonInputStream;
+		}
+
+		private InputStream getInputStream() {
+			Invocation invocation = Invocation.current();
+			return invocation==null? this.daemonInputStream : invocation.stdin;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return this.getInputStream().read();
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			return this.getInputStream().read(buffer, offset, length);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return this.getInputStream().available();
+		}
+	}
+
+	/**
+	 * Reads from a socket channel directly. Unlike {@link java.nio.channels.Channels#newInputStream(java.nio.channels.ReadableByteChannel)},
+	 * it does not block concurrent writes to the channel while waiting for input.
+	 */
+	static class ChannelInputStream extends InputStream {
+		private final SocketChannel channel;
+
+		ChannelInputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			return this.read(buffer, 0, 1)==-1? -1 : buffer[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(length==0) {
+				return 0;
+			}
+			return this.channel.read(ByteBuffer.wrap(buffer, offset, length));
+		}
+	}
+
+	/**
+	 * Writes to a socket channel directly, see {@link ChannelInputStream}.
+	 */
+	static class ChannelOutputStream extends OutputStream {
+		private final SocketChannel channel;
+
+		ChannelOutputStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+			while(byteBuffer.hasRemaining()) {
+				this.channel.write(byteBuffer);
+			}
+		}
+	}
+
+}
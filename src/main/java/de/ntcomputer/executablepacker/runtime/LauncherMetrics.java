@@ -0,0 +1,386 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * Startup metrics of the launcher and its jar-in-jar-classloader: the duration of each launch phase, the latency of opening each nested JAR, the number of nested JARs closed and reopened,
+ * the number of class and resource lookups and misses, and the number of class bytes read.
+ * Metrics are always collected, using only cheap counters. They are reported as JSON when the JVM exits if the system property {@value #PROPERTY_REPORT} is set
+ * (to a file name, or to <tt>stderr</tt>), and are exposed through JMX as {@value #OBJECT_NAME} if the system property {@value #PROPERTY_JMX} is set to true.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class LauncherMetrics implements LauncherMetricsMBean {
+	public static final String PROPERTY_REPORT = "executablepacker.metrics.report";
+	public static final String PROPERTY_JMX = "executablepacker.metrics.jmx";
+	public static final String OBJECT_NAME = "de.ntcomputer.executablepacker:type=LauncherMetrics";
+	public static final String PHASE_MANIFEST_SCAN = "manifestScan";
+	public static final String PHASE_URL_SETUP = "urlSetup";
+	public static final String PHASE_CLASSLOADER_CREATION = "classLoaderCreation";
+	public static final String PHASE_MODULE_LAYER = "moduleLayer";
+	public static final String PHASE_MAIN_CLASS_LOAD = "mainClassLoad";
+	private static final String REPORT_STDERR = "stderr";
+	private static final LauncherMetrics INSTANCE = new LauncherMetrics();
+
+	private final long startNanos = System.nanoTime();
+	private volatile long launchNanos = -1;
+	private final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+	private final Map<String, Long> jarOpenNanos = new LinkedHashMap<String, Long>();
+	private final LongAdder jarReopens = new LongAdder();
+	private final LongAdder jarCloses = new LongAdder();
+	private final LongAdder nativeLibraryLoads = new LongAdder();
+	private final LongAdder nativeLibraryExtractions = new LongAdder();
+	private final List<String> manifestErrors = new ArrayList<String>();
+	private final LongAdder classLookups = new LongAdder();
+	private final LongAdder classMisses = new LongAdder();
+	private final LongAdder classBytesRead = new LongAdder();
+	private final LongAdder resourceLookups = new LongAdder();
+	private final LongAdder resourceMisses = new LongAdder();
+	private final LongAdder filteredLookups = new LongAdder();
+	private final LongAdder filteredElements = new LongAdder();
+	private final LongAdder filterFalsePositives = new LongAdder();
+
+	LauncherMetrics() {
+	}
+
+	/**
+	 * @return the metrics of this JVM's launcher
+	 */
+	public static LauncherMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Records the duration of a launch phase.
+	 *
+	 * @param phase the phase name, e.g. {@link #PHASE_MANIFEST_SCAN}
+	 * @param phaseStartNanos the {@link System#nanoTime()} at which the phase started
+	 */
+	public void recordPhase(String phase, long phaseStartNanos) {
+		long duration = System.nanoTime() - phaseStartNanos;
+		synchronized(this.phaseNanos) {
+			this.phaseNanos.put(phase, duration);
+		}
+	}
+
+	/**
+	 * Records the end of the launch, right before the application's main method is invoked.
+	 */
+	public void recordLaunched() {
+		this.launchNanos = System.nanoTime() - this.startNanos;
+	}
+
+	/**
+	 * Records the latency of opening a nested JAR.
+	 *
+	 * @param name the name of the classpath element
+	 * @param openStartNanos the {@link System#nanoTime()} at which opening started
+	 */
+	public void recordJarOpen(String name, long openStartNanos) {
+		long duration = System.nanoTime() - openStartNanos;
+		synchronized(this.jarOpenNanos) {
+			if(this.jarOpenNanos.put(name, duration)!=null) {
+				this.jarReopens.increment();
+			}
+		}
+	}
+
+	/**
+	 * Records a nested JAR closed by the {@link OpenJarPool}.
+	 */
+	public void recordJarClose() {
+		this.jarCloses.increment();
+	}
+
+	/**
+	 * Records a native library loaded from the {@link NativeLibraryCache}.
+	 */
+	public void recordNativeLibraryLoad() {
+		this.nativeLibraryLoads.increment();
+	}
+
+	/**
+	 * Records a native library extracted into the {@link NativeLibraryCache}, because it was not cached yet.
+	 */
+	public void recordNativeLibraryExtraction() {
+		this.nativeLibraryExtractions.increment();
+	}
+
+	/**
+	 * Records a manifest which could not be read while searching for the launcher's manifest.
+	 *
+	 * @param manifestURL the manifest's URL
+	 * @param e the exception
+	 */
+	public void recordManifestError(URL manifestURL, Exception e) {
+		synchronized(this.manifestErrors) {
+			this.manifestErrors.add(manifestURL + ": " + e);
+		}
+	}
+
+	/**
+	 * Records a class lookup of the jar-in-jar-classloader.
+	 *
+	 * @param bytesRead the size of the class file, or -1 if the class was not found
+	 */
+	public void recordClassLookup(long bytesRead) {
+		this.classLookups.increment();
+		if(bytesRead < 0) {
+			this.classMisses.increment();
+		} else {
+			this.classBytesRead.add(bytesRead);
+		}
+	}
+
+	/**
+	 * Records a resource lookup of the jar-in-jar-classloader.
+	 *
+	 * @param found whether at least one resource was found
+	 */
+	public void recordResourceLookup(boolean found) {
+		this.resourceLookups.increment();
+		if(!found) {
+			this.resourceMisses.increment();
+		}
+	}
+
+	/**
+	 * Records a missed lookup which the entry name filter answered without searching any nested JAR.
+	 */
+	public void recordFilteredLookup() {
+		this.filteredLookups.increment();
+	}
+
+	/**
+	 * Records a classpath element skipped by a lookup, since the entry name filter reported that it does not contain the entry.
+	 */
+	public void recordFilteredElement() {
+		this.filteredElements.increment();
+	}
+
+	/**
+	 * Records a classpath element searched by a lookup, since the entry name filter reported that it may contain the entry, but which did not contain it.
+	 */
+	public void recordFilterFalsePositive() {
+		this.filterFalsePositives.increment();
+	}
+
+	/**
+	 * Enables the report and the JMX registration, as configured by the system properties {@value #PROPERTY_REPORT} and {@value #PROPERTY_JMX}.
+	 */
+	public void install() {
+		final String reportTarget = System.getProperty(PROPERTY_REPORT);
+		if(reportTarget!=null && !reportTarget.trim().isEmpty()) {
+			Runtime.getRuntime().addShutdownHook(new Thread("executable-packer-metrics-report") {
+				@Override
+				public void run() {
+					LauncherMetrics.this.writeReport(reportTarget.trim());
+				}
+			});
+		}
+		if(Boolean.getBoolean(PROPERTY_JMX)) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+			} catch(Exception e) {
+				System.err.println("Failed to register launcher metrics MBean: " + e);
+			}
+		}
+	}
+
+	private void writeReport(String reportTarget) {
+		try {
+			if(REPORT_STDERR.equals(reportTarget)) {
+				System.err.println(this.getReport());
+			} else {
+				OutputStream outputStream = new FileOutputStream(reportTarget);
+				try {
+					Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+					writer.write(this.getReport());
+					writer.write('\n');
+					writer.flush();
+				} finally {
+					outputStream.close();
+				}
+			}
+		} catch(IOException e) {
+			System.err.println("Failed to write launcher metrics report to '" + reportTarget + "': " + e);
+		}
+	}
+
+	@Override
+	public double getLaunchMillis() {
+		return toMillis(this.launchNanos);
+	}
+
+	@Override
+	public int getOpenedJarCount() {
+		synchronized(this.jarOpenNanos) {
+			return this.jarOpenNanos.size();
+		}
+	}
+
+	@Override
+	public double getJarOpenMillis() {
+		long result = 0;
+		synchronized(this.jarOpenNanos) {
+			for(long duration: this.jarOpenNanos.values()) {
+				result += duration;
+			}
+		}
+		return toMillis(result);
+	}
+
+	@Override
+	public long getJarReopens() {
+		return this.jarReopens.sum();
+	}
+
+	@Override
+	public long getJarCloses() {
+		return this.jarCloses.sum();
+	}
+
+	@Override
+	public long getNativeLibraryLoads() {
+		return this.nativeLibraryLoads.sum();
+	}
+
+	@Override
+	public long getNativeLibraryExtractions() {
+		return this.nativeLibraryExtractions.sum();
+	}
+
+	@Override
+	public long getClassLookups() {
+		return this.classLookups.sum();
+	}
+
+	@Override
+	public long getClassMisses() {
+		return this.classMisses.sum();
+	}
+
+	@Override
+	public long getClassBytesRead() {
+		return this.classBytesRead.sum();
+	}
+
+	@Override
+	public long getResourceLookups() {
+		return this.resourceLookups.sum();
+	}
+
+	@Override
+	public long getResourceMisses() {
+		return this.resourceMisses.sum();
+	}
+
+	@Override
+	public long getFilteredLookups() {
+		return this.filteredLookups.sum();
+	}
+
+	@Override
+	public long getFilteredElements() {
+		return this.filteredElements.sum();
+	}
+
+	@Override
+	public long getFilterFalsePositives() {
+		return this.filterFalsePositives.sum();
+	}
+
+	@Override
+	public int getManifestErrorCount() {
+		synchronized(this.manifestErrors) {
+			return this.manifestErrors.size();
+		}
+	}
+
+	@Override
+	public String getReport() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"launchMillis\": ").append(formatMillis(this.launchNanos));
+		json.append(",\n  \"phases\": {");
+		synchronized(this.phaseNanos) {
+			appendDurations(json, this.phaseNanos);
+		}
+		json.append("},\n  \"jarOpenMillis\": {");
+		synchronized(this.jarOpenNanos) {
+			appendDurations(json, this.jarOpenNanos);
+		}
+		json.append("},\n  \"jarReopens\": ").append(this.getJarReopens());
+		json.append(",\n  \"jarCloses\": ").append(this.getJarCloses());
+		json.append(",\n  \"nativeLibraryLoads\": ").append(this.getNativeLibraryLoads());
+		json.append(",\n  \"nativeLibraryExtractions\": ").append(this.getNativeLibraryExtractions());
+		json.append(",\n  \"classLookups\": ").append(this.getClassLookups());
+		json.append(",\n  \"classMisses\": ").append(this.getClassMisses());
+		json.append(",\n  \"classBytesRead\": ").append(this.getClassBytesRead());
+		json.append(",\n  \"resourceLookups\": ").append(this.getResourceLookups());
+		json.append(",\n  \"resourceMisses\": ").append(this.getResourceMisses());
+		json.append(",\n  \"filteredLookups\": ").append(this.getFilteredLookups());
+		json.append(",\n  \"filteredElements\": ").append(this.getFilteredElements());
+		json.append(",\n  \"filterFalsePositives\": ").append(this.getFilterFalsePositives());
+		json.append(",\n  \"manifestErrors\": [");
+		synchronized(this.manifestErrors) {
+			for(int i=0; i<this.manifestErrors.size(); i++) {
+				json.append(i==0? "\n    " : ",\n    ");
+				appendString(json, this.manifestErrors.get(i));
+			}
+			json.append(this.manifestErrors.isEmpty()? "" : "\n  ");
+		}
+		json.append("]\n}");
+		return json.toString();
+	}
+
+	private static void appendDurations(StringBuilder json, Map<String, Long> durations) {
+		boolean first = true;
+		for(Map.Entry<String, Long> duration: durations.entrySet()) {
+			json.append(first? "\n    " : ",\n    ");
+			first = false;
+			appendString(json, duration.getKey());
+			json.append(": ").append(formatMillis(duration.getValue()));
+		}
+		json.append(first? "" : "\n  ");
+	}
+
+	private static void appendString(StringBuilder json, String value) {
+		json.append('"');
+		for(int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if(c=='"' || c=='\\') {
+				json.append('\\').append(c);
+			} else if(c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos < 0? -1 : nanos / 1000000.0;
+	}
+
+	private static String formatMillis(long nanos) {
+		return nanos < 0? "null" : String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+	}
+
+}
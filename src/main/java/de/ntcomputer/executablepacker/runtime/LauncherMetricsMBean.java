@@ -0,0 +1,81 @@
+package de.ntcomputer.executablepacker.runtime;
+
+/**
+ * Management interface of the {@link LauncherMetrics}, registered as {@value LauncherMetrics#OBJECT_NAME}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public interface LauncherMetricsMBean {
+
+	/**
+	 * @return the number of milliseconds from the start of the launcher until the application's main method was invoked
+	 */
+	double getLaunchMillis();
+
+	/**
+	 * @return the number of nested JARs opened
+	 */
+	int getOpenedJarCount();
+
+	/**
+	 * @return the total number of milliseconds spent opening nested JARs
+	 */
+	double getJarOpenMillis();
+
+	/**
+	 * @return the number of times a nested JAR was opened again after it had been closed by the open JAR pool
+	 */
+	long getJarReopens();
+
+	/**
+	 * @return the number of times the open JAR pool closed a nested JAR
+	 */
+	long getJarCloses();
+
+	/**
+	 * @return the number of native libraries loaded from the native library cache
+	 */
+	long getNativeLibraryLoads();
+
+	/**
+	 * @return the number of native libraries extracted into the native library cache
+	 */
+	long getNativeLibraryExtractions();
+
+	long getClassLookups();
+
+	long getClassMisses();
+
+	/**
+	 * @return the total size of all class files read. Only counted for lookups served using the build-time index.
+	 */
+	long getClassBytesRead();
+
+	long getResourceLookups();
+
+	long getResourceMisses();
+
+	/**
+	 * @return the number of missed class and resource lookups answered by the entry name filter, without searching any nested JAR
+	 */
+	long getFilteredLookups();
+
+	/**
+	 * @return the number of times a lookup skipped a nested JAR, since the entry name filter reported that it does not contain the entry
+	 */
+	long getFilteredElements();
+
+	/**
+	 * @return the number of times a lookup searched a nested JAR which the entry name filter reported to possibly contain the entry, but which did not contain it
+	 */
+	long getFilterFalsePositives();
+
+	int getManifestErrorCount();
+
+	/**
+	 * @return the complete metrics as JSON report
+	 */
+	String getReport();
+
+}
@@ -0,0 +1,150 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Classpath element of a nested dependency JAR which is read in place from the memory-mapped outer JAR.
+ * Nothing is copied to temporary files. Resource URLs returned by this element are served from the mapped JAR as well.
+ * Closing the element only releases the parsed central directory, since the mapped outer JAR stays open.
+ * <p>
+ * Signatures of signed JARs are not verified, i.e. classes are defined without code signers.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class MappedClassPathElement extends ClassPathElement {
+	private static final String MULTI_RELEASE_PREFIX = "META-INF/versions/";
+	private static final int RUNTIME_FEATURE_VERSION = getRuntimeFeatureVersion();
+
+	private final MappedZipFile outerJar;
+	private final String entryName;
+	private final MappedJarURLStreamHandler urlStreamHandler;
+	private volatile MappedZipFile jar;
+	private volatile boolean multiRelease;
+
+	/**
+	 * Creates a new classpath element for a dependency JAR nested in the given outer JAR.
+	 *
+	 * @param outerJar the memory-mapped outer JAR
+	 * @param dependencyLibPath the path of the directory containing the dependency JAR inside the outer JAR
+	 * @param dependencyJarFilename the file name of the dependency JAR
+	 * @throws MalformedURLException if the jar-in-jar URL protocol is not registered
+	 */
+	public MappedClassPathElement(MappedZipFile outerJar, String dependencyLibPath, String dependencyJarFilename) throws MalformedURLException {
+		this(outerJar, dependencyLibPath, dependencyJarFilename, new URL(JarInJarURLStreamHandler.PROTOCOL + ":" + dependencyLibPath + dependencyJarFilename));
+	}
+
+	private MappedClassPathElement(MappedZipFile outerJar, String dependencyLibPath, String dependencyJarFilename, URL codeSourceURL) throws MalformedURLException {
+		super(dependencyJarFilename, new URL("jar:" + codeSourceURL + "!/"), codeSourceURL);
+		this.outerJar = outerJar;
+		this.entryName = dependencyLibPath + dependencyJarFilename;
+		this.urlStreamHandler = new MappedJarURLStreamHandler(this);
+	}
+
+	private MappedZipFile getJar() throws IOException {
+		MappedZipFile result = this.jar;
+		if(result==null) {
+			synchronized(this) {
+				result = this.jar;
+				if(result==null) {
+					long openStartNanos = System.nanoTime();
+					MappedZipFile.Entry outerEntry = this.outerJar.getEntry(this.entryName);
+					if(outerEntry==null) {
+						throw new FileNotFoundException("Dependency JAR '" + this.entryName + "' not found in '" + this.outerJar.getName() + "'");
+					}
+					result = this.outerJar.openNested(outerEntry);
+					this.multiRelease = RUNTIME_FEATURE_VERSION > 8 && isMultiRelease(result);
+					this.jar = result;
+					LauncherMetrics.get().recordJarOpen(this.getName(), openStartNanos);
+				}
+			}
+		}
+		this.recordAccess();
+		return result;
+	}
+
+	@Override
+	public boolean isJarOpen() {
+		return this.jar!=null;
+	}
+
+	/**
+	 * Releases the parsed central directory of the nested JAR. Entries and streams obtained before remain valid, since they read from the mapped outer JAR.
+	 */
+	@Override
+	public synchronized boolean closeJar() {
+		if(this.jar==null) {
+			return false;
+		}
+		this.jar = null;
+		return true;
+	}
+
+	private static boolean isMultiRelease(MappedZipFile jar) throws IOException {
+		MappedZipFile.Entry manifestEntry = jar.getEntry(JarFile.MANIFEST_NAME);
+		if(manifestEntry==null) {
+			return false;
+		}
+		Manifest manifest = readManifest(jar, manifestEntry);
+		return "true".equalsIgnoreCase(manifest.getMainAttributes().getValue(new Attributes.Name("Multi-Release")));
+	}
+
+	private static Manifest readManifest(MappedZipFile jar, MappedZipFile.Entry manifestEntry) throws IOException {
+		InputStream inputStream = jar.getInputStream(manifestEntry);
+		try {
+			return new Manifest(inputStream);
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	private static int getRuntimeFeatureVersion() {
+		String specificationVersion = System.getProperty("java.specification.version", "1.8");
+		try {
+			return specificationVersion.startsWith("1.")? Integer.parseInt(specificationVersion.substring(2)) : Integer.parseInt(specificationVersion);
+		} catch(NumberFormatException e) {
+			return 8;
+		}
+	}
+
+	@Override
+	public JarEntry getEntry(String name) throws IOException {
+		MappedZipFile jar = this.getJar();
+		if(this.multiRelease && !name.startsWith("META-INF/")) {
+			// like JarFile, prefer the entry for the highest version not exceeding the runtime version
+			for(int version = RUNTIME_FEATURE_VERSION; version > 8; version--) {
+				MappedZipFile.Entry versionedEntry = jar.getEntry(MULTI_RELEASE_PREFIX + version + "/" + name);
+				if(versionedEntry!=null) {
+					return versionedEntry;
+				}
+			}
+		}
+		return jar.getEntry(name);
+	}
+
+	@Override
+	public InputStream getInputStream(JarEntry entry) throws IOException {
+		return this.getJar().getInputStream((MappedZipFile.Entry) entry);
+	}
+
+	@Override
+	protected Manifest readManifest() throws IOException {
+		MappedZipFile jar = this.getJar();
+		MappedZipFile.Entry manifestEntry = jar.getEntry(JarFile.MANIFEST_NAME);
+		return manifestEntry==null? null : readManifest(jar, manifestEntry);
+	}
+
+	@Override
+	public URL getResourceURL(String name) throws MalformedURLException {
+		return new URL(null, this.getBaseURL() + encodePath(name), this.urlStreamHandler);
+	}
+
+}
@@ -0,0 +1,101 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Helper class that provides a URL connection to a resource of a memory-mapped nested JAR.
+ * The resource is read in place. Only {@link #getJarFile()} falls back to the JDK's <code>jar:</code> URL handler,
+ * because a {@link JarFile} can only be created for a file.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class MappedJarURLConnection extends JarURLConnection {
+	private final MappedClassPathElement element;
+	private JarEntry entry;
+
+	public MappedJarURLConnection(URL url, MappedClassPathElement element) throws IOException {
+		super(url);
+		this.element = element;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if(!this.connected) {
+			if(this.getEntryName()!=null) {
+				this.entry = this.element.getEntry(this.getEntryName());
+				if(this.entry==null) {
+					throw new FileNotFoundException("JAR entry " + this.getEntryName() + " not found in " + this.getJarFileURL());
+				}
+			}
+			this.connected = true;
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		this.connect();
+		if(this.entry==null) {
+			throw new IOException("no entry name specified");
+		}
+		return this.element.getInputStream(this.entry);
+	}
+
+	@Override
+	public JarEntry getJarEntry() throws IOException {
+		this.connect();
+		return this.entry;
+	}
+
+	@Override
+	public Manifest getManifest() throws IOException {
+		return this.element.getManifest();
+	}
+
+	@Override
+	public JarFile getJarFile() throws IOException {
+		JarURLConnection connection = (JarURLConnection) new URL("jar:" + this.getJarFileURL() + "!/").openConnection();
+		connection.setUseCaches(this.getUseCaches());
+		return connection.getJarFile();
+	}
+
+	@Override
+	public long getContentLengthLong() {
+		try {
+			this.connect();
+			return this.entry==null? -1 : this.entry.getSize();
+		} catch(IOException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public int getContentLength() {
+		long result = this.getContentLengthLong();
+		return result > Integer.MAX_VALUE? -1 : (int) result;
+	}
+
+	@Override
+	public long getLastModified() {
+		try {
+			this.connect();
+			return this.entry==null? 0 : this.entry.getTime();
+		} catch(IOException e) {
+			return 0;
+		}
+	}
+
+	@Override
+	public String getContentType() {
+		String result = this.getEntryName()==null? null : guessContentTypeFromName(this.getEntryName());
+		return result==null? "content/unknown" : result;
+	}
+
+}
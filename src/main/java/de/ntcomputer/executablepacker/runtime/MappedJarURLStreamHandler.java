@@ -0,0 +1,45 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+/**
+ * Helper class that opens URL connections to resources of a memory-mapped nested JAR.
+ * It handles <code>jar:</code> URLs created by a {@link MappedClassPathElement}, so reading these resources does not require the JDK's <code>jar:</code> URL handler.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class MappedJarURLStreamHandler extends URLStreamHandler {
+	private static final String SEPARATOR = "!/";
+	private final MappedClassPathElement element;
+
+	public MappedJarURLStreamHandler(MappedClassPathElement element) {
+		this.element = element;
+	}
+
+	@Override
+	protected URLConnection openConnection(URL u) throws IOException {
+		return new MappedJarURLConnection(u, this.element);
+	}
+
+	@Override
+	protected void parseURL(URL u, String spec, int start, int limit) {
+		String specPath = spec.substring(start, limit);
+		String contextPath = u.getFile();
+		String path;
+		if(contextPath==null || contextPath.isEmpty() || specPath.contains(SEPARATOR)) {
+			path = specPath; // absolute URL
+		} else if(specPath.isEmpty()) {
+			path = contextPath; // reference-only spec
+		} else if(specPath.startsWith("/")) {
+			path = contextPath.substring(0, contextPath.indexOf(SEPARATOR) + 1) + specPath;
+		} else {
+			path = contextPath.substring(0, contextPath.lastIndexOf('/') + 1) + specPath;
+		}
+		this.setURL(u, "jar", "", -1, null, null, path, null, u.getRef());
+	}
+
+}
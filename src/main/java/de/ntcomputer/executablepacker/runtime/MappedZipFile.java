@@ -0,0 +1,415 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a ZIP (or JAR) file contained in a byte buffer, usually a memory-mapped file or a region of one.
+ * Only the central directory is parsed; entry contents are read in place, so nested archives which are stored uncompressed
+ * can be opened without copying any data.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class MappedZipFile {
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_HEADER_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_END_HEADER_SIGNATURE = 0x06064b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_HEADER_SIZE = 22;
+	private static final int ZIP64_END_LOCATOR_SIZE = 20;
+	private static final int ZIP64_END_HEADER_SIZE = 56;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+	private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+
+	private final String name;
+	private final ByteBuffer buffer;
+	private final Map<String, Entry> entries;
+
+	/**
+	 * Parses the central directory of a ZIP file contained in the given buffer.
+	 *
+	 * @param name the name of the ZIP file, used in error messages
+	 * @param buffer a buffer containing the complete ZIP file, from index 0 to its capacity. The buffer is not modified.
+	 * @throws IOException if the buffer does not contain a valid ZIP file
+	 */
+	public MappedZipFile(String name, ByteBuffer buffer) throws IOException {
+		this.name = name;
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.buffer.clear();
+		this.entries = Collections.unmodifiableMap(this.readCentralDirectory());
+	}
+
+	/**
+	 * Memory-maps the given ZIP file and parses its central directory.
+	 *
+	 * @param file the ZIP file. Must not be larger than 2 GB.
+	 * @return the mapped ZIP file
+	 * @throws IOException if mapping the file fails or it is not a valid ZIP file
+	 */
+	public static MappedZipFile map(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File '" + file + "' is too large to be memory-mapped");
+			}
+			// the mapping stays valid after the channel has been closed
+			return new MappedZipFile(file.getPath(), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @param name the entry name
+	 * @return the entry, or null if the ZIP file does not contain it
+	 */
+	public Entry getEntry(String name) {
+		return this.entries.get(name);
+	}
+
+	/**
+	 * @return all entries, in central directory order
+	 */
+	public Collection<Entry> getEntries() {
+		return this.entries.values();
+	}
+
+	/**
+	 * Returns the raw content of an entry as a slice of this file's buffer.
+	 * For stored (uncompressed) entries, this is the entry's content.
+	 *
+	 * @param entry an entry of this ZIP file
+	 * @return a buffer from position 0 to the entry's compressed size
+	 * @throws IOException if the entry's local header is invalid
+	 */
+	public ByteBuffer getRawContent(Entry entry) throws IOException {
+		long dataOffset = this.getDataOffset(entry);
+		if(dataOffset + entry.getCompressedSize() > this.buffer.capacity()) {
+			throw new ZipException("Entry '" + entry.getName() + "' of ZIP file '" + this.name + "' is truncated");
+		}
+		ByteBuffer result = this.buffer.duplicate();
+		result.position((int) dataOffset);
+		result.limit((int) (dataOffset + entry.getCompressedSize()));
+		return result.slice();
+	}
+
+	/**
+	 * @param entry an entry of this ZIP file
+	 * @return a stream to the entry's uncompressed content
+	 * @throws IOException if the entry is invalid or uses an unsupported compression method
+	 */
+	public InputStream getInputStream(Entry entry) throws IOException {
+		ByteBuffer rawContent = this.getRawContent(entry);
+		switch(entry.getMethod()) {
+			case ZipEntry.STORED:
+				return new ByteBufferInputStream(rawContent);
+			case ZipEntry.DEFLATED:
+				return new ByteBufferInflaterInputStream(rawContent);
+			default:
+				throw new ZipException("Entry '" + entry.getName() + "' of ZIP file '" + this.name + "' uses unsupported compression method " + entry.getMethod());
+		}
+	}
+
+	/**
+	 * Opens a ZIP file nested in this ZIP file.
+	 * Stored nested files are read in place, compressed ones are inflated into memory.
+	 *
+	 * @param entry an entry of this ZIP file containing a ZIP file
+	 * @return the nested ZIP file
+	 * @throws IOException if the entry does not contain a valid ZIP file
+	 */
+	public MappedZipFile openNested(Entry entry) throws IOException {
+		String nestedName = this.name + "!/" + entry.getName();
+		if(entry.getMethod()==ZipEntry.STORED) {
+			return new MappedZipFile(nestedName, this.getRawContent(entry));
+		}
+
+		if(entry.getSize() > Integer.MAX_VALUE) {
+			throw new ZipException("Nested ZIP file '" + nestedName + "' is too large to be inflated");
+		}
+		byte[] content = new byte[(int) entry.getSize()];
+		InputStream inputStream = this.getInputStream(entry);
+		try {
+			int offset = 0;
+			while(offset < content.length) {
+				int count = inputStream.read(content, offset, content.length - offset);
+				if(count < 0) {
+					throw new EOFException("Nested ZIP file '" + nestedName + "' is truncated");
+				}
+				offset += count;
+			}
+		} finally {
+			inputStream.close();
+		}
+		return new MappedZipFile(nestedName, ByteBuffer.wrap(content));
+	}
+
+	private long getDataOffset(Entry entry) throws IOException {
+		long dataOffset = entry.dataOffset;
+		if(dataOffset < 0) {
+			long headerOffset = entry.localHeaderOffset;
+			if(headerOffset < 0 || headerOffset + LOCAL_HEADER_SIZE > this.buffer.capacity() || this.buffer.getInt((int) headerOffset)!=LOCAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid local header of entry '" + entry.getName() + "' in ZIP file '" + this.name + "'");
+			}
+			int nameLength = this.buffer.getShort((int) headerOffset + 26) & 0xFFFF;
+			int extraLength = this.buffer.getShort((int) headerOffset + 28) & 0xFFFF;
+			dataOffset = headerOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+			entry.dataOffset = dataOffset;
+		}
+		return dataOffset;
+	}
+
+	private Map<String, Entry> readCentralDirectory() throws IOException {
+		int endOffset = this.findEndHeader();
+		long entryCount = this.buffer.getShort(endOffset + 10) & 0xFFFF;
+		long directorySize = this.buffer.getInt(endOffset + 12) & ZIP64_MAGIC_VALUE;
+		long directoryOffset = this.buffer.getInt(endOffset + 16) & ZIP64_MAGIC_VALUE;
+		long directoryEnd = endOffset;
+
+		int locatorOffset = endOffset - ZIP64_END_LOCATOR_SIZE;
+		if(locatorOffset >= 0 && this.buffer.getInt(locatorOffset)==ZIP64_END_LOCATOR_SIGNATURE) {
+			long zip64EndOffset = this.buffer.getLong(locatorOffset + 8);
+			if(zip64EndOffset >= 0 && zip64EndOffset + ZIP64_END_HEADER_SIZE <= locatorOffset && this.buffer.getInt((int) zip64EndOffset)==ZIP64_END_HEADER_SIGNATURE) {
+				entryCount = this.buffer.getLong((int) zip64EndOffset + 32);
+				directorySize = this.buffer.getLong((int) zip64EndOffset + 40);
+				directoryOffset = this.buffer.getLong((int) zip64EndOffset + 48);
+				directoryEnd = zip64EndOffset;
+			}
+		}
+
+		// the archive may be prefixed by other data (e.g. a launch script), which shifts all offsets
+		long directoryStart = directoryEnd - directorySize;
+		long offsetShift = directoryStart - directoryOffset;
+		if(directorySize < 0 || directoryOffset < 0 || directoryStart < 0 || offsetShift < 0 || entryCount < 0 || entryCount > directorySize / CENTRAL_HEADER_SIZE) {
+			throw new ZipException("Invalid central directory in ZIP file '" + this.name + "'");
+		}
+
+		Map<String, Entry> result = new LinkedHashMap<String, Entry>((int) (entryCount * 4 / 3 + 1));
+		int offset = (int) directoryStart;
+		for(long i=0; i<entryCount; i++) {
+			if(offset + CENTRAL_HEADER_SIZE > directoryEnd || this.buffer.getInt(offset)!=CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory header in ZIP file '" + this.name + "'");
+			}
+			int method = this.buffer.getShort(offset + 10) & 0xFFFF;
+			int dosTime = this.buffer.getInt(offset + 12);
+			long crc = this.buffer.getInt(offset + 16) & ZIP64_MAGIC_VALUE;
+			long compressedSize = this.buffer.getInt(offset + 20) & ZIP64_MAGIC_VALUE;
+			long size = this.buffer.getInt(offset + 24) & ZIP64_MAGIC_VALUE;
+			int nameLength = this.buffer.getShort(offset + 28) & 0xFFFF;
+			int extraLength = this.buffer.getShort(offset + 30) & 0xFFFF;
+			int commentLength = this.buffer.getShort(offset + 32) & 0xFFFF;
+			long localHeaderOffset = this.buffer.getInt(offset + 42) & ZIP64_MAGIC_VALUE;
+			int headerEnd = offset + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+			if(headerEnd > directoryEnd) {
+				throw new ZipException("Invalid central directory header in ZIP file '" + this.name + "'");
+			}
+
+			byte[] nameBytes = new byte[nameLength];
+			ByteBuffer nameBuffer = this.buffer.duplicate();
+			nameBuffer.position(offset + CENTRAL_HEADER_SIZE);
+			nameBuffer.get(nameBytes);
+			String entryName = new String(nameBytes, StandardCharsets.UTF_8);
+
+			// ZIP64 extended information replaces all fields set to the magic value, in fixed order
+			int extraOffset = offset + CENTRAL_HEADER_SIZE + nameLength;
+			int extraEnd = extraOffset + extraLength;
+			while(extraOffset + 4 <= extraEnd) {
+				int extraId = this.buffer.getShort(extraOffset) & 0xFFFF;
+				int extraSize = this.buffer.getShort(extraOffset + 2) & 0xFFFF;
+				int fieldEnd = extraOffset + 4 + extraSize;
+				if(fieldEnd > extraEnd) {
+					throw new ZipException("Invalid extra field of entry '" + entryName + "' in ZIP file '" + this.name + "'");
+				}
+				if(extraId==ZIP64_EXTRA_FIELD_ID) {
+					int fieldOffset = extraOffset + 4;
+					if(size==ZIP64_MAGIC_VALUE) {
+						size = this.readZip64Field(fieldOffset, fieldEnd, entryName);
+						fieldOffset += 8;
+					}
+					if(compressedSize==ZIP64_MAGIC_VALUE) {
+						compressedSize = this.readZip64Field(fieldOffset, fieldEnd, entryName);
+						fieldOffset += 8;
+					}
+					if(localHeaderOffset==ZIP64_MAGIC_VALUE) {
+						localHeaderOffset = this.readZip64Field(fieldOffset, fieldEnd, entryName);
+					}
+				}
+				extraOffset = fieldEnd;
+			}
+
+			if(!result.containsKey(entryName)) {
+				result.put(entryName, new Entry(entryName, method, dosTime, crc, compressedSize, size, localHeaderOffset + offsetShift));
+			}
+			offset = headerEnd;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the value of a field of a ZIP64 extra field, which is never negative
+	 * @throws ZipException if the field exceeds the extra field, or its value is negative
+	 */
+	private long readZip64Field(int fieldOffset, int fieldEnd, String entryName) throws ZipException {
+		long result = fieldOffset + 8 > fieldEnd? -1 : this.buffer.getLong(fieldOffset);
+		if(result < 0) {
+			throw new ZipException("Invalid ZIP64 extra field of entry '" + entryName + "' in ZIP file '" + this.name + "'");
+		}
+		return result;
+	}
+
+	private int findEndHeader() throws IOException {
+		int minimumOffset = Math.max(0, this.buffer.capacity() - END_HEADER_SIZE - 0xFFFF);
+		for(int offset = this.buffer.capacity() - END_HEADER_SIZE; offset >= minimumOffset; offset--) {
+			if(this.buffer.getInt(offset)==END_HEADER_SIGNATURE) {
+				int commentLength = this.buffer.getShort(offset + 20) & 0xFFFF;
+				if(offset + END_HEADER_SIZE + commentLength==this.buffer.capacity()) {
+					return offset;
+				}
+			}
+		}
+		throw new ZipException("End of central directory not found in ZIP file '" + this.name + "'");
+	}
+
+	/**
+	 * An entry of a {@link MappedZipFile}.
+	 * The modification time is converted from its DOS representation on first access.
+	 */
+	public static class Entry extends JarEntry {
+		private final int method;
+		private final int dosTime;
+		private final long localHeaderOffset;
+		private volatile long dataOffset = -1;
+
+		private Entry(String name, int method, int dosTime, long crc, long compressedSize, long size, long localHeaderOffset) {
+			super(name);
+			this.method = method;
+			this.dosTime = dosTime;
+			this.localHeaderOffset = localHeaderOffset;
+			this.setCrc(crc);
+			this.setCompressedSize(compressedSize);
+			this.setSize(size);
+		}
+
+		@Override
+		public int getMethod() {
+			return this.method;
+		}
+
+		@Override
+		public long getTime() {
+			Calendar calendar = new GregorianCalendar(
+					((this.dosTime >> 25) & 0x7F) + 1980, ((this.dosTime >> 21) & 0x0F) - 1, (this.dosTime >> 16) & 0x1F,
+					(this.dosTime >> 11) & 0x1F, (this.dosTime >> 5) & 0x3F, (this.dosTime << 1) & 0x3E);
+			return calendar.getTimeInMillis();
+		}
+	}
+
+	/**
+	 * Input stream reading the remaining bytes of a buffer. Skipping is performed in constant time.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining()? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(len==0) {
+				return 0;
+			}
+			if(!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+			this.buffer.position(this.buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return this.buffer.remaining();
+		}
+	}
+
+	/**
+	 * Input stream inflating the raw (nowrap) deflate data of a buffer.
+	 */
+	private static class ByteBufferInflaterInputStream extends InflaterInputStream {
+		private final ByteBuffer source;
+		private boolean sourceExhausted = false;
+		private boolean closed = false;
+
+		ByteBufferInflaterInputStream(ByteBuffer source) {
+			super(new ByteBufferInputStream(source), new Inflater(true), 8192);
+			this.source = source;
+		}
+
+		@Override
+		protected void fill() throws IOException {
+			if(this.sourceExhausted) {
+				throw new EOFException("Unexpected end of deflated ZIP entry");
+			}
+			this.len = Math.min(this.buf.length, this.source.remaining());
+			if(this.len==0) {
+				// the inflater may require an additional dummy byte to detect the end of nowrap data
+				this.buf[0] = 0;
+				this.len = 1;
+				this.sourceExhausted = true;
+			} else {
+				this.source.get(this.buf, 0, this.len);
+			}
+			this.inf.setInput(this.buf, 0, this.len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(!this.closed) {
+				this.closed = true;
+				this.inf.end();
+				super.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Module graph of the dependency JARs launched as named modules, resolved at build time.
+ * In the module launch mode, the launcher defines a module layer over these dependency JARs, instead of adding them to the jar-in-jar-classloader.
+ * Classes of the layer are then loaded through the JVM's own package-to-module lookup, and the modules keep their encapsulation, services and readability.
+ * The application's own classes and all dependency JARs which are not part of the graph are loaded by the jar-in-jar-classloader, as child of the layer's classloader.
+ * <p>
+ * The graph has been resolved against the JVM's boot layer at build time, so it contains no missing modules and no packages split across modules.
+ * The JVM resolves it again when defining the layer, which only reads the modules' descriptors. Since the JVM can only read modules from plain files,
+ * the dependency JARs are extracted to the {@link DependencyCache} first.
+ * <p>
+ * The Java 9 module API is called using reflection, so the launcher still runs on Java 8, where the dependency JARs are added to the jar-in-jar-classloader instead.
+ * <p>
+ * The file format is text: one module per line, in classpath order, consisting of the module name, <code>explicit</code> or <code>automatic</code>, and the name of the dependency JAR, separated by tabs.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class ModuleGraph {
+	public static final String MODULES_NAME = "META-INF/executable-packer/MODULE-GRAPH.LIST";
+	private static final String EXPLICIT = "explicit";
+	private static final String AUTOMATIC = "automatic";
+
+	private final List<Module> modules;
+	private final Map<String, Module> elementModules = new HashMap<String, Module>();
+
+	/**
+	 * @param modules the modules, in classpath order
+	 */
+	public ModuleGraph(List<Module> modules) {
+		this.modules = Collections.unmodifiableList(new ArrayList<Module>(modules));
+		for(Module module: modules) {
+			this.elementModules.put(module.getElementName(), module);
+		}
+	}
+
+	/**
+	 * @return the modules, in classpath order
+	 */
+	public List<Module> getModules() {
+		return this.modules;
+	}
+
+	/**
+	 * @param elementName the name of a dependency JAR
+	 * @return the module contained in the dependency JAR, or null if it is not part of the graph
+	 */
+	public Module getModule(String elementName) {
+		return this.elementModules.get(elementName);
+	}
+
+	/**
+	 * @return true if this JVM supports module layers (Java 9 and later)
+	 */
+	public static boolean isSupported() {
+		try {
+			Class.forName("java.lang.ModuleLayer");
+			return true;
+		} catch(ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Defines a module layer over the given module files, with the boot layer as parent, and all modules defined to a single new classloader.
+	 *
+	 * @param moduleFiles the files of all modules of the graph
+	 * @param parent the parent classloader of the layer's classloader
+	 * @return the classloader of the layer's modules
+	 * @throws IOException if the modules cannot be resolved or defined, e.g. because the graph does not match the current JVM's boot layer
+	 */
+	public ClassLoader defineLayer(Collection<File> moduleFiles, ClassLoader parent) throws IOException {
+		List<String> moduleNames = new ArrayList<String>(this.modules.size());
+		for(Module module: this.modules) {
+			moduleNames.add(module.getName());
+		}
+		Path[] modulePaths = new Path[moduleFiles.size()];
+		int i = 0;
+		for(File moduleFile: moduleFiles) {
+			modulePaths[i++] = moduleFile.toPath();
+		}
+
+		try {
+			Class<?> moduleFinderClass = Class.forName("java.lang.module.ModuleFinder");
+			Class<?> configurationClass = Class.forName("java.lang.module.Configuration");
+			Class<?> moduleLayerClass = Class.forName("java.lang.ModuleLayer");
+			Method ofMethod = moduleFinderClass.getMethod("of", Path[].class);
+			Object finder = ofMethod.invoke(null, (Object) modulePaths);
+			Object emptyFinder = ofMethod.invoke(null, (Object) new Path[0]);
+
+			Object bootLayer = moduleLayerClass.getMethod("boot").invoke(null);
+			Object bootConfiguration = moduleLayerClass.getMethod("configuration").invoke(bootLayer);
+			Object configuration = configurationClass.getMethod("resolve", moduleFinderClass, moduleFinderClass, Collection.class).invoke(bootConfiguration, finder, emptyFinder, moduleNames);
+			Object layer = moduleLayerClass.getMethod("defineModulesWithOneLoader", configurationClass, ClassLoader.class).invoke(bootLayer, configuration, parent);
+			return (ClassLoader) moduleLayerClass.getMethod("findLoader", String.class).invoke(layer, moduleNames.get(0));
+		} catch(InvocationTargetException e) {
+			throw new IOException("Failed to define the module layer: " + e.getCause().getMessage(), e.getCause());
+		} catch(ReflectiveOperationException e) {
+			throw new IOException("Module layers are not supported", e);
+		}
+	}
+
+	/**
+	 * Reads a module graph.
+	 *
+	 * @param inputStream the stream to read from. It is not closed by this method.
+	 * @return the module graph
+	 * @throws IOException if reading fails or the stream does not contain a valid module graph
+	 */
+	public static ModuleGraph read(InputStream inputStream) throws IOException {
+		List<Module> modules = new ArrayList<Module>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine())!=null) {
+			if(line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split("\t", 3);
+			if(fields.length!=3 || (!EXPLICIT.equals(fields[1]) && !AUTOMATIC.equals(fields[1]))) {
+				throw new IOException("Invalid module graph");
+			}
+			modules.add(new Module(fields[0], AUTOMATIC.equals(fields[1]), fields[2]));
+		}
+		return new ModuleGraph(modules);
+	}
+
+	/**
+	 * Writes the module graph.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @throws IOException if writing fails
+	 */
+	public void write(OutputStream outputStream) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		for(Module module: this.modules) {
+			writer.write(module.getName());
+			writer.write('\t');
+			writer.write(module.isAutomatic()? AUTOMATIC : EXPLICIT);
+			writer.write('\t');
+			writer.write(module.getElementName());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * A module contained in a dependency JAR.
+	 */
+	public static class Module {
+		private final String name;
+		private final boolean automatic;
+		private final String elementName;
+
+		public Module(String name, boolean automatic, String elementName) {
+			this.name = name;
+			this.automatic = automatic;
+			this.elementName = elementName;
+		}
+
+		/**
+		 * @return the name of the module
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return true if the dependency JAR has no module descriptor, and is launched as automatic module
+		 */
+		public boolean isAutomatic() {
+			return automatic;
+		}
+
+		/**
+		 * @return the name of the dependency JAR
+		 */
+		public String getElementName() {
+			return elementName;
+		}
+	}
+
+}
@@ -0,0 +1,386 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent, content-addressed cache of the native libraries contained in the executable JAR and its dependency JARs, backing {@link JarInJarClassLoader#findLibrary(String)}.
+ * The plugin lists all native libraries at build time, along with the platform they were built for (derived from their path and file extension) and their hash.
+ * When the application loads a native library by name, the best match for the current platform is extracted once and loaded from the cache on all subsequent launches.
+ * <p>
+ * Each library is stored as <code>&lt;SHA-256 hash&gt;/&lt;file name&gt;</code> in the <code>native</code> directory of the dependency cache,
+ * keeping its file name since other native libraries may refer to it by that name.
+ * Libraries are populated atomically (extracted to a temporary file, verified and then renamed), so concurrently starting processes never load partial files.
+ * Cached libraries are validated by their size, and additionally by their hash if the system property {@value DependencyCache#PROPERTY_VERIFY} is set to true.
+ * Native libraries are not evicted, since they are small and may still be loaded by running processes.
+ * <p>
+ * The list's file format is text: one native library per line, consisting of operating system, architecture, hash, size, element name and entry name, separated by tabs.
+ * Operating system and architecture are {@value #ANY_PLATFORM} if they could not be determined.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class NativeLibraryCache {
+	public static final String LIBRARIES_NAME = "META-INF/executable-packer/NATIVE-LIBRARIES.LIST";
+	/** System property disabling loading native libraries from the JAR if set to false */
+	public static final String PROPERTY_NATIVE_LIBRARIES = "executablepacker.nativeLibraries";
+	/** Operating system or architecture of native libraries suitable for any platform */
+	public static final String ANY_PLATFORM = "*";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final String[] LIBRARY_SUFFIXES = new String[] { ".so", ".dll", ".dylib", ".jnilib" };
+	private static final Pattern[] OPERATING_SYSTEM_PATTERNS = new Pattern[] {
+			tokenPattern("linux", "[a-z]"),
+			tokenPattern("windows|win32|win64|win", "[a-z]"),
+			tokenPattern("macosx|macos|osx|darwin|mac", "[a-z]"),
+			tokenPattern("freebsd", "[a-z]"),
+			tokenPattern("sunos|solaris", "[a-z]"),
+			tokenPattern("aix", "[a-z]"),
+	};
+	private static final String[] OPERATING_SYSTEMS = new String[] { "linux", "windows", "macos", "freebsd", "sunos", "aix" };
+	private static final Pattern[] ARCHITECTURE_PATTERNS = new Pattern[] {
+			tokenPattern("aarch_?64|arm64", "[a-z0-9]"),
+			Pattern.compile("(?<![a-z0-9])(x86[_-]?64|amd64|x64)(?![a-z0-9])|(?<![a-z])(linux|win|osx|macos)64(?![0-9])"),
+			tokenPattern("ppc64le", "[a-z0-9]"),
+			tokenPattern("s390x", "[a-z0-9]"),
+			tokenPattern("riscv64", "[a-z0-9]"),
+			Pattern.compile("(?<![a-z0-9])(x86|i[3-6]86|x32)(?![a-z0-9])|(?<![a-z])(linux|win)32(?![0-9])"),
+			tokenPattern("arm|armv7|armv7l|armhf|armel", "[a-z0-9]"),
+	};
+	private static final String[] ARCHITECTURES = new String[] { "aarch64", "x86_64", "ppc64le", "s390x", "riscv64", "x86", "arm" };
+
+	private final File directory;
+	private final List<NativeLibrary> libraries;
+	private final String operatingSystem;
+	private final String architecture;
+	private final boolean verify;
+
+	/**
+	 * @param directory the cache directory. It is created when the first library is extracted.
+	 * @param libraries all native libraries, in classpath order
+	 */
+	public NativeLibraryCache(File directory, List<NativeLibrary> libraries) {
+		this.directory = directory;
+		this.libraries = libraries;
+		this.operatingSystem = getOperatingSystem(System.getProperty("os.name", ""));
+		this.architecture = getArchitecture(System.getProperty("os.arch", ""));
+		this.verify = Boolean.getBoolean(DependencyCache.PROPERTY_VERIFY);
+	}
+
+	/**
+	 * @return true if loading native libraries has not been disabled using the system property {@value #PROPERTY_NATIVE_LIBRARIES}
+	 */
+	public static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty(PROPERTY_NATIVE_LIBRARIES));
+	}
+
+	/**
+	 * Finds the native library to load for the given library name on the current platform.
+	 * Libraries built for the current platform take precedence over libraries whose platform is unknown. Libraries built for other platforms are never used.
+	 * Among equally suitable libraries, the first one in classpath order is used.
+	 *
+	 * @param libraryName the library name, as passed to {@link System#loadLibrary(String)}
+	 * @return the native library, or null if the JAR does not contain a suitable library
+	 */
+	public NativeLibrary find(String libraryName) {
+		Set<String> fileNames = new HashSet<String>();
+		String mappedName = System.mapLibraryName(libraryName);
+		fileNames.add(mappedName);
+		// older JVMs on macOS map library names to .jnilib instead of .dylib
+		if(mappedName.endsWith(".dylib")) {
+			fileNames.add(mappedName.substring(0, mappedName.length() - ".dylib".length()) + ".jnilib");
+		} else if(mappedName.endsWith(".jnilib")) {
+			fileNames.add(mappedName.substring(0, mappedName.length() - ".jnilib".length()) + ".dylib");
+		}
+
+		NativeLibrary result = null;
+		int resultScore = -1;
+		for(NativeLibrary library: this.libraries) {
+			if(fileNames.contains(library.getFileName())) {
+				int score = getScore(library.getOperatingSystem(), this.operatingSystem) + getScore(library.getArchitecture(), this.architecture);
+				if(score > resultScore) {
+					result = library;
+					resultScore = score;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return 1 if the platform matches exactly, 0 if the library is suitable for any platform and -100 if it does not match
+	 */
+	private static int getScore(String libraryPlatform, String currentPlatform) {
+		if(libraryPlatform.equals(currentPlatform)) {
+			return 1;
+		}
+		return ANY_PLATFORM.equals(libraryPlatform)? 0 : -100;
+	}
+
+	/**
+	 * Returns the cached copy of a native library, extracting it from its classpath element first if it is missing or invalid.
+	 *
+	 * @param library the native library
+	 * @param element the classpath element containing the library
+	 * @return the cached file
+	 * @throws IOException if extraction fails or the extracted content does not match the expected hash
+	 */
+	public File get(NativeLibrary library, ClassPathElement element) throws IOException {
+		File libraryDirectory = new File(this.directory, library.getHash());
+		File file = new File(libraryDirectory, library.getFileName());
+		if(this.isValid(file, library)) {
+			return file;
+		}
+
+		JarEntry entry = element.getEntry(library.getEntryName());
+		if(entry==null) {
+			throw new FileNotFoundException("Native library '" + library.getEntryName() + "' not found in '" + library.getElementName() + "'");
+		}
+		if(!libraryDirectory.isDirectory() && !libraryDirectory.mkdirs() && !libraryDirectory.isDirectory()) {
+			throw new IOException("Failed to create native library cache directory '" + libraryDirectory + "'");
+		}
+		File temporaryFile = File.createTempFile(library.getFileName() + "-", TEMPORARY_SUFFIX, libraryDirectory);
+		try {
+			String actualHash;
+			InputStream inputStream = element.getInputStream(entry);
+			try {
+				OutputStream outputStream = Files.newOutputStream(temporaryFile.toPath());
+				try {
+					actualHash = DependencyCache.hash(inputStream, outputStream);
+				} finally {
+					outputStream.close();
+				}
+			} finally {
+				inputStream.close();
+			}
+			if(!library.getHash().equals(actualHash)) {
+				throw new IOException("Native library '" + library.getEntryName() + "' does not match its expected hash");
+			}
+
+			try {
+				try {
+					Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch(AtomicMoveNotSupportedException e) {
+					Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch(IOException e) {
+				// another process may have populated the library concurrently, and may have it loaded already (which prevents replacing it on Windows)
+				if(!this.isValid(file, library)) {
+					throw e;
+				}
+			}
+			LauncherMetrics.get().recordNativeLibraryExtraction();
+			return file;
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+
+	private boolean isValid(File file, NativeLibrary library) throws IOException {
+		if(!file.isFile() || file.length()!=library.getSize()) {
+			return false;
+		}
+		if(this.verify) {
+			InputStream inputStream = new FileInputStream(file);
+			try {
+				return library.getHash().equals(DependencyCache.hash(inputStream, null));
+			} finally {
+				inputStream.close();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param entryName the name of an entry
+	 * @return true if the entry is a native library which can be loaded by name
+	 */
+	public static boolean isNativeLibrary(String entryName) {
+		String lowerCaseEntryName = entryName.toLowerCase(Locale.ROOT);
+		for(String suffix: LIBRARY_SUFFIXES) {
+			if(lowerCaseEntryName.endsWith(suffix) && lowerCaseEntryName.length() > suffix.length() && !lowerCaseEntryName.endsWith("/" + suffix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determines the operating system a native library has been built for, from its file extension or a well-known operating system name in its path.
+	 *
+	 * @param entryName the name of the native library's entry, or the name of the current operating system
+	 * @return the normalized operating system name (e.g. <code>linux</code>, <code>windows</code> or <code>macos</code>), or {@value #ANY_PLATFORM} if it cannot be determined
+	 */
+	public static String getOperatingSystem(String entryName) {
+		String lowerCaseEntryName = entryName.toLowerCase(Locale.ROOT);
+		if(lowerCaseEntryName.endsWith(".dll")) {
+			return "windows";
+		}
+		if(lowerCaseEntryName.endsWith(".dylib") || lowerCaseEntryName.endsWith(".jnilib")) {
+			return "macos";
+		}
+		return find(lowerCaseEntryName, OPERATING_SYSTEM_PATTERNS, OPERATING_SYSTEMS);
+	}
+
+	/**
+	 * Determines the architecture a native library has been built for, from a well-known architecture name in its path.
+	 *
+	 * @param entryName the name of the native library's entry, or the name of the current architecture
+	 * @return the normalized architecture name (e.g. <code>x86_64</code> or <code>aarch64</code>), or {@value #ANY_PLATFORM} if it cannot be determined
+	 */
+	public static String getArchitecture(String entryName) {
+		return find(entryName.toLowerCase(Locale.ROOT), ARCHITECTURE_PATTERNS, ARCHITECTURES);
+	}
+
+	private static String find(String name, Pattern[] patterns, String[] results) {
+		for(int i=0; i<patterns.length; i++) {
+			if(patterns[i].matcher(name).find()) {
+				return results[i];
+			}
+		}
+		return ANY_PLATFORM;
+	}
+
+	/**
+	 * @return a pattern finding any of the given alternatives, unless preceded or followed by a character matching the boundary
+	 */
+	private static Pattern tokenPattern(String alternatives, String boundary) {
+		return Pattern.compile("(?<!" + boundary + ")(" + alternatives + ")(?!" + boundary + ")");
+	}
+
+	/**
+	 * Reads a list of native libraries.
+	 *
+	 * @param inputStream the stream to read from. It is not closed by this method.
+	 * @return the native libraries, in classpath order
+	 * @throws IOException if reading fails or the list is invalid
+	 */
+	public static List<NativeLibrary> read(InputStream inputStream) throws IOException {
+		List<NativeLibrary> result = new ArrayList<NativeLibrary>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		String line;
+		while((line = reader.readLine())!=null) {
+			if(line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split("\t", 6);
+			if(fields.length!=6) {
+				throw new IOException("Invalid native library list");
+			}
+			try {
+				result.add(new NativeLibrary(fields[4], fields[5], fields[0], fields[1], fields[2], Long.parseLong(fields[3])));
+			} catch(NumberFormatException e) {
+				throw new IOException("Invalid native library list", e);
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Writes a list of native libraries.
+	 *
+	 * @param outputStream the stream to write to. It is not closed by this method.
+	 * @param libraries the native libraries, in classpath order
+	 * @throws IOException if writing fails
+	 */
+	public static void write(OutputStream outputStream, Collection<NativeLibrary> libraries) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		for(NativeLibrary library: libraries) {
+			writer.write(library.getOperatingSystem());
+			writer.write('\t');
+			writer.write(library.getArchitecture());
+			writer.write('\t');
+			writer.write(library.getHash());
+			writer.write('\t');
+			writer.write(Long.toString(library.getSize()));
+			writer.write('\t');
+			writer.write(library.getElementName());
+			writer.write('\t');
+			writer.write(library.getEntryName());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * A native library contained in a classpath element, identified by the hash of its content.
+	 */
+	public static class NativeLibrary {
+		private final String elementName;
+		private final String entryName;
+		private final String operatingSystem;
+		private final String architecture;
+		private final String hash;
+		private final long size;
+
+		public NativeLibrary(String elementName, String entryName, String operatingSystem, String architecture, String hash, long size) {
+			this.elementName = elementName;
+			this.entryName = entryName;
+			this.operatingSystem = operatingSystem;
+			this.architecture = architecture;
+			this.hash = hash;
+			this.size = size;
+		}
+
+		/**
+		 * @return the name of the classpath element containing the library
+		 */
+		public String getElementName() {
+			return this.elementName;
+		}
+
+		public String getEntryName() {
+			return this.entryName;
+		}
+
+		/**
+		 * @return the file name of the library, e.g. <code>libexample.so</code>
+		 */
+		public String getFileName() {
+			return this.entryName.substring(this.entryName.lastIndexOf('/') + 1);
+		}
+
+		public String getOperatingSystem() {
+			return this.operatingSystem;
+		}
+
+		public String getArchitecture() {
+			return this.architecture;
+		}
+
+		public String getHash() {
+			return this.hash;
+		}
+
+		public long getSize() {
+			return this.size;
+		}
+
+		@Override
+		public String toString() {
+			return this.elementName + "!/" + this.entryName + " (" + this.operatingSystem + "/" + this.architecture + ")";
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of the open JARs of classpath elements.
+ * Classpath elements open their JAR on first access and register it with the pool. If more JARs are open than the pool allows,
+ * the least recently used ones are closed, releasing their file handles and central directories. JARs which have not been used for the idle timeout are closed as well.
+ * Closed JARs are reopened transparently on their next access.
+ * <p>
+ * JARs are only closed while no stream read from them is open, so the pool may temporarily exceed its bound.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class OpenJarPool {
+	private final int maxOpenJars;
+	private final long idleTimeoutNanos;
+	/** The open elements and the {@link System#nanoTime()} of their last access, in access order */
+	private final LinkedHashMap<ClassPathElement, Long> openElements = new LinkedHashMap<ClassPathElement, Long>(16, 0.75f, true);
+	private Timer idleTimer;
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param maxOpenJars the maximum number of open JARs, or 0 for no limit
+	 * @param idleTimeoutMillis the number of milliseconds after which unused JARs are closed, or 0 to keep them open
+	 */
+	public OpenJarPool(int maxOpenJars, long idleTimeoutMillis) {
+		if(maxOpenJars<0 || idleTimeoutMillis<0) {
+			throw new IllegalArgumentException("Limits of the open JAR pool must not be negative");
+		}
+		this.maxOpenJars = maxOpenJars;
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+	}
+
+	/**
+	 * Registers an access to the open JAR of a classpath element, and closes the least recently used JARs exceeding the bound.
+	 * Must not be called while holding the element's lock.
+	 *
+	 * @param element the element
+	 */
+	public void access(ClassPathElement element) {
+		List<ClassPathElement> evictedElements = null;
+		synchronized(this) {
+			this.openElements.put(element, System.nanoTime());
+			if(this.maxOpenJars > 0 && this.openElements.size() > this.maxOpenJars) {
+				evictedElements = new ArrayList<ClassPathElement>();
+				Iterator<ClassPathElement> iterator = this.openElements.keySet().iterator();
+				while(this.openElements.size() > this.maxOpenJars && iterator.hasNext()) {
+					ClassPathElement eldestElement = iterator.next();
+					if(eldestElement!=element) {
+						iterator.remove();
+						evictedElements.add(eldestElement);
+					}
+				}
+			}
+			if(this.idleTimeoutNanos > 0 && this.idleTimer==null) {
+				this.startIdleTimer();
+			}
+		}
+		if(evictedElements!=null) {
+			this.close(evictedElements);
+		}
+	}
+
+	/**
+	 * Closes the JARs of the given elements, which have been removed from the pool already.
+	 * Elements which are still in use stay open and are added to the pool again, as most recently used.
+	 * Must not be called while holding the pool's lock, since closing acquires the elements' locks.
+	 */
+	private void close(List<ClassPathElement> elements) {
+		for(ClassPathElement element: elements) {
+			if(element.closeJar()) {
+				LauncherMetrics.get().recordJarClose();
+			} else if(element.isJarOpen()) {
+				synchronized(this) {
+					this.openElements.put(element, System.nanoTime());
+				}
+			}
+		}
+	}
+
+	private void closeIdleJars() {
+		List<ClassPathElement> idleElements = new ArrayList<ClassPathElement>();
+		long now = System.nanoTime();
+		synchronized(this) {
+			Iterator<Map.Entry<ClassPathElement, Long>> iterator = this.openElements.entrySet().iterator();
+			while(iterator.hasNext()) {
+				Map.Entry<ClassPathElement, Long> openElement = iterator.next();
+				if(now - openElement.getValue() < this.idleTimeoutNanos) {
+					// all following elements have been accessed more recently
+					break;
+				}
+				iterator.remove();
+				idleElements.add(openElement.getKey());
+			}
+		}
+		this.close(idleElements);
+	}
+
+	private void startIdleTimer() {
+		long periodMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(this.idleTimeoutNanos) / 2, 1);
+		this.idleTimer = new Timer("executable-packer-idle-jars", true);
+		this.idleTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				OpenJarPool.this.closeIdleJars();
+			}
+		}, periodMillis, periodMillis);
+	}
+
+	/**
+	 * @return the number of JARs currently open in this pool
+	 */
+	public synchronized int getOpenJarCount() {
+		return this.openElements.size();
+	}
+
+}
@@ -0,0 +1,118 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Support for training runs, in which the JVM dumps a class-data sharing (AppCDS) archive of all classes loaded by the application when it exits,
+ * and the launcher records the list of loaded classes for the {@link ClassPreloader} and the {@link AccessTrace} of the entries read by the jar-in-jar-classloader.
+ * The JVM only archives classes which have been linked, so all classes loaded by the jar-in-jar-classloader are linked before the JVM exits.
+ * Optionally, the application is terminated after a fixed duration, for applications that do not exit on their own (e.g. servers).
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class TrainingRun {
+	/** System property enabling the training run mode */
+	public static final String PROPERTY_TRAINING = "executablepacker.training";
+	/** System property specifying the number of milliseconds after which the application is terminated during a training run */
+	public static final String PROPERTY_TRAINING_DURATION = "executablepacker.training.duration";
+	/** System property specifying the file the list of classes loaded by the jar-in-jar-classloader is written to when the training run ends */
+	public static final String PROPERTY_TRAINING_CLASS_LIST = "executablepacker.training.classList";
+	/** System property specifying the file the access trace of the jar-in-jar-classloader is written to when the training run ends */
+	public static final String PROPERTY_TRAINING_ACCESS_TRACE = "executablepacker.training.accessTrace";
+
+	private TrainingRun() {
+	}
+
+	/**
+	 * @return true if the system property {@value #PROPERTY_TRAINING} is set to true
+	 */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(PROPERTY_TRAINING);
+	}
+
+	/**
+	 * Prepares the training run, if enabled.
+	 * Shutdown hooks run before the JVM dumps the archive, so a shutdown hook links all classes loaded by the classloader.
+	 *
+	 * @param classLoader the classloader used to load the application
+	 */
+	public static void install(ClassLoader classLoader) {
+		if(!isEnabled()) {
+			return;
+		}
+
+		if(classLoader instanceof JarInJarClassLoader) {
+			final JarInJarClassLoader jarInJarClassLoader = (JarInJarClassLoader) classLoader;
+			jarInJarClassLoader.recordLoadedClasses();
+			final String accessTraceFileName = System.getProperty(PROPERTY_TRAINING_ACCESS_TRACE);
+			if(accessTraceFileName!=null) {
+				jarInJarClassLoader.recordAccessTrace();
+			}
+			Runtime.getRuntime().addShutdownHook(new Thread("executable-packer-training-link") {
+				@Override
+				public void run() {
+					List<Class<?>> loadedClasses = jarInJarClassLoader.getLoadedClasses();
+					for(Class<?> loadedClass: loadedClasses) {
+						ClassPreloader.link(loadedClass);
+					}
+					String classListFileName = System.getProperty(PROPERTY_TRAINING_CLASS_LIST);
+					if(classListFileName!=null) {
+						writeClassList(new File(classListFileName), loadedClasses);
+					}
+					if(accessTraceFileName!=null) {
+						writeAccessTrace(new File(accessTraceFileName), jarInJarClassLoader.getAccessTrace());
+					}
+				}
+			});
+		}
+
+		final long duration = Long.getLong(PROPERTY_TRAINING_DURATION, 0);
+		if(duration > 0) {
+			Thread exitThread = new Thread("executable-packer-training-exit") {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(duration);
+					} catch(InterruptedException e) {
+						return;
+					}
+					System.exit(0);
+				}
+			};
+			exitThread.setDaemon(true);
+			exitThread.start();
+		}
+	}
+
+	private static void writeClassList(File classListFile, List<Class<?>> loadedClasses) {
+		try {
+			OutputStream outputStream = new FileOutputStream(classListFile);
+			try {
+				ClassPreloader.writeClassList(outputStream, loadedClasses);
+			} finally {
+				outputStream.close();
+			}
+		} catch(IOException e) {
+			System.err.println("Failed to write class list to '" + classListFile + "': " + e);
+		}
+	}
+
+	private static void writeAccessTrace(File accessTraceFile, AccessTrace accessTrace) {
+		try {
+			OutputStream outputStream = new FileOutputStream(accessTraceFile);
+			try {
+				accessTrace.write(outputStream);
+			} finally {
+				outputStream.close();
+			}
+		} catch(IOException e) {
+			System.err.println("Failed to write access trace to '" + accessTraceFile + "': " + e);
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.ntcomputer.executablepacker.runtime.AccessTrace;
+import de.ntcomputer.executablepacker.runtime.JarInJarIndex;
+
+/**
+ * Tests laying out entries in access order using {@link AccessOrder}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class AccessOrderTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private final CapturingLog log = new CapturingLog();
+
+	@Test
+	public void ordersExecutableJarEntries() {
+		Map<String, PackedJarEntry> entries = new LinkedHashMap<String, PackedJarEntry>();
+		for(String name: Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "com/", "com/example/", "com/example/First.class", "com/example/Second.class",
+				"de/", "de/Launcher.class", "lib/", "lib/first.jar", "lib/second.jar", "config.properties")) {
+			entries.put(name, name.endsWith("/")? PackedJarEntry.directory(name) : PackedJarEntry.file(name, new File(name), true));
+		}
+		AccessTrace trace = new AccessTrace();
+		trace.record("second.jar", "org/Second.class");
+		trace.record(JarInJarIndex.ROOT_ELEMENT_NAME, "com/example/Second.class");
+		trace.record("first.jar", "org/First.class");
+		trace.record("second.jar", "org/Other.class");
+		trace.record(JarInJarIndex.ROOT_ELEMENT_NAME, "missing.txt");
+
+		Map<String, PackedJarEntry> result = new AccessOrder(trace, this.log).order(entries, Arrays.asList("META-INF/MANIFEST.MF", "de/Launcher.class", "missing.class"), "lib/");
+
+		// each entry is preceded by its parent directories, remaining entries follow in their original order
+		assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "de/", "de/Launcher.class", "lib/", "lib/second.jar", "com/", "com/example/", "com/example/Second.class",
+				"lib/first.jar", "com/example/First.class", "config.properties"), new ArrayList<String>(result.keySet()));
+		for(Map.Entry<String, PackedJarEntry> entry: result.entrySet()) {
+			assertSame(entries.get(entry.getKey()), entry.getValue());
+		}
+	}
+
+	@Test
+	public void ordersDependencyEntries() throws IOException {
+		File dependencyJarFile = this.writeJar("dependency.jar", "a/", "a/A.class", "b/", "b/B.class", "META-INF/", "META-INF/MANIFEST.MF", "c.txt");
+		File untracedJarFile = this.writeJar("untraced.jar", "d/", "d/D.class");
+		AccessTrace trace = new AccessTrace();
+		trace.record("dependency.jar", "c.txt");
+		trace.record("dependency.jar", "b/B.class");
+		trace.record("dependency.jar", "missing.class");
+
+		File orderedDirectory = new File(this.temporaryFolder.getRoot(), "ordered");
+		List<File> result = new AccessOrder(trace, this.log).orderDependencies(Arrays.asList(dependencyJarFile, untracedJarFile), orderedDirectory);
+
+		File orderedJarFile = new File(orderedDirectory, "dependency.jar");
+		assertEquals(Arrays.asList(orderedJarFile, untracedJarFile), result);
+		// the manifest stays first, followed by the traced entries and the remaining entries in their original order
+		assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "c.txt", "b/B.class", "a/", "a/A.class", "b/"), readEntryNames(orderedJarFile));
+		ZipFile orderedJar = new ZipFile(orderedJarFile);
+		try {
+			for(ZipEntry entry: Collections.list(orderedJar.entries())) {
+				assertArrayEquals(entry.getName(), getContent(entry.getName()), readContent(orderedJar, entry));
+			}
+		} finally {
+			orderedJar.close();
+		}
+	}
+
+	@Test
+	public void keepsSignedDependencies() throws IOException {
+		File signedJarFile = this.writeJar("signed.jar", "META-INF/", "META-INF/MANIFEST.MF", "META-INF/SIGNER.SF", "a/", "a/A.class");
+		AccessTrace trace = new AccessTrace();
+		trace.record("signed.jar", "a/A.class");
+
+		List<File> result = new AccessOrder(trace, this.log).orderDependencies(Collections.singletonList(signedJarFile), new File(this.temporaryFolder.getRoot(), "ordered"));
+		assertEquals(Collections.singletonList(signedJarFile), result);
+	}
+
+	@Test
+	public void traceRoundTrip() throws IOException {
+		AccessTrace trace = new AccessTrace();
+		trace.record("first.jar", "a/A.class");
+		trace.record(JarInJarIndex.ROOT_ELEMENT_NAME, "b/B.class");
+		trace.record("first.jar", "a/A.class");
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		trace.write(outputStream);
+
+		List<AccessTrace.Access> accesses = AccessTrace.read(new ByteArrayInputStream(outputStream.toByteArray())).getAccesses();
+		assertEquals(2, accesses.size());
+		assertEquals("first.jar", accesses.get(0).getElementName());
+		assertEquals("a/A.class", accesses.get(0).getEntryName());
+		assertEquals(JarInJarIndex.ROOT_ELEMENT_NAME, accesses.get(1).getElementName());
+		assertEquals("b/B.class", accesses.get(1).getEntryName());
+	}
+
+	private File writeJar(String name, String... entryNames) throws IOException {
+		File jarFile = new File(this.temporaryFolder.getRoot(), name);
+		ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(jarFile));
+		try {
+			for(String entryName: entryNames) {
+				outputStream.putNextEntry(new ZipEntry(entryName));
+				if(!entryName.endsWith("/")) {
+					outputStream.write(getContent(entryName));
+				}
+			}
+		} finally {
+			outputStream.close();
+		}
+		return jarFile;
+	}
+
+	private static byte[] getContent(String entryName) {
+		return entryName.endsWith("/")? new byte[0] : ("content of " + entryName).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> readEntryNames(File jarFile) throws IOException {
+		List<String> result = new ArrayList<String>();
+		ZipFile jar = new ZipFile(jarFile);
+		try {
+			for(ZipEntry entry: Collections.list(jar.entries())) {
+				result.add(entry.getName());
+			}
+		} finally {
+			jar.close();
+		}
+		return result;
+	}
+
+	private static byte[] readContent(ZipFile jar, ZipEntry entry) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		InputStream inputStream = jar.getInputStream(entry);
+		try {
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = inputStream.read(buffer))!=-1) {
+				result.write(buffer, 0, count);
+			}
+		} finally {
+			inputStream.close();
+		}
+		return result.toByteArray();
+	}
+
+}
@@ -0,0 +1,98 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Log collecting warnings and errors instead of printing them, so tests can check them without cluttering the build output.
+ */
+class CapturingLog implements Log {
+	private final List<String> warnings = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+	List<String> getWarnings() {
+		return this.warnings;
+	}
+
+	List<String> getErrors() {
+		return this.errors;
+	}
+
+	@Override
+	public boolean isDebugEnabled() {
+		return false;
+	}
+
+	@Override
+	public void debug(CharSequence content) {
+	}
+
+	@Override
+	public void debug(CharSequence content, Throwable error) {
+	}
+
+	@Override
+	public void debug(Throwable error) {
+	}
+
+	@Override
+	public boolean isInfoEnabled() {
+		return false;
+	}
+
+	@Override
+	public void info(CharSequence content) {
+	}
+
+	@Override
+	public void info(CharSequence content, Throwable error) {
+	}
+
+	@Override
+	public void info(Throwable error) {
+	}
+
+	@Override
+	public boolean isWarnEnabled() {
+		return true;
+	}
+
+	@Override
+	public void warn(CharSequence content) {
+		this.warnings.add(content.toString());
+	}
+
+	@Override
+	public void warn(CharSequence content, Throwable error) {
+		this.warnings.add(content + ": " + error);
+	}
+
+	@Override
+	public void warn(Throwable error) {
+		this.warnings.add(error.toString());
+	}
+
+	@Override
+	public boolean isErrorEnabled() {
+		return true;
+	}
+
+	@Override
+	public void error(CharSequence content) {
+		this.errors.add(content.toString());
+	}
+
+	@Override
+	public void error(CharSequence content, Throwable error) {
+		this.errors.add(content + ": " + error);
+	}
+
+	@Override
+	public void error(Throwable error) {
+		this.errors.add(error.toString());
+	}
+
+}
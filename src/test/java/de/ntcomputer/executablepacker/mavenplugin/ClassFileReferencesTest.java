@@ -0,0 +1,124 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+
+import org.junit.Test;
+
+/**
+ * Tests reading class references using {@link ClassFileReferences}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class ClassFileReferencesTest {
+
+	@Test
+	public void readsReferencesOfLambdasAndMethodReferences() throws IOException {
+		Set<String> references = readReferences(LambdaFixture.class);
+
+		// the lambda's metafactory is referenced by MethodHandle and InvokeDynamic constants, followed by further constants
+		assertTrue(references.toString(), references.contains("java/lang/invoke/LambdaMetafactory"));
+		assertTrue(references.toString(), references.contains("java/util/function/Supplier"));
+		assertTrue(references.toString(), references.contains("java/util/function/Function"));
+		assertTrue(references.toString(), references.contains("java/util/concurrent/ConcurrentSkipListSet"));
+		assertTrue(references.toString(), references.contains("java/util/zip/Adler32"));
+		assertTrue(references.toString(), references.contains("java/util/concurrent/Callable"));
+		assertTrue(references.toString(), references.contains("com/example/Reflected"));
+	}
+
+	@Test
+	public void readsNonAsciiNames() throws IOException {
+		// a class file without members, whose constant pool contains a descriptor and a string constant besides the class constants
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		DataOutputStream outputStream = new DataOutputStream(content);
+		outputStream.writeInt(0xCAFEBABE);
+		outputStream.writeShort(0);
+		outputStream.writeShort(52);
+		outputStream.writeShort(9);
+		outputStream.writeByte(1); // CONSTANT_Utf8
+		outputStream.writeUTF("com/example/Fixture");
+		outputStream.writeByte(7); // CONSTANT_Class
+		outputStream.writeShort(1);
+		outputStream.writeByte(1);
+		outputStream.writeUTF("java/lang/Object");
+		outputStream.writeByte(7);
+		outputStream.writeShort(3);
+		outputStream.writeByte(1);
+		outputStream.writeUTF("(Lcom/example/\u00c4rger;Ljava/util/List<Lcom/example/\u00fcbung/\u03a9mega;>;)V");
+		outputStream.writeByte(1);
+		outputStream.writeUTF("com.example.Stra\u00dfe");
+		outputStream.writeByte(8); // CONSTANT_String
+		outputStream.writeShort(6);
+		outputStream.writeByte(1);
+		outputStream.writeUTF("not a class name");
+		outputStream.writeShort(0x21); // public super
+		outputStream.writeShort(2);
+		outputStream.writeShort(4);
+		for(int i=0; i<4; i++) {
+			outputStream.writeShort(0); // no interfaces, fields, methods or attributes
+		}
+
+		Set<String> references = new HashSet<String>();
+		ClassFileReferences.read(new ByteArrayInputStream(content.toByteArray()), references);
+		assertTrue(references.toString(), references.contains("com/example/\u00c4rger"));
+		assertTrue(references.toString(), references.contains("com/example/\u00fcbung/\u03a9mega"));
+		assertTrue(references.toString(), references.contains("com/example/Stra\u00dfe"));
+	}
+
+	@Test
+	public void rejectsInvalidClassFiles() {
+		try {
+			ClassFileReferences.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 0, 0, 0, 0 }), new HashSet<String>());
+			fail("Invalid class file has been read");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	private static Set<String> readReferences(Class<?> fixtureClass) throws IOException {
+		Set<String> references = new HashSet<String>();
+		InputStream inputStream = fixtureClass.getResourceAsStream(fixtureClass.getName().substring(fixtureClass.getName().lastIndexOf('.') + 1) + ".class");
+		try {
+			ClassFileReferences.read(inputStream, references);
+		} finally {
+			inputStream.close();
+		}
+		return references;
+	}
+
+	/**
+	 * Class whose constant pool contains MethodHandle, MethodType and InvokeDynamic constants.
+	 */
+	static class LambdaFixture {
+		static Supplier<Set<String>> supplier() {
+			return ConcurrentSkipListSet::new;
+		}
+
+		static Function<byte[], Long> function() {
+			return bytes -> {
+				Adler32 checksum = new Adler32();
+				checksum.update(bytes, 0, bytes.length);
+				return checksum.getValue();
+			};
+		}
+
+		static Callable<Class<?>> callable() {
+			return () -> Class.forName("com.example.Reflected");
+		}
+	}
+
+}
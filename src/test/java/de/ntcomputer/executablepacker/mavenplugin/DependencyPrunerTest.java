@@ -0,0 +1,229 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.spi.FileTypeDetector;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests removing unreachable dependencies and classes using {@link DependencyPruner}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class DependencyPrunerTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private final CapturingLog log = new CapturingLog();
+	private File classesDirectory;
+	private File usedJar;
+	private File unusedJar;
+	private File servicesJar;
+	private File platformServicesJar;
+	private File keptJar;
+	private File signedJar;
+	private File resourcesJar;
+
+	@Before
+	public void createDependencies() throws IOException {
+		this.classesDirectory = this.temporaryFolder.newFolder("classes");
+		String mainEntryName = getEntryName(Main.class);
+		File mainFile = new File(this.classesDirectory, mainEntryName);
+		mainFile.getParentFile().mkdirs();
+		Files.write(mainFile.toPath(), readClassFile(Main.class));
+
+		this.usedJar = this.writeJar("used.jar", Used.class, Service.class, Extra.class);
+		this.unusedJar = this.writeJar("unused.jar", Unused.class);
+		this.servicesJar = this.writeJar("services.jar", ServiceImplementation.class);
+		addEntry(this.servicesJar, "META-INF/services/" + Service.class.getName(), ServiceImplementation.class.getName() + " # comment\n");
+		this.platformServicesJar = this.writeJar("platform-services.jar", PlatformServiceImplementation.class);
+		addEntry(this.platformServicesJar, "META-INF/services/" + FileTypeDetector.class.getName(), PlatformServiceImplementation.class.getName() + "\n");
+		this.keptJar = this.writeJar("kept.jar", Kept.class);
+		this.signedJar = this.writeJar("signed.jar", Signed.class, Extra.class);
+		addEntry(this.signedJar, "META-INF/SIGNER.SF", "Signature-Version: 1.0\n");
+		this.resourcesJar = this.writeJar("resources.jar");
+		addEntry(this.resourcesJar, "config.properties", "key=value\n");
+	}
+
+	@Test
+	public void removesUnreachableDependencies() throws IOException {
+		DependencyPruner pruner = this.createPruner();
+		pruner.addKeepClasses(Collections.singletonList("de.ntcomputer.**Test$Kept"));
+		List<File> result = pruner.prune(Collections.singletonList(Main.class.getName()), this.temporaryFolder.newFolder("pruned"));
+
+		// services are kept for reachable service interfaces and for interfaces outside the application, resource-only dependencies are always kept
+		assertEquals(Arrays.asList(this.usedJar, this.servicesJar, this.platformServicesJar, this.keptJar, this.signedJar, this.resourcesJar), result);
+	}
+
+	@Test
+	public void removesUnreachableServices() throws IOException {
+		File servicesOnlyJar = this.writeJar("services-only.jar", ServiceImplementation.class, Service.class);
+		addEntry(servicesOnlyJar, "META-INF/services/" + Service.class.getName(), ServiceImplementation.class.getName() + "\n");
+		DependencyPruner pruner = new DependencyPruner(this.classesDirectory, Arrays.asList(this.usedJar, servicesOnlyJar), this.log);
+
+		// the service interface is loaded from the first JAR, which is not reachable without the main class
+		List<File> result = pruner.prune(Collections.singletonList(Unused.class.getName()), this.temporaryFolder.newFolder("pruned"));
+		assertEquals(Collections.emptyList(), result);
+	}
+
+	@Test
+	public void keepsDependencies() throws IOException {
+		DependencyPruner pruner = this.createPruner();
+		pruner.addKeepDependency(this.unusedJar);
+		List<File> result = pruner.prune(Collections.singletonList(Main.class.getName()), this.temporaryFolder.newFolder("pruned"));
+		assertEquals(Arrays.asList(this.usedJar, this.unusedJar, this.servicesJar, this.platformServicesJar, this.signedJar, this.resourcesJar), result);
+	}
+
+	@Test
+	public void removesUnreachableClasses() throws IOException {
+		File prunedDirectory = this.temporaryFolder.newFolder("pruned");
+		DependencyPruner pruner = this.createPruner();
+		pruner.setPruneClasses(true);
+		List<File> result = pruner.prune(Collections.singletonList(Main.class.getName()), prunedDirectory);
+
+		File prunedUsedJar = new File(prunedDirectory, this.usedJar.getName());
+		// classes are never removed from signed dependencies
+		assertEquals(Arrays.asList(prunedUsedJar, this.servicesJar, this.platformServicesJar, this.signedJar, this.resourcesJar), result);
+		ZipFile prunedJar = new ZipFile(prunedUsedJar);
+		try {
+			assertNotNull(prunedJar.getEntry(getEntryName(Used.class)));
+			assertNotNull(prunedJar.getEntry(getEntryName(Service.class)));
+			assertNull(prunedJar.getEntry(getEntryName(Extra.class)));
+		} finally {
+			prunedJar.close();
+		}
+
+		// unchanged pruned dependencies are not written again
+		long lastModified = 1500000000000L;
+		assertTrue(prunedUsedJar.setLastModified(lastModified));
+		this.createPruner().prune(Collections.singletonList(Main.class.getName()), prunedDirectory);
+		assertEquals(lastModified, prunedUsedJar.lastModified());
+	}
+
+	private DependencyPruner createPruner() {
+		return new DependencyPruner(this.classesDirectory, Arrays.asList(this.usedJar, this.unusedJar, this.servicesJar, this.platformServicesJar, this.keptJar, this.signedJar, this.resourcesJar), this.log);
+	}
+
+	private File writeJar(String name, Class<?>... classes) throws IOException {
+		File jarFile = new File(this.temporaryFolder.getRoot(), name);
+		ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(jarFile));
+		try {
+			for(Class<?> fixtureClass: classes) {
+				outputStream.putNextEntry(new ZipEntry(getEntryName(fixtureClass)));
+				outputStream.write(readClassFile(fixtureClass));
+			}
+		} finally {
+			outputStream.close();
+		}
+		return jarFile;
+	}
+
+	private static void addEntry(File jarFile, String name, String content) throws IOException {
+		File temporaryFile = new File(jarFile.getParentFile(), jarFile.getName() + ".tmp");
+		ZipFile jar = new ZipFile(jarFile);
+		try {
+			ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(temporaryFile));
+			try {
+				for(ZipEntry entry: Collections.list(jar.entries())) {
+					outputStream.putNextEntry(new ZipEntry(entry.getName()));
+					InputStream inputStream = jar.getInputStream(entry);
+					try {
+						byte[] buffer = new byte[8192];
+						int count;
+						while((count = inputStream.read(buffer))!=-1) {
+							outputStream.write(buffer, 0, count);
+						}
+					} finally {
+						inputStream.close();
+					}
+				}
+				outputStream.putNextEntry(new ZipEntry(name));
+				outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+			} finally {
+				outputStream.close();
+			}
+		} finally {
+			jar.close();
+		}
+		Files.move(temporaryFile.toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String getEntryName(Class<?> fixtureClass) {
+		return fixtureClass.getName().replace('.', '/') + ".class";
+	}
+
+	private static byte[] readClassFile(Class<?> fixtureClass) throws IOException {
+		InputStream inputStream = DependencyPrunerTest.class.getClassLoader().getResourceAsStream(getEntryName(fixtureClass));
+		try {
+			byte[] buffer = new byte[8192];
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			int count;
+			while((count = inputStream.read(buffer))!=-1) {
+				outputStream.write(buffer, 0, count);
+			}
+			return outputStream.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	static class Main {
+		public static void main(String[] args) {
+			new Used();
+			new Signed();
+		}
+	}
+
+	static class Used {
+		Service service;
+	}
+
+	interface Service {
+	}
+
+	static class ServiceImplementation implements Service {
+	}
+
+	static class PlatformServiceImplementation extends FileTypeDetector {
+		@Override
+		public String probeContentType(Path path) {
+			return null;
+		}
+	}
+
+	static class Extra {
+	}
+
+	static class Unused {
+	}
+
+	static class Kept {
+	}
+
+	static class Signed {
+	}
+
+}
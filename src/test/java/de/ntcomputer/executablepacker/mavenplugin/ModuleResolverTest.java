@@ -0,0 +1,147 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.ntcomputer.executablepacker.runtime.ModuleGraph;
+
+/**
+ * Tests resolving the module graph of dependency JARs using {@link ModuleResolver}. All dependencies are automatic modules containing a single generated class file.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class ModuleResolverTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private final CapturingLog log = new CapturingLog();
+
+	@Before
+	public void requireModules() {
+		Assume.assumeTrue(ModuleGraph.isSupported());
+	}
+
+	@Test
+	public void resolvesAutomaticModules() throws Exception {
+		File namedJarFile = this.writeJar("named-1.0.jar", "com.example.named", "com/example/named/A", null);
+		File derivedJarFile = this.writeJar("derived-lib-2.0.jar", null, "com/example/derived/B", "com/example/named/A");
+
+		ModuleGraph graph = new ModuleResolver(this.log).resolve(Arrays.asList(namedJarFile, derivedJarFile));
+		assertEquals(2, graph.getModules().size());
+		assertEquals("com.example.named", graph.getModule("named-1.0.jar").getName());
+		assertTrue(graph.getModule("named-1.0.jar").isAutomatic());
+		// the name is derived from the file name without version
+		assertEquals("derived.lib", graph.getModule("derived-lib-2.0.jar").getName());
+		assertEquals(0, this.log.getWarnings().size());
+	}
+
+	@Test
+	public void keepsConflictingJarsOnClasspath() throws Exception {
+		File firstJarFile = this.writeJar("first.jar", null, "com/example/shared/A", null);
+		File splitJarFile = this.writeJar("split.jar", null, "com/example/shared/B", null);
+		File duplicateJarFile = this.writeJar("duplicate.jar", "first", "com/example/other/C", null);
+		File invalidJarFile = this.writeJar("1.jar", null, "com/example/invalid/D", null);
+
+		ModuleGraph graph = new ModuleResolver(this.log).resolve(Arrays.asList(firstJarFile, splitJarFile, duplicateJarFile, invalidJarFile));
+		assertEquals(1, graph.getModules().size());
+		assertEquals("first", graph.getModule("first.jar").getName());
+		assertNull(graph.getModule("split.jar"));
+		assertNull(graph.getModule("duplicate.jar"));
+		assertNull(graph.getModule("1.jar"));
+		assertEquals(3, this.log.getWarnings().size());
+		assertTrue(this.log.getWarnings().get(0), this.log.getWarnings().get(0).contains("package com.example.shared"));
+		assertTrue(this.log.getWarnings().get(1), this.log.getWarnings().get(1).contains("module first"));
+		assertTrue(this.log.getWarnings().get(2), this.log.getWarnings().get(2).startsWith("Dependency 1.jar is not a valid module"));
+	}
+
+	@Test
+	public void keepsModulesDependingOnClasspath() throws Exception {
+		File invalidJarFile = this.writeJar("1.jar", null, "com/example/invalid/D", null);
+		File userJarFile = this.writeJar("user.jar", null, "com/example/user/U", "com/example/invalid/D");
+		File indirectUserJarFile = this.writeJar("indirect.jar", null, "com/example/indirect/I", "com/example/user/U");
+		File independentJarFile = this.writeJar("independent.jar", null, "com/example/independent/J", "java/util/List");
+
+		ModuleGraph graph = new ModuleResolver(this.log).resolve(Arrays.asList(invalidJarFile, userJarFile, indirectUserJarFile, independentJarFile));
+		assertEquals(1, graph.getModules().size());
+		assertEquals("independent", graph.getModule("independent.jar").getName());
+		assertNull(graph.getModule("user.jar"));
+		// the module referring to a package of a module kept on the classpath is kept on the classpath as well
+		assertNull(graph.getModule("indirect.jar"));
+		assertEquals(3, this.log.getWarnings().size());
+		assertTrue(this.log.getWarnings().get(1), this.log.getWarnings().get(1).startsWith("Dependency user.jar refers to package com.example.invalid"));
+		assertTrue(this.log.getWarnings().get(2), this.log.getWarnings().get(2).startsWith("Dependency indirect.jar refers to package com.example.user"));
+	}
+
+	@Test
+	public void resolvesNoModules() throws Exception {
+		ModuleGraph graph = new ModuleResolver(this.log).resolve(Arrays.<File>asList());
+		assertEquals(0, graph.getModules().size());
+	}
+
+	private File writeJar(String name, String automaticModuleName, String className, String referencedClassName) throws IOException {
+		File file = new File(this.temporaryFolder.getRoot(), name);
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		if(automaticModuleName!=null) {
+			manifest.getMainAttributes().putValue("Automatic-Module-Name", automaticModuleName);
+		}
+		JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(file), manifest);
+		try {
+			outputStream.putNextEntry(new JarEntry(className + ".class"));
+			outputStream.write(createClassFile(className, referencedClassName));
+		} finally {
+			outputStream.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return a class file without members, whose constant pool contains only the class, its superclass and the referenced class
+	 */
+	private static byte[] createClassFile(String className, String referencedClassName) throws IOException {
+		List<String> classNames = new ArrayList<String>(Arrays.asList(className, "java/lang/Object"));
+		if(referencedClassName!=null) {
+			classNames.add(referencedClassName);
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		DataOutputStream outputStream = new DataOutputStream(content);
+		outputStream.writeInt(0xCAFEBABE);
+		outputStream.writeShort(0);
+		outputStream.writeShort(52);
+		outputStream.writeShort(classNames.size() * 2 + 1);
+		for(int i=0; i<classNames.size(); i++) {
+			outputStream.writeByte(1); // CONSTANT_Utf8
+			outputStream.writeUTF(classNames.get(i));
+			outputStream.writeByte(7); // CONSTANT_Class
+			outputStream.writeShort(i * 2 + 1);
+		}
+		outputStream.writeShort(0x21); // public super
+		outputStream.writeShort(2);
+		outputStream.writeShort(4);
+		for(int i=0; i<4; i++) {
+			outputStream.writeShort(0); // no interfaces, fields, methods or attributes
+		}
+		return content.toByteArray();
+	}
+
+}
@@ -0,0 +1,156 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that incrementally written JAR files are identical to JAR files written from scratch.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class PackedJarWriterTest {
+	private static final long TIME = 1500000000000L;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private final CapturingLog log = new CapturingLog();
+	private File sourceDirectory;
+
+	@Before
+	public void createSources() throws IOException {
+		this.sourceDirectory = this.temporaryFolder.newFolder("sources");
+		writeSource("MANIFEST.MF", "Manifest-Version: 1.0\r\nMain-Class: com.example.Main\r\n\r\n");
+		for(int i=0; i<20; i++) {
+			StringBuilder content = new StringBuilder();
+			for(int j=0; j<=i * 100; j++) {
+				content.append("content of class ").append(i).append(" line ").append(j).append('\n');
+			}
+			writeSource("Class" + i + ".class", content.toString());
+		}
+		writeSource("lib.jar", "stored dependency");
+	}
+
+	@Test
+	public void rebuildWithUnchangedInputsIsIdentical() throws IOException {
+		File jarFile = new File(this.temporaryFolder.getRoot(), "app.jar");
+		PackedJarWriter writer = new PackedJarWriter(jarFile, new File(this.temporaryFolder.getRoot(), "app.state"), this.log);
+		assertTrue(writer.write(this.createEntries(), false));
+		byte[] content = Files.readAllBytes(jarFile.toPath());
+
+		assertFalse(writer.write(this.createEntries(), false));
+		assertArrayEquals(content, Files.readAllBytes(jarFile.toPath()));
+
+		// forced rebuilds copy all entries from the previous JAR file
+		assertTrue(writer.write(this.createEntries(), true));
+		assertArrayEquals(content, Files.readAllBytes(jarFile.toPath()));
+		assertEquals(0, this.log.getWarnings().size());
+	}
+
+	@Test
+	public void touchedSourcesKeepJarUpToDate() throws IOException {
+		File jarFile = new File(this.temporaryFolder.getRoot(), "app.jar");
+		File stateFile = new File(this.temporaryFolder.getRoot(), "app.state");
+		PackedJarWriter writer = new PackedJarWriter(jarFile, stateFile, this.log);
+		assertTrue(writer.write(this.createEntries(), false));
+		byte[] content = Files.readAllBytes(jarFile.toPath());
+
+		// the touched source's entry has a new time, but the same content
+		assertTrue(new File(this.sourceDirectory, "Class7.class").setLastModified(TIME + 5000));
+		List<PackedJarEntry> entries = this.createEntries();
+		entries.get(11).setTime(TIME + 5000);
+		assertFalse(writer.write(entries, false));
+		assertArrayEquals(content, Files.readAllBytes(jarFile.toPath()));
+		// the state records the new modification time, so the source is not hashed again
+		assertTrue(new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8).contains(" " + (TIME + 5000) + " com/example/Class7.class\n"));
+	}
+
+	@Test
+	public void incrementalBuildIsIdenticalToFullBuild() throws IOException {
+		File incrementalJarFile = new File(this.temporaryFolder.getRoot(), "incremental.jar");
+		PackedJarWriter incrementalWriter = new PackedJarWriter(incrementalJarFile, new File(this.temporaryFolder.getRoot(), "incremental.state"), this.log);
+		incrementalWriter.setThreads(4);
+		assertTrue(incrementalWriter.write(this.createEntries(), false));
+
+		File changedFile = writeSource("Class7.class", "changed content");
+		changedFile.setLastModified(TIME + 1000);
+		assertTrue(incrementalWriter.write(this.createEntries(), false));
+
+		File fullJarFile = new File(this.temporaryFolder.getRoot(), "full.jar");
+		PackedJarWriter fullWriter = new PackedJarWriter(fullJarFile, new File(this.temporaryFolder.getRoot(), "full.state"), this.log);
+		assertTrue(fullWriter.write(this.createEntries(), false));
+
+		assertArrayEquals(Files.readAllBytes(fullJarFile.toPath()), Files.readAllBytes(incrementalJarFile.toPath()));
+	}
+
+	@Test
+	public void outputIsIndependentOfThreadCount() throws IOException {
+		File singleThreadedJarFile = new File(this.temporaryFolder.getRoot(), "single.jar");
+		PackedJarWriter singleThreadedWriter = new PackedJarWriter(singleThreadedJarFile, new File(this.temporaryFolder.getRoot(), "single.state"), this.log);
+		singleThreadedWriter.setThreads(1);
+		assertTrue(singleThreadedWriter.write(this.createEntries(), false));
+
+		for(int threads: new int[] {2, 3, 8}) {
+			File multiThreadedJarFile = new File(this.temporaryFolder.getRoot(), "multi" + threads + ".jar");
+			PackedJarWriter multiThreadedWriter = new PackedJarWriter(multiThreadedJarFile, new File(this.temporaryFolder.getRoot(), "multi" + threads + ".state"), this.log);
+			multiThreadedWriter.setThreads(threads);
+			assertTrue(multiThreadedWriter.write(this.createEntries(), false));
+			assertArrayEquals("threads: " + threads, Files.readAllBytes(singleThreadedJarFile.toPath()), Files.readAllBytes(multiThreadedJarFile.toPath()));
+		}
+	}
+
+	@Test
+	public void changedCompressionLevelRecompressesEntries() throws IOException {
+		File jarFile = new File(this.temporaryFolder.getRoot(), "app.jar");
+		PackedJarWriter writer = new PackedJarWriter(jarFile, new File(this.temporaryFolder.getRoot(), "app.state"), this.log);
+		writer.setCompressionLevel(1);
+		assertTrue(writer.write(this.createEntries(), false));
+		writer.setCompressionLevel(9);
+		assertTrue(writer.write(this.createEntries(), false));
+
+		File fullJarFile = new File(this.temporaryFolder.getRoot(), "full.jar");
+		PackedJarWriter fullWriter = new PackedJarWriter(fullJarFile, new File(this.temporaryFolder.getRoot(), "full.state"), this.log);
+		fullWriter.setCompressionLevel(9);
+		assertTrue(fullWriter.write(this.createEntries(), false));
+
+		assertArrayEquals(Files.readAllBytes(fullJarFile.toPath()), Files.readAllBytes(jarFile.toPath()));
+	}
+
+	private List<PackedJarEntry> createEntries() {
+		List<PackedJarEntry> result = new ArrayList<PackedJarEntry>();
+		result.add(PackedJarEntry.directory("META-INF/"));
+		result.add(PackedJarEntry.file("META-INF/MANIFEST.MF", new File(this.sourceDirectory, "MANIFEST.MF"), true));
+		result.add(PackedJarEntry.directory("com/"));
+		result.add(PackedJarEntry.directory("com/example/"));
+		for(int i=0; i<20; i++) {
+			result.add(PackedJarEntry.file("com/example/Class" + i + ".class", new File(this.sourceDirectory, "Class" + i + ".class"), true));
+		}
+		result.add(PackedJarEntry.file("lib/lib.jar", new File(this.sourceDirectory, "lib.jar"), false));
+		for(PackedJarEntry entry: result) {
+			entry.setTime(TIME);
+		}
+		return result;
+	}
+
+	private File writeSource(String name, String content) throws IOException {
+		File file = new File(this.sourceDirectory, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(TIME);
+		return file;
+	}
+
+}
@@ -0,0 +1,152 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests sharing hashes and compressed content between the executions of a build session using {@link PackingCache}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class PackingCacheTest {
+	private static final long TIME = 1500000000000L;
+	private static final Object SESSION = new Object();
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private final CapturingLog log = new CapturingLog();
+
+	@Test
+	public void cachesHashesBySizeAndModificationTime() throws IOException {
+		PackingCache cache = new PackingCache();
+		File file = this.writeFile("dependency.jar", "content");
+		cache.putHash(file, "hash");
+		assertEquals("hash", cache.getHash(file));
+
+		file.setLastModified(TIME + 1000);
+		assertNull(cache.getHash(file));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedContent() {
+		PackingCache cache = new PackingCache();
+		cache.beginExecution(SESSION, 30);
+		PackingCache.CompressedContent first = createContent(10);
+		PackingCache.CompressedContent second = createContent(10);
+		PackingCache.CompressedContent third = createContent(10);
+		cache.putCompressedContent("first", 6, first);
+		cache.putCompressedContent("second", 6, second);
+		cache.putCompressedContent("third", 6, third);
+		assertSame(first, cache.getCompressedContent("first", 6));
+
+		cache.putCompressedContent("fourth", 6, createContent(10));
+		assertNull(cache.getCompressedContent("second", 6));
+		assertSame(first, cache.getCompressedContent("first", 6));
+		assertSame(third, cache.getCompressedContent("third", 6));
+		// content is cached per compression level
+		assertNull(cache.getCompressedContent("first", 9));
+	}
+
+	@Test
+	public void skipsContentLargerThanCache() {
+		PackingCache cache = new PackingCache();
+		cache.beginExecution(SESSION, 30);
+		cache.putCompressedContent("small", 6, createContent(10));
+		cache.putCompressedContent("large", 6, createContent(31));
+		assertNull(cache.getCompressedContent("large", 6));
+		assertNotNull(cache.getCompressedContent("small", 6));
+
+	}
+
+	@Test
+	public void keepsLargestSizeOfSession() {
+		PackingCache cache = new PackingCache();
+		cache.beginExecution(SESSION, 30);
+		// a parallel execution disabling the cache does not affect the other executions of the session
+		cache.beginExecution(SESSION, 0);
+		cache.putCompressedContent("first", 6, createContent(10));
+		assertNotNull(cache.getCompressedContent("first", 6));
+
+		cache.beginExecution(SESSION, 50);
+		cache.putCompressedContent("second", 6, createContent(40));
+		assertNotNull(cache.getCompressedContent("first", 6));
+		assertNotNull(cache.getCompressedContent("second", 6));
+	}
+
+	@Test
+	public void clearsPreviousSession() throws IOException {
+		PackingCache cache = new PackingCache();
+		cache.beginExecution(SESSION, 30);
+		File file = this.writeFile("dependency.jar", "content");
+		cache.putHash(file, "hash");
+		cache.putCompressedContent("first", 6, createContent(10));
+
+		cache.beginExecution(new Object(), 0);
+		assertNull(cache.getHash(file));
+		assertNull(cache.getCompressedContent("first", 6));
+		cache.putCompressedContent("second", 6, createContent(10));
+		assertNull(cache.getCompressedContent("second", 6));
+	}
+
+	@Test
+	public void sharedEntriesAreIdenticalToUncachedEntries() throws IOException {
+		PackingCache cache = new PackingCache();
+		cache.beginExecution(SESSION, 1024 * 1024);
+		StringBuilder content = new StringBuilder();
+		for(int i=0; i<1000; i++) {
+			content.append("shared dependency line ").append(i).append('\n');
+		}
+		File dependencyFile = this.writeFile("dependency.jar", content.toString());
+
+		File uncachedJarFile = this.writeJar("uncached", dependencyFile, null);
+		File firstJarFile = this.writeJar("first", dependencyFile, cache);
+		File secondJarFile = this.writeJar("second", dependencyFile, cache);
+
+		assertArrayEquals(Files.readAllBytes(uncachedJarFile.toPath()), Files.readAllBytes(firstJarFile.toPath()));
+		assertArrayEquals(Files.readAllBytes(uncachedJarFile.toPath()), Files.readAllBytes(secondJarFile.toPath()));
+	}
+
+	private File writeJar(String name, File dependencyFile, PackingCache cache) throws IOException {
+		File jarFile = new File(this.temporaryFolder.getRoot(), name + ".jar");
+		PackedJarWriter writer = new PackedJarWriter(jarFile, new File(this.temporaryFolder.getRoot(), name + ".state"), this.log);
+		writer.setCache(cache);
+		List<PackedJarEntry> entries = new ArrayList<PackedJarEntry>();
+		entries.add(PackedJarEntry.directory("lib/"));
+		PackedJarEntry dependencyEntry = PackedJarEntry.file("lib/dependency.jar", dependencyFile, true);
+		dependencyEntry.setShared(true);
+		entries.add(dependencyEntry);
+		for(PackedJarEntry entry: entries) {
+			entry.setTime(TIME);
+		}
+		assertTrue(writer.write(entries, false));
+		return jarFile;
+	}
+
+	private File writeFile(String name, String content) throws IOException {
+		File file = new File(this.temporaryFolder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(TIME);
+		return file;
+	}
+
+	private static PackingCache.CompressedContent createContent(int size) {
+		return new PackingCache.CompressedContent(new byte[size], size, 0);
+	}
+
+}
@@ -0,0 +1,175 @@
+package de.ntcomputer.executablepacker.mavenplugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the phase timings, sizes and duplicate detection of {@link PackingReport}. All entries are stored, so their packed sizes are known.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class PackingReportTest {
+	private static final String MANIFEST = "Manifest-Version: 1.0\n";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private File jarFile;
+	private File firstJarFile;
+	private File secondJarFile;
+	private File emptyJarFile;
+
+	@Before
+	public void writeJars() throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		entries.put("META-INF/MANIFEST.MF", bytes(MANIFEST));
+		entries.put("de/A.class", bytes("a"));
+		entries.put("de/B.class", bytes("b1"));
+		this.firstJarFile = this.writeJar("first.jar", entries);
+
+		entries.clear();
+		entries.put("empty/", null);
+		entries.put("de/B.class", bytes("b2"));
+		entries.put("res.txt", bytes("r2"));
+		this.secondJarFile = this.writeJar("second.jar", entries);
+
+		entries.clear();
+		entries.put("empty/", null);
+		this.emptyJarFile = this.writeJar("empty.jar", entries);
+
+		entries.clear();
+		entries.put("META-INF/MANIFEST.MF", bytes(MANIFEST));
+		entries.put("de/A.class", bytes("a"));
+		entries.put("res.txt", bytes("r"));
+		for(File dependencyJarFile: Arrays.asList(this.firstJarFile, this.secondJarFile, this.emptyJarFile)) {
+			entries.put("lib/" + dependencyJarFile.getName(), Files.readAllBytes(dependencyJarFile.toPath()));
+		}
+		this.jarFile = this.writeJar("app.jar", entries);
+	}
+
+	@Test
+	public void detectsDuplicatesByCrc() throws IOException {
+		PackingReport report = this.analyze();
+		// de/A.class is identical in the root and first.jar, de/B.class and res.txt differ, and the manifests are ignored
+		assertEquals(3, report.getDuplicateCount());
+		assertEquals(1, report.getConflictingClassCount());
+
+		String summary = report.toSummary();
+		assertTrue(summary, summary.contains("\nDuplicate classes: 2\n  de/A.class (identical): ./ shadows first.jar\n  de/B.class (different content): first.jar shadows second.jar\n"));
+		assertTrue(summary, summary.contains("\nDuplicate resources: 1\n  res.txt (different content): ./ shadows second.jar\n"));
+	}
+
+	@Test
+	public void accumulatesPhases() throws IOException {
+		PackingReport report = new PackingReport();
+		long startNanos = System.nanoTime();
+		long nanos = report.recordPhase(PackingReport.PHASE_DEPENDENCY_SELECTION, startNanos - 2000000L);
+		assertTrue(nanos >= startNanos);
+		report.recordPhase(PackingReport.PHASE_METADATA, nanos);
+		report.recordPhase(PackingReport.PHASE_DEPENDENCY_SELECTION, System.nanoTime() - 3000000L);
+		report.analyze(this.jarFile, "lib/", Arrays.asList(this.firstJarFile, this.secondJarFile, this.emptyJarFile));
+
+		// phases are reported in the order they were first recorded
+		Matcher matcher = Pattern.compile("\"phases\": \\{\n    \"dependencySelection\": ([0-9.]+),\n    \"metadata\": ([0-9.]+)\n  \\}").matcher(report.toJson());
+		assertTrue(report.toJson(), matcher.find());
+		assertTrue(matcher.group(1), Double.parseDouble(matcher.group(1)) >= 5.0);
+
+		String summary = report.toSummary();
+		assertTrue(summary, summary.startsWith("Executable JAR app.jar: " + this.jarFile.length() + " bytes, 6 entries\n\nPhases:\n  dependencySelection"));
+		assertTrue(summary, summary.contains("\n  total "));
+	}
+
+	@Test
+	public void reportsValidJson() throws IOException {
+		PackingReport report = this.analyze();
+		String expected = "{\n"
+				+ "  \"jar\": \"app.jar\",\n"
+				+ "  \"jarSize\": " + this.jarFile.length() + ",\n"
+				+ "  \"jarEntries\": 6,\n"
+				+ "  \"phases\": {},\n"
+				+ "  \"elements\": [\n"
+				+ "    {\"name\": \"./\", \"rawSize\": 24, \"jarSize\": 24, \"packedSize\": 24, \"ratio\": 1.000, \"entries\": 3, \"classes\": 1},\n"
+				+ "    " + elementJson(this.firstJarFile, 25, 3, 2) + ",\n"
+				+ "    " + elementJson(this.secondJarFile, 4, 2, 1) + ",\n"
+				+ "    {\"name\": \"empty.jar\", \"rawSize\": 0, \"jarSize\": " + this.emptyJarFile.length() + ", \"packedSize\": " + this.emptyJarFile.length() + ", \"ratio\": null, \"entries\": 0, \"classes\": 0}\n"
+				+ "  ],\n"
+				+ "  \"duplicates\": [\n"
+				+ "    {\"name\": \"de/A.class\", \"type\": \"class\", \"identical\": true, \"elements\": [\"./\", \"first.jar\"]},\n"
+				+ "    {\"name\": \"res.txt\", \"type\": \"resource\", \"identical\": false, \"elements\": [\"./\", \"second.jar\"]},\n"
+				+ "    {\"name\": \"de/B.class\", \"type\": \"class\", \"identical\": false, \"elements\": [\"first.jar\", \"second.jar\"]}\n"
+				+ "  ]\n"
+				+ "}\n";
+		assertEquals(expected, report.toJson());
+	}
+
+	@Test
+	public void reportsUndefinedRatio() throws IOException {
+		PackingReport report = this.analyze();
+		long size = this.emptyJarFile.length();
+		// the ratio of an element without content is null in JSON, but not in the summary
+		String summary = report.toSummary();
+		assertTrue(summary, summary.contains(String.format(Locale.ROOT, "\n  %-48s %12d %12d %12d %6s %8d %8d\n", "empty.jar", 0, size, size, "-", 0, 0)));
+		assertFalse(summary, summary.contains("null"));
+		assertTrue(report.toJson(), report.toJson().contains("\"ratio\": null"));
+	}
+
+	private PackingReport analyze() throws IOException {
+		PackingReport report = new PackingReport();
+		report.analyze(this.jarFile, "lib/", Arrays.asList(this.firstJarFile, this.secondJarFile, this.emptyJarFile));
+		return report;
+	}
+
+	private static String elementJson(File dependencyJarFile, long rawSize, int entryCount, int classCount) {
+		long size = dependencyJarFile.length();
+		return "{\"name\": \"" + dependencyJarFile.getName() + "\", \"rawSize\": " + rawSize + ", \"jarSize\": " + size + ", \"packedSize\": " + size
+				+ ", \"ratio\": " + String.format(Locale.ROOT, "%.3f", (double) size / rawSize) + ", \"entries\": " + entryCount + ", \"classes\": " + classCount + "}";
+	}
+
+	private File writeJar(String name, Map<String, byte[]> entries) throws IOException {
+		File file = new File(this.temporaryFolder.getRoot(), name);
+		ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for(Map.Entry<String, byte[]> entry: entries.entrySet()) {
+				byte[] content = entry.getValue()==null? new byte[0] : entry.getValue();
+				ZipEntry zipEntry = new ZipEntry(entry.getKey());
+				CRC32 crc = new CRC32();
+				crc.update(content);
+				zipEntry.setMethod(ZipEntry.STORED);
+				zipEntry.setSize(content.length);
+				zipEntry.setCrc(crc.getValue());
+				outputStream.putNextEntry(zipEntry);
+				outputStream.write(content);
+				outputStream.closeEntry();
+			}
+		} finally {
+			outputStream.close();
+		}
+		return file;
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+}
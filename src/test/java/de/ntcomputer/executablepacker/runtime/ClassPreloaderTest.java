@@ -0,0 +1,70 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassPreloaderTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void preloadsWithoutInitializing() throws Exception {
+		JarInJarClassLoader classLoader = FixtureJars.createClassLoader(this.temporaryFolder.newFile("fixture.jar"), First.class, Second.class);
+		try {
+			classLoader.recordLoadedClasses();
+			List<String> classNames = Arrays.asList(First.class.getName(), "com.example.Missing", Second.class.getName());
+			new ClassPreloader(classLoader, classNames).start(3);
+
+			long deadline = System.currentTimeMillis() + 10000;
+			while(classLoader.getLoadedClasses().size() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			HashSet<String> loadedClassNames = new HashSet<String>();
+			for(Class<?> loadedClass: classLoader.getLoadedClasses()) {
+				loadedClassNames.add(loadedClass.getName());
+			}
+			assertEquals(new HashSet<String>(Arrays.asList(First.class.getName(), Second.class.getName())), loadedClassNames);
+			assertNull(System.getProperty(First.PROPERTY_INITIALIZED));
+		} finally {
+			classLoader.close();
+		}
+	}
+
+	@Test
+	public void classListRoundTrip() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ClassPreloader.writeClassList(outputStream, Arrays.<Class<?>>asList(First.class, Second.class));
+		assertEquals(Arrays.asList(First.class.getName(), Second.class.getName()), ClassPreloader.readClassList(new ByteArrayInputStream(outputStream.toByteArray())));
+	}
+
+	@Test
+	public void classListSkipsCommentsAndBlankLines() throws IOException {
+		byte[] classList = "# recorded classes\n\n  com.example.First  \ncom.example.Second\n".getBytes(StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList("com.example.First", "com.example.Second"), ClassPreloader.readClassList(new ByteArrayInputStream(classList)));
+	}
+
+	public static class First {
+		static final String PROPERTY_INITIALIZED = "executablepacker.test.preloaded.initialized";
+
+		static {
+			System.setProperty(PROPERTY_INITIALIZED, "true");
+		}
+	}
+
+	public static class Second {
+	}
+
+}
@@ -0,0 +1,233 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DependencyCacheTest {
+	private static final String LIB_PATH = "lib/";
+	private static final long OLD = System.currentTimeMillis() - 24 * 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File cacheDirectory;
+	private DependencyCache.OuterJar outerJar;
+	private byte[] firstContent;
+	private byte[] secondContent;
+
+	@Before
+	public void setUp() throws IOException {
+		this.cacheDirectory = new File(this.temporaryFolder.getRoot(), "cache");
+		this.firstContent = createContent(1, 1000);
+		this.secondContent = createContent(2, 2000);
+		File outerJarFile = this.temporaryFolder.newFile("outer.jar");
+		ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(outerJarFile));
+		try {
+			outputStream.putNextEntry(new ZipEntry(LIB_PATH + "first.jar"));
+			outputStream.write(this.firstContent);
+			outputStream.putNextEntry(new ZipEntry(LIB_PATH + "second.jar"));
+			outputStream.write(this.secondContent);
+		} finally {
+			outputStream.close();
+		}
+		this.outerJar = new DependencyCache.OuterJar(outerJarFile);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.outerJar.close();
+	}
+
+	@Test
+	public void extractsAtomically() throws IOException {
+		DependencyCache cache = new DependencyCache(this.cacheDirectory, Long.MAX_VALUE);
+		DependencyCache.Dependency dependency = createDependency("first.jar", this.firstContent);
+		File file = cache.get(dependency, this.outerJar);
+
+		assertEquals(cache.getFile(dependency), file);
+		assertArrayEquals(this.firstContent, Files.readAllBytes(file.toPath()));
+		String[] cachedNames = this.cacheDirectory.list();
+		Arrays.sort(cachedNames);
+		assertEquals(Arrays.asList(file.getName(), dependency.getHash() + ".verified"), Arrays.asList(cachedNames));
+
+		// cached copies are used without extracting them again
+		this.outerJar.close();
+		assertTrue(new File(this.temporaryFolder.getRoot(), "outer.jar").delete());
+		assertEquals(file, cache.get(dependency, this.outerJar));
+	}
+
+	@Test
+	public void replacesCorruptEntry() throws IOException {
+		DependencyCache cache = new DependencyCache(this.cacheDirectory, Long.MAX_VALUE);
+		DependencyCache.Dependency dependency = createDependency("first.jar", this.firstContent);
+		assertTrue(this.cacheDirectory.mkdirs());
+		File file = cache.getFile(dependency);
+		Files.write(file.toPath(), Arrays.copyOf(this.firstContent, 10));
+
+		assertEquals(file, cache.get(dependency, this.outerJar));
+		assertArrayEquals(this.firstContent, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void verifiesModifiedEntries() throws IOException {
+		DependencyCache.Dependency dependency = createDependency("first.jar", this.firstContent);
+		File file = new DependencyCache(this.cacheDirectory, Long.MAX_VALUE).get(dependency, this.outerJar);
+		long lastModified = file.lastModified();
+		byte[] corruptContent = this.firstContent.clone();
+		corruptContent[0]++;
+
+		// files with the recorded size and modification time are not verified again
+		Files.write(file.toPath(), corruptContent);
+		assertTrue(file.setLastModified(lastModified));
+		assertEquals(file, new DependencyCache(this.cacheDirectory, Long.MAX_VALUE).get(dependency, this.outerJar));
+		assertArrayEquals(corruptContent, Files.readAllBytes(file.toPath()));
+
+		// files modified since their verification are verified again
+		assertTrue(file.setLastModified(lastModified - 2000));
+		assertEquals(file, new DependencyCache(this.cacheDirectory, Long.MAX_VALUE).get(dependency, this.outerJar));
+		assertArrayEquals(this.firstContent, Files.readAllBytes(file.toPath()));
+
+		// files without a record of their verification are verified on first use
+		assertTrue(new File(this.cacheDirectory, dependency.getHash() + ".verified").delete());
+		Files.write(file.toPath(), corruptContent);
+		assertEquals(file, new DependencyCache(this.cacheDirectory, Long.MAX_VALUE).get(dependency, this.outerJar));
+		assertArrayEquals(this.firstContent, Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void rejectsMismatchingContent() throws IOException {
+		DependencyCache cache = new DependencyCache(this.cacheDirectory, Long.MAX_VALUE);
+		DependencyCache.Dependency dependency = new DependencyCache.Dependency(LIB_PATH + "first.jar", hash(this.secondContent), this.firstContent.length);
+		try {
+			cache.get(dependency, this.outerJar);
+			fail("Mismatching content accepted");
+		} catch(IOException e) {
+			// expected
+		}
+		assertFalse(cache.getFile(dependency).exists());
+		assertEquals(0, this.cacheDirectory.list().length); // no temporary files are left
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntries() throws IOException {
+		DependencyCache cache = new DependencyCache(this.cacheDirectory, this.firstContent.length + this.secondContent.length);
+		assertTrue(this.cacheDirectory.mkdirs());
+		File older = createEntry("older", 1500, OLD - 1000);
+		File newer = createEntry("newer", 1500, OLD);
+		File recent = createEntry("recent", 1500, System.currentTimeMillis());
+		File used = createEntry("used", 1500, OLD - 2000);
+
+		File first = cache.get(createDependency("first.jar", this.firstContent), this.outerJar);
+		cache.evict(Arrays.asList(first, used));
+
+		assertFalse(older.exists());
+		assertFalse(newer.exists());
+		assertTrue(recent.exists()); // recently used entries are never evicted
+		assertTrue(used.exists());
+		assertTrue(first.exists());
+	}
+
+	@Test
+	public void evictsNamedCopies() throws IOException {
+		// the entries alone fit the size limit
+		DependencyCache cache = new DependencyCache(this.cacheDirectory, this.firstContent.length + 1600);
+		assertTrue(this.cacheDirectory.mkdirs());
+		File older = createEntry("older", 1500, OLD - 1000);
+		File olderCopy = createNamedCopy("older", "older-1.0.jar", 1500, OLD - 1000);
+		File orphanCopy = createNamedCopy("orphan", "orphan-1.0.jar", 1500, OLD - 2000);
+
+		DependencyCache.Dependency dependency = createDependency("first.jar", this.firstContent);
+		File first = cache.get(dependency, this.outerJar);
+		File firstCopy = cache.getNamed(dependency, this.outerJar, "first-1.0.jar");
+		assertArrayEquals(this.firstContent, Files.readAllBytes(firstCopy.toPath()));
+		cache.evict(Collections.singletonList(first));
+
+		// copies without entry are evicted on their own, and hard links to an entry are not counted
+		assertFalse(older.exists());
+		assertFalse(olderCopy.getParentFile().exists());
+		assertFalse(orphanCopy.getParentFile().exists());
+		assertTrue(first.exists());
+		assertTrue(firstCopy.exists());
+	}
+
+	@Test
+	public void evictsOnlyAfterExtraction() throws IOException {
+		DependencyCache cache = new DependencyCache(this.cacheDirectory, 0);
+		assertTrue(this.cacheDirectory.mkdirs());
+		File old = createEntry("old", 1500, OLD);
+		cache.evict(Collections.<File>emptyList());
+		assertTrue(old.exists());
+	}
+
+	@Test
+	public void hashesRoundTrip() throws IOException {
+		File first = this.temporaryFolder.newFile("first.jar");
+		Files.write(first.toPath(), this.firstContent);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		DependencyCache.writeHashes(outputStream, Collections.singletonList(first));
+
+		DependencyCache.Dependency dependency = DependencyCache.readHashes(new ByteArrayInputStream(outputStream.toByteArray()), LIB_PATH).get("first.jar");
+		assertEquals(LIB_PATH + "first.jar", dependency.getEntryName());
+		assertEquals(hash(this.firstContent), dependency.getHash());
+		assertEquals(this.firstContent.length, dependency.getSize());
+	}
+
+	private File createEntry(String name, int size, long lastModified) throws IOException {
+		File file = new File(this.cacheDirectory, name + ".jar");
+		OutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(new byte[size]);
+		} finally {
+			outputStream.close();
+		}
+		assertTrue(file.setLastModified(lastModified));
+		return file;
+	}
+
+	private File createNamedCopy(String hash, String fileName, int size, long lastModified) throws IOException {
+		File namedDirectory = new File(this.cacheDirectory, hash);
+		assertTrue(namedDirectory.mkdir());
+		File file = new File(namedDirectory, fileName);
+		Files.write(file.toPath(), new byte[size]);
+		assertTrue(file.setLastModified(lastModified));
+		assertTrue(namedDirectory.setLastModified(lastModified));
+		return file;
+	}
+
+	private static DependencyCache.Dependency createDependency(String fileName, byte[] content) throws IOException {
+		return new DependencyCache.Dependency(LIB_PATH + fileName, hash(content), content.length);
+	}
+
+	private static String hash(byte[] content) throws IOException {
+		return DependencyCache.hash(new ByteArrayInputStream(content), null);
+	}
+
+	private static byte[] createContent(long seed, int size) {
+		byte[] content = new byte[size];
+		new Random(seed).nextBytes(content);
+		return content;
+	}
+
+}
@@ -0,0 +1,103 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests writing and reading an {@link EntryNameFilter}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class EntryNameFilterTest {
+
+	@Test
+	public void containsAllWrittenEntries() throws IOException {
+		Map<String, List<String>> elementEntryNames = new LinkedHashMap<String, List<String>>();
+		for(int element=0; element<5; element++) {
+			List<String> entryNames = new ArrayList<String>();
+			for(int i=0; i<(element + 1) * 2000; i++) {
+				entryNames.add("com/example/element" + element + "/package" + (i % 37) + "/Class" + i + ".class");
+			}
+			elementEntryNames.put("lib/element" + element + ".jar", entryNames);
+		}
+		EntryNameFilter filter = writeAndRead(elementEntryNames);
+
+		assertEquals(new ArrayList<String>(elementEntryNames.keySet()), filter.getElementNames());
+		int elementIndex = 0;
+		for(List<String> entryNames: elementEntryNames.values()) {
+			for(String entryName: entryNames) {
+				assertTrue(entryName, filter.mightContain(elementIndex, entryName));
+			}
+			elementIndex++;
+		}
+	}
+
+	@Test
+	public void rejectsMostMissingEntries() throws IOException {
+		List<String> entryNames = new ArrayList<String>();
+		for(int i=0; i<10000; i++) {
+			entryNames.add("com/example/Class" + i + ".class");
+		}
+		EntryNameFilter filter = writeAndRead(Collections.singletonMap("lib/a.jar", entryNames));
+
+		int falsePositives = 0;
+		for(int i=0; i<10000; i++) {
+			if(filter.mightContain(0, "com/example/Missing" + i + ".class")) {
+				falsePositives++;
+			}
+		}
+		// about one percent is expected
+		assertTrue("False positives: " + falsePositives, falsePositives < 300);
+	}
+
+	@Test
+	public void containsAlternativeNamesOfDirectoriesAndVersionedEntries() throws IOException {
+		EntryNameFilter filter = writeAndRead(Collections.singletonMap("lib/a.jar", Arrays.asList("com/example/", "META-INF/versions/11/com/example/Versioned.class")));
+
+		assertTrue(filter.mightContain(0, "com/example/"));
+		assertTrue(filter.mightContain(0, "com/example"));
+		assertTrue(filter.mightContain(0, "META-INF/versions/11/com/example/Versioned.class"));
+		assertTrue(filter.mightContain(0, "com/example/Versioned.class"));
+	}
+
+	@Test
+	public void supportsElementsWithoutEntries() throws IOException {
+		EntryNameFilter filter = writeAndRead(Collections.singletonMap("lib/empty.jar", Collections.<String>emptyList()));
+
+		assertEquals(Collections.singletonList("lib/empty.jar"), filter.getElementNames());
+	}
+
+	@Test
+	public void rejectsUnsupportedVersions() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		new DataOutputStream(outputStream).writeUTF("EntryNameFilter-Version: 0.0");
+		try {
+			EntryNameFilter.read(new ByteArrayInputStream(outputStream.toByteArray()));
+			fail("Unsupported version has been read");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	private static EntryNameFilter writeAndRead(Map<String, ? extends List<String>> elementEntryNames) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		EntryNameFilter.write(outputStream, elementEntryNames);
+		return EntryNameFilter.read(new ByteArrayInputStream(outputStream.toByteArray()));
+	}
+
+}
@@ -0,0 +1,37 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ExecutableLauncherTest {
+
+	@Test
+	public void parentClassLoaderLoadsPlatformClasses() throws Exception {
+		ClassLoader parent = ExecutableLauncher.getParentClassLoader(ExecutableLauncherTest.class.getClassLoader());
+		JarInJarClassLoader classLoader = new JarInJarClassLoader(Collections.<ClassPathElement>emptyList(), null, parent);
+		try {
+			assertEquals(java.sql.Connection.class, classLoader.loadClass("java.sql.Connection"));
+		} finally {
+			classLoader.close();
+		}
+	}
+
+	@Test
+	public void parentClassLoaderHidesApplicationClasses() throws Exception {
+		ClassLoader parent = ExecutableLauncher.getParentClassLoader(ExecutableLauncherTest.class.getClassLoader());
+		JarInJarClassLoader classLoader = new JarInJarClassLoader(Collections.<ClassPathElement>emptyList(), null, parent);
+		try {
+			classLoader.loadClass(ExecutableLauncherTest.class.getName());
+			fail("Application class visible through the parent classloader");
+		} catch(ClassNotFoundException e) {
+			// expected
+		} finally {
+			classLoader.close();
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Creates JARs containing copies of test classes, so they can be loaded by a separate {@link JarInJarClassLoader}.
+ */
+class FixtureJars {
+
+	private FixtureJars() {
+	}
+
+	static void write(File jarFile, Class<?>... classes) throws IOException {
+		JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(jarFile));
+		try {
+			for(Class<?> fixtureClass: classes) {
+				String name = fixtureClass.getName().replace('.', '/') + ".class";
+				outputStream.putNextEntry(new JarEntry(name));
+				InputStream inputStream = FixtureJars.class.getClassLoader().getResourceAsStream(name);
+				try {
+					byte[] buffer = new byte[8192];
+					int count;
+					while((count = inputStream.read(buffer))!=-1) {
+						outputStream.write(buffer, 0, count);
+					}
+				} finally {
+					inputStream.close();
+				}
+			}
+		} finally {
+			outputStream.close();
+		}
+	}
+
+	static JarInJarClassLoader createClassLoader(File jarFile, Class<?>... classes) throws IOException {
+		write(jarFile, classes);
+		URL fileURL = jarFile.toURI().toURL();
+		URL baseURL = new URL("jar:" + fileURL + "!/");
+		JarFileClassPathElement element = new JarFileClassPathElement(jarFile.getName(), baseURL, fileURL, baseURL);
+		return new JarInJarClassLoader(Collections.<ClassPathElement>singletonList(element), null, ClassLoader.getSystemClassLoader().getParent());
+	}
+
+}
@@ -0,0 +1,209 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests reading resources through a {@link JarInJarURLConnection}, and the location cache of its {@link JarInJarURLStreamHandler}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class JarInJarURLConnectionTest {
+	private static final long TIME = 1500000000000L;
+	private static final int ENTRY_COUNT = JarInJarURLStreamHandler.MAX_CACHED_LOCATIONS + 100;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private final byte[] content = new byte[10000];
+	private URLClassLoader outerJarClassLoader;
+	private JarInJarURLStreamHandler handler;
+
+	@Before
+	public void writeOuterJar() throws IOException {
+		for(int i=0; i<this.content.length; i++) {
+			this.content[i] = (byte) (i * 31 + i / 256);
+		}
+		File jarFile = this.temporaryFolder.newFile("outer.jar");
+		ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(jarFile));
+		try {
+			writeEntry(outputStream, "lib/stored.jar", this.content, ZipEntry.STORED);
+			writeEntry(outputStream, "deflated.bin", this.content, ZipEntry.DEFLATED);
+			for(int i=0; i<ENTRY_COUNT; i++) {
+				writeEntry(outputStream, "entries/" + i + ".txt", getEntryContent(i), ZipEntry.DEFLATED);
+			}
+		} finally {
+			outputStream.close();
+		}
+
+		// resources which are no entries of the outer JAR are searched using its classloader
+		File resourceDirectory = this.temporaryFolder.newFolder("resources");
+		Files.write(new File(resourceDirectory, "external.txt").toPath(), "external".getBytes(StandardCharsets.UTF_8));
+		this.outerJarClassLoader = new URLClassLoader(new URL[] { resourceDirectory.toURI().toURL() }, null);
+		this.handler = new JarInJarURLStreamHandler(this.outerJarClassLoader, jarFile.toURI().toURL());
+	}
+
+	@After
+	public void closeClassLoader() throws IOException {
+		this.outerJarClassLoader.close();
+	}
+
+	@Test
+	public void readsRanges() throws IOException {
+		for(String path: new String[] { "lib/stored.jar", "deflated.bin" }) {
+			assertArrayEquals(path, Arrays.copyOfRange(this.content, 5000, 5100), read(this.openConnection(path).getInputStream(5000, 100)));
+			assertArrayEquals(path, Arrays.copyOfRange(this.content, 9990, 10000), read(this.openConnection(path).getInputStream(9990, 100)));
+			assertArrayEquals(path, Arrays.copyOfRange(this.content, 1, 10000), read(this.openConnection(path).getInputStream(1, -1)));
+			assertArrayEquals(path, new byte[0], read(this.openConnection(path).getInputStream(10000, -1)));
+			try {
+				this.openConnection(path).getInputStream(10001, 1).close();
+				fail("Range beyond the content of " + path + " has been opened");
+			} catch(EOFException e) {
+				// expected
+			}
+		}
+		assertArrayEquals(Arrays.copyOfRange("external".getBytes(StandardCharsets.UTF_8), 2, 5), read(this.openConnection("external.txt").getInputStream(2, 3)));
+	}
+
+	@Test
+	public void reportsEntryMetadata() throws IOException {
+		for(String path: new String[] { "lib/stored.jar", "deflated.bin" }) {
+			JarInJarURLConnection connection = this.openConnection(path);
+			assertEquals(path, this.content.length, connection.getContentLengthLong());
+			assertEquals(path, this.content.length, connection.getContentLength());
+			assertEquals(path, TIME, connection.getLastModified());
+			assertEquals(path, connection.getJarEntry().getName());
+		}
+
+		JarInJarURLConnection connection = this.openConnection("external.txt");
+		assertEquals(8, connection.getContentLengthLong());
+		assertNull(connection.getJarEntry());
+
+		connection = this.openConnection("missing.txt");
+		assertEquals(-1, connection.getContentLengthLong());
+		assertEquals(0, connection.getLastModified());
+		try {
+			connection.getInputStream().close();
+			fail("Missing resource has been opened");
+		} catch(FileNotFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void cachesLocations() throws IOException {
+		URL url = this.createURL("entries/0.txt");
+		JarInJarURLStreamHandler.Location location = this.handler.resolve(url);
+		assertSame(location, this.handler.resolve(url));
+		assertSame(location, this.handler.resolve(this.createURL("entries/0.txt")));
+
+		for(int i=1; i<ENTRY_COUNT; i++) {
+			this.handler.resolve(this.createURL("entries/" + i + ".txt"));
+		}
+		// the least recently used locations have been evicted
+		assertNotSame(location, this.handler.resolve(url));
+		assertNull(this.handler.resolve(this.createURL("missing.txt")));
+	}
+
+	@Test
+	public void sharesCacheBetweenThreads() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for(int thread=0; thread<8; thread++) {
+				final int offset = thread * 97;
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						// the threads overlap, and together resolve more locations than the cache keeps
+						for(int j=0; j<2 * ENTRY_COUNT; j++) {
+							int i = (offset + j * 7) % ENTRY_COUNT;
+							String path = "entries/" + i + ".txt";
+							assertArrayEquals(path, getEntryContent(i), read(JarInJarURLConnectionTest.this.openConnection(path).getInputStream()));
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> result: results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private URL createURL(String path) throws IOException {
+		return new URL(JarInJarURLStreamHandler.PROTOCOL, null, -1, path, this.handler);
+	}
+
+	private JarInJarURLConnection openConnection(String path) throws IOException {
+		return (JarInJarURLConnection) this.createURL(path).openConnection();
+	}
+
+	private static byte[] getEntryContent(int i) {
+		return ("entry " + i).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void writeEntry(ZipOutputStream outputStream, String name, byte[] content, int method) throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		entry.setTime(TIME);
+		entry.setMethod(method);
+		if(method==ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			entry.setSize(content.length);
+			entry.setCrc(crc.getValue());
+		}
+		outputStream.putNextEntry(entry);
+		outputStream.write(content);
+		outputStream.closeEntry();
+	}
+
+	private static byte[] read(InputStream inputStream) throws IOException {
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while((count = inputStream.read(buffer))!=-1) {
+				outputStream.write(buffer, 0, count);
+			}
+			return outputStream.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+
+import org.junit.Test;
+
+/**
+ * Tests writing and reading a {@link LaunchDescriptor}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class LaunchDescriptorTest {
+	private static final String HASH_A = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+	private static final String HASH_B = "ffeeddccbbaa99887766554433221100ffeeddccbbaa99887766554433221100";
+
+	@Test
+	public void readsWrittenDescriptor() throws IOException {
+		Attributes attributes = new Attributes();
+		attributes.putValue(ExecutableLauncher.MANIFEST_APPLICATION_MAIN_CLASS, "com.example.Main");
+		attributes.putValue(ExecutableLauncher.MANIFEST_DEPENDENCY_LIBPATH, "lib/");
+		attributes.putValue(ExecutableLauncher.MANIFEST_DEPENDENCY_JARS, "a-1.0.jar b-2.0.jar");
+		attributes.putValue(ExecutableLauncher.MANIFEST_DEPENDENCY_ACCESS, "cache");
+		List<DependencyCache.Dependency> dependencies = Arrays.asList(
+				new DependencyCache.Dependency("lib/b-2.0.jar", HASH_B, 2000),
+				new DependencyCache.Dependency("lib/a-1.0.jar", HASH_A, 1000));
+
+		LaunchDescriptor descriptor = writeAndRead(attributes, dependencies);
+
+		assertEquals("com.example.Main", descriptor.getAttributes().getValue(ExecutableLauncher.MANIFEST_APPLICATION_MAIN_CLASS));
+		assertEquals("lib/", descriptor.getAttributes().getValue(ExecutableLauncher.MANIFEST_DEPENDENCY_LIBPATH));
+		assertEquals("cache", descriptor.getAttributes().getValue(ExecutableLauncher.MANIFEST_DEPENDENCY_ACCESS));
+		// the list of dependency JARs is replaced by the dependencies themselves
+		assertNull(descriptor.getAttributes().getValue(ExecutableLauncher.MANIFEST_DEPENDENCY_JARS));
+
+		assertEquals(Arrays.asList("b-2.0.jar", "a-1.0.jar"), new ArrayList<String>(descriptor.getDependencies().keySet()));
+		DependencyCache.Dependency dependency = descriptor.getDependencies().get("b-2.0.jar");
+		assertEquals("lib/b-2.0.jar", dependency.getEntryName());
+		assertEquals(HASH_B, dependency.getHash());
+		assertEquals(2000, dependency.getSize());
+		assertEquals(HASH_A, descriptor.getDependencies().get("a-1.0.jar").getHash());
+	}
+
+	@Test
+	public void rejectsMissingMainClass() throws IOException {
+		Attributes attributes = new Attributes();
+		attributes.putValue(ExecutableLauncher.MANIFEST_DEPENDENCY_LIBPATH, "lib/");
+		try {
+			writeAndRead(attributes, Collections.<DependencyCache.Dependency>emptyList());
+			fail("Descriptor without main class has been read");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void rejectsInvalidHashes() {
+		Attributes attributes = new Attributes();
+		attributes.putValue(ExecutableLauncher.MANIFEST_APPLICATION_MAIN_CLASS, "com.example.Main");
+		try {
+			LaunchDescriptor.write(new ByteArrayOutputStream(), attributes, Collections.singletonList(new DependencyCache.Dependency("lib/a-1.0.jar", "not a hash", 1000)));
+			fail("Descriptor with invalid hash has been written");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	private static LaunchDescriptor writeAndRead(Attributes attributes, List<DependencyCache.Dependency> dependencies) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		LaunchDescriptor.write(outputStream, attributes, dependencies);
+		return LaunchDescriptor.read(new ByteArrayInputStream(outputStream.toByteArray()));
+	}
+
+}
@@ -0,0 +1,301 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests invocations of a {@link LauncherDaemon} over its socket. The daemon runs without security manager, so <code>System.exit</code> is not tested.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class LauncherDaemonTest {
+	private static final String FINGERPRINT = "fingerprint";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	private PrintStream originalOut;
+	private PrintStream originalErr;
+	private InputStream originalIn;
+	/** The daemon's own stderr, which would otherwise clutter the build output */
+	private final ByteArrayOutputStream daemonErr = new ByteArrayOutputStream();
+	private File socketFile;
+	private Thread daemonThread;
+
+	@Before
+	public void startDaemon() throws Exception {
+		Assume.assumeTrue(LauncherDaemon.supportsUnixDomainSockets());
+		this.originalOut = System.out;
+		this.originalErr = System.err;
+		this.originalIn = System.in;
+		System.setErr(new PrintStream(this.daemonErr, true));
+		this.socketFile = new File(this.temporaryFolder.getRoot(), "test.sock");
+		final LauncherDaemon daemon = new LauncherDaemon(this.socketFile, FINGERPRINT, 60 * 1000L, this.getClass().getClassLoader(), TestMain.class.getName());
+		this.daemonThread = new Thread("launcher-daemon-test") {
+			@Override
+			public void run() {
+				try {
+					daemon.serve();
+				} catch(IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		this.daemonThread.start();
+		// the socket file exists shortly before the daemon listens on it
+		long deadline = System.currentTimeMillis() + 10 * 1000L;
+		SocketChannel channel;
+		while((channel = LauncherDaemon.connect(this.socketFile))==null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertNotNull("Daemon is not listening on its socket", channel);
+		channel.close();
+	}
+
+	@After
+	public void stopDaemon() throws Exception {
+		if(this.daemonThread==null) {
+			return;
+		}
+		try {
+			// a different fingerprint makes the daemon exit
+			assertEquals(LauncherDaemon.FRAME_REJECTED, new Client("other fingerprint").request("echo", "x"));
+			this.daemonThread.join(10 * 1000L);
+			assertTrue(!this.daemonThread.isAlive());
+			assertTrue(!this.socketFile.exists());
+		} finally {
+			System.setOut(this.originalOut);
+			System.setErr(this.originalErr);
+			System.setIn(this.originalIn);
+		}
+	}
+
+	@Test
+	public void forwardsStreamsAndExitCode() throws Exception {
+		Client client = new Client(FINGERPRINT);
+		assertEquals(LauncherDaemon.FRAME_ACCEPTED, client.request("echo", "first"));
+		assertEquals(0, client.forward("line 1\nline 2\n"));
+		assertEquals("out:first:line 1\nline 2\n", client.getStdout());
+		assertEquals("err:first", client.getStderr());
+
+		// invocations are independent of each other
+		client = new Client(FINGERPRINT);
+		assertEquals(LauncherDaemon.FRAME_ACCEPTED, client.request("echo", "second"));
+		assertEquals(0, client.forward(""));
+		assertEquals("out:second:", client.getStdout());
+		assertEquals("err:second", client.getStderr());
+	}
+
+	@Test
+	public void reportsUncaughtExceptions() throws Exception {
+		Client client = new Client(FINGERPRINT);
+		assertEquals(LauncherDaemon.FRAME_ACCEPTED, client.request("fail"));
+		assertEquals(1, client.forward(""));
+		assertEquals("", client.getStdout());
+		assertTrue(client.getStderr(), client.getStderr().startsWith("Exception in thread \"main\" java.lang.IllegalStateException: failed"));
+	}
+
+	@Test
+	public void waitsForNonDaemonThreads() throws Exception {
+		Client client = new Client(FINGERPRINT);
+		assertEquals(LauncherDaemon.FRAME_ACCEPTED, client.request("thread"));
+		assertEquals(0, client.forward(""));
+		assertEquals("main\nthread\n", client.getStdout());
+	}
+
+	@Test
+	public void refusesInvocationsWhileAnotherIsRunning() throws Exception {
+		// the invocation runs until its stdin has been forwarded
+		Client client = new Client(FINGERPRINT);
+		assertEquals(LauncherDaemon.FRAME_ACCEPTED, client.request("echo", "running"));
+		assertEquals(LauncherDaemon.FRAME_BUSY, new Client(FINGERPRINT).request("echo", "busy"));
+		assertTrue(this.getDaemonErr(), this.getDaemonErr().startsWith("Refusing invocation while another invocation is running"));
+		assertEquals(0, client.forward("input"));
+		assertEquals("out:running:input", client.getStdout());
+
+		client = new Client(FINGERPRINT);
+		assertEquals(LauncherDaemon.FRAME_ACCEPTED, client.request("echo", "again"));
+		assertEquals(0, client.forward(""));
+		assertEquals("out:again:", client.getStdout());
+	}
+
+	@Test
+	public void refusesInvocationsWhileThreadsOfEndedInvocationsAreAlive() throws Exception {
+		TestMain.leakedThreadLatch = new CountDownLatch(1);
+		Client client = new Client(FINGERPRINT);
+		try {
+			assertEquals(LauncherDaemon.FRAME_ACCEPTED, client.request("leak"));
+			assertEquals(0, client.forward(""));
+
+			assertEquals(LauncherDaemon.FRAME_BUSY, new Client(FINGERPRINT).request("echo", "busy"));
+			assertTrue(this.getDaemonErr(), this.getDaemonErr().startsWith("Refusing invocation while thread"));
+		} finally {
+			TestMain.leakedThreadLatch.countDown();
+		}
+		TestMain.leakedThread.join(10 * 1000L);
+		client = new Client(FINGERPRINT);
+		assertEquals(LauncherDaemon.FRAME_ACCEPTED, client.request("echo", "again"));
+		assertEquals(0, client.forward(""));
+		assertEquals("out:again:", client.getStdout());
+	}
+
+	@Test
+	public void checksDirectoryPermissions() throws Exception {
+		File directory = this.temporaryFolder.newFolder("daemon");
+		Assume.assumeNotNull(Files.getFileAttributeView(directory.toPath(), PosixFileAttributeView.class));
+		Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwx------"));
+		LauncherDaemon.checkDirectory(directory);
+
+		Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+		assertRefused(directory);
+		Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwx-----x"));
+		assertRefused(directory);
+
+		Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwx------"));
+		File link = new File(this.temporaryFolder.getRoot(), "link");
+		Files.createSymbolicLink(link.toPath(), directory.toPath());
+		assertRefused(link);
+	}
+
+	private static void assertRefused(File directory) {
+		try {
+			LauncherDaemon.checkDirectory(directory);
+			fail("Directory '" + directory + "' has been accepted");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	private String getDaemonErr() {
+		return new String(this.daemonErr.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Client side of a single invocation, collecting its output.
+	 */
+	private class Client {
+		private final String fingerprint;
+		private final SocketChannel channel;
+		private final DataOutputStream outputStream;
+		private final DataInputStream inputStream;
+		private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+		Client(String fingerprint) throws Exception {
+			this.fingerprint = fingerprint;
+			this.channel = LauncherDaemon.connect(LauncherDaemonTest.this.socketFile);
+			this.outputStream = new DataOutputStream(new BufferedOutputStream(new LauncherDaemon.ChannelOutputStream(this.channel)));
+			this.inputStream = new DataInputStream(new BufferedInputStream(new LauncherDaemon.ChannelInputStream(this.channel)));
+		}
+
+		int request(String... args) throws IOException {
+			try {
+				int answer = LauncherDaemon.requestInvocation(this.outputStream, this.inputStream, this.fingerprint, args);
+				if(answer!=LauncherDaemon.FRAME_ACCEPTED) {
+					this.channel.close();
+				}
+				return answer;
+			} catch(RuntimeException e) {
+				this.channel.close();
+				throw e;
+			}
+		}
+
+		int forward(String stdin) throws IOException {
+			try {
+				return LauncherDaemon.forwardInvocation(this.outputStream, this.inputStream, new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)), this.stdout, this.stderr);
+			} finally {
+				this.channel.close();
+			}
+		}
+
+		String getStdout() {
+			return new String(this.stdout.toByteArray(), StandardCharsets.UTF_8);
+		}
+
+		String getStderr() {
+			return new String(this.stderr.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Main class run by the daemon.
+	 */
+	public static class TestMain {
+		static volatile CountDownLatch leakedThreadLatch;
+		static volatile Thread leakedThread;
+
+		public static void main(String[] args) throws Exception {
+			if("echo".equals(args[0])) {
+				ByteArrayOutputStream stdin = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1024];
+				int count;
+				while((count = System.in.read(buffer))!=-1) {
+					stdin.write(buffer, 0, count);
+				}
+				System.out.print("out:" + args[1] + ":" + new String(stdin.toByteArray(), StandardCharsets.UTF_8));
+				System.err.print("err:" + args[1]);
+			} else if("fail".equals(args[0])) {
+				throw new IllegalStateException("failed");
+			} else if("thread".equals(args[0])) {
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						try {
+							Thread.sleep(200);
+						} catch(InterruptedException e) {
+							return;
+						}
+						System.out.println("thread");
+					}
+				};
+				thread.start();
+				System.out.println("main");
+			} else if("leak".equals(args[0])) {
+				// a daemon thread outliving its invocation, like a worker of a static executor
+				leakedThread = new Thread() {
+					@Override
+					public void run() {
+						while(true) {
+							try {
+								leakedThreadLatch.await();
+								return;
+							} catch(InterruptedException e) {
+								// keep running
+							}
+						}
+					}
+				};
+				leakedThread.setDaemon(true);
+				leakedThread.start();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class LauncherMetricsTest {
+
+	@Test
+	public void countsLookups() {
+		LauncherMetrics metrics = new LauncherMetrics();
+		metrics.recordClassLookup(100);
+		metrics.recordClassLookup(-1);
+		metrics.recordClassLookup(50);
+		metrics.recordResourceLookup(true);
+		metrics.recordResourceLookup(false);
+
+		assertEquals(3, metrics.getClassLookups());
+		assertEquals(1, metrics.getClassMisses());
+		assertEquals(150, metrics.getClassBytesRead());
+		assertEquals(2, metrics.getResourceLookups());
+		assertEquals(1, metrics.getResourceMisses());
+	}
+
+	@Test
+	public void reportsDurations() {
+		LauncherMetrics metrics = new LauncherMetrics();
+		assertEquals(-1, metrics.getLaunchMillis(), 0);
+		assertTrue(metrics.getReport().contains("\"launchMillis\": null"));
+
+		long startNanos = System.nanoTime();
+		metrics.recordPhase(LauncherMetrics.PHASE_MANIFEST_SCAN, startNanos);
+		metrics.recordJarOpen("first.jar", startNanos);
+		metrics.recordJarOpen("second.jar", startNanos);
+		metrics.recordLaunched();
+
+		assertTrue(metrics.getLaunchMillis() >= 0);
+		assertEquals(2, metrics.getOpenedJarCount());
+		String report = metrics.getReport();
+		assertTrue(report, Pattern.compile("\"launchMillis\": \\d+\\.\\d{3},").matcher(report).find());
+		assertTrue(report, Pattern.compile("\"phases\": \\{\n    \"manifestScan\": \\d+\\.\\d{3}\n  \\}").matcher(report).find());
+		assertTrue(report, Pattern.compile("\"jarOpenMillis\": \\{\n    \"first.jar\": \\d+\\.\\d{3},\n    \"second.jar\": \\d+\\.\\d{3}\n  \\}").matcher(report).find());
+	}
+
+	@Test
+	public void reportsValidJson() throws Exception {
+		LauncherMetrics metrics = new LauncherMetrics();
+		metrics.recordClassLookup(42);
+		metrics.recordManifestError(new URL("file:/app.jar"), new Exception("quote \" backslash \\ tab \t"));
+
+		assertEquals(1, metrics.getManifestErrorCount());
+		assertEquals("{\n"
+				+ "  \"launchMillis\": null,\n"
+				+ "  \"phases\": {},\n"
+				+ "  \"jarOpenMillis\": {},\n"
+				+ "  \"jarReopens\": 0,\n"
+				+ "  \"jarCloses\": 0,\n"
+				+ "  \"nativeLibraryLoads\": 0,\n"
+				+ "  \"nativeLibraryExtractions\": 0,\n"
+				+ "  \"classLookups\": 1,\n"
+				+ "  \"classMisses\": 0,\n"
+				+ "  \"classBytesRead\": 42,\n"
+				+ "  \"resourceLookups\": 0,\n"
+				+ "  \"resourceMisses\": 0,\n"
+				+ "  \"filteredLookups\": 0,\n"
+				+ "  \"filteredElements\": 0,\n"
+				+ "  \"filterFalsePositives\": 0,\n"
+				+ "  \"manifestErrors\": [\n"
+				+ "    \"file:/app.jar: java.lang.Exception: quote \\\" backslash \\\\ tab \\u0009\"\n"
+				+ "  ]\n"
+				+ "}", metrics.getReport());
+	}
+
+}
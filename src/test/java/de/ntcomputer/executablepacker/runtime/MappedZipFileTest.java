@@ -0,0 +1,259 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests reading ZIP files using {@link MappedZipFile}.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class MappedZipFileTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void readsStoredAndDeflatedEntries() throws IOException {
+		byte[] zip = createZip(ZipEntry.STORED, "a/stored.txt", bytes("stored content"), ZipEntry.DEFLATED, "a/deflated.txt", bytes("deflated content deflated content"));
+		MappedZipFile zipFile = new MappedZipFile("test.zip", ByteBuffer.wrap(zip));
+
+		assertEquals(2, zipFile.getEntries().size());
+		assertArrayEquals(bytes("stored content"), read(zipFile, "a/stored.txt"));
+		assertArrayEquals(bytes("deflated content deflated content"), read(zipFile, "a/deflated.txt"));
+		assertNull(zipFile.getEntry("a/missing.txt"));
+	}
+
+	@Test
+	public void opensStoredAndDeflatedNestedJars() throws IOException {
+		byte[] nestedJar = createZip(ZipEntry.STORED, "META-INF/MANIFEST.MF", bytes("Manifest-Version: 1.0\r\n"), ZipEntry.DEFLATED, "b/C.class", bytes("class content"));
+		byte[] outerJar = createZip(ZipEntry.STORED, "lib/stored.jar", nestedJar, ZipEntry.DEFLATED, "lib/deflated.jar", nestedJar);
+		File outerFile = this.temporaryFolder.newFile("outer.jar");
+		Files.write(outerFile.toPath(), outerJar);
+		MappedZipFile zipFile = MappedZipFile.map(outerFile);
+
+		for(String nestedName: new String[] { "lib/stored.jar", "lib/deflated.jar" }) {
+			MappedZipFile nestedZipFile = zipFile.openNested(zipFile.getEntry(nestedName));
+			assertEquals(outerFile.getPath() + "!/" + nestedName, nestedZipFile.getName());
+			assertArrayEquals(bytes("Manifest-Version: 1.0\r\n"), read(nestedZipFile, "META-INF/MANIFEST.MF"));
+			assertArrayEquals(bytes("class content"), read(nestedZipFile, "b/C.class"));
+		}
+		assertArrayEquals(nestedJar, read(zipFile, "lib/stored.jar"));
+		assertArrayEquals(nestedJar, read(zipFile, "lib/deflated.jar"));
+	}
+
+	@Test
+	public void readsZip64EndOfCentralDirectory() throws IOException {
+		// more than 65535 entries require the ZIP64 end of central directory record
+		int entryCount = 70000;
+		ByteArrayOutputStream zipOutputStream = new ByteArrayOutputStream();
+		ZipOutputStream outputStream = new ZipOutputStream(zipOutputStream);
+		for(int i=0; i<entryCount; i++) {
+			outputStream.putNextEntry(new ZipEntry("e" + i));
+			outputStream.write(bytes(Integer.toString(i)));
+			outputStream.closeEntry();
+		}
+		outputStream.close();
+		MappedZipFile zipFile = new MappedZipFile("many.zip", ByteBuffer.wrap(zipOutputStream.toByteArray()));
+
+		assertEquals(entryCount, zipFile.getEntries().size());
+		assertArrayEquals(bytes("0"), read(zipFile, "e0"));
+		assertArrayEquals(bytes(Integer.toString(entryCount - 1)), read(zipFile, "e" + (entryCount - 1)));
+	}
+
+	@Test
+	public void readsZip64ExtendedInformation() throws IOException {
+		byte[] content = bytes("zip64 content");
+		byte[] zip = createZip64(content);
+		// check the test data using the JDK's implementation
+		File file = this.temporaryFolder.newFile("zip64.zip");
+		Files.write(file.toPath(), zip);
+		ZipFile jdkZipFile = new ZipFile(file);
+		try {
+			assertEquals(content.length, jdkZipFile.getEntry("zip64.txt").getSize());
+		} finally {
+			jdkZipFile.close();
+		}
+
+		MappedZipFile zipFile = new MappedZipFile("zip64.zip", ByteBuffer.wrap(zip));
+		MappedZipFile.Entry entry = zipFile.getEntry("zip64.txt");
+		assertNotNull(entry);
+		assertEquals(content.length, entry.getSize());
+		assertEquals(content.length, entry.getCompressedSize());
+		assertArrayEquals(content, read(zipFile, "zip64.txt"));
+	}
+
+	@Test
+	public void rejectsInvalidLengthsAndOffsets() throws IOException {
+		byte[] zip = createZip64(bytes("zip64 content"));
+		int directoryOffset = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).getInt(zip.length - 22 - 20 - 56 + 48);
+		ByteBuffer corruptZip = ByteBuffer.wrap(zip.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		// the name exceeds the central directory
+		corruptZip.putShort(directoryOffset + 28, (short) 0xFFFF);
+		assertRejected(corruptZip.array());
+
+		corruptZip = ByteBuffer.wrap(zip.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		// the ZIP64 extended information is shorter than the fields it replaces
+		corruptZip.putShort(directoryOffset + 46 + 9 + 2, (short) 8);
+		assertRejected(corruptZip.array());
+
+		corruptZip = ByteBuffer.wrap(zip.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		// the local header offset is negative
+		corruptZip.putLong(directoryOffset + 46 + 9 + 4 + 16, -1);
+		assertRejected(corruptZip.array());
+
+		corruptZip = ByteBuffer.wrap(zip.clone()).order(ByteOrder.LITTLE_ENDIAN);
+		// the ZIP64 end of central directory record overlaps its locator
+		corruptZip.putLong(zip.length - 22 - 20 + 8, zip.length - 22 - 20 - 4);
+		corruptZip.putInt(zip.length - 22 - 20 - 4, 0x06064b50);
+		assertRejected(corruptZip.array());
+	}
+
+	@Test
+	public void rejectsCorruptFilesWithZipException() throws IOException {
+		byte[] zip = createZip(ZipEntry.STORED, "a/stored.txt", bytes("stored content"), ZipEntry.DEFLATED, "a/deflated.txt", bytes("deflated content deflated content"));
+		byte[] zip64 = createZip64(bytes("zip64 content"));
+		for(byte[] validZip: new byte[][] { zip, zip64 }) {
+			for(int length=0; length<validZip.length; length++) {
+				readCorrupt(Arrays.copyOf(validZip, length));
+			}
+			for(int i=0; i<validZip.length; i++) {
+				for(int value: new int[] { 0x00, 0x7F, 0x80, 0xFF }) {
+					byte[] corruptZip = validZip.clone();
+					corruptZip[i] = (byte) value;
+					readCorrupt(corruptZip);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads all entries of a corrupt ZIP file, which may only fail with an {@link IOException}.
+	 */
+	private static void readCorrupt(byte[] zip) {
+		try {
+			MappedZipFile zipFile = new MappedZipFile("corrupt.zip", ByteBuffer.wrap(zip));
+			for(MappedZipFile.Entry entry: zipFile.getEntries()) {
+				entry.getTime();
+				read(zipFile, entry.getName());
+			}
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	private static void assertRejected(byte[] zip) throws IOException {
+		try {
+			MappedZipFile zipFile = new MappedZipFile("corrupt.zip", ByteBuffer.wrap(zip));
+			read(zipFile, "zip64.txt");
+			fail("Corrupt ZIP file has been read");
+		} catch(ZipException e) {
+			// expected
+		}
+	}
+
+	private static byte[] createZip(int method1, String name1, byte[] content1, int method2, String name2, byte[] content2) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		ZipOutputStream outputStream = new ZipOutputStream(result);
+		putEntry(outputStream, method1, name1, content1);
+		putEntry(outputStream, method2, name2, content2);
+		outputStream.close();
+		return result.toByteArray();
+	}
+
+	private static void putEntry(ZipOutputStream outputStream, int method, String name, byte[] content) throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(method);
+		if(method==ZipEntry.STORED) {
+			CRC32 crc = new CRC32();
+			crc.update(content);
+			entry.setSize(content.length);
+			entry.setCompressedSize(content.length);
+			entry.setCrc(crc.getValue());
+		}
+		outputStream.putNextEntry(entry);
+		outputStream.write(content);
+		outputStream.closeEntry();
+	}
+
+	/**
+	 * @return a ZIP file with a single stored entry, whose sizes and offset are only given in ZIP64 extended information fields
+	 */
+	private static byte[] createZip64(byte[] content) {
+		byte[] name = bytes("zip64.txt");
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+		// local header
+		buffer.putInt(0x04034b50).putShort((short) 45).putShort((short) 0).putShort((short) ZipEntry.STORED).putShort((short) 0).putShort((short) 0x21);
+		buffer.putInt((int) crc.getValue()).putInt(0xFFFFFFFF).putInt(0xFFFFFFFF).putShort((short) name.length).putShort((short) 20);
+		buffer.put(name).putShort((short) 0x0001).putShort((short) 16).putLong(content.length).putLong(content.length);
+		buffer.put(content);
+
+		// central directory
+		int directoryOffset = buffer.position();
+		buffer.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0).putShort((short) ZipEntry.STORED).putShort((short) 0).putShort((short) 0x21);
+		buffer.putInt((int) crc.getValue()).putInt(0xFFFFFFFF).putInt(0xFFFFFFFF).putShort((short) name.length).putShort((short) 28).putShort((short) 0);
+		buffer.putShort((short) 0).putShort((short) 0).putInt(0).putInt(0xFFFFFFFF);
+		buffer.put(name).putShort((short) 0x0001).putShort((short) 24).putLong(content.length).putLong(content.length).putLong(0);
+		int directorySize = buffer.position() - directoryOffset;
+
+		// ZIP64 end of central directory record and locator
+		int zip64EndOffset = buffer.position();
+		buffer.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0);
+		buffer.putLong(1).putLong(1).putLong(directorySize).putLong(directoryOffset);
+		buffer.putInt(0x07064b50).putInt(0).putLong(zip64EndOffset).putInt(1);
+
+		// end of central directory record
+		buffer.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) 0xFFFF).putShort((short) 0xFFFF);
+		buffer.putInt(0xFFFFFFFF).putInt(0xFFFFFFFF).putShort((short) 0);
+
+		byte[] result = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(result);
+		return result;
+	}
+
+	private static byte[] read(MappedZipFile zipFile, String entryName) throws IOException {
+		InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(entryName));
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while((count = inputStream.read(buffer))!=-1) {
+				result.write(buffer, 0, count);
+			}
+			return result.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+}
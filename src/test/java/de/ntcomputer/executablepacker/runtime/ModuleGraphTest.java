@@ -0,0 +1,102 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests reading and writing a {@link ModuleGraph}, and defining a module layer from it.
+ *
+ * @author Nikolaus Thuemmel
+ *
+ */
+public class ModuleGraphTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void readsWrittenGraph() throws IOException {
+		ModuleGraph graph = new ModuleGraph(Arrays.asList(
+				new ModuleGraph.Module("com.example.api", false, "api-1.0.jar"),
+				new ModuleGraph.Module("legacy", true, "legacy-2.0.jar")));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		graph.write(outputStream);
+		assertEquals("com.example.api\texplicit\tapi-1.0.jar\nlegacy\tautomatic\tlegacy-2.0.jar\n", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+		ModuleGraph readGraph = ModuleGraph.read(new ByteArrayInputStream(outputStream.toByteArray()));
+		assertEquals(2, readGraph.getModules().size());
+		assertEquals("com.example.api", readGraph.getModules().get(0).getName());
+		assertFalse(readGraph.getModules().get(0).isAutomatic());
+		ModuleGraph.Module module = readGraph.getModule("legacy-2.0.jar");
+		assertEquals("legacy", module.getName());
+		assertTrue(module.isAutomatic());
+		assertSame(module, readGraph.getModules().get(1));
+		assertNull(readGraph.getModule("other-1.0.jar"));
+	}
+
+	@Test
+	public void rejectsInvalidGraph() throws IOException {
+		for(String content: new String[] { "com.example.api\texplicit\n", "com.example.api\tunnamed\tapi-1.0.jar\n" }) {
+			try {
+				ModuleGraph.read(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+				fail("Invalid graph has been read: " + content);
+			} catch(IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void definesLayer() throws Exception {
+		Assume.assumeTrue(ModuleGraph.isSupported());
+		File moduleFile = this.temporaryFolder.newFile("fixture.jar");
+		FixtureJars.write(moduleFile, Fixture.class);
+		ModuleGraph graph = new ModuleGraph(Collections.singletonList(new ModuleGraph.Module("fixture", true, moduleFile.getName())));
+
+		ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+		ClassLoader layerClassLoader = graph.defineLayer(Collections.singletonList(moduleFile), parent);
+		assertSame(parent, layerClassLoader.getParent());
+		Class<?> fixtureClass = layerClassLoader.loadClass(Fixture.class.getName());
+		assertNotSame(Fixture.class, fixtureClass);
+		Object module = Class.class.getMethod("getModule").invoke(fixtureClass);
+		assertEquals("fixture", module.getClass().getMethod("getName").invoke(module));
+	}
+
+	@Test
+	public void rejectsUnresolvableGraph() throws IOException {
+		Assume.assumeTrue(ModuleGraph.isSupported());
+		File moduleFile = this.temporaryFolder.newFile("fixture.jar");
+		FixtureJars.write(moduleFile, Fixture.class);
+		ModuleGraph graph = new ModuleGraph(Collections.singletonList(new ModuleGraph.Module("missing", true, moduleFile.getName())));
+		try {
+			graph.defineLayer(Collections.singletonList(moduleFile), ClassLoader.getSystemClassLoader().getParent());
+			fail("Module layer has been defined without its module");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Class loaded from the module layer.
+	 */
+	public static class Fixture {
+	}
+
+}
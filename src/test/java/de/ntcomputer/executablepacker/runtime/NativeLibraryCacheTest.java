@@ -0,0 +1,160 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NativeLibraryCacheTest {
+	private static final String CURRENT_OPERATING_SYSTEM = NativeLibraryCache.getOperatingSystem(System.getProperty("os.name", ""));
+	private static final String CURRENT_ARCHITECTURE = NativeLibraryCache.getArchitecture(System.getProperty("os.arch", ""));
+	private static final String OTHER_OPERATING_SYSTEM = "linux".equals(CURRENT_OPERATING_SYSTEM)? "windows" : "linux";
+	private static final String LIBRARY_FILE_NAME = System.mapLibraryName("example");
+	private static final byte[] LIBRARY_CONTENT = "native library content".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void detectsPlatforms() {
+		assertEquals("linux", NativeLibraryCache.getOperatingSystem("natives/linux-x86_64/libexample.so"));
+		assertEquals("windows", NativeLibraryCache.getOperatingSystem("natives/example.dll"));
+		assertEquals("macos", NativeLibraryCache.getOperatingSystem("natives/libexample.dylib"));
+		assertEquals("macos", NativeLibraryCache.getOperatingSystem("darwin/libexample.so"));
+		assertEquals("linux", NativeLibraryCache.getOperatingSystem("Linux"));
+		assertEquals("windows", NativeLibraryCache.getOperatingSystem("Windows 10"));
+		assertEquals(NativeLibraryCache.ANY_PLATFORM, NativeLibraryCache.getOperatingSystem("natives/libexample.so"));
+		// operating system names within other words are ignored
+		assertEquals(NativeLibraryCache.ANY_PLATFORM, NativeLibraryCache.getOperatingSystem("twin/libexample.so"));
+
+		assertEquals("x86_64", NativeLibraryCache.getArchitecture("natives/linux-x86-64/libexample.so"));
+		assertEquals("x86_64", NativeLibraryCache.getArchitecture("amd64"));
+		assertEquals("x86_64", NativeLibraryCache.getArchitecture("natives/linux64/libexample.so"));
+		assertEquals("aarch64", NativeLibraryCache.getArchitecture("natives/linux-aarch64/libexample.so"));
+		assertEquals("x86", NativeLibraryCache.getArchitecture("natives/win32-x86/example.dll"));
+		assertEquals("x86", NativeLibraryCache.getArchitecture("i686"));
+		assertEquals("arm", NativeLibraryCache.getArchitecture("natives/linux-armv7/libexample.so"));
+		assertEquals(NativeLibraryCache.ANY_PLATFORM, NativeLibraryCache.getArchitecture("natives/libexample.so"));
+	}
+
+	@Test
+	public void detectsNativeLibraries() {
+		assertTrue(NativeLibraryCache.isNativeLibrary("natives/libexample.so"));
+		assertTrue(NativeLibraryCache.isNativeLibrary("EXAMPLE.DLL"));
+		assertTrue(NativeLibraryCache.isNativeLibrary("libexample.jnilib"));
+		assertFalse(NativeLibraryCache.isNativeLibrary("natives/.so"));
+		assertFalse(NativeLibraryCache.isNativeLibrary("natives/example.txt"));
+	}
+
+	@Test
+	public void prefersLibrariesOfCurrentPlatform() {
+		NativeLibraryCache.NativeLibrary other = createLibrary("other.jar", OTHER_OPERATING_SYSTEM, CURRENT_ARCHITECTURE);
+		NativeLibraryCache.NativeLibrary any = createLibrary("any.jar", NativeLibraryCache.ANY_PLATFORM, NativeLibraryCache.ANY_PLATFORM);
+		NativeLibraryCache.NativeLibrary current = createLibrary("current.jar", CURRENT_OPERATING_SYSTEM, CURRENT_ARCHITECTURE);
+		NativeLibraryCache.NativeLibrary secondCurrent = createLibrary("second.jar", CURRENT_OPERATING_SYSTEM, CURRENT_ARCHITECTURE);
+
+		assertSame(current, createCache(other, any, current, secondCurrent).find("example"));
+		assertSame(any, createCache(other, any).find("example"));
+		assertNull(createCache(other).find("example"));
+		assertNull(createCache(current).find("other"));
+	}
+
+	@Test
+	public void extractsLibraries() throws IOException {
+		ClassPathElement element = this.createElement("natives/" + LIBRARY_FILE_NAME, LIBRARY_CONTENT);
+		NativeLibraryCache.NativeLibrary library = createLibrary(element.getName(), NativeLibraryCache.ANY_PLATFORM, NativeLibraryCache.ANY_PLATFORM);
+		File directory = new File(this.temporaryFolder.getRoot(), "native");
+		NativeLibraryCache cache = new NativeLibraryCache(directory, Collections.singletonList(library));
+
+		File file = cache.get(library, element);
+		assertEquals(new File(new File(directory, library.getHash()), LIBRARY_FILE_NAME), file);
+		assertArrayEquals(LIBRARY_CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(1, file.getParentFile().list().length);
+
+		// cached libraries are not extracted again
+		long lastModified = 1500000000000L;
+		assertTrue(file.setLastModified(lastModified));
+		assertEquals(file, cache.get(library, element));
+		assertEquals(lastModified, file.lastModified());
+	}
+
+	@Test
+	public void rejectsMismatchingLibraries() throws IOException {
+		ClassPathElement element = this.createElement("natives/" + LIBRARY_FILE_NAME, "modified content".getBytes(StandardCharsets.UTF_8));
+		NativeLibraryCache.NativeLibrary library = createLibrary(element.getName(), NativeLibraryCache.ANY_PLATFORM, NativeLibraryCache.ANY_PLATFORM);
+		NativeLibraryCache cache = new NativeLibraryCache(new File(this.temporaryFolder.getRoot(), "native"), Collections.singletonList(library));
+		try {
+			cache.get(library, element);
+			fail("Mismatching library extracted");
+		} catch(IOException e) {
+			// expected
+		}
+		assertEquals(0, new File(this.temporaryFolder.getRoot(), "native/" + library.getHash()).list().length);
+	}
+
+	@Test
+	public void listRoundTrip() throws IOException {
+		List<NativeLibraryCache.NativeLibrary> libraries = Arrays.asList(
+				createLibrary("first.jar", "linux", "x86_64"),
+				createLibrary(JarInJarIndex.ROOT_ELEMENT_NAME, NativeLibraryCache.ANY_PLATFORM, NativeLibraryCache.ANY_PLATFORM));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		NativeLibraryCache.write(outputStream, libraries);
+
+		List<NativeLibraryCache.NativeLibrary> result = NativeLibraryCache.read(new ByteArrayInputStream(outputStream.toByteArray()));
+		assertEquals(2, result.size());
+		for(int i=0; i<libraries.size(); i++) {
+			assertEquals(libraries.get(i).toString(), result.get(i).toString());
+			assertEquals(libraries.get(i).getHash(), result.get(i).getHash());
+			assertEquals(libraries.get(i).getSize(), result.get(i).getSize());
+		}
+	}
+
+	private ClassPathElement createElement(String entryName, byte[] content) throws IOException {
+		File jarFile = this.temporaryFolder.newFile("natives.jar");
+		JarOutputStream outputStream = new JarOutputStream(new FileOutputStream(jarFile));
+		try {
+			outputStream.putNextEntry(new JarEntry(entryName));
+			outputStream.write(content);
+		} finally {
+			outputStream.close();
+		}
+		URL fileURL = jarFile.toURI().toURL();
+		URL baseURL = new URL("jar:" + fileURL + "!/");
+		return new JarFileClassPathElement(jarFile.getName(), baseURL, fileURL, baseURL);
+	}
+
+	private static NativeLibraryCache createCache(NativeLibraryCache.NativeLibrary... libraries) {
+		return new NativeLibraryCache(new File("unused"), Arrays.asList(libraries));
+	}
+
+	private static NativeLibraryCache.NativeLibrary createLibrary(String elementName, String operatingSystem, String architecture) {
+		try {
+			String hash = DependencyCache.hash(new ByteArrayInputStream(LIBRARY_CONTENT), null);
+			return new NativeLibraryCache.NativeLibrary(elementName, "natives/" + LIBRARY_FILE_NAME, operatingSystem, architecture, hash, LIBRARY_CONTENT.length);
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
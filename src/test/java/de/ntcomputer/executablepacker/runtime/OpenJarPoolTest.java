@@ -0,0 +1,187 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.jar.JarEntry;
+import java.util.jar.Manifest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OpenJarPoolTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void closesLeastRecentlyUsedJars() {
+		OpenJarPool pool = new OpenJarPool(2, 0);
+		TestElement first = new TestElement("first");
+		TestElement second = new TestElement("second");
+		TestElement third = new TestElement("third");
+		first.access(pool);
+		second.access(pool);
+		first.access(pool);
+		third.access(pool);
+
+		assertTrue(first.isJarOpen());
+		assertFalse(second.isJarOpen());
+		assertTrue(third.isJarOpen());
+		assertEquals(2, pool.getOpenJarCount());
+	}
+
+	@Test
+	public void keepsJarsInUse() {
+		OpenJarPool pool = new OpenJarPool(1, 0);
+		TestElement first = new TestElement("first");
+		TestElement second = new TestElement("second");
+		first.access(pool);
+		first.inUse = true;
+		second.access(pool);
+
+		// the pool exceeds its bound until the JAR is not used anymore
+		assertTrue(first.isJarOpen());
+		assertTrue(second.isJarOpen());
+		assertEquals(2, pool.getOpenJarCount());
+
+		first.inUse = false;
+		second.access(pool);
+		assertFalse(first.isJarOpen());
+		assertEquals(1, pool.getOpenJarCount());
+	}
+
+	@Test
+	public void keepsAllJarsWithoutLimit() {
+		OpenJarPool pool = new OpenJarPool(0, 0);
+		for(int i=0; i<100; i++) {
+			new TestElement("element" + i).access(pool);
+		}
+		assertEquals(100, pool.getOpenJarCount());
+	}
+
+	@Test
+	public void closesIdleJars() throws InterruptedException {
+		OpenJarPool pool = new OpenJarPool(0, 20);
+		TestElement element = new TestElement("element");
+		element.access(pool);
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while(element.isJarOpen() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(element.isJarOpen());
+		assertEquals(0, pool.getOpenJarCount());
+	}
+
+	@Test
+	public void rejectsNegativeLimits() {
+		try {
+			new OpenJarPool(-1, 0);
+			fail("Negative limit accepted");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void reopensClosedJarFiles() throws IOException {
+		OpenJarPool pool = new OpenJarPool(1, 0);
+		JarFileClassPathElement first = this.createJarElement("first.jar");
+		JarFileClassPathElement second = this.createJarElement("second.jar");
+		first.setPool(pool);
+		second.setPool(pool);
+
+		String name = getEntryName(OpenJarPoolTest.class);
+		JarEntry entry = first.getEntry(name);
+		assertNotNull(entry);
+		InputStream inputStream = first.getInputStream(entry);
+		try {
+			// JARs are not closed while streams read from them are open
+			assertNotNull(second.getEntry(name));
+			assertTrue(first.isJarOpen());
+		} finally {
+			inputStream.close();
+		}
+		assertNotNull(second.getEntry(name));
+		assertFalse(first.isJarOpen());
+
+		// entries of closed JAR files can still be read
+		inputStream = first.getInputStream(entry);
+		try {
+			assertTrue(inputStream.read() >= 0);
+		} finally {
+			inputStream.close();
+		}
+		assertTrue(first.isJarOpen());
+		assertFalse(second.isJarOpen());
+	}
+
+	private JarFileClassPathElement createJarElement(String name) throws IOException {
+		File jarFile = this.temporaryFolder.newFile(name);
+		FixtureJars.write(jarFile, OpenJarPoolTest.class);
+		URL fileURL = jarFile.toURI().toURL();
+		URL baseURL = new URL("jar:" + fileURL + "!/");
+		return new JarFileClassPathElement(name, baseURL, fileURL, baseURL);
+	}
+
+	private static String getEntryName(Class<?> fixtureClass) {
+		return fixtureClass.getName().replace('.', '/') + ".class";
+	}
+
+	/**
+	 * Element which only tracks whether its JAR is open.
+	 */
+	private static class TestElement extends ClassPathElement {
+		private volatile boolean open;
+		private volatile boolean inUse;
+
+		TestElement(String name) {
+			super(name, null, null);
+		}
+
+		void access(OpenJarPool pool) {
+			this.setPool(pool);
+			this.open = true;
+			this.recordAccess();
+		}
+
+		@Override
+		public boolean isJarOpen() {
+			return this.open;
+		}
+
+		@Override
+		public boolean closeJar() {
+			if(!this.open || this.inUse) {
+				return false;
+			}
+			this.open = false;
+			return true;
+		}
+
+		@Override
+		public JarEntry getEntry(String name) {
+			return null;
+		}
+
+		@Override
+		public InputStream getInputStream(JarEntry entry) throws IOException {
+			throw new IOException("No entries");
+		}
+
+		@Override
+		protected Manifest readManifest() {
+			return null;
+		}
+	}
+
+}
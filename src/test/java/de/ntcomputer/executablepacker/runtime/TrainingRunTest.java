@@ -0,0 +1,40 @@
+package de.ntcomputer.executablepacker.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrainingRunTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void recordsLoadedClasses() throws Exception {
+		JarInJarClassLoader classLoader = FixtureJars.createClassLoader(this.temporaryFolder.newFile("fixture.jar"), Fixture.class, Fixture.Dependency.class);
+		try {
+			classLoader.loadClass(Fixture.class.getName());
+			assertEquals(Collections.emptyList(), classLoader.getLoadedClasses());
+
+			classLoader.recordLoadedClasses();
+			Class<?> dependencyClass = classLoader.loadClass(Fixture.Dependency.class.getName());
+			assertNotSame(Fixture.Dependency.class, dependencyClass);
+			assertEquals(Arrays.<Class<?>>asList(dependencyClass), classLoader.getLoadedClasses());
+		} finally {
+			classLoader.close();
+		}
+	}
+
+	public static class Fixture {
+
+		public static class Dependency {
+		}
+	}
+
+}